@@ -0,0 +1,88 @@
+package com.watabelabs.gepg.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.watabelabs.gepg.utils.MessageUtil;
+import com.watabelabs.gepg.utils.XmlUtil;
+
+/**
+ * Benchmarks the four steps every GePG message goes through: marshalling the
+ * content, signing it, verifying a received payload and unmarshalling it.
+ * Each mapper family extends this with its own content and size parameters.
+ *
+ * @param <T> the type of the content
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public abstract class AbstractMessageBenchmark<T> {
+
+    private MessageUtil messageUtil;
+    private T content;
+    private Class<T> contentClass;
+    private String canonicalXml;
+    private String signedPayload;
+
+    /**
+     * Creates the content to benchmark, using the size parameters of the
+     * subclass.
+     *
+     * @return the content
+     */
+    protected abstract T createContent();
+
+    @Setup(Level.Trial)
+    @SuppressWarnings("unchecked")
+    public void setup() throws Exception {
+        messageUtil = BenchmarkFixtures.messageUtil();
+        content = createContent();
+        contentClass = (Class<T>) content.getClass();
+        canonicalXml = XmlUtil.convertToXmlStringWithoutDeclaration(content);
+        signedPayload = messageUtil.signPayload(content);
+
+        // Fail fast instead of measuring a broken round trip
+        if (!messageUtil.verify(signedPayload, contentClass)) {
+            throw new IllegalStateException("Signed payload does not verify for " + contentClass.getSimpleName());
+        }
+    }
+
+    @Benchmark
+    public String marshal() throws Exception {
+        return XmlUtil.convertToXmlStringWithoutDeclaration(content);
+    }
+
+    @Benchmark
+    public String sign() throws Exception {
+        return messageUtil.sign(canonicalXml, contentClass);
+    }
+
+    @Benchmark
+    public String signPayload() throws Exception {
+        return messageUtil.signPayload(content);
+    }
+
+    @Benchmark
+    public boolean verify() throws Exception {
+        return messageUtil.verify(signedPayload, contentClass);
+    }
+
+    @Benchmark
+    public T unmarshal() throws Exception {
+        return MessageUtil.unwrapAndConvertToPojo(signedPayload, contentClass);
+    }
+}
@@ -0,0 +1,161 @@
+package com.watabelabs.gepg.benchmarks;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.watabelabs.gepg.GepgApiClient;
+import com.watabelabs.gepg.config.GepgConfig;
+import com.watabelabs.gepg.mappers.bill.requests.GepgBillCanclReq;
+import com.watabelabs.gepg.mappers.bill.requests.GepgBillControlNoReuse;
+import com.watabelabs.gepg.mappers.bill.requests.GepgBillHdr;
+import com.watabelabs.gepg.mappers.bill.requests.GepgBillItem;
+import com.watabelabs.gepg.mappers.bill.requests.GepgBillSubReq;
+import com.watabelabs.gepg.mappers.bill.requests.GepgBillTrxInf;
+import com.watabelabs.gepg.mappers.payment.requests.GepgPmtSpInfo;
+import com.watabelabs.gepg.mappers.payment.requests.GepgPymtTrxInf;
+import com.watabelabs.gepg.mappers.reconciliation.requests.GepgReconcBatchInfo;
+import com.watabelabs.gepg.mappers.reconciliation.requests.GepgReconcTrans;
+import com.watabelabs.gepg.mappers.reconciliation.requests.GepgReconcTrxInf;
+import com.watabelabs.gepg.mappers.reconciliation.responses.GepgSpReconcResp;
+import com.watabelabs.gepg.utils.MessageUtil;
+
+/**
+ * Keys and payloads shared by the benchmarks.
+ *
+ * <p>
+ * The keys are the ones in {@code test-keys/}, located through the
+ * {@code gepg.keys.dir} system property that the build sets, so the
+ * benchmarks need no {@code .env} file. Only the submission benchmark uses the
+ * network, and it talks to a local stub server.
+ * </p>
+ */
+final class BenchmarkFixtures {
+
+    private static final String KEYS_DIR = System.getProperty("gepg.keys.dir", "../test-keys");
+    private static final String KEYSTORE_PASSWORD = "passpass";
+    private static final String KEY_ALIAS = "gepgclient";
+
+    private BenchmarkFixtures() {
+    }
+
+    /**
+     * Creates a {@link MessageUtil} bound to the test keys.
+     *
+     * @return the message util
+     */
+    static MessageUtil messageUtil() {
+        return new MessageUtil(
+                new File(KEYS_DIR, "private-key.pfx").getPath(),
+                new File(KEYS_DIR, "public-key.pfx").getPath(),
+                KEYSTORE_PASSWORD,
+                KEY_ALIAS,
+                KEY_ALIAS,
+                KEYSTORE_PASSWORD,
+                "PKCS12",
+                "SHA1withRSA");
+    }
+
+    /**
+     * Creates a {@link GepgApiClient} that submits to the given URL and signs
+     * with the test keys.
+     *
+     * @param apiUrl the base URL of the GePG API
+     * @return the client
+     */
+    static GepgApiClient client(String apiUrl) {
+        return new GepgApiClient(config(apiUrl).build());
+    }
+
+    /**
+     * Returns a configuration that submits to the given URL and signs with the
+     * test keys, for benchmarks that change other settings.
+     *
+     * @param apiUrl the base URL of the GePG API
+     * @return the configuration builder
+     */
+    static GepgConfig.Builder config(String apiUrl) {
+        return GepgConfig.builder()
+                .apiUrl(apiUrl)
+                .gepgCode("SP19988")
+                .privateKeystore(new File(KEYS_DIR, "private-key.pfx").getPath(), KEYSTORE_PASSWORD, KEY_ALIAS)
+                .publicKeystore(new File(KEYS_DIR, "public-key.pfx").getPath(), KEYSTORE_PASSWORD, KEY_ALIAS);
+    }
+
+    /**
+     * Creates a bill submission with the given number of bill items.
+     *
+     * @param itemCount the number of bill items
+     * @return the bill
+     */
+    static GepgBillSubReq bill(int itemCount) {
+        return new GepgBillSubReq(new GepgBillHdr("SP023", true), billTrxInf(itemCount));
+    }
+
+    /**
+     * Creates a control number reuse request with the given number of bill items.
+     *
+     * @param itemCount the number of bill items
+     * @return the request
+     */
+    static GepgBillControlNoReuse controlNumberReuse(int itemCount) {
+        GepgBillTrxInf trxInf = billTrxInf(itemCount);
+        trxInf.setPayCntrNum("995120001234");
+        return new GepgBillControlNoReuse(new GepgBillHdr("SP023", true), trxInf);
+    }
+
+    /**
+     * Creates a bill cancellation request for the given number of bills.
+     *
+     * @param billCount the number of bill ids to cancel
+     * @return the request
+     */
+    static GepgBillCanclReq cancellation(int billCount) {
+        List<String> billIds = new ArrayList<>(billCount);
+        for (int i = 0; i < billCount; i++) {
+            billIds.add("BILL" + (100000 + i));
+        }
+        return new GepgBillCanclReq("SP023", "LHOTEL001", "Duplicate bills", billIds);
+    }
+
+    /**
+     * Creates a payment notification. A notification always carries a single
+     * transaction, so it has no size parameter.
+     *
+     * @return the payment notification
+     */
+    static GepgPmtSpInfo payment() {
+        return new GepgPmtSpInfo(new GepgPymtTrxInf("TRX123", "SP023", "REF123", "BILL100000", "995120001234",
+                7885.0, 7885.0, "1", "TZS", "2017-05-30T10:00:01", "MPESA", "0699210053", "Charles Palapala",
+                "charles.palapala@test.go.tz", "RCPT123", "Vodacom", "0150000000"));
+    }
+
+    /**
+     * Creates a reconciliation response with the given number of transactions.
+     *
+     * @param trxCount the number of reconciled transactions
+     * @return the reconciliation response
+     */
+    static GepgSpReconcResp reconciliation(int trxCount) {
+        List<GepgReconcTrxInf> transactions = new ArrayList<>(trxCount);
+        for (int i = 0; i < trxCount; i++) {
+            transactions.add(new GepgReconcTrxInf("BILL" + (100000 + i), 995120000000L + i, "PSPTRX" + i, 7885.0,
+                    "TZS", "REF" + i, "2017-05-30T10:00:01", "0150000000", "MPESA", "Vodacom", "PSP001",
+                    "0699210053", "Charles Palapala", "charles.palapala@test.go.tz", "Paid in full", null, null,
+                    null));
+        }
+        return new GepgSpReconcResp(new GepgReconcBatchInfo(1020L, "SP023", "Test Service Provider", "7101"),
+                new GepgReconcTrans(transactions));
+    }
+
+    private static GepgBillTrxInf billTrxInf(int itemCount) {
+        List<GepgBillItem> items = new ArrayList<>(itemCount);
+        for (int i = 0; i < itemCount; i++) {
+            items.add(new GepgBillItem("ITEM" + (100000 + i), "N", 7885.0, 7885.0, 0.0, "140206"));
+        }
+        return new GepgBillTrxInf("BILL100000", "2001", "LHOTEL001", 7885.0 * itemCount, 0.0,
+                "2017-05-30T10:00:01", "Palapala", "Charles Palapala", "Bill Number 7885", "2017-02-22T10:00:10",
+                "100", "Hashim", "0699210053", "charles.palapala@test.go.tz", "TZS", 7885.0 * itemCount, true, 1,
+                items);
+    }
+}
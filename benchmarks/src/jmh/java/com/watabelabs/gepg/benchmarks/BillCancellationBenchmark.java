@@ -0,0 +1,19 @@
+package com.watabelabs.gepg.benchmarks;
+
+import org.openjdk.jmh.annotations.Param;
+
+import com.watabelabs.gepg.mappers.bill.requests.GepgBillCanclReq;
+
+/**
+ * Benchmarks a bill cancellation request by number of bills cancelled.
+ */
+public class BillCancellationBenchmark extends AbstractMessageBenchmark<GepgBillCanclReq> {
+
+    @Param({ "1", "10", "100" })
+    public int billCount;
+
+    @Override
+    protected GepgBillCanclReq createContent() {
+        return BenchmarkFixtures.cancellation(billCount);
+    }
+}
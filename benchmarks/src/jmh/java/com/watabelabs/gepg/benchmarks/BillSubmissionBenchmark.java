@@ -0,0 +1,19 @@
+package com.watabelabs.gepg.benchmarks;
+
+import org.openjdk.jmh.annotations.Param;
+
+import com.watabelabs.gepg.mappers.bill.requests.GepgBillSubReq;
+
+/**
+ * Benchmarks a bill submission by bill item count.
+ */
+public class BillSubmissionBenchmark extends AbstractMessageBenchmark<GepgBillSubReq> {
+
+    @Param({ "1", "10", "100" })
+    public int itemCount;
+
+    @Override
+    protected GepgBillSubReq createContent() {
+        return BenchmarkFixtures.bill(itemCount);
+    }
+}
@@ -0,0 +1,114 @@
+package com.watabelabs.gepg.benchmarks;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.watabelabs.gepg.GepgApiClient;
+import com.watabelabs.gepg.http.JdkHttpTransport;
+import com.watabelabs.gepg.mappers.bill.acks.GepgBillSubReqAck;
+import com.watabelabs.gepg.utils.MessageUtil;
+import com.watabelabs.gepg.utils.VirtualThreads;
+
+/**
+ * Measures how long a burst of concurrent blocking {@code submitBill} calls
+ * takes against a local stub GePG that answers after {@code latencyMillis},
+ * with the calls running on a pool of {@link #PLATFORM_THREADS} platform
+ * threads or on one virtual thread each.
+ *
+ * <p>
+ * Every call holds its thread for the whole round trip, so the platform pool
+ * finishes a burst in about {@code concurrency / PLATFORM_THREADS} round trips
+ * while virtual threads finish it in about one. The HTTP transport is sized to
+ * the burst, and so is the configured pool size that bounds the endpoint's
+ * concurrency limit, so neither is the limit. The {@code virtual} runs need JDK 21 or
+ * later and fail on older JDKs.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class ConcurrentSubmissionBenchmark {
+
+    /** Size of the platform pool, the default maximum of a typical servlet container. */
+    static final int PLATFORM_THREADS = 200;
+
+    @Param({ "platform", "virtual" })
+    public String threads;
+
+    // Each call holds a client and a server socket, so keep twice this under ulimit -n
+    @Param({ "200", "1000", "2000" })
+    public int concurrency;
+
+    @Param({ "500" })
+    public long latencyMillis;
+
+    private StubGepgServer server;
+    private ExecutorService executor;
+    private GepgApiClient client;
+    private String signedBill;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        MessageUtil messageUtil = BenchmarkFixtures.messageUtil();
+        signedBill = messageUtil.signPayload(BenchmarkFixtures.bill(1));
+        server = new StubGepgServer(messageUtil.signPayload(new GepgBillSubReqAck(7101)), latencyMillis,
+                concurrency);
+
+        // The pool size also sets the endpoint's concurrency limit, so size both to the burst
+        client = new GepgApiClient(BenchmarkFixtures.config(server.url())
+                .httpPoolSize(concurrency)
+                .connectTimeout(Duration.ofSeconds(5))
+                .requestTimeout(Duration.ofSeconds(60))
+                .build());
+        client.setHttpTransport(new JdkHttpTransport(concurrency, Duration.ofSeconds(5), Duration.ofSeconds(60),
+                HttpClient.Version.HTTP_1_1));
+
+        executor = "virtual".equals(threads)
+                ? VirtualThreads.newExecutor("gepg-submit-")
+                : Executors.newFixedThreadPool(PLATFORM_THREADS);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        executor.shutdownNow();
+        server.close();
+    }
+
+    @Benchmark
+    public int submitBurst() {
+        CompletableFuture<?>[] calls = new CompletableFuture<?>[concurrency];
+        for (int i = 0; i < concurrency; i++) {
+            calls[i] = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return client.submitBill(signedBill);
+                } catch (Exception e) {
+                    throw new CompletionException(e);
+                }
+            }, executor);
+        }
+        CompletableFuture.allOf(calls).join();
+        return calls.length;
+    }
+}
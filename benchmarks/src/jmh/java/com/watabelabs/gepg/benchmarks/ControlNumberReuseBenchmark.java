@@ -0,0 +1,19 @@
+package com.watabelabs.gepg.benchmarks;
+
+import org.openjdk.jmh.annotations.Param;
+
+import com.watabelabs.gepg.mappers.bill.requests.GepgBillControlNoReuse;
+
+/**
+ * Benchmarks a control number reuse request by bill item count.
+ */
+public class ControlNumberReuseBenchmark extends AbstractMessageBenchmark<GepgBillControlNoReuse> {
+
+    @Param({ "1", "10", "100" })
+    public int itemCount;
+
+    @Override
+    protected GepgBillControlNoReuse createContent() {
+        return BenchmarkFixtures.controlNumberReuse(itemCount);
+    }
+}
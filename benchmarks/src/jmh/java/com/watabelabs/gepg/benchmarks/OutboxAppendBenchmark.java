@@ -0,0 +1,76 @@
+package com.watabelabs.gepg.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.watabelabs.gepg.outbox.GepgOutbox;
+
+/**
+ * Measures durable appends to {@link GepgOutbox}: every operation stores a
+ * signed bill and waits until it is on disk. The relay acknowledges every
+ * record at once, so only the journal is measured.
+ *
+ * <p>
+ * The 16 benchmark threads each wait for their own append, so the throughput
+ * over the single-threaded fsync rate shows how many appends share a group
+ * commit. Run with {@code -t 1} for the uncontended rate. The journal is
+ * written to {@code java.io.tmpdir}; point that at the disk the outbox will
+ * use in production, since fsync cost depends on the device.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Threads(16)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class OutboxAppendBenchmark {
+
+    @Param({ "10", "100" })
+    public int billItems;
+
+    private Path directory;
+    private GepgOutbox outbox;
+    private String signedBill;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        signedBill = BenchmarkFixtures.messageUtil().signPayload(BenchmarkFixtures.bill(billItems));
+        directory = Files.createTempDirectory("gepg-outbox-benchmark");
+        outbox = new GepgOutbox(directory, record -> CompletableFuture.completedFuture(null));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        outbox.close();
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public Long appendBill() {
+        return outbox.appendBill(signedBill).join();
+    }
+}
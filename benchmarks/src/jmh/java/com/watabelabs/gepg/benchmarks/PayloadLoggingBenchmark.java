@@ -0,0 +1,90 @@
+package com.watabelabs.gepg.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.watabelabs.gepg.mappers.bill.requests.GepgBillSubReq;
+import com.watabelabs.gepg.utils.MessageUtil;
+import com.watabelabs.gepg.utils.PayloadLogger;
+
+/**
+ * Measures what logging costs when a bill is signed: a one-line summary at
+ * INFO, or the summary and the full signed payload on the DEBUG payload
+ * channel, for every payload or for one in a hundred. {@code legacyInfo} is
+ * the baseline: the signed payload concatenated into an INFO message, as it
+ * was logged before payloads were summarised.
+ *
+ * <p>
+ * Each mode runs in its own fork with its own logback configuration, which
+ * writes to {@code /dev/null} so the messages are formatted and encoded but
+ * not kept. The arguments are prepended because the build appends its own.
+ * Run it with {@code -PjmhProfilers=gc} and compare
+ * {@code gc.alloc.rate.norm}, the bytes allocated per signed bill.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class PayloadLoggingBenchmark {
+
+    private static final Logger LEGACY = LoggerFactory.getLogger(PayloadLoggingBenchmark.class);
+
+    private static final String SAMPLE_RATE_PROPERTY = "gepg.benchmark.payloadSampleRate";
+
+    @Param({ "10", "1000" })
+    public int itemCount;
+
+    private MessageUtil messageUtil;
+    private GepgBillSubReq bill;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        PayloadLogger.setSampleRate(Integer.getInteger(SAMPLE_RATE_PROPERTY, 1));
+        messageUtil = BenchmarkFixtures.messageUtil();
+        bill = BenchmarkFixtures.bill(itemCount);
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsPrepend = "-Dlogback.configurationFile=payload-logging-legacy.xml")
+    public String legacyInfo() throws Exception {
+        String signed = messageUtil.signPayload(bill);
+        LEGACY.info("Signed XML: " + signed);
+        return signed;
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsPrepend = "-Dlogback.configurationFile=payload-logging-summary.xml")
+    public String summary() throws Exception {
+        return messageUtil.signPayload(bill);
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsPrepend = { "-Dlogback.configurationFile=payload-logging-full.xml",
+            "-D" + SAMPLE_RATE_PROPERTY + "=100" })
+    public String sampledPayloads() throws Exception {
+        return messageUtil.signPayload(bill);
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsPrepend = { "-Dlogback.configurationFile=payload-logging-full.xml",
+            "-D" + SAMPLE_RATE_PROPERTY + "=1" })
+    public String everyPayload() throws Exception {
+        return messageUtil.signPayload(bill);
+    }
+}
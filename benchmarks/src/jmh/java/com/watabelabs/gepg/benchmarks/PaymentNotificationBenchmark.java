@@ -0,0 +1,15 @@
+package com.watabelabs.gepg.benchmarks;
+
+import com.watabelabs.gepg.mappers.payment.requests.GepgPmtSpInfo;
+
+/**
+ * Benchmarks a payment notification. A notification carries a single
+ * transaction, so there is no size parameter.
+ */
+public class PaymentNotificationBenchmark extends AbstractMessageBenchmark<GepgPmtSpInfo> {
+
+    @Override
+    protected GepgPmtSpInfo createContent() {
+        return BenchmarkFixtures.payment();
+    }
+}
@@ -0,0 +1,19 @@
+package com.watabelabs.gepg.benchmarks;
+
+import org.openjdk.jmh.annotations.Param;
+
+import com.watabelabs.gepg.mappers.reconciliation.responses.GepgSpReconcResp;
+
+/**
+ * Benchmarks a reconciliation response by reconciled transaction count.
+ */
+public class ReconciliationBenchmark extends AbstractMessageBenchmark<GepgSpReconcResp> {
+
+    @Param({ "1", "100", "1000" })
+    public int trxCount;
+
+    @Override
+    protected GepgSpReconcResp createContent() {
+        return BenchmarkFixtures.reconciliation(trxCount);
+    }
+}
@@ -0,0 +1,92 @@
+package com.watabelabs.gepg.benchmarks;
+
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.watabelabs.gepg.utils.DigitalSignatureUtil;
+import com.watabelabs.gepg.utils.XmlUtil;
+
+/**
+ * Compares signing and verifying a small payload with a {@link Signature}
+ * looked up and initialized on every call, as {@code DigitalSignatureUtil}
+ * used to do, against the pooled instances it keeps now.
+ *
+ * <p>
+ * The payload is about the size of a bill with one item, where the lookup
+ * and key setup are the largest share of the cost that is not the RSA
+ * operation itself. Runs with four threads so the pool is shared.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class SignatureBenchmark {
+
+    @Param({ "SHA1withRSA", "SHA256withRSA" })
+    public String algorithm;
+
+    private KeyPair keyPair;
+    private DigitalSignatureUtil signatureUtil;
+    private byte[] content;
+    private String signature;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        keyPair = generator.generateKeyPair();
+        signatureUtil = new DigitalSignatureUtil(algorithm, keyPair.getPrivate(), keyPair.getPublic());
+
+        String xml = XmlUtil.convertToXmlStringWithoutDeclaration(BenchmarkFixtures.bill(1));
+        content = xml.getBytes(StandardCharsets.UTF_8);
+        signature = signatureUtil.generateSignature(content, 0, content.length);
+    }
+
+    @Benchmark
+    public String signPerCall() throws Exception {
+        Signature instance = Signature.getInstance(algorithm);
+        instance.initSign(keyPair.getPrivate());
+        instance.update(content);
+        return Base64.getEncoder().encodeToString(instance.sign());
+    }
+
+    @Benchmark
+    public String signPooled() throws Exception {
+        return signatureUtil.generateSignature(content, 0, content.length);
+    }
+
+    @Benchmark
+    public boolean verifyPerCall() throws Exception {
+        Signature instance = Signature.getInstance(algorithm);
+        instance.initVerify(keyPair.getPublic());
+        instance.update(content);
+        return instance.verify(Base64.getDecoder().decode(signature));
+    }
+
+    @Benchmark
+    public boolean verifyPooled() throws Exception {
+        return signatureUtil.verifySignature(signature, content, 0, content.length);
+    }
+}
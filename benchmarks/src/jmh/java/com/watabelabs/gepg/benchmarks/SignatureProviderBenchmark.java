@@ -0,0 +1,153 @@
+package com.watabelabs.gepg.benchmarks;
+
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.Provider;
+import java.security.Signature;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.watabelabs.gepg.utils.DigitalSignatureUtil;
+import com.watabelabs.gepg.utils.SignatureProviders;
+import com.watabelabs.gepg.utils.XmlUtil;
+
+/**
+ * Compares the JCA providers that can sign GePG messages, for each signature
+ * algorithm and RSA key size, so {@code SIGNATURE_PROVIDER} can be set to the
+ * fastest one.
+ *
+ * <p>
+ * Signs and verifies a bill with ten items through {@link DigitalSignatureUtil}
+ * with a freshly generated key pair. Run through {@link #main(String[])}, the
+ * providers are the ones {@link SignatureProviders#supporting(String)} finds
+ * for both algorithms that accept a software RSA key, so a provider
+ * registered in {@code java.security} is compared without naming it. Run
+ * through the JMH runner directly, only {@value #DEFAULT_PROVIDER}, the JCA
+ * preference order, is measured unless {@code -p provider=...} names others.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SignatureProviderBenchmark {
+
+    /** Provider name that signs with the first provider in the JCA preference order. */
+    static final String DEFAULT_PROVIDER = "default";
+
+    private static final String[] ALGORITHMS = { "SHA1withRSA", "SHA256withRSA" };
+
+    @Param({ DEFAULT_PROVIDER })
+    public String provider;
+
+    @Param({ "SHA1withRSA", "SHA256withRSA" })
+    public String algorithm;
+
+    @Param({ "2048", "4096" })
+    public int keySize;
+
+    private DigitalSignatureUtil signatureUtil;
+    private byte[] content;
+    private String signature;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(keySize);
+        KeyPair keyPair = generator.generateKeyPair();
+        signatureUtil = new DigitalSignatureUtil(algorithm,
+                DEFAULT_PROVIDER.equals(provider) ? null : SignatureProviders.resolve(provider),
+                keyPair.getPrivate(), keyPair.getPublic());
+
+        content = XmlUtil.convertToXmlStringWithoutDeclaration(BenchmarkFixtures.bill(10))
+                .getBytes(StandardCharsets.UTF_8);
+        signature = signatureUtil.generateSignature(content, 0, content.length);
+    }
+
+    @Benchmark
+    public String sign() throws Exception {
+        return signatureUtil.generateSignature(content, 0, content.length);
+    }
+
+    @Benchmark
+    public boolean verify() throws Exception {
+        return signatureUtil.verifySignature(signature, content, 0, content.length);
+    }
+
+    /**
+     * Runs the benchmark for every provider that can sign GePG messages with a
+     * software key. Other JMH options are passed through.
+     *
+     * @param args JMH command line options
+     * @throws Exception if the options are invalid or the run fails
+     */
+    public static void main(String[] args) throws Exception {
+        Set<String> providers = providersForAllAlgorithms();
+        System.out.println("Comparing signature providers " + providers);
+
+        Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .include(SignatureProviderBenchmark.class.getSimpleName())
+                .param("provider", providers.toArray(new String[0]))
+                .build();
+        new Runner(options).run();
+    }
+
+    /**
+     * Returns the names of the providers that implement every algorithm and
+     * accept a software RSA key, which excludes token-backed providers such as
+     * PKCS#11 ones that only sign with their own keys.
+     */
+    static Set<String> providersForAllAlgorithms() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        PrivateKey key = generator.generateKeyPair().getPrivate();
+
+        Set<String> names = null;
+        for (String algorithm : ALGORITHMS) {
+            Set<String> supporting = new LinkedHashSet<>();
+            for (Provider candidate : SignatureProviders.supporting(algorithm)) {
+                if (acceptsSoftwareKey(candidate, algorithm, key)) {
+                    supporting.add(candidate.getName());
+                }
+            }
+            if (names == null) {
+                names = supporting;
+            } else {
+                names.retainAll(supporting);
+            }
+        }
+        return names;
+    }
+
+    private static boolean acceptsSoftwareKey(Provider provider, String algorithm, PrivateKey key) {
+        try {
+            Signature.getInstance(algorithm, provider).initSign(key);
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+}
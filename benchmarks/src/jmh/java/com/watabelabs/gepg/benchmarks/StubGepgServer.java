@@ -0,0 +1,90 @@
+package com.watabelabs.gepg.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A local HTTP server that answers every request with the same signed
+ * acknowledgement after a fixed delay, standing in for GePG.
+ *
+ * <p>
+ * The delay is scheduled on a timer rather than slept through, so the server
+ * holds no thread per request and the number of requests it can keep waiting
+ * is not what the benchmark measures.
+ * </p>
+ */
+final class StubGepgServer implements AutoCloseable {
+
+    static {
+        // The JDK server closes idle connections beyond 200 (JDK 21), which the
+        // client would then try to reuse. Read when the first server is created.
+        System.setProperty("sun.net.httpserver.maxIdleConnections", "100000");
+    }
+
+    private final HttpServer server;
+    private final ScheduledExecutorService timer = Executors.newScheduledThreadPool(2);
+    private final byte[] response;
+    private final long latencyMillis;
+
+    /**
+     * Starts a server on a free port of the loopback address.
+     *
+     * @param response      the body returned for every request
+     * @param latencyMillis the time before each response is sent
+     * @param backlog       the number of connections that may wait to be
+     *                      accepted
+     * @throws IOException if the server cannot be started
+     */
+    StubGepgServer(String response, long latencyMillis, int backlog) throws IOException {
+        this.response = response.getBytes(StandardCharsets.UTF_8);
+        this.latencyMillis = latencyMillis;
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), backlog);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    /**
+     * Returns the base URL of the server.
+     *
+     * @return the URL, without a trailing slash
+     */
+    String url() {
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (InputStream body = exchange.getRequestBody()) {
+            body.readAllBytes();
+        }
+        timer.schedule(() -> respond(exchange), latencyMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void respond(HttpExchange exchange) {
+        try {
+            exchange.getResponseHeaders().set("Content-Type", "application/xml");
+            exchange.sendResponseHeaders(200, response.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(response);
+            }
+        } catch (IOException e) {
+            // The client gave up on the request
+            exchange.close();
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        timer.shutdownNow();
+    }
+}
@@ -2,18 +2,24 @@ package com.watabelabs.gepg;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.StringReader;
-import java.net.HttpURLConnection;
 import java.net.SocketTimeoutException;
-import java.net.URL;
 import java.nio.charset.StandardCharsets;
-import java.security.PrivateKey;
-import java.security.PublicKey;
-import java.security.Signature;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.Scanner;
-
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+
+import javax.validation.ValidationException;
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.Unmarshaller;
 
@@ -24,23 +30,42 @@ import com.watabelabs.gepg.amqp.enums.GepgQueueHeaderRequestType;
 import com.watabelabs.gepg.amqp.headers.GepgQueueHeaders;
 import com.watabelabs.gepg.amqp.publisher.GepgAMqPublisher;
 import com.watabelabs.gepg.amqp.queues.GepgAMqQueues;
+import com.watabelabs.gepg.batch.BillBatchResult;
+import com.watabelabs.gepg.batch.BillBatchSubmitter;
+import com.watabelabs.gepg.config.GepgConfig;
 import com.watabelabs.gepg.constants.GepgResponseCode;
+import com.watabelabs.gepg.http.GepgHttpTransport;
+import com.watabelabs.gepg.http.JdkHttpTransport;
 import com.watabelabs.gepg.mappers.bill.acks.GepgBillSubReqAck;
 import com.watabelabs.gepg.mappers.bill.acks.GepgBillSubResAck;
 import com.watabelabs.gepg.mappers.bill.acks.GepgBillSubRespAck;
+import com.watabelabs.gepg.mappers.bill.requests.GepgBillSubReq;
 import com.watabelabs.gepg.mappers.bill.responses.GepgBillSubResp;
 import com.watabelabs.gepg.mappers.payment.acks.GepgOlPmtNtfSpInfoAck;
 import com.watabelabs.gepg.mappers.payment.acks.GepgPmtSpInfoAck;
 import com.watabelabs.gepg.mappers.payment.requests.GepgPmtSpInfo;
 import com.watabelabs.gepg.mappers.reconciliation.acks.GepgSpReconcRespAck;
+import com.watabelabs.gepg.mappers.reconciliation.requests.GepgReconcBatchInfo;
+import com.watabelabs.gepg.mappers.reconciliation.requests.GepgReconcTrxInf;
 import com.watabelabs.gepg.mappers.reconciliation.responses.GepgSpReconcResp;
+import com.watabelabs.gepg.metrics.GepgMetrics;
+import com.watabelabs.gepg.metrics.GepgMetricsRegistry;
+import com.watabelabs.gepg.metrics.RequestOutcome;
+import com.watabelabs.gepg.resilience.EndpointGuard;
+import com.watabelabs.gepg.resilience.EndpointGuards;
+import com.watabelabs.gepg.reconciliation.GepgReconcStreamReader;
+import com.watabelabs.gepg.tenant.GepgTenant;
 import com.watabelabs.gepg.utils.DateTimeUtil;
-import com.watabelabs.gepg.utils.DotEnvUtil;
+import com.watabelabs.gepg.utils.DigitalSignatureUtil;
 import com.watabelabs.gepg.utils.Envelope;
 import com.watabelabs.gepg.utils.GepgEndpoints;
+import com.watabelabs.gepg.utils.JaxbContextRegistry;
+import com.watabelabs.gepg.utils.KeyStoreHolder;
 import com.watabelabs.gepg.utils.MessageUtil;
-import com.watabelabs.gepg.utils.PrivateKeyReader;
-import com.watabelabs.gepg.utils.PublicKeyReader;
+import com.watabelabs.gepg.utils.PayloadLogger;
+import com.watabelabs.gepg.utils.SignedAckCache;
+import com.watabelabs.gepg.utils.SignedPayload;
+import com.watabelabs.gepg.utils.VerifiedMessage;
 import com.watabelabs.gepg.utils.XmlUtil;
 
 /**
@@ -66,6 +91,21 @@ public class GepgApiClient {
     private String publicKeyAlias;
     private String keystoreType;
     private String signatureAlgorithm;
+    private String signatureProvider;
+
+    // The keystore paths last found readable, checked again only when they change
+    private String checkedPrivateKeystorePath;
+    private String checkedPublicKeystorePath;
+
+    private final GepgConfig config;
+    private final int maxAttempts;
+    private final long initialBackoffMillis;
+
+    private GepgHttpTransport httpTransport;
+    private Executor signingExecutor = ForkJoinPool.commonPool();
+    private GepgAMqPublisher publisher;
+    private EndpointGuards endpointGuards;
+    private final SignedAckCache ackCache = new SignedAckCache(this::messageUtil);
 
     // Default HTTP headers
     private static final String CONTENT_TYPE = "Application/xml";
@@ -73,23 +113,76 @@ public class GepgApiClient {
     private static final String GEPG_COM_CN_REUSE = "reusebill.sp.in";
     private static final String GEPG_COM_BILL_CHANGE = "changebill.sp.in";
 
+    /** Status code sent in every success acknowledgement. */
+    private static final int SUCCESS_CODE = 7101;
+
+    /** Default number of bills in flight for batch submissions. */
+    public static final int DEFAULT_BATCH_CONCURRENCY = JdkHttpTransport.DEFAULT_POOL_SIZE;
+
     /**
      * No-args constructor initializes the client with environment variables.
      */
     public GepgApiClient() {
-        this.apiUrl = DotEnvUtil.getEnvVariable("API_URL");
-        this.gepgCode = DotEnvUtil.getEnvVariable("GEPG_CODE");
+        this(GepgConfig.fromEnv());
+    }
+
+    /**
+     * Creates a client from a configuration without reading the environment.
+     * Nothing is read from disk here: the keystores are checked and loaded when
+     * a message is first signed or verified. The HTTP transport and the
+     * publisher are created on first use and shared by every client with the
+     * same HTTP and RabbitMQ settings. Unless the configuration turns it off,
+     * the JAXB contexts are built on a background thread.
+     *
+     * @param config the configuration
+     */
+    public GepgApiClient(GepgConfig config) {
+        this.config = config;
+        this.apiUrl = config.getApiUrl();
+        this.gepgCode = config.getGepgCode();
+
+        this.privateKeystorePath = config.getPrivateKeystorePath();
+        this.privateKeystorePassword = config.getPrivateKeystorePassword();
+        this.privateKeyAlias = config.getPrivateKeyAlias();
+
+        this.publicKeystorePath = config.getPublicKeystorePath();
+        this.publicKeyAlias = config.getPublicKeyAlias();
+        this.publicKeystorePassword = config.getPublicKeystorePassword();
+
+        this.keystoreType = config.getKeystoreType();
+        this.signatureAlgorithm = config.getSignatureAlgorithm();
+        this.signatureProvider = config.getSignatureProvider();
 
-        this.privateKeystorePath = DotEnvUtil.getEnvVariable("PRIVATE_KEYSTORE_PATH");
-        this.privateKeystorePassword = DotEnvUtil.getEnvVariable("PRIVATE_KEYSTORE_PASSWORD");
-        this.privateKeyAlias = DotEnvUtil.getEnvVariable("PRIVATE_KEY_ALIAS");
+        this.maxAttempts = config.getMaxAttempts();
+        this.initialBackoffMillis = config.getInitialBackoff().toMillis();
+        this.endpointGuards = new EndpointGuards(config);
 
-        this.publicKeystorePath = DotEnvUtil.getEnvVariable("PUBLIC_KEYSTORE_PATH");
-        this.publicKeyAlias = DotEnvUtil.getEnvVariable("PUBLIC_KEY_ALIAS");
-        this.publicKeystorePassword = DotEnvUtil.getEnvVariable("PUBLIC_KEYSTORE_PASSWORD");
+        if (config.isJaxbWarmUp()) {
+            JaxbContextRegistry.warmUpAsync();
+        }
+    }
+
+    /**
+     * Creates a client for one service provider without reading the
+     * environment, with every other setting at its default. Clients created
+     * this way still share the HTTP transport, the publisher, the JAXB contexts
+     * and the cached keys of any other client with the same settings.
+     *
+     * @param apiUrl the base URL of the GePG API
+     * @param tenant the credentials of the service provider
+     */
+    public GepgApiClient(String apiUrl, GepgTenant tenant) {
+        this(GepgConfig.builder().apiUrl(apiUrl).tenant(tenant).build());
+    }
 
-        this.keystoreType = DotEnvUtil.getEnvVariable("KEYSTORE_TYPE");
-        this.signatureAlgorithm = DotEnvUtil.getEnvVariable("SIGNATURE_ALGORITHM");
+    private void checkKeystoresReadable() {
+        if (this.privateKeystorePath == null || this.publicKeystorePath == null) {
+            throw new RuntimeException("Keystore paths are not configured");
+        }
+        if (this.privateKeystorePath.equals(this.checkedPrivateKeystorePath)
+                && this.publicKeystorePath.equals(this.checkedPublicKeystorePath)) {
+            return;
+        }
 
         // Verify private keystore file existence
         File keystoreFile = new File(this.privateKeystorePath);
@@ -102,6 +195,8 @@ public class GepgApiClient {
         if (!publicKeystoreFile.exists() || !publicKeystoreFile.canRead()) {
             throw new RuntimeException("Public Keystore file not found or not readable: " + this.publicKeystorePath);
         }
+        this.checkedPrivateKeystorePath = this.privateKeystorePath;
+        this.checkedPublicKeystorePath = this.publicKeystorePath;
     }
 
     /**
@@ -132,6 +227,9 @@ public class GepgApiClient {
      * @param privateKeystorePath the private keystore path to set.
      */
     public void setPrivateKeystorePath(String privateKeystorePath) {
+        if (!Objects.equals(this.privateKeystorePath, privateKeystorePath)) {
+            releaseKeys();
+        }
         this.privateKeystorePath = privateKeystorePath;
     }
 
@@ -150,6 +248,9 @@ public class GepgApiClient {
      * @param privateKeystorePassword the private keystore password to set.
      */
     public void setPrivateKeystorePassword(String privateKeystorePassword) {
+        if (!Objects.equals(this.privateKeystorePassword, privateKeystorePassword)) {
+            releaseKeys();
+        }
         this.privateKeystorePassword = privateKeystorePassword;
     }
 
@@ -168,6 +269,9 @@ public class GepgApiClient {
      * @param privateKeyAlias the private key alias to set.
      */
     public void setPrivateKeyAlias(String privateKeyAlias) {
+        if (!Objects.equals(this.privateKeyAlias, privateKeyAlias)) {
+            releaseKeys();
+        }
         this.privateKeyAlias = privateKeyAlias;
     }
 
@@ -207,6 +311,87 @@ public class GepgApiClient {
         this.apiUrl = apiUrl;
     }
 
+    /**
+     * Gets the transport used to send requests to the GePG API.
+     *
+     * @return the HTTP transport.
+     */
+    public GepgHttpTransport getHttpTransport() {
+        return httpTransport();
+    }
+
+    /**
+     * Sets the transport used to send requests to the GePG API. By default
+     * clients with the same pool size and timeouts share one pooled
+     * {@link JdkHttpTransport}.
+     *
+     * @param httpTransport the HTTP transport to set.
+     */
+    public void setHttpTransport(GepgHttpTransport httpTransport) {
+        this.httpTransport = httpTransport;
+    }
+
+    /**
+     * Gets the circuit breakers, concurrency limits and retry budgets that
+     * protect the GePG endpoints.
+     *
+     * @return the endpoint guards.
+     */
+    public EndpointGuards getEndpointGuards() {
+        return endpointGuards;
+    }
+
+    /**
+     * Sets the circuit breakers, concurrency limits and retry budgets that
+     * protect the GePG endpoints. Clients sending to the same GePG deployment
+     * can share one instance. By default each client has its own.
+     *
+     * @param endpointGuards the endpoint guards to set.
+     */
+    public void setEndpointGuards(EndpointGuards endpointGuards) {
+        this.endpointGuards = endpointGuards;
+    }
+
+    /**
+     * Gets the executor that signs payloads for {@link #generatePayloadAsync}.
+     *
+     * @return the signing executor.
+     */
+    public Executor getSigningExecutor() {
+        return signingExecutor;
+    }
+
+    /**
+     * Sets the executor that signs payloads for {@link #generatePayloadAsync}.
+     * Signing is CPU bound, so a pool sized to the number of cores is enough.
+     * Defaults to the common fork-join pool.
+     *
+     * @param signingExecutor the signing executor to set.
+     */
+    public void setSigningExecutor(Executor signingExecutor) {
+        this.signingExecutor = signingExecutor;
+    }
+
+    /**
+     * Gets the publisher used by the publish methods.
+     *
+     * @return the RabbitMQ publisher.
+     */
+    public GepgAMqPublisher getPublisher() {
+        return publisher();
+    }
+
+    /**
+     * Sets the publisher used by the publish methods. By default clients with
+     * the same RabbitMQ settings share one publisher, which connects on first
+     * use.
+     *
+     * @param publisher the RabbitMQ publisher to set.
+     */
+    public void setPublisher(GepgAMqPublisher publisher) {
+        this.publisher = publisher;
+    }
+
     /**
      * Checks if the private and public keys form a valid key pair.
      *
@@ -214,25 +399,17 @@ public class GepgApiClient {
      */
     public boolean checkKeyPair() {
         try {
-            PrivateKey privateKey = PrivateKeyReader.get(privateKeystorePath, keystoreType, privateKeystorePassword,
-                    privateKeyAlias);
-            PublicKey publicKey = PublicKeyReader.get(publicKeystorePath, keystoreType, publicKeystorePassword,
-                    publicKeyAlias);
+            // The signer and verifier of the current keys, as used for real payloads
+            DigitalSignatureUtil signatureUtil = messageUtil().getKeyStoreHolder().getSignatureUtil();
 
             // Generate a test message
             String testMessage = "Test message for key pair validation";
-            byte[] testMessageBytes = testMessage.getBytes(StandardCharsets.UTF_8);
 
             // Sign the test message with the private key
-            Signature signature = Signature.getInstance(signatureAlgorithm);
-            signature.initSign(privateKey);
-            signature.update(testMessageBytes);
-            byte[] digitalSignature = signature.sign();
+            String digitalSignature = signatureUtil.generateSignature(testMessage);
 
             // Verify the test message with the public key
-            signature.initVerify(publicKey);
-            signature.update(testMessageBytes);
-            boolean isVerified = signature.verify(digitalSignature);
+            boolean isVerified = signatureUtil.verifySignature(digitalSignature, testMessage);
 
             if (!isVerified) {
                 logger.error(
@@ -263,28 +440,53 @@ public class GepgApiClient {
      * @throws Exception if an error occurs during the process
      */
     public GepgBillSubReqAck submitBill(String signedRequest) throws Exception {
-        String submissionUrl = apiUrl + GepgEndpoints.SUBMIT_BILL;
+        return submitBillBody(utf8(signedRequest));
+    }
 
-        // Step 1: Send the bill submission request
-        String response = sendRequest(submissionUrl, signedRequest, GEPG_COM);
+    /**
+     * Submits a bill to the GePG API, sending the payload bytes as they are.
+     *
+     * @param payload the signed payload
+     * @return the acknowledgment response from the GePG API
+     * @throws Exception if an error occurs during the process
+     */
+    public GepgBillSubReqAck submitBill(SignedPayload payload) throws Exception {
+        return submitBillBody(payload.getBytes());
+    }
 
-        logger.info("BILL_SUBMISSION_RESPONSE:{}", response);
+    private GepgBillSubReqAck submitBillBody(byte[] body) throws Exception {
+        long start = System.nanoTime();
 
-        Envelope<GepgBillSubReqAck> envelope = mapResponse(response, GepgBillSubReqAck.class);
-        GepgBillSubReqAck billSubReqAck = envelope.getContent().get(0);
+        // Step 1: Send the bill submission request
+        String response = sendRequest(GepgEndpoints.SUBMIT_BILL, body, GEPG_COM);
 
-        return billSubReqAck;
+        return readAck(GepgEndpoints.SUBMIT_BILL, "BILL_SUBMISSION_RESPONSE", response, GepgBillSubReqAck.class,
+                GepgBillSubReqAck::getTrxStsCode, start);
     }
 
     /**
      * Publishes a bill submission request to the RabbitMQ queue.
      *
      * @param signedRequest the signed XML request
+     * @return a future completed when the broker confirms the message
+     */
+    public CompletableFuture<Void> publishBill(String signedRequest) {
+        Map<String, Object> headers = new HashMap<>();
+        headers.put(GepgQueueHeaderRequestType.REQUEST_TYPE.toString(), GepgQueueHeaders.BILL_SUBMISSION_HEADER);
+        return publisher().publishToQueue(GepgAMqQueues.BILL_SUBMISSION_QUEUE, signedRequest, headers);
+    }
+
+    /**
+     * Publishes a bill submission request to the RabbitMQ queue, with the
+     * payload bytes as the message body.
+     *
+     * @param payload the signed payload
+     * @return a future completed when the broker confirms the message
      */
-    public void publishBill(String signedRequest) {
+    public CompletableFuture<Void> publishBill(SignedPayload payload) {
         Map<String, Object> headers = new HashMap<>();
         headers.put(GepgQueueHeaderRequestType.REQUEST_TYPE.toString(), GepgQueueHeaders.BILL_SUBMISSION_HEADER);
-        GepgAMqPublisher.publishToQueue(GepgAMqQueues.BILL_SUBMISSION_QUEUE, signedRequest, headers);
+        return publisher().publishToQueue(GepgAMqQueues.BILL_SUBMISSION_QUEUE, payload, headers);
     }
 
     /**
@@ -295,28 +497,54 @@ public class GepgApiClient {
      * @throws Exception if an error occurs during the process
      */
     public GepgBillSubReqAck reuseControlNumber(String signedRequest) throws Exception {
-        String submissionUrl = apiUrl + GepgEndpoints.REUSE_CONTROL_NUMBER;
+        return reuseControlNumberBody(utf8(signedRequest));
+    }
 
-        // Step 1: Send the control number reuse request
-        String response = sendRequest(submissionUrl, signedRequest, GEPG_COM_CN_REUSE);
+    /**
+     * Submits a control number reuse request to the GePG API, sending the
+     * payload bytes as they are.
+     *
+     * @param payload the signed payload
+     * @return the acknowledgment response from the GePG API
+     * @throws Exception if an error occurs during the process
+     */
+    public GepgBillSubReqAck reuseControlNumber(SignedPayload payload) throws Exception {
+        return reuseControlNumberBody(payload.getBytes());
+    }
 
-        logger.info("CONTROL_NUMBER_REUSE_REQUEST_RESPONSE:{}", response);
+    private GepgBillSubReqAck reuseControlNumberBody(byte[] body) throws Exception {
+        long start = System.nanoTime();
 
-        Envelope<GepgBillSubReqAck> envelope = mapResponse(response, GepgBillSubReqAck.class);
-        GepgBillSubReqAck billSubReqAck = envelope.getContent().get(0);
+        // Step 1: Send the control number reuse request
+        String response = sendRequest(GepgEndpoints.REUSE_CONTROL_NUMBER, body, GEPG_COM_CN_REUSE);
 
-        return billSubReqAck;
+        return readAck(GepgEndpoints.REUSE_CONTROL_NUMBER, "CONTROL_NUMBER_REUSE_REQUEST_RESPONSE", response,
+                GepgBillSubReqAck.class, GepgBillSubReqAck::getTrxStsCode, start);
     }
 
     /**
      * Publishes a control number reuse request to the RabbitMQ queue.
      *
      * @param signedRequest the signed XML request
+     * @return a future completed when the broker confirms the message
      */
-    public void publishControlNumberReuse(String signedRequest) {
+    public CompletableFuture<Void> publishControlNumberReuse(String signedRequest) {
         Map<String, Object> headers = new HashMap<>();
         headers.put(GepgQueueHeaderRequestType.REQUEST_TYPE.toString(), GepgQueueHeaders.CONTROL_NUMBER_REUSE_HEADER);
-        GepgAMqPublisher.publishToQueue(GepgAMqQueues.BILL_SUBMISSION_QUEUE, signedRequest, headers);
+        return publisher().publishToQueue(GepgAMqQueues.BILL_SUBMISSION_QUEUE, signedRequest, headers);
+    }
+
+    /**
+     * Publishes a control number reuse request to the RabbitMQ queue, with the
+     * payload bytes as the message body.
+     *
+     * @param payload the signed payload
+     * @return a future completed when the broker confirms the message
+     */
+    public CompletableFuture<Void> publishControlNumberReuse(SignedPayload payload) {
+        Map<String, Object> headers = new HashMap<>();
+        headers.put(GepgQueueHeaderRequestType.REQUEST_TYPE.toString(), GepgQueueHeaders.CONTROL_NUMBER_REUSE_HEADER);
+        return publisher().publishToQueue(GepgAMqQueues.BILL_SUBMISSION_QUEUE, payload, headers);
     }
 
     /**
@@ -327,28 +555,54 @@ public class GepgApiClient {
      * @throws Exception if an error occurs during the process
      */
     public GepgBillSubReqAck updateBill(String signedRequest) throws Exception {
-        String submissionUrl = apiUrl + GepgEndpoints.UPDATE_BILL;
+        return updateBillBody(utf8(signedRequest));
+    }
 
-        // Step 1: Send the control number reuse request
-        String response = sendRequest(submissionUrl, signedRequest, GEPG_COM_BILL_CHANGE);
+    /**
+     * Submits a bill change/update request to the GePG API, sending the
+     * payload bytes as they are.
+     *
+     * @param payload the signed payload
+     * @return the acknowledgment response from the GePG API
+     * @throws Exception if an error occurs during the process
+     */
+    public GepgBillSubReqAck updateBill(SignedPayload payload) throws Exception {
+        return updateBillBody(payload.getBytes());
+    }
 
-        logger.info("BILL_UPDATE_REQUEST_RESPONSE:{}", response);
+    private GepgBillSubReqAck updateBillBody(byte[] body) throws Exception {
+        long start = System.nanoTime();
 
-        Envelope<GepgBillSubReqAck> envelope = mapResponse(response, GepgBillSubReqAck.class);
-        GepgBillSubReqAck billSubReqAck = envelope.getContent().get(0);
+        // Step 1: Send the control number reuse request
+        String response = sendRequest(GepgEndpoints.UPDATE_BILL, body, GEPG_COM_BILL_CHANGE);
 
-        return billSubReqAck;
+        return readAck(GepgEndpoints.UPDATE_BILL, "BILL_UPDATE_REQUEST_RESPONSE", response, GepgBillSubReqAck.class,
+                GepgBillSubReqAck::getTrxStsCode, start);
     }
 
     /**
      * Publishes a bill change/update request to the RabbitMQ queue.
      *
      * @param signedRequest the signed XML request
+     * @return a future completed when the broker confirms the message
      */
-    public void publishBillUpdate(String signedRequest) {
+    public CompletableFuture<Void> publishBillUpdate(String signedRequest) {
         Map<String, Object> headers = new HashMap<>();
         headers.put(GepgQueueHeaderRequestType.REQUEST_TYPE.toString(), GepgQueueHeaders.BILL_UPDATE_HEADER);
-        GepgAMqPublisher.publishToQueue(GepgAMqQueues.BILL_SUBMISSION_QUEUE, signedRequest, headers);
+        return publisher().publishToQueue(GepgAMqQueues.BILL_SUBMISSION_QUEUE, signedRequest, headers);
+    }
+
+    /**
+     * Publishes a bill change/update request to the RabbitMQ queue, with the
+     * payload bytes as the message body.
+     *
+     * @param payload the signed payload
+     * @return a future completed when the broker confirms the message
+     */
+    public CompletableFuture<Void> publishBillUpdate(SignedPayload payload) {
+        Map<String, Object> headers = new HashMap<>();
+        headers.put(GepgQueueHeaderRequestType.REQUEST_TYPE.toString(), GepgQueueHeaders.BILL_UPDATE_HEADER);
+        return publisher().publishToQueue(GepgAMqQueues.BILL_SUBMISSION_QUEUE, payload, headers);
     }
 
     /**
@@ -359,28 +613,54 @@ public class GepgApiClient {
      * @throws Exception if an error occurs during the process
      */
     public GepgBillSubReqAck cancelBill(String signedRequest) throws Exception {
-        String submissionUrl = apiUrl + GepgEndpoints.CANCEL_BILL;
+        return cancelBillBody(utf8(signedRequest));
+    }
 
-        // Step 1: Send the control number reuse request
-        String response = sendRequest(submissionUrl, signedRequest, CONTENT_TYPE);
+    /**
+     * Submits a bill cancellation request to the GePG API, sending the payload
+     * bytes as they are.
+     *
+     * @param payload the signed payload
+     * @return the acknowledgment response from the GePG API
+     * @throws Exception if an error occurs during the process
+     */
+    public GepgBillSubReqAck cancelBill(SignedPayload payload) throws Exception {
+        return cancelBillBody(payload.getBytes());
+    }
 
-        logger.info("CANCEL_BILL_REQUEST_RESPONSE:{}", response);
+    private GepgBillSubReqAck cancelBillBody(byte[] body) throws Exception {
+        long start = System.nanoTime();
 
-        Envelope<GepgBillSubReqAck> envelope = mapResponse(response, GepgBillSubReqAck.class);
-        GepgBillSubReqAck billSubReqAck = envelope.getContent().get(0);
+        // Step 1: Send the control number reuse request
+        String response = sendRequest(GepgEndpoints.CANCEL_BILL, body, CONTENT_TYPE);
 
-        return billSubReqAck;
+        return readAck(GepgEndpoints.CANCEL_BILL, "CANCEL_BILL_REQUEST_RESPONSE", response, GepgBillSubReqAck.class,
+                GepgBillSubReqAck::getTrxStsCode, start);
     }
 
     /**
      * Publishes a bill cancellation request to the RabbitMQ queue.
      *
      * @param signedRequest the signed XML request
+     * @return a future completed when the broker confirms the message
      */
-    public void publishBillCancellation(String signedRequest) {
+    public CompletableFuture<Void> publishBillCancellation(String signedRequest) {
         Map<String, Object> headers = new HashMap<>();
         headers.put(GepgQueueHeaderRequestType.REQUEST_TYPE.toString(), GepgQueueHeaders.BILL_CANCELLATION_HEADER);
-        GepgAMqPublisher.publishToQueue(GepgAMqQueues.BILL_SUBMISSION_QUEUE, signedRequest, headers);
+        return publisher().publishToQueue(GepgAMqQueues.BILL_SUBMISSION_QUEUE, signedRequest, headers);
+    }
+
+    /**
+     * Publishes a bill cancellation request to the RabbitMQ queue, with the
+     * payload bytes as the message body.
+     *
+     * @param payload the signed payload
+     * @return a future completed when the broker confirms the message
+     */
+    public CompletableFuture<Void> publishBillCancellation(SignedPayload payload) {
+        Map<String, Object> headers = new HashMap<>();
+        headers.put(GepgQueueHeaderRequestType.REQUEST_TYPE.toString(), GepgQueueHeaders.BILL_CANCELLATION_HEADER);
+        return publisher().publishToQueue(GepgAMqQueues.BILL_SUBMISSION_QUEUE, payload, headers);
     }
 
     /**
@@ -391,28 +671,53 @@ public class GepgApiClient {
      * @throws Exception if an error occurs during the process
      */
     public GepgPmtSpInfoAck submitPayment(String signedRequest) throws Exception {
-        String submissionUrl = apiUrl + GepgEndpoints.SEND_PAYMENT;
+        return submitPaymentBody(utf8(signedRequest));
+    }
 
-        // Step 1: Send the control number reuse request
-        String response = sendRequest(submissionUrl, signedRequest, CONTENT_TYPE);
+    /**
+     * Submits a payment to the GePG API, sending the payload bytes as they are.
+     *
+     * @param payload the signed payload
+     * @return the acknowledgment response from the GePG API
+     * @throws Exception if an error occurs during the process
+     */
+    public GepgPmtSpInfoAck submitPayment(SignedPayload payload) throws Exception {
+        return submitPaymentBody(payload.getBytes());
+    }
 
-        logger.info("PAYMENT_SUBMISSION_REQUEST_RESPONSE:{}", response);
+    private GepgPmtSpInfoAck submitPaymentBody(byte[] body) throws Exception {
+        long start = System.nanoTime();
 
-        Envelope<GepgPmtSpInfoAck> envelope = mapResponse(response, GepgPmtSpInfoAck.class);
-        GepgPmtSpInfoAck paymentSpInfoAck = envelope.getContent().get(0);
+        // Step 1: Send the control number reuse request
+        String response = sendRequest(GepgEndpoints.SEND_PAYMENT, body, CONTENT_TYPE);
 
-        return paymentSpInfoAck;
+        return readAck(GepgEndpoints.SEND_PAYMENT, "PAYMENT_SUBMISSION_REQUEST_RESPONSE", response,
+                GepgPmtSpInfoAck.class, GepgPmtSpInfoAck::getTrxStsCode, start);
     }
 
     /**
      * Publishes a payment submission request to the RabbitMQ queue.
      *
      * @param signedRequest the signed XML request
+     * @return a future completed when the broker confirms the message
+     */
+    public CompletableFuture<Void> publishPayments(String signedRequest) {
+        Map<String, Object> headers = new HashMap<>();
+        headers.put(GepgQueueHeaderRequestType.REQUEST_TYPE.toString(), GepgQueueHeaders.PAYMENT_SUBMISSION_HEADER);
+        return publisher().publishToQueue(GepgAMqQueues.PAYMENT_SUBMISSION_QUEUE, signedRequest, headers);
+    }
+
+    /**
+     * Publishes a payment submission request to the RabbitMQ queue, with the
+     * payload bytes as the message body.
+     *
+     * @param payload the signed payload
+     * @return a future completed when the broker confirms the message
      */
-    public void publishPayments(String signedRequest) {
+    public CompletableFuture<Void> publishPayments(SignedPayload payload) {
         Map<String, Object> headers = new HashMap<>();
         headers.put(GepgQueueHeaderRequestType.REQUEST_TYPE.toString(), GepgQueueHeaders.PAYMENT_SUBMISSION_HEADER);
-        GepgAMqPublisher.publishToQueue(GepgAMqQueues.PAYMENT_SUBMISSION_QUEUE, signedRequest, headers);
+        return publisher().publishToQueue(GepgAMqQueues.PAYMENT_SUBMISSION_QUEUE, payload, headers);
     }
 
     /**
@@ -423,29 +728,57 @@ public class GepgApiClient {
      * @throws Exception if an error occurs during the process
      */
     public GepgSpReconcRespAck requestReconciliation(String signedRequest) throws Exception {
-        String submissionUrl = apiUrl + GepgEndpoints.REQUEST_RECONCILIATION;
+        return requestReconciliationBody(utf8(signedRequest));
+    }
 
-        // Step 1: Send the control number reuse request
-        String response = sendRequest(submissionUrl, signedRequest, CONTENT_TYPE);
+    /**
+     * Submits a reconciliation request to the GePG API, sending the payload
+     * bytes as they are.
+     *
+     * @param payload the signed payload
+     * @return the acknowledgment response from the GePG API
+     * @throws Exception if an error occurs during the process
+     */
+    public GepgSpReconcRespAck requestReconciliation(SignedPayload payload) throws Exception {
+        return requestReconciliationBody(payload.getBytes());
+    }
 
-        logger.info("RECONCILIATION_REQUEST_RESPONSE:{}", response);
+    private GepgSpReconcRespAck requestReconciliationBody(byte[] body) throws Exception {
+        long start = System.nanoTime();
 
-        Envelope<GepgSpReconcRespAck> envelope = mapResponse(response, GepgSpReconcRespAck.class);
-        GepgSpReconcRespAck reconciliationRespAck = envelope.getContent().get(0);
+        // Step 1: Send the control number reuse request
+        String response = sendRequest(GepgEndpoints.REQUEST_RECONCILIATION, body, CONTENT_TYPE);
 
-        return reconciliationRespAck;
+        return readAck(GepgEndpoints.REQUEST_RECONCILIATION, "RECONCILIATION_REQUEST_RESPONSE", response,
+                GepgSpReconcRespAck.class, GepgSpReconcRespAck::getReconcStsCode, start);
     }
 
     /**
      * Publishes a reconciliation request to the RabbitMQ queue.
      *
      * @param signedRequest the signed XML request
+     * @return a future completed when the broker confirms the message
+     */
+    public CompletableFuture<Void> publishReconciliation(String signedRequest) {
+        Map<String, Object> headers = new HashMap<>();
+        headers.put(GepgQueueHeaderRequestType.REQUEST_TYPE.toString(),
+                GepgQueueHeaders.RECONCILIATION_SUBMISSION_HEADER);
+        return publisher().publishToQueue(GepgAMqQueues.RECONCILIATION_SUBMISSION_QUEUE, signedRequest,
+                headers);
+    }
+
+    /**
+     * Publishes a reconciliation request to the RabbitMQ queue, with the
+     * payload bytes as the message body.
+     *
+     * @param payload the signed payload
+     * @return a future completed when the broker confirms the message
      */
-    public void publishReconciliation(String signedRequest) {
+    public CompletableFuture<Void> publishReconciliation(SignedPayload payload) {
         Map<String, Object> headers = new HashMap<>();
         headers.put(GepgQueueHeaderRequestType.REQUEST_TYPE.toString(),
                 GepgQueueHeaders.RECONCILIATION_SUBMISSION_HEADER);
-        GepgAMqPublisher.publishToQueue(GepgAMqQueues.RECONCILIATION_SUBMISSION_QUEUE, signedRequest,
+        return publisher().publishToQueue(GepgAMqQueues.RECONCILIATION_SUBMISSION_QUEUE, payload,
                 headers);
     }
 
@@ -460,6 +793,45 @@ public class GepgApiClient {
         return convertToJavaObject(responseXml, GepgSpReconcResp.class);
     }
 
+    /**
+     * Opens a signed reconciliation response for reading one transaction at a
+     * time, so large batches are never held in memory at once. The signature is
+     * only known after the last transaction; see {@link GepgReconcStreamReader}.
+     *
+     * @param response the signed reconciliation response from GePG
+     * @return a reader positioned before the first transaction
+     * @throws Exception if the response cannot be read
+     */
+    public GepgReconcStreamReader streamReconciliationResponse(InputStream response) throws Exception {
+        return new GepgReconcStreamReader(response, messageUtil().getKeyStoreHolder().getSignatureUtil());
+    }
+
+    /**
+     * Reads a signed reconciliation response and hands each transaction to the
+     * handler as it is parsed. The signature is checked once the last
+     * transaction has been handled, so the handler should stage what it
+     * receives and only commit it once this method returns.
+     *
+     * @param response the signed reconciliation response from GePG
+     * @param handler  receives each transaction in order
+     * @return the batch information of the response
+     * @throws ValidationException if the signature is not valid
+     * @throws Exception           if the response cannot be read
+     */
+    public GepgReconcBatchInfo receiveReconciliationResponse(InputStream response,
+            Consumer<GepgReconcTrxInf> handler) throws Exception {
+        try (GepgReconcStreamReader reader = streamReconciliationResponse(response)) {
+            reader.forEachRemaining(handler);
+            if (!reader.isSignatureValid()) {
+                logger.error("SIGNATURE_VERIFICATION_FAILED for {}", GepgSpReconcResp.class.getSimpleName());
+                throw new ValidationException(
+                        "Signature verification failed for " + GepgSpReconcResp.class.getSimpleName());
+            }
+            logger.info("RECONCILIATION_RESPONSE_READ {} transactions", reader.getCount());
+            return reader.getBatchInfo();
+        }
+    }
+
     /**
      * Receives the Payment Notification Info as XML and returns the POJO.
      *
@@ -479,12 +851,7 @@ public class GepgApiClient {
      * @throws Exception if an error occurs during the process
      */
     public String getPaymentInfoAck(String responseXml) throws Exception {
-        GepgPmtSpInfoAck gepgPmtSpInfoAck = new GepgPmtSpInfoAck(7101);
-
-        String ackXml = parseToXml(gepgPmtSpInfoAck);
-
-        // Initialize with the required parameters
-        return signMessage(ackXml, GepgBillSubRespAck.class);
+        return ackCache.get(GepgPmtSpInfoAck.class, SUCCESS_CODE);
     }
 
     /**
@@ -495,12 +862,7 @@ public class GepgApiClient {
      * @throws Exception if an error occurs during the process
      */
     public String getReconciliationAck(String responseXml) throws Exception {
-        GepgBillSubRespAck gepgBillSubRespAck = new GepgBillSubRespAck(7101);
-
-        String ackXml = parseToXml(gepgBillSubRespAck);
-
-        // Initialize with the required parameters
-        return signMessage(ackXml, GepgBillSubRespAck.class);
+        return ackCache.get(GepgBillSubRespAck.class, SUCCESS_CODE);
     }
 
     /**
@@ -525,16 +887,7 @@ public class GepgApiClient {
      * @throws Exception if an error occurs during signing or XML conversion
      */
     public <T> String signMessage(String message, Class<T> contentClass) throws Exception {
-        MessageUtil messageUtil = new MessageUtil(
-                this.privateKeystorePath,
-                this.publicKeystorePath,
-                this.privateKeystorePassword,
-                this.privateKeyAlias,
-                this.publicKeyAlias,
-                this.publicKeystorePassword,
-                this.keystoreType,
-                this.signatureAlgorithm);
-        return messageUtil.sign(message, contentClass);
+        return messageUtil().sign(message, contentClass);
     }
 
     /**
@@ -551,11 +904,7 @@ public class GepgApiClient {
      */
     public <T> boolean verify(String xmlString, Class<T> contentClass, String publicKeyPath, String publicKeyPassword,
             String publicKeyAlias) throws Exception {
-        MessageUtil messageUtil = new MessageUtil(this.privateKeystorePath, this.publicKeystorePath,
-                this.privateKeystorePassword, this.privateKeyAlias, this.publicKeyAlias, this.publicKeystorePassword,
-                this.keystoreType, this.signatureAlgorithm);
-
-        return messageUtil.verify(xmlString, contentClass);
+        return messageUtil().verify(xmlString, contentClass);
     }
 
     /**
@@ -571,18 +920,46 @@ public class GepgApiClient {
      */
 
     public <T> boolean verifyMessage(String xmlString, Class<T> contentClass) throws Exception {
+        return messageUtil().verify(xmlString, contentClass);
+    }
 
-        MessageUtil messageUtil = new MessageUtil(
-                this.privateKeystorePath,
-                this.publicKeystorePath,
-                this.privateKeystorePassword,
-                this.privateKeyAlias,
-                this.publicKeyAlias,
-                this.publicKeystorePassword,
-                this.keystoreType,
-                this.signatureAlgorithm);
+    /**
+     * Verifies the signature of a payload received from GePG and returns its
+     * content. The signature is checked over the content exactly as it appears
+     * in the payload, and the content is unmarshalled from the same text.
+     *
+     * @param xmlString    the signed payload received from GePG
+     * @param contentClass the class of the content to be extracted
+     * @param <T>          the type of the content
+     * @return the content as a POJO
+     * @throws ValidationException if the signature is not valid
+     * @throws Exception           if the payload cannot be parsed
+     */
+    public <T> T verifyAndUnwrap(String xmlString, Class<T> contentClass) throws Exception {
+        return requireValid(messageUtil().verifyPayload(xmlString, contentClass), contentClass);
+    }
 
-        return messageUtil.verify(xmlString, contentClass);
+    /**
+     * Verifies the signature of a payload received from GePG as raw UTF-8 bytes
+     * and returns its content, without decoding the payload into a string.
+     *
+     * @param payload      the signed payload received from GePG
+     * @param contentClass the class of the content to be extracted
+     * @param <T>          the type of the content
+     * @return the content as a POJO
+     * @throws ValidationException if the signature is not valid
+     * @throws Exception           if the payload cannot be parsed
+     */
+    public <T> T verifyAndUnwrap(byte[] payload, Class<T> contentClass) throws Exception {
+        return requireValid(messageUtil().verifyPayload(payload, contentClass), contentClass);
+    }
+
+    private static <T> T requireValid(VerifiedMessage<T> verified, Class<T> contentClass) {
+        if (!verified.isValid()) {
+            logger.error("SIGNATURE_VERIFICATION_FAILED for {}", contentClass.getSimpleName());
+            throw new ValidationException("Signature verification failed for " + contentClass.getSimpleName());
+        }
+        return verified.getContent();
     }
 
     /**
@@ -633,8 +1010,21 @@ public class GepgApiClient {
      * @throws Exception if an error occurs during XML conversion
      */
     public String generatePayload(Object object) throws Exception {
-        String xml = XmlUtil.convertToXmlStringWithoutDeclaration(object);
-        return signMessage(xml, object.getClass());
+        // Serialize and sign once, without unmarshalling the XML we just produced
+        return messageUtil().signPayload(object);
+    }
+
+    /**
+     * Converts a JAXB-annotated object to a signed payload held as UTF-8
+     * bytes, which the {@link SignedPayload} overloads send without encoding
+     * it again.
+     *
+     * @param object the JAXB-annotated object to convert
+     * @return the signed payload
+     * @throws Exception if an error occurs during XML conversion
+     */
+    public SignedPayload generateSignedPayload(Object object) throws Exception {
+        return messageUtil().signPayloadBytes(object);
     }
 
     /**
@@ -676,6 +1066,7 @@ public class GepgApiClient {
      * Generates a response acknowledgment for the specified class with status code
      * 7101,
      * converts it to an XML string, signs it, and returns the signed XML string.
+     * The signed ack is cached per class until the keys are rotated.
      *
      * @param instance the class type to generate the acknowledgment for
      * @param <T>      the type of the class
@@ -683,28 +1074,25 @@ public class GepgApiClient {
      * @throws Exception if an error occurs during the process
      */
     public <T> String generateResponseAck(T instance) throws Exception {
-        Class<?> clazz = instance.getClass();
-
-        // Set the status code based on the class type
-        if (clazz == GepgBillSubRespAck.class) {
-            clazz.getMethod("setTrxStsCode", int.class).invoke(instance, 7101);
-        } else if (clazz == GepgBillSubResAck.class) {
-            clazz.getMethod("setTrxStsCode", int.class).invoke(instance, 7101);
-        } else if (clazz == GepgPmtSpInfoAck.class) {
-            clazz.getMethod("setTrxStsCode", int.class).invoke(instance, 7101);
-        } else if (clazz == GepgOlPmtNtfSpInfoAck.class) {
-            clazz.getMethod("setOlStsCode", int.class).invoke(instance, 7101);
-        } else if (clazz == GepgSpReconcRespAck.class) {
-            clazz.getMethod("setReconcStsCode", int.class).invoke(instance, 7101);
-        } else {
-            throw new IllegalArgumentException("Unknown response class: " + clazz.getSimpleName());
-        }
-
-        // Convert the instance to an XML string
-        String ackXml = parseToXml(instance);
+        return ackCache.get(instance.getClass(), SUCCESS_CODE);
+    }
 
-        // Sign the XML string
-        return signMessage(ackXml, clazz);
+    /**
+     * Returns the signed acknowledgement for an ack class and status code. Acks
+     * are signed once per class, code and key generation and then served from
+     * memory, so this does not sign on every callback.
+     *
+     * @param ackClass   one of {@link GepgBillSubRespAck},
+     *                   {@link GepgBillSubResAck}, {@link GepgPmtSpInfoAck},
+     *                   {@link GepgOlPmtNtfSpInfoAck} or
+     *                   {@link GepgSpReconcRespAck}
+     * @param statusCode the status code to acknowledge with
+     * @return the signed XML string representing the acknowledgment
+     * @throws IllegalArgumentException if the class is not an ack class
+     * @throws Exception                if the ack cannot be signed
+     */
+    public String getSignedAck(Class<?> ackClass, int statusCode) throws Exception {
+        return ackCache.get(ackClass, statusCode);
     }
 
     /**
@@ -791,68 +1179,581 @@ public class GepgApiClient {
 
     /*
      * ============================================================================
-     * PRIVATE METHODS
+     * ASYNCHRONOUS METHODS
      * ============================================================================
      */
 
     /**
-     * Sends the signed request to the GePG API and returns the response.
+     * Submits a bill to the GePG API without blocking the calling thread.
+     *
+     * <p>
+     * Example usage:
+     * </p>
+     *
+     * <pre>{@code
+     * client.generatePayloadAsync(bill)
+     *         .thenCompose(client::submitBillAsync)
+     *         .thenAccept(ack -> System.out.println(ack.getTrxStsCode()));
+     * }</pre>
      *
      * @param signedRequest the signed XML request
-     * @param headerInfo    the GePG specific header information
-     * @return the response from the GePG API
-     * @throws Exception if an error occurs during the request
+     * @return a future completed with the acknowledgment response from the GePG
+     *         API
+     */
+    public CompletableFuture<GepgBillSubReqAck> submitBillAsync(String signedRequest) {
+        return submitAsync(GepgEndpoints.SUBMIT_BILL, utf8(signedRequest), GEPG_COM, "BILL_SUBMISSION_RESPONSE",
+                GepgBillSubReqAck.class, GepgBillSubReqAck::getTrxStsCode);
+    }
+
+    /**
+     * Submits a bill to the GePG API without blocking the calling thread,
+     * sending the payload bytes as they are.
+     *
+     * <pre>{@code
+     * client.generateSignedPayloadAsync(bill)
+     *         .thenCompose(client::submitBillAsync)
+     *         .thenAccept(ack -> System.out.println(ack.getTrxStsCode()));
+     * }</pre>
+     *
+     * @param payload the signed payload
+     * @return a future completed with the acknowledgment response from the GePG
+     *         API
+     */
+    public CompletableFuture<GepgBillSubReqAck> submitBillAsync(SignedPayload payload) {
+        return submitAsync(GepgEndpoints.SUBMIT_BILL, payload.getBytes(), GEPG_COM, "BILL_SUBMISSION_RESPONSE",
+                GepgBillSubReqAck.class, GepgBillSubReqAck::getTrxStsCode);
+    }
+
+    /**
+     * Submits a control number reuse request to the GePG API without blocking the
+     * calling thread.
+     *
+     * @param signedRequest the signed XML request
+     * @return a future completed with the acknowledgment response from the GePG
+     *         API
+     */
+    public CompletableFuture<GepgBillSubReqAck> reuseControlNumberAsync(String signedRequest) {
+        return submitAsync(GepgEndpoints.REUSE_CONTROL_NUMBER, utf8(signedRequest), GEPG_COM_CN_REUSE,
+                "CONTROL_NUMBER_REUSE_REQUEST_RESPONSE", GepgBillSubReqAck.class, GepgBillSubReqAck::getTrxStsCode);
+    }
+
+    /**
+     * Submits a control number reuse request to the GePG API without blocking the
+     * calling thread, sending the payload bytes as they are.
+     *
+     * @param payload the signed payload
+     * @return a future completed with the acknowledgment response from the GePG
+     *         API
+     */
+    public CompletableFuture<GepgBillSubReqAck> reuseControlNumberAsync(SignedPayload payload) {
+        return submitAsync(GepgEndpoints.REUSE_CONTROL_NUMBER, payload.getBytes(), GEPG_COM_CN_REUSE,
+                "CONTROL_NUMBER_REUSE_REQUEST_RESPONSE", GepgBillSubReqAck.class, GepgBillSubReqAck::getTrxStsCode);
+    }
+
+    /**
+     * Submits a bill change/update request to the GePG API without blocking the
+     * calling thread.
+     *
+     * @param signedRequest the signed XML request
+     * @return a future completed with the acknowledgment response from the GePG
+     *         API
+     */
+    public CompletableFuture<GepgBillSubReqAck> updateBillAsync(String signedRequest) {
+        return submitAsync(GepgEndpoints.UPDATE_BILL, utf8(signedRequest), GEPG_COM_BILL_CHANGE,
+                "BILL_UPDATE_REQUEST_RESPONSE", GepgBillSubReqAck.class, GepgBillSubReqAck::getTrxStsCode);
+    }
+
+    /**
+     * Submits a bill change/update request to the GePG API without blocking the
+     * calling thread, sending the payload bytes as they are.
+     *
+     * @param payload the signed payload
+     * @return a future completed with the acknowledgment response from the GePG
+     *         API
+     */
+    public CompletableFuture<GepgBillSubReqAck> updateBillAsync(SignedPayload payload) {
+        return submitAsync(GepgEndpoints.UPDATE_BILL, payload.getBytes(), GEPG_COM_BILL_CHANGE,
+                "BILL_UPDATE_REQUEST_RESPONSE", GepgBillSubReqAck.class, GepgBillSubReqAck::getTrxStsCode);
+    }
+
+    /**
+     * Submits a bill cancellation request to the GePG API without blocking the
+     * calling thread.
+     *
+     * @param signedRequest the signed XML request
+     * @return a future completed with the acknowledgment response from the GePG
+     *         API
+     */
+    public CompletableFuture<GepgBillSubReqAck> cancelBillAsync(String signedRequest) {
+        return submitAsync(GepgEndpoints.CANCEL_BILL, utf8(signedRequest), CONTENT_TYPE, "CANCEL_BILL_REQUEST_RESPONSE",
+                GepgBillSubReqAck.class, GepgBillSubReqAck::getTrxStsCode);
+    }
+
+    /**
+     * Submits a bill cancellation request to the GePG API without blocking the
+     * calling thread, sending the payload bytes as they are.
+     *
+     * @param payload the signed payload
+     * @return a future completed with the acknowledgment response from the GePG
+     *         API
+     */
+    public CompletableFuture<GepgBillSubReqAck> cancelBillAsync(SignedPayload payload) {
+        return submitAsync(GepgEndpoints.CANCEL_BILL, payload.getBytes(), CONTENT_TYPE, "CANCEL_BILL_REQUEST_RESPONSE",
+                GepgBillSubReqAck.class, GepgBillSubReqAck::getTrxStsCode);
+    }
+
+    /**
+     * Submits a payment to the GePG API without blocking the calling thread.
+     *
+     * @param signedRequest the signed XML request
+     * @return a future completed with the acknowledgment response from the GePG
+     *         API
      */
-    private String sendRequest(String submissionUrl, String signedRequest, String headerInfo) throws Exception {
-        URL url = new URL(submissionUrl);
-        int retryCount = 3;
-        int initialDelay = 1000; // 1 second
+    public CompletableFuture<GepgPmtSpInfoAck> submitPaymentAsync(String signedRequest) {
+        return submitAsync(GepgEndpoints.SEND_PAYMENT, utf8(signedRequest), CONTENT_TYPE,
+                "PAYMENT_SUBMISSION_REQUEST_RESPONSE", GepgPmtSpInfoAck.class, GepgPmtSpInfoAck::getTrxStsCode);
+    }
 
-        logger.info("SUBMISSION_URL:{}", url);
+    /**
+     * Submits a payment to the GePG API without blocking the calling thread,
+     * sending the payload bytes as they are.
+     *
+     * @param payload the signed payload
+     * @return a future completed with the acknowledgment response from the GePG
+     *         API
+     */
+    public CompletableFuture<GepgPmtSpInfoAck> submitPaymentAsync(SignedPayload payload) {
+        return submitAsync(GepgEndpoints.SEND_PAYMENT, payload.getBytes(), CONTENT_TYPE,
+                "PAYMENT_SUBMISSION_REQUEST_RESPONSE", GepgPmtSpInfoAck.class, GepgPmtSpInfoAck::getTrxStsCode);
+    }
+
+    /**
+     * Submits a reconciliation request to the GePG API without blocking the
+     * calling thread.
+     *
+     * @param signedRequest the signed XML request
+     * @return a future completed with the acknowledgment response from the GePG
+     *         API
+     */
+    public CompletableFuture<GepgSpReconcRespAck> requestReconciliationAsync(String signedRequest) {
+        return submitAsync(GepgEndpoints.REQUEST_RECONCILIATION, utf8(signedRequest), CONTENT_TYPE,
+                "RECONCILIATION_REQUEST_RESPONSE", GepgSpReconcRespAck.class, GepgSpReconcRespAck::getReconcStsCode);
+    }
+
+    /**
+     * Submits a reconciliation request to the GePG API without blocking the
+     * calling thread, sending the payload bytes as they are.
+     *
+     * @param payload the signed payload
+     * @return a future completed with the acknowledgment response from the GePG
+     *         API
+     */
+    public CompletableFuture<GepgSpReconcRespAck> requestReconciliationAsync(SignedPayload payload) {
+        return submitAsync(GepgEndpoints.REQUEST_RECONCILIATION, payload.getBytes(), CONTENT_TYPE,
+                "RECONCILIATION_REQUEST_RESPONSE", GepgSpReconcRespAck.class, GepgSpReconcRespAck::getReconcStsCode);
+    }
+
+    /**
+     * Converts a JAXB-annotated object to a signed GepgPayload string on the
+     * signing executor, so it can be chained with the asynchronous submit
+     * methods.
+     *
+     * @param object the JAXB-annotated object to convert
+     * @return a future completed with the signed payload
+     */
+    public CompletableFuture<String> generatePayloadAsync(Object object) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return generatePayload(object);
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        }, signingExecutor);
+    }
 
-        for (int attempt = 0; attempt < retryCount; attempt++) {
-            HttpURLConnection connection = null;
+    /**
+     * Converts a JAXB-annotated object to a signed payload held as UTF-8 bytes
+     * on the signing executor.
+     *
+     * @param object the JAXB-annotated object to convert
+     * @return a future completed with the signed payload
+     */
+    public CompletableFuture<SignedPayload> generateSignedPayloadAsync(Object object) {
+        return CompletableFuture.supplyAsync(() -> {
             try {
-                connection = (HttpURLConnection) url.openConnection();
-                connection.setRequestMethod("POST");
-                connection.setRequestProperty("Content-Type", CONTENT_TYPE);
-                connection.setRequestProperty("Gepg-Com", headerInfo);
-                connection.setRequestProperty("Gepg-Code", gepgCode);
-                connection.setDoOutput(true);
-                connection.setConnectTimeout(5000); // 5 seconds
-                connection.setReadTimeout(5000); // 5 seconds
+                return generateSignedPayload(object);
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        }, signingExecutor);
+    }
 
-                connection.getOutputStream().write(signedRequest.getBytes("UTF-8"));
+    /**
+     * Signs and submits a batch of bills, with at most
+     * {@link #DEFAULT_BATCH_CONCURRENCY} submissions in flight.
+     *
+     * @param bills the bills to submit
+     * @return the per-bill results, in the order the bills were given
+     * @throws Exception if the batch was interrupted
+     * @see #submitBillBatch(Collection, int)
+     */
+    public BillBatchResult submitBillBatch(Collection<GepgBillSubReq> bills) throws Exception {
+        return submitBillBatch(bills, DEFAULT_BATCH_CONCURRENCY);
+    }
 
-                Scanner scanner = new Scanner(connection.getInputStream());
-                String response = scanner.useDelimiter("\\A").next();
-                scanner.close();
+    /**
+     * Signs and submits a batch of bills, blocking until every bill has a result.
+     *
+     * <p>
+     * Bills are signed in parallel on the signing executor and submitted with at
+     * most {@code concurrency} in flight. A bill that fails to sign or submit is
+     * reported in its result and does not stop the rest of the batch.
+     * </p>
+     *
+     * <p>
+     * Example usage:
+     * </p>
+     *
+     * <pre>{@code
+     * BillBatchResult batch = client.submitBillBatch(bills, 50);
+     * for (BillSubmissionResult result : batch.getResults()) {
+     *     if (!result.isSuccess()) {
+     *         retryLater(result.getBill(), result.getError());
+     *     }
+     * }
+     * }</pre>
+     *
+     * @param bills       the bills to submit
+     * @param concurrency the maximum number of submissions in flight
+     * @return the per-bill results, in the order the bills were given
+     * @throws Exception if the batch was interrupted
+     */
+    public BillBatchResult submitBillBatch(Collection<GepgBillSubReq> bills, int concurrency) throws Exception {
+        return submitBillBatchAsync(bills, concurrency).get();
+    }
 
-                return response;
+    /**
+     * Signs and submits a batch of bills without blocking the calling thread.
+     *
+     * @param bills       the bills to submit
+     * @param concurrency the maximum number of submissions in flight
+     * @return a future completed with the per-bill results, in the order the bills
+     *         were given
+     * @see #submitBillBatch(Collection, int)
+     */
+    public CompletableFuture<BillBatchResult> submitBillBatchAsync(Collection<GepgBillSubReq> bills,
+            int concurrency) {
+        BillBatchSubmitter submitter = new BillBatchSubmitter(
+                bill -> generateSignedPayloadAsync(bill).thenCompose(this::submitBillAsync), concurrency);
+        return submitter.submit(bills);
+    }
+
+    /*
+     * ============================================================================
+     * PRIVATE METHODS
+     * ============================================================================
+     */
 
-            } catch (SocketTimeoutException e) {
-                logger.warn("Request timed out. Attempt: {}/{}", attempt + 1, retryCount);
-                if (attempt == retryCount - 1) {
-                    throw new IOException("Failed after " + retryCount + " attempts", e);
-                }
+    /**
+     * Sends the signed request to the GePG API and returns the response.
+     * Timeouts, refused connections and 502, 503 and 504 responses are retried
+     * with a randomized exponential backoff while the endpoint's retry budget
+     * lasts. Requests to an endpoint whose circuit is open, or that is at its
+     * concurrency limit, fail at once with a
+     * {@link com.watabelabs.gepg.resilience.GepgRejectedException}.
+     *
+     * @param endpoint   the endpoint to append to the API URL
+     * @param body       the signed XML request, encoded as UTF-8
+     * @param headerInfo the GePG specific header information
+     * @return the response from the GePG API
+     * @throws Exception if an error occurs during the request
+     */
+    private String sendRequest(String endpoint, byte[] body, String headerInfo) throws Exception {
+        String submissionUrl = apiUrl + endpoint;
+        logger.info("SUBMISSION_URL:{}", submissionUrl);
+
+        Map<String, String> headers = requestHeaders(headerInfo);
+        GepgMetrics metrics = GepgMetricsRegistry.get();
+        EndpointGuard guard = endpointGuards.guard(endpoint);
+
+        for (int attempt = 0;; attempt++) {
+            if (attempt > 0) {
+                metrics.requestRetried(endpoint, attempt + 1);
+            }
+            EndpointGuard.Permit permit = guard.acquire(attempt);
+            long start = metrics.isEnabled() ? System.nanoTime() : 0L;
+            IOException error;
+            try {
+                String response = httpTransport().post(submissionUrl, body, headers);
+                permit.release(null);
+                recordRequest(metrics, endpoint, start, RequestOutcome.SUCCESS);
+                return response;
             } catch (IOException e) {
-                logger.error("IOException occurred: ", e);
+                permit.release(e);
+                recordRequest(metrics, endpoint, start, outcomeOf(e));
+                error = e;
+            } catch (RuntimeException e) {
+                permit.release(e);
                 throw e;
-            } finally {
-                if (connection != null) {
-                    connection.disconnect();
-                }
             }
 
-            // Exponential backoff
+            IOException retryError = retryError(guard, error, attempt);
+            if (retryError != null) {
+                throw retryError;
+            }
+
+            // Randomized exponential backoff
             try {
-                Thread.sleep(initialDelay * (long) Math.pow(2, attempt));
+                Thread.sleep(EndpointGuard.backoffMillis(initialBackoffMillis, attempt));
             } catch (InterruptedException ie) {
                 Thread.currentThread().interrupt();
                 throw new IOException("Retry interrupted", ie);
             }
         }
-        throw new IOException("Request failed after " + retryCount + " attempts.");
+    }
+
+    /**
+     * Sends the signed request to the GePG API without blocking. Failed
+     * attempts are retried as by {@link #sendRequest}, with the backoff
+     * scheduled on a timer rather than slept through.
+     *
+     * @param endpoint   the endpoint to append to the API URL
+     * @param body       the signed XML request, encoded as UTF-8
+     * @param headerInfo the GePG specific header information
+     * @return a future completed with the response from the GePG API
+     */
+    private CompletableFuture<String> sendRequestAsync(String endpoint, byte[] body, String headerInfo) {
+        String submissionUrl = apiUrl + endpoint;
+        logger.info("SUBMISSION_URL:{}", submissionUrl);
+
+        Map<String, String> headers = requestHeaders(headerInfo);
+
+        return attemptAsync(endpointGuards.guard(endpoint), endpoint, submissionUrl, body, headers, 0);
+    }
+
+    private CompletableFuture<String> attemptAsync(EndpointGuard guard, String endpoint, String submissionUrl,
+            byte[] body, Map<String, String> headers, int attempt) {
+        GepgMetrics metrics = GepgMetricsRegistry.get();
+        if (attempt > 0) {
+            metrics.requestRetried(endpoint, attempt + 1);
+        }
+        EndpointGuard.Permit permit;
+        try {
+            permit = guard.acquire(attempt);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        long start = metrics.isEnabled() ? System.nanoTime() : 0L;
+        return httpTransport().postAsync(submissionUrl, body, headers)
+                .handle((response, error) -> {
+                    if (error == null) {
+                        permit.release(null);
+                        recordRequest(metrics, endpoint, start, RequestOutcome.SUCCESS);
+                        return CompletableFuture.completedFuture(response);
+                    }
+                    Throwable cause = error instanceof CompletionException && error.getCause() != null
+                            ? error.getCause()
+                            : error;
+                    permit.release(cause);
+                    recordRequest(metrics, endpoint, start, outcomeOf(cause));
+                    if (!(cause instanceof IOException)) {
+                        logger.error("Request failed without retry: ", cause);
+                        return CompletableFuture.<String>failedFuture(cause);
+                    }
+
+                    IOException retryError = retryError(guard, (IOException) cause, attempt);
+                    if (retryError != null) {
+                        return CompletableFuture.<String>failedFuture(retryError);
+                    }
+
+                    // Randomized exponential backoff, without holding a thread while waiting
+                    Executor delayed = CompletableFuture.delayedExecutor(
+                            EndpointGuard.backoffMillis(initialBackoffMillis, attempt), TimeUnit.MILLISECONDS);
+                    return CompletableFuture.runAsync(() -> {
+                    }, delayed).thenCompose(ignored -> attemptAsync(guard, endpoint, submissionUrl, body,
+                            headers, attempt + 1));
+                })
+                .thenCompose(Function.identity());
+    }
+
+    /**
+     * Decides whether a failed attempt is retried.
+     *
+     * @return null if the attempt is retried, otherwise the error to fail with
+     */
+    private IOException retryError(EndpointGuard guard, IOException error, int attempt) {
+        if (!EndpointGuard.isRetryable(error)) {
+            logger.error("IOException occurred: ", error);
+            return error;
+        }
+        logger.warn("Request failed: {}. Attempt: {}/{}", error.getMessage(), attempt + 1, maxAttempts);
+        if (attempt == maxAttempts - 1) {
+            return new IOException("Failed after " + maxAttempts + " attempts", error);
+        }
+        if (!guard.tryRetry()) {
+            return new IOException("Retry budget exhausted after " + (attempt + 1) + " attempts", error);
+        }
+        return null;
+    }
+
+    /**
+     * Sends a request asynchronously and maps the acknowledgment in the
+     * response.
+     *
+     * @param endpoint      the endpoint to append to the API URL
+     * @param body          the signed XML request, encoded as UTF-8
+     * @param headerInfo    the GePG specific header information
+     * @param responseLabel the label the response is logged under
+     * @param ackClass      the class of the acknowledgment
+     * @param statusCode    reads the status code from the acknowledgment
+     * @param <T>           the type of the acknowledgment
+     * @return a future completed with the acknowledgment
+     */
+    private <T> CompletableFuture<T> submitAsync(String endpoint, byte[] body, String headerInfo,
+            String responseLabel, Class<T> ackClass, ToIntFunction<T> statusCode) {
+        long start = System.nanoTime();
+        return sendRequestAsync(endpoint, body, headerInfo).thenApply(response -> {
+            try {
+                return readAck(endpoint, responseLabel, response, ackClass, statusCode, start);
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        });
+    }
+
+    private GepgHttpTransport httpTransport() {
+        GepgHttpTransport transport = httpTransport;
+        if (transport == null) {
+            // Looked up on first use, so a client that never sends starts no HTTP client
+            transport = JdkHttpTransport.shared(config.getHttpPoolSize(), config.getConnectTimeout(),
+                    config.getRequestTimeout());
+            httpTransport = transport;
+        }
+        return transport;
+    }
+
+    private GepgAMqPublisher publisher() {
+        return publisher != null ? publisher : GepgAMqPublisher.shared(config);
+    }
+
+    private static byte[] utf8(String signedRequest) {
+        return signedRequest.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private Map<String, String> requestHeaders(String headerInfo) {
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Content-Type", CONTENT_TYPE);
+        headers.put("Gepg-Com", headerInfo);
+        headers.put("Gepg-Code", gepgCode);
+        return headers;
+    }
+
+    private static void recordRequest(GepgMetrics metrics, String endpoint, long start, RequestOutcome outcome) {
+        if (metrics.isEnabled()) {
+            metrics.requestCompleted(endpoint, System.nanoTime() - start, outcome);
+        }
+    }
+
+    private static RequestOutcome outcomeOf(Throwable error) {
+        return error instanceof SocketTimeoutException ? RequestOutcome.TIMEOUT : RequestOutcome.FAILURE;
+    }
+
+    /**
+     * Reads the acknowledgment in a response, records its status code and logs
+     * the response. The raw response is logged before it is parsed, and at WARN
+     * if it cannot be read.
+     *
+     * @param endpoint      the endpoint the request was sent to
+     * @param responseLabel the label the response is logged under
+     * @param response      the response body
+     * @param ackClass      the class of the acknowledgment
+     * @param statusCode    reads the status code from the acknowledgment
+     * @param start         {@link System#nanoTime()} when the request was sent
+     * @param <T>           the type of the acknowledgment
+     * @return the acknowledgment
+     * @throws Exception if the response cannot be read
+     */
+    private <T> T readAck(String endpoint, String responseLabel, String response, Class<T> ackClass,
+            ToIntFunction<T> statusCode, long start) throws Exception {
+        PayloadLogger.received(responseLabel, response);
+        T ack;
+        try {
+            Envelope<T> envelope = mapResponse(response, ackClass);
+            if (envelope == null || envelope.getContent() == null || envelope.getContent().isEmpty()) {
+                throw new ValidationException("Response has no acknowledgment");
+            }
+            ack = envelope.getContent().get(0);
+        } catch (Exception e) {
+            PayloadLogger.unreadable(logger, responseLabel, response, e);
+            throw e;
+        }
+        int code = statusCode.applyAsInt(ack);
+        recordAck(endpoint, code);
+        PayloadLogger.response(logger, responseLabel, code, response, start);
+        return ack;
+    }
+
+    private static void recordAck(String endpoint, int statusCode) {
+        GepgMetricsRegistry.get().acknowledged(endpoint, statusCode);
+    }
+
+    /**
+     * Creates a {@link MessageUtil} for the current key configuration. The keys
+     * themselves are cached by {@link KeyStoreHolder}, so this is cheap to call
+     * on every request.
+     *
+     * @return a MessageUtil bound to this client's keystores
+     */
+    private MessageUtil messageUtil() {
+        checkKeystoresReadable();
+        return new MessageUtil(
+                this.privateKeystorePath,
+                this.publicKeystorePath,
+                this.privateKeystorePassword,
+                this.privateKeyAlias,
+                this.publicKeyAlias,
+                this.publicKeystorePassword,
+                this.keystoreType,
+                this.signatureAlgorithm,
+                this.signatureProvider);
+    }
+
+    /**
+     * Reads this client's keystores now rather than when a message is first
+     * signed or verified, so bad credentials fail here.
+     *
+     * @throws RuntimeException if a keystore cannot be read or a key cannot be
+     *                          loaded from it
+     */
+    public void loadKeys() {
+        KeyStoreHolder holder = messageUtil().getKeyStoreHolder();
+        try {
+            holder.getPrivateKey();
+        } catch (RuntimeException e) {
+            // Do not keep a holder for credentials that do not work
+            releaseKeys();
+            throw e;
+        }
+    }
+
+    /**
+     * Drops the keys cached for this client's key configuration, so they are no
+     * longer kept in memory or checked for rotation. Call it when the client is
+     * discarded; a client that is used again loads its keys again.
+     *
+     * @return true if cached keys were dropped
+     */
+    public boolean releaseKeys() {
+        return KeyStoreHolder.release(
+                this.privateKeystorePath,
+                this.publicKeystorePath,
+                this.privateKeystorePassword,
+                this.privateKeyAlias,
+                this.publicKeyAlias,
+                this.publicKeystorePassword,
+                this.keystoreType,
+                this.signatureAlgorithm,
+                this.signatureProvider);
     }
 
     /**
@@ -867,9 +1768,18 @@ public class GepgApiClient {
      */
     @SuppressWarnings("unchecked")
     private <T> Envelope<T> mapResponse(String response, Class<T> contentClass) throws Exception {
-        JAXBContext context = JAXBContext.newInstance(Envelope.class, contentClass);
-        Unmarshaller unmarshaller = context.createUnmarshaller();
+        GepgMetrics metrics = GepgMetricsRegistry.get();
+        long start = metrics.isEnabled() ? System.nanoTime() : 0L;
+
+        JAXBContext context = JaxbContextRegistry.getEnvelopeContext(contentClass);
+        Unmarshaller unmarshaller = JaxbContextRegistry.borrowUnmarshaller(context);
         StringReader reader = new StringReader(response);
-        return (Envelope<T>) unmarshaller.unmarshal(reader);
+        Envelope<T> envelope = (Envelope<T>) unmarshaller.unmarshal(reader);
+        JaxbContextRegistry.release(context, unmarshaller);
+
+        if (metrics.isEnabled()) {
+            metrics.unmarshalled(contentClass, System.nanoTime() - start);
+        }
+        return envelope;
     }
 }
@@ -0,0 +1,40 @@
+package com.watabelabs.gepg.amqp;
+
+import com.rabbitmq.client.ConnectionFactory;
+import com.watabelabs.gepg.config.GepgConfig;
+
+/**
+ * Builds RabbitMQ connection factories for the publisher and the consumer.
+ */
+public class GepgAMqConnections {
+
+    private GepgAMqConnections() {
+    }
+
+    /**
+     * Creates a connection factory for the broker configured by the
+     * RABBITMQ_HOST, RABBITMQ_PORT, RABBITMQ_USERNAME and RABBITMQ_PASSWORD
+     * environment variables, or the defaults in {@link GepgConfig} where they
+     * are not set.
+     *
+     * @return the connection factory
+     */
+    public static ConnectionFactory fromEnv() {
+        return fromConfig(GepgConfig.fromEnv());
+    }
+
+    /**
+     * Creates a connection factory for the broker in the configuration.
+     *
+     * @param config the configuration
+     * @return the connection factory
+     */
+    public static ConnectionFactory fromConfig(GepgConfig config) {
+        ConnectionFactory factory = new ConnectionFactory();
+        factory.setHost(config.getRabbitMqHost());
+        factory.setPort(config.getRabbitMqPort());
+        factory.setUsername(config.getRabbitMqUsername());
+        factory.setPassword(config.getRabbitMqPassword());
+        return factory;
+    }
+}
@@ -0,0 +1,318 @@
+package com.watabelabs.gepg.amqp.consumer;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+import com.rabbitmq.client.Delivery;
+import com.watabelabs.gepg.GepgApiClient;
+import com.watabelabs.gepg.amqp.GepgAMqConnections;
+import com.watabelabs.gepg.amqp.enums.GepgQueueHeaderRequestType;
+import com.watabelabs.gepg.amqp.headers.GepgQueueHeaders;
+import com.watabelabs.gepg.amqp.queues.GepgAMqQueues;
+import com.watabelabs.gepg.config.GepgConfig;
+import com.watabelabs.gepg.http.JdkHttpTransport;
+
+/**
+ * Consumes the GePG request queues and submits each message to the GePG API.
+ *
+ * <p>
+ * Messages are routed on their {@code REQUEST_TYPE} header, as set by the
+ * {@code publish*} methods of {@link GepgApiClient}, to the matching
+ * asynchronous submit method. Each queue is read on its own channel with
+ * manual acknowledgement and a prefetch limit, so up to {@code prefetch}
+ * messages per queue are submitted at once. A message is acknowledged when the
+ * GePG acknowledgement arrives. A failed submission is returned to the queue
+ * once; if it fails again it is rejected, which dead-letters it when the queue
+ * has a dead letter exchange. Messages with an unknown request type are
+ * rejected straight away.
+ * </p>
+ *
+ * <p>
+ * The connection uses automatic recovery, so the consumers are registered
+ * again after the broker drops the connection. Messages that were in flight
+ * when it dropped are redelivered by the broker.
+ * </p>
+ *
+ * <p>
+ * The default handlers do not hold a thread while a request is in flight. A
+ * handler that blocks, such as one made with
+ * {@link GepgMessageHandler#blocking}, holds one thread per in-flight message;
+ * on JDK 21 or later give it an executor from
+ * {@link com.watabelabs.gepg.utils.VirtualThreads#newExecutor(String)} so those
+ * are virtual threads.
+ * </p>
+ *
+ * <p>
+ * Example usage:
+ * </p>
+ *
+ * <pre>{@code
+ * GepgAMqConsumer consumer = new GepgAMqConsumer(client);
+ * consumer.start();
+ * ...
+ * consumer.close();
+ * }</pre>
+ */
+public class GepgAMqConsumer implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(GepgAMqConsumer.class);
+
+    /**
+     * Default number of unacknowledged messages per queue, the same as the HTTP
+     * connection pool so the queue can keep every connection busy.
+     */
+    public static final int DEFAULT_PREFETCH = JdkHttpTransport.DEFAULT_POOL_SIZE;
+
+    /** Default time {@link #close()} waits for in-flight messages. */
+    public static final Duration DEFAULT_SHUTDOWN_TIMEOUT = Duration.ofSeconds(30);
+
+    private static final String REQUEST_TYPE = GepgQueueHeaderRequestType.REQUEST_TYPE.toString();
+
+    private final ConnectionFactory connectionFactory;
+    private final int prefetch;
+    private final Map<String, GepgMessageHandler> handlers = new ConcurrentHashMap<>();
+    private final Set<CompletableFuture<?>> inFlight = ConcurrentHashMap.newKeySet();
+    private final Map<String, Channel> consumers = new ConcurrentHashMap<>();
+
+    private Duration shutdownTimeout = DEFAULT_SHUTDOWN_TIMEOUT;
+    private ExecutorService executor;
+    private Connection connection;
+
+    /**
+     * Creates a consumer for the broker configured by the RABBITMQ_HOST,
+     * RABBITMQ_PORT, RABBITMQ_USERNAME and RABBITMQ_PASSWORD environment
+     * variables.
+     *
+     * @param client the client that submits the messages
+     */
+    public GepgAMqConsumer(GepgApiClient client) {
+        this(client, GepgAMqConnections.fromEnv(), DEFAULT_PREFETCH);
+    }
+
+    /**
+     * Creates a consumer for the broker in the configuration.
+     *
+     * @param client the client that submits the messages
+     * @param config the configuration
+     */
+    public GepgAMqConsumer(GepgApiClient client, GepgConfig config) {
+        this(client, GepgAMqConnections.fromConfig(config), DEFAULT_PREFETCH);
+    }
+
+    /**
+     * Creates a consumer. Automatic recovery is switched on in the factory.
+     *
+     * @param client            the client that submits the messages
+     * @param connectionFactory the factory for the broker connection
+     * @param prefetch          the maximum number of unacknowledged messages per
+     *                          queue
+     */
+    public GepgAMqConsumer(GepgApiClient client, ConnectionFactory connectionFactory, int prefetch) {
+        if (prefetch < 1) {
+            throw new IllegalArgumentException("Prefetch must be at least 1: " + prefetch);
+        }
+        connectionFactory.setAutomaticRecoveryEnabled(true);
+        connectionFactory.setTopologyRecoveryEnabled(true);
+        this.connectionFactory = connectionFactory;
+        this.prefetch = prefetch;
+
+        setHandler(GepgQueueHeaders.BILL_SUBMISSION_HEADER, client::submitBillAsync);
+        setHandler(GepgQueueHeaders.CONTROL_NUMBER_REUSE_HEADER, client::reuseControlNumberAsync);
+        setHandler(GepgQueueHeaders.BILL_UPDATE_HEADER, client::updateBillAsync);
+        setHandler(GepgQueueHeaders.BILL_CANCELLATION_HEADER, client::cancelBillAsync);
+        setHandler(GepgQueueHeaders.PAYMENT_SUBMISSION_HEADER, client::submitPaymentAsync);
+        setHandler(GepgQueueHeaders.RECONCILIATION_SUBMISSION_HEADER, client::requestReconciliationAsync);
+    }
+
+    /**
+     * Sets the handler for a request type, replacing the default one. Must be
+     * called before {@link #start(String...)}.
+     *
+     * @param requestType the {@code REQUEST_TYPE} header value
+     * @param handler     the handler for messages of that type
+     */
+    public void setHandler(String requestType, GepgMessageHandler handler) {
+        handlers.put(requestType.trim(), handler);
+    }
+
+    /**
+     * Sets how long {@link #close()} waits for in-flight messages.
+     *
+     * @param shutdownTimeout the shutdown timeout
+     */
+    public void setShutdownTimeout(Duration shutdownTimeout) {
+        this.shutdownTimeout = shutdownTimeout;
+    }
+
+    /**
+     * Sets the executor the connection dispatches deliveries on, for example
+     * one from {@link com.watabelabs.gepg.utils.VirtualThreads#newExecutor(String)}.
+     * Must be called before {@link #start(String...)}. The consumer does not
+     * shut it down.
+     *
+     * @param executor the delivery executor, or null for the client library's
+     *                 own pool
+     */
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Returns the number of messages being submitted.
+     *
+     * @return the number of in-flight messages
+     */
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    /**
+     * Starts consuming the given queues, or the bill, payment and reconciliation
+     * queues when none are given. The queues are declared durable.
+     *
+     * @param queueNames the queues to consume
+     * @throws IOException      if the consumers could not be registered
+     * @throws TimeoutException if the connection could not be opened in time
+     */
+    public synchronized void start(String... queueNames) throws IOException, TimeoutException {
+        if (connection != null) {
+            throw new IllegalStateException("Consumer is already started");
+        }
+        if (queueNames.length == 0) {
+            queueNames = new String[] { GepgAMqQueues.BILL_SUBMISSION_QUEUE, GepgAMqQueues.PAYMENT_SUBMISSION_QUEUE,
+                    GepgAMqQueues.RECONCILIATION_SUBMISSION_QUEUE };
+        }
+
+        connection = executor == null
+                ? connectionFactory.newConnection()
+                : connectionFactory.newConnection(executor);
+        for (String queueName : queueNames) {
+            Channel channel = connection.createChannel();
+            channel.queueDeclare(queueName, true, false, false, null);
+            channel.basicQos(prefetch);
+            String consumerTag = channel.basicConsume(queueName, false,
+                    (tag, delivery) -> onDelivery(channel, queueName, delivery),
+                    tag -> logger.warn("CONSUMER_CANCELLED_BY_BROKER {}", queueName));
+            consumers.put(consumerTag, channel);
+            logger.info("CONSUMER_STARTED {} prefetch={}", queueName, prefetch);
+        }
+    }
+
+    /**
+     * Stops taking new messages, waits up to the shutdown timeout for in-flight
+     * messages to be acknowledged, and closes the connection. Messages still in
+     * flight after the timeout are redelivered by the broker.
+     */
+    @Override
+    public synchronized void close() {
+        for (Map.Entry<String, Channel> consumer : consumers.entrySet()) {
+            try {
+                consumer.getValue().basicCancel(consumer.getKey());
+            } catch (Exception e) {
+                logger.warn("FAILED_TO_CANCEL_CONSUMER {}", consumer.getKey(), e);
+            }
+        }
+        consumers.clear();
+
+        try {
+            CompletableFuture.allOf(inFlight.toArray(new CompletableFuture<?>[0]))
+                    .get(shutdownTimeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            logger.warn("CONSUMER_CLOSED_WITH_MESSAGES_IN_FLIGHT {}", inFlight.size());
+        }
+
+        try {
+            if (connection != null) {
+                connection.close();
+            }
+        } catch (Exception e) {
+            logger.error("FAILED_TO_CLOSE_RABBITMQ_CONNECTION", e);
+        }
+    }
+
+    private void onDelivery(Channel channel, String queueName, Delivery delivery) {
+        long deliveryTag = delivery.getEnvelope().getDeliveryTag();
+        String requestType = requestType(delivery);
+        GepgMessageHandler handler = requestType == null ? null : handlers.get(requestType);
+        if (handler == null) {
+            logger.error("UNKNOWN_REQUEST_TYPE {} on {}", requestType, queueName);
+            reject(channel, deliveryTag, false);
+            return;
+        }
+
+        String message = new String(delivery.getBody(), StandardCharsets.UTF_8);
+        CompletableFuture<?> response;
+        try {
+            response = handler.handle(message);
+        } catch (RuntimeException e) {
+            response = CompletableFuture.failedFuture(e);
+        }
+
+        CompletableFuture<?> tracked = response.whenComplete((ack, error) -> {
+            if (error == null) {
+                logger.info("MESSAGE_PROCESSED {} {}", requestType, ack);
+                acknowledge(channel, deliveryTag);
+            } else {
+                Throwable cause = error instanceof CompletionException && error.getCause() != null
+                        ? error.getCause()
+                        : error;
+                boolean requeue = !delivery.getEnvelope().isRedeliver();
+                logger.error("FAILED_TO_PROCESS_MESSAGE {} requeue={}", requestType, requeue, cause);
+                reject(channel, deliveryTag, requeue);
+            }
+        });
+        inFlight.add(tracked);
+        tracked.whenComplete((ignored, error) -> inFlight.remove(tracked));
+    }
+
+    private static String requestType(Delivery delivery) {
+        Map<String, Object> headers = delivery.getProperties() == null
+                ? Collections.emptyMap()
+                : delivery.getProperties().getHeaders();
+        Object value = headers == null ? null : headers.get(REQUEST_TYPE);
+        // Header strings arrive as LongString, whose toString is the text
+        return value == null ? null : value.toString().trim();
+    }
+
+    /*
+     * Acknowledgements come from the HTTP client's threads, so writes to a
+     * channel are serialized on the channel.
+     */
+    private static void acknowledge(Channel channel, long deliveryTag) {
+        synchronized (channel) {
+            try {
+                channel.basicAck(deliveryTag, false);
+            } catch (Exception e) {
+                // The broker redelivers it after the channel is recovered
+                logger.error("FAILED_TO_ACK_MESSAGE {}", deliveryTag, e);
+            }
+        }
+    }
+
+    private static void reject(Channel channel, long deliveryTag, boolean requeue) {
+        synchronized (channel) {
+            try {
+                channel.basicReject(deliveryTag, requeue);
+            } catch (Exception e) {
+                logger.error("FAILED_TO_REJECT_MESSAGE {}", deliveryTag, e);
+            }
+        }
+    }
+}
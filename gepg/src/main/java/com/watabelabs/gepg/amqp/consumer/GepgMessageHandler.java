@@ -0,0 +1,57 @@
+package com.watabelabs.gepg.amqp.consumer;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+/**
+ * Handles one queued GePG request. The message is acknowledged to the broker
+ * when the returned future completes, and returned to the queue if it fails.
+ */
+@FunctionalInterface
+public interface GepgMessageHandler {
+
+    /**
+     * Handles a queued request.
+     *
+     * @param message the signed XML request taken from the queue
+     * @return a future completed with the GePG acknowledgement
+     */
+    CompletableFuture<?> handle(String message);
+
+    /**
+     * Adapts a blocking submission, such as {@code client::submitBill}, by
+     * running each message on the executor. With an executor from
+     * {@link com.watabelabs.gepg.utils.VirtualThreads#newExecutor(String)} every
+     * in-flight message, including its retries, waits on a virtual thread.
+     *
+     * @param submission the blocking submission
+     * @param executor   runs one submission per message
+     * @return the handler
+     */
+    static GepgMessageHandler blocking(BlockingSubmission submission, Executor executor) {
+        return message -> CompletableFuture.supplyAsync(() -> {
+            try {
+                return submission.submit(message);
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+
+    /**
+     * A submission that blocks until GePG acknowledges the request.
+     */
+    @FunctionalInterface
+    interface BlockingSubmission {
+
+        /**
+         * Submits a queued request.
+         *
+         * @param message the signed XML request taken from the queue
+         * @return the GePG acknowledgement
+         * @throws Exception if the request cannot be submitted
+         */
+        Object submit(String message) throws Exception;
+    }
+}
@@ -0,0 +1,157 @@
+package com.watabelabs.gepg.amqp.publisher;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.ShutdownSignalException;
+
+/**
+ * A channel in confirm mode that tracks unconfirmed messages by publish
+ * sequence number.
+ *
+ * <p>
+ * The broker acknowledges sequence numbers either one at a time or, when
+ * {@code multiple} is set, everything up to and including a number. Both are
+ * resolved against a sorted map, so a multiple ack settles its whole range in
+ * one pass. The channel must be used by one publishing thread at a time; the
+ * confirm callbacks may run concurrently with a publish.
+ * </p>
+ */
+final class ConfirmingChannel {
+
+    private final Channel channel;
+    private final ConcurrentNavigableMap<Long, CompletableFuture<Void>> unconfirmed = new ConcurrentSkipListMap<>();
+
+    // Cleared when the channel closes on its own; connection loss is recovered
+    private volatile boolean reusable = true;
+
+    /**
+     * Puts the channel in confirm mode and registers the confirm and shutdown
+     * listeners. The client library keeps both across connection recovery.
+     *
+     * @param channel the channel to wrap
+     * @throws IOException if confirm mode could not be enabled
+     */
+    ConfirmingChannel(Channel channel) throws IOException {
+        this.channel = channel;
+        channel.confirmSelect();
+        channel.addConfirmListener(
+                (deliveryTag, multiple) -> settle(deliveryTag, multiple, null),
+                (deliveryTag, multiple) -> settle(deliveryTag, multiple,
+                        new IOException("Message " + deliveryTag + " was rejected by the broker")));
+        channel.addShutdownListener(this::shutdown);
+    }
+
+    /**
+     * Publishes a message and returns a future for its confirm.
+     *
+     * @param exchange   the exchange to publish to
+     * @param routingKey the routing key
+     * @param props      the message properties
+     * @param body       the message body
+     * @return a future completed when the broker confirms the message
+     * @throws IOException if the message could not be written
+     */
+    CompletableFuture<Void> publish(String exchange, String routingKey, AMQP.BasicProperties props, byte[] body)
+            throws IOException {
+        long sequenceNumber = channel.getNextPublishSeqNo();
+        CompletableFuture<Void> confirmed = new CompletableFuture<>();
+
+        // Registered before publishing, the confirm can arrive before basicPublish returns
+        unconfirmed.put(sequenceNumber, confirmed);
+        try {
+            channel.basicPublish(exchange, routingKey, props, body);
+        } catch (IOException | RuntimeException e) {
+            unconfirmed.remove(sequenceNumber, confirmed);
+            throw e;
+        }
+
+        // Timed out futures must not linger in the map
+        confirmed.whenComplete((ignored, error) -> unconfirmed.remove(sequenceNumber, confirmed));
+        return confirmed;
+    }
+
+    /**
+     * Returns the wrapped channel.
+     *
+     * @return the channel
+     */
+    Channel getChannel() {
+        return channel;
+    }
+
+    /**
+     * Returns whether the channel can go back to the pool. A channel closed by
+     * a connection failure is restored by automatic recovery; one closed by a
+     * channel error, or by the application, is not.
+     *
+     * @return true if the channel can be reused
+     */
+    boolean isReusable() {
+        return reusable;
+    }
+
+    /**
+     * Returns the number of messages waiting for a confirm.
+     *
+     * @return the number of unconfirmed messages
+     */
+    int getUnconfirmedCount() {
+        return unconfirmed.size();
+    }
+
+    /**
+     * Closes the channel, ignoring errors.
+     */
+    void closeQuietly() {
+        reusable = false;
+        try {
+            if (channel.isOpen()) {
+                channel.close();
+            }
+        } catch (Exception ignored) {
+            // Already closed or the connection is gone
+        }
+    }
+
+    private void settle(long deliveryTag, boolean multiple, Exception error) {
+        Map<Long, CompletableFuture<Void>> settled = multiple
+                ? unconfirmed.headMap(deliveryTag, true)
+                : unconfirmed.subMap(deliveryTag, true, deliveryTag, true);
+
+        Iterator<CompletableFuture<Void>> iterator = settled.values().iterator();
+        while (iterator.hasNext()) {
+            CompletableFuture<Void> confirmed = iterator.next();
+            iterator.remove();
+            if (error == null) {
+                confirmed.complete(null);
+            } else {
+                confirmed.completeExceptionally(error);
+            }
+        }
+    }
+
+    /**
+     * Fails every unconfirmed message. Sequence numbers start again after a
+     * recovery, so confirms for these messages can never arrive.
+     */
+    private void shutdown(ShutdownSignalException cause) {
+        if (!cause.isHardError() || cause.isInitiatedByApplication()) {
+            reusable = false;
+        }
+
+        Iterator<CompletableFuture<Void>> iterator = unconfirmed.values().iterator();
+        while (iterator.hasNext()) {
+            CompletableFuture<Void> confirmed = iterator.next();
+            iterator.remove();
+            confirmed.completeExceptionally(
+                    new IOException("Channel closed before the broker confirmed the message", cause));
+        }
+    }
+}
@@ -1,65 +1,199 @@
 package com.watabelabs.gepg.amqp.publisher;
 
-import com.rabbitmq.client.Channel;
-import com.rabbitmq.client.Connection;
-import com.rabbitmq.client.ConnectionFactory;
-import com.rabbitmq.client.AMQP;
-import com.watabelabs.gepg.utils.DotEnvUtil;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Map;
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+import com.watabelabs.gepg.amqp.GepgAMqConnections;
+import com.watabelabs.gepg.config.GepgConfig;
+import com.watabelabs.gepg.metrics.GepgMetrics;
+import com.watabelabs.gepg.metrics.GepgMetricsRegistry;
+import com.watabelabs.gepg.utils.PayloadLogger;
+import com.watabelabs.gepg.utils.SignedPayload;
 
 /**
- * Utility class for interacting with RabbitMQ, providing methods for
- * publishing messages to a queue and managing connections.
+ * Publishes messages to RabbitMQ with publisher confirms.
+ *
+ * <p>
+ * A channel must not be used by two threads at once, so each publish borrows
+ * a channel from a pool and returns it as soon as the message is written. The
+ * returned future completes when the broker confirms the message, and fails if
+ * the broker rejects it, the channel closes first, or no confirm arrives within
+ * the confirm timeout. Messages are persistent.
+ * </p>
+ *
+ * <p>
+ * The connection is opened on the first publish, with automatic recovery
+ * enabled, so the pooled channels and the declared queues come back by
+ * themselves after the broker drops the connection. Publishes made while the
+ * connection is down fail straight away; unconfirmed messages fail when the
+ * connection is lost, and can be published again.
+ * </p>
+ *
+ * <p>
+ * Example usage:
+ * </p>
+ *
+ * <pre>{@code
+ * GepgAMqPublisher publisher = GepgAMqPublisher.getDefault();
+ * publisher.publishToQueue(GepgAMqQueues.BILL_SUBMISSION_QUEUE, signedRequest, headers)
+ *         .exceptionally(error -> {
+ *             retryLater(signedRequest);
+ *             return null;
+ *         });
+ * }</pre>
  */
-public class GepgAMqPublisher {
+public class GepgAMqPublisher implements AutoCloseable {
     private static final Logger logger = LoggerFactory.getLogger(GepgAMqPublisher.class);
 
-    private static final String RABBITMQ_HOST = DotEnvUtil.getEnvVariable("RABBITMQ_HOST");
-    private static final int RABBITMQ_PORT = Integer.valueOf(DotEnvUtil.getEnvVariable("RABBITMQ_PORT"));
-    private static final String RABBITMQ_USERNAME = DotEnvUtil.getEnvVariable("RABBITMQ_USERNAME");
-    private static final String RABBITMQ_PASSWORD = DotEnvUtil.getEnvVariable("RABBITMQ_PASSWORD");
+    /** Default number of pooled channels. */
+    public static final int DEFAULT_CHANNEL_POOL_SIZE = 8;
 
-    private static Connection connection;
-    private static Channel channel;
+    /** Default time to wait for the broker to confirm a message. */
+    public static final Duration DEFAULT_CONFIRM_TIMEOUT = Duration.ofSeconds(30);
 
-    // Static block to initialize the RabbitMQ connection and channel
-    static {
-        try {
-            ConnectionFactory factory = new ConnectionFactory();
-            factory.setHost(RABBITMQ_HOST);
-            factory.setPort(RABBITMQ_PORT);
-            factory.setUsername(RABBITMQ_USERNAME);
-            factory.setPassword(RABBITMQ_PASSWORD);
-
-            connection = factory.newConnection();
-            channel = connection.createChannel();
-        } catch (Exception e) {
-            logger.error("FAILED_TO_ESTABLISH_RABBITMQ_CONNECTION", e);
+    private static final int PERSISTENT_DELIVERY_MODE = 2;
+
+    private static final ConcurrentMap<List<Object>, GepgAMqPublisher> SHARED = new ConcurrentHashMap<>();
+
+    private final ConnectionFactory connectionFactory;
+    private final int channelPoolSize;
+    private final Duration confirmTimeout;
+
+    private final BlockingQueue<ConfirmingChannel> idleChannels = new LinkedBlockingQueue<>();
+    private final AtomicInteger openChannels = new AtomicInteger();
+    private final Set<String> declaredQueues = ConcurrentHashMap.newKeySet();
+
+    private final Object connectionLock = new Object();
+    private volatile Connection connection;
+    private volatile boolean closed;
+
+    /**
+     * Creates a publisher for the broker configured by the RABBITMQ_HOST,
+     * RABBITMQ_PORT, RABBITMQ_USERNAME and RABBITMQ_PASSWORD environment
+     * variables, or the defaults in {@link GepgConfig} where they are not set.
+     */
+    public GepgAMqPublisher() {
+        this(GepgConfig.fromEnv());
+    }
+
+    /**
+     * Creates a publisher for the broker, channel pool size and confirm timeout
+     * in the configuration.
+     *
+     * @param config the configuration
+     */
+    public GepgAMqPublisher(GepgConfig config) {
+        this(GepgAMqConnections.fromConfig(config), config.getChannelPoolSize(), config.getConfirmTimeout());
+    }
+
+    /**
+     * Creates a publisher. Automatic recovery is switched on in the factory.
+     *
+     * @param connectionFactory the factory for the broker connection
+     * @param channelPoolSize   the maximum number of channels
+     * @param confirmTimeout    the time to wait for the broker to confirm a
+     *                          message, also the longest a publish waits for a
+     *                          free channel
+     */
+    public GepgAMqPublisher(ConnectionFactory connectionFactory, int channelPoolSize, Duration confirmTimeout) {
+        if (channelPoolSize < 1) {
+            throw new IllegalArgumentException("Channel pool size must be at least 1: " + channelPoolSize);
         }
+        connectionFactory.setAutomaticRecoveryEnabled(true);
+        connectionFactory.setTopologyRecoveryEnabled(true);
+        this.connectionFactory = connectionFactory;
+        this.channelPoolSize = channelPoolSize;
+        this.confirmTimeout = confirmTimeout;
+    }
+
+    /**
+     * Returns the publisher shared by clients that were not given one. It is
+     * created on first use, so nothing connects to RabbitMQ until a message is
+     * published.
+     *
+     * @return the shared publisher
+     */
+    public static GepgAMqPublisher getDefault() {
+        return DefaultHolder.INSTANCE;
     }
 
     /**
-     * Publishes a message to a specified RabbitMQ queue with headers.
+     * Returns the publisher shared by clients configured with the same broker,
+     * channel pool size and confirm timeout, so they publish over one
+     * connection. Nothing connects to RabbitMQ until a message is published.
+     *
+     * @param config the configuration
+     * @return the shared publisher
+     */
+    public static GepgAMqPublisher shared(GepgConfig config) {
+        List<Object> key = Arrays.asList(config.getRabbitMqHost(), config.getRabbitMqPort(),
+                config.getRabbitMqUsername(), config.getRabbitMqPassword(), config.getChannelPoolSize(),
+                config.getConfirmTimeout());
+        return SHARED.computeIfAbsent(key, ignored -> new GepgAMqPublisher(config));
+    }
+
+    /**
+     * Publishes a message to a specified RabbitMQ queue with headers. The queue
+     * is declared durable the first time it is used.
      *
      * @param queueName the name of the queue to publish to
      * @param message   the message to publish
      * @param headers   the headers to include with the message
+     * @return a future completed when the broker confirms the message
      */
-    public static void publishToQueue(String queueName, String message, Map<String, Object> headers) {
-        try {
-            channel.queueDeclare(queueName, true, false, false, null);
-            AMQP.BasicProperties props = new AMQP.BasicProperties.Builder()
-                    .headers(headers)
-                    .build();
-            channel.basicPublish("", queueName, props, message.getBytes("UTF-8"));
-            logger.info("MESSAGE_PUBLISHED_TO_QUEUE {}: {}", queueName, message);
-        } catch (Exception e) {
-            logger.error("FAILED_TO_PUBLISH_MESSAGE_TO_QUEUE", e);
-        }
+    public CompletableFuture<Void> publishToQueue(String queueName, String message, Map<String, Object> headers) {
+        return publishToQueue(queueName, message.getBytes(StandardCharsets.UTF_8), message, headers);
+    }
+
+    /**
+     * Publishes a signed payload to a specified RabbitMQ queue with headers,
+     * with the payload bytes as the message body.
+     *
+     * @param queueName the name of the queue to publish to
+     * @param payload   the signed payload to publish
+     * @param headers   the headers to include with the message
+     * @return a future completed when the broker confirms the message
+     * @see #publishToQueue(String, String, Map)
+     */
+    public CompletableFuture<Void> publishToQueue(String queueName, SignedPayload payload,
+            Map<String, Object> headers) {
+        return publishToQueue(queueName, payload.getBytes(), payload, headers);
+    }
+
+    private CompletableFuture<Void> publishToQueue(String queueName, byte[] body, Object message,
+            Map<String, Object> headers) {
+        GepgMetrics metrics = GepgMetricsRegistry.get();
+        long start = System.nanoTime();
+        return publish("", queueName, queueName, body, headers)
+                .whenComplete((ignored, error) -> {
+                    recordPublish(metrics, queueName, start, error == null);
+                    if (error == null) {
+                        logger.info("MESSAGE_PUBLISHED_TO_QUEUE {} size={} elapsedMicros={}", queueName,
+                                body.length, PayloadLogger.elapsedMicros(start));
+                        PayloadLogger.payload("MESSAGE_PUBLISHED_TO_QUEUE", queueName, message);
+                    } else {
+                        logger.error("FAILED_TO_PUBLISH_MESSAGE_TO_QUEUE {}", queueName, error);
+                    }
+                });
     }
 
     /**
@@ -69,34 +203,165 @@ public class GepgAMqPublisher {
      * @param routingKey   the routing key to use
      * @param message      the message to publish
      * @param headers      the headers to include with the message
+     * @return a future completed when the broker confirms the message
      */
-    public static void publishToExchange(String exchangeName, String routingKey, String message,
+    public CompletableFuture<Void> publishToExchange(String exchangeName, String routingKey, String message,
             Map<String, Object> headers) {
+        GepgMetrics metrics = GepgMetricsRegistry.get();
+        long start = System.nanoTime();
+        return publish(exchangeName, routingKey, null, message.getBytes(StandardCharsets.UTF_8), headers)
+                .whenComplete((ignored, error) -> {
+                    recordPublish(metrics, exchangeName, start, error == null);
+                    if (error == null) {
+                        logger.info("MESSAGE_PUBLISHED_TO_EXCHANGE {} size={} elapsedMicros={}", exchangeName,
+                                message.length(), PayloadLogger.elapsedMicros(start));
+                        PayloadLogger.payload("MESSAGE_PUBLISHED_TO_EXCHANGE", exchangeName, message);
+                    } else {
+                        logger.error("FAILED_TO_PUBLISH_MESSAGE_TO_EXCHANGE {}", exchangeName, error);
+                    }
+                });
+    }
+
+    /**
+     * Closes the pooled channels and the connection. Messages that were not yet
+     * confirmed fail.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        ConfirmingChannel channel;
+        while ((channel = idleChannels.poll()) != null) {
+            discard(channel);
+        }
         try {
-            AMQP.BasicProperties props = new AMQP.BasicProperties.Builder()
-                    .headers(headers)
-                    .build();
-            channel.basicPublish(exchangeName, routingKey, props, message.getBytes("UTF-8"));
-            logger.info("MESSAGE_PUBLISHED_TO_EXCHANGE {}: {}", exchangeName, message);
+            Connection current = connection;
+            if (current != null) {
+                current.close();
+            }
         } catch (Exception e) {
-            logger.error("FAILED_TO_PUBLISH_MESSAGE_TO_EXCHANGE", e);
+            logger.error("FAILED_TO_CLOSE_RABBITMQ_CONNECTION", e);
         }
     }
 
-    /**
-     * Closes the RabbitMQ channel and connection.
-     */
-    public static void close() {
+    private CompletableFuture<Void> publish(String exchange, String routingKey, String queueToDeclare,
+            byte[] body, Map<String, Object> headers) {
+        if (closed) {
+            return CompletableFuture.failedFuture(new IllegalStateException("Publisher is closed"));
+        }
+
+        AMQP.BasicProperties props = new AMQP.BasicProperties.Builder()
+                .headers(headers)
+                .deliveryMode(PERSISTENT_DELIVERY_MODE)
+                .build();
+
+        ConfirmingChannel channel = null;
         try {
+            channel = borrowChannel();
+            if (queueToDeclare != null) {
+                declareOnce(channel, queueToDeclare);
+            }
+            return channel.publish(exchange, routingKey, props, body)
+                    .orTimeout(confirmTimeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return CompletableFuture.failedFuture(e);
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        } finally {
             if (channel != null) {
-                channel.close();
+                returnChannel(channel);
+            }
+        }
+    }
+
+    private static void recordPublish(GepgMetrics metrics, String destination, long start, boolean confirmed) {
+        if (metrics.isEnabled()) {
+            metrics.published(destination, System.nanoTime() - start, confirmed);
+        }
+    }
+
+    /**
+     * Declares the queue the first time it is published to. Topology recovery
+     * declares it again after a reconnect, so the cache stays valid.
+     */
+    private void declareOnce(ConfirmingChannel channel, String queueName) throws IOException {
+        if (declaredQueues.contains(queueName)) {
+            return;
+        }
+        channel.getChannel().queueDeclare(queueName, true, false, false, null);
+        declaredQueues.add(queueName);
+    }
+
+    private ConfirmingChannel borrowChannel() throws IOException, TimeoutException, InterruptedException {
+        ConfirmingChannel channel = pollReusable();
+        if (channel != null) {
+            return channel;
+        }
+
+        if (openChannels.incrementAndGet() <= channelPoolSize) {
+            try {
+                return new ConfirmingChannel(connection().createChannel());
+            } catch (IOException | TimeoutException | RuntimeException e) {
+                openChannels.decrementAndGet();
+                throw e;
             }
-            if (connection != null) {
-                connection.close();
+        }
+        openChannels.decrementAndGet();
+
+        channel = idleChannels.poll(confirmTimeout.toMillis(), TimeUnit.MILLISECONDS);
+        if (channel == null) {
+            throw new TimeoutException("No channel available after " + confirmTimeout.toMillis() + " ms");
+        }
+        if (!channel.isReusable()) {
+            // Closed while idle, try again with its slot free
+            discard(channel);
+            return borrowChannel();
+        }
+        return channel;
+    }
+
+    /**
+     * Takes an idle channel, dropping any that were closed while idle.
+     */
+    private ConfirmingChannel pollReusable() {
+        ConfirmingChannel channel;
+        while ((channel = idleChannels.poll()) != null) {
+            if (channel.isReusable()) {
+                return channel;
             }
-        } catch (Exception e) {
-            logger.error("FAILED_TO_CLOSE_RABBITMQ_CONNECTION", e);
+            discard(channel);
+        }
+        return null;
+    }
+
+    private void discard(ConfirmingChannel channel) {
+        openChannels.decrementAndGet();
+        channel.closeQuietly();
+    }
+
+    private void returnChannel(ConfirmingChannel channel) {
+        if (!closed && channel.isReusable()) {
+            idleChannels.offer(channel);
+        } else {
+            discard(channel);
         }
     }
 
+    private Connection connection() throws IOException, TimeoutException {
+        Connection current = connection;
+        if (current != null) {
+            return current;
+        }
+        synchronized (connectionLock) {
+            if (connection == null) {
+                connection = connectionFactory.newConnection();
+                logger.info("RABBITMQ_CONNECTION_ESTABLISHED");
+            }
+            return connection;
+        }
+    }
+
+    private static final class DefaultHolder {
+        private static final GepgAMqPublisher INSTANCE = shared(GepgConfig.fromEnv());
+    }
 }
@@ -0,0 +1,94 @@
+package com.watabelabs.gepg.batch;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Results of a batch bill submission, in the order the bills were given,
+ * together with the time the batch took.
+ */
+public final class BillBatchResult {
+
+    private final List<BillSubmissionResult> results;
+    private final Duration elapsed;
+    private final int succeeded;
+
+    /**
+     * Creates a batch result.
+     *
+     * @param results the per-bill results, in submission order
+     * @param elapsed the time from the first signature to the last response
+     */
+    public BillBatchResult(List<BillSubmissionResult> results, Duration elapsed) {
+        this.results = Collections.unmodifiableList(results);
+        this.elapsed = elapsed;
+        this.succeeded = (int) results.stream().filter(BillSubmissionResult::isSuccess).count();
+    }
+
+    /**
+     * Returns the per-bill results, in the order the bills were given.
+     *
+     * @return the results
+     */
+    public List<BillSubmissionResult> getResults() {
+        return results;
+    }
+
+    /**
+     * Returns the number of bills in the batch.
+     *
+     * @return the batch size
+     */
+    public int getSize() {
+        return results.size();
+    }
+
+    /**
+     * Returns the number of bills GePG acknowledged.
+     *
+     * @return the number of successful submissions
+     */
+    public int getSucceeded() {
+        return succeeded;
+    }
+
+    /**
+     * Returns the number of bills that could not be signed or submitted.
+     *
+     * @return the number of failed submissions
+     */
+    public int getFailed() {
+        return results.size() - succeeded;
+    }
+
+    /**
+     * Returns the time the batch took.
+     *
+     * @return the elapsed time
+     */
+    public Duration getElapsed() {
+        return elapsed;
+    }
+
+    /**
+     * Returns the number of bills processed per second, successful or not.
+     *
+     * @return the throughput of the batch
+     */
+    public double getBillsPerSecond() {
+        long nanos = Math.max(1, elapsed.toNanos());
+        return results.size() * 1_000_000_000.0 / nanos;
+    }
+
+    @Override
+    public String toString() {
+        return "BillBatchResult{" +
+                "size=" + getSize() +
+                ", succeeded=" + succeeded +
+                ", failed=" + getFailed() +
+                ", elapsed=" + elapsed +
+                ", billsPerSecond=" + String.format("%.1f", getBillsPerSecond()) +
+                '}';
+    }
+}
@@ -0,0 +1,117 @@
+package com.watabelabs.gepg.batch;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.watabelabs.gepg.mappers.bill.acks.GepgBillSubReqAck;
+import com.watabelabs.gepg.mappers.bill.requests.GepgBillSubReq;
+
+/**
+ * Runs a batch of bill submissions with at most a fixed number in flight.
+ *
+ * <p>
+ * Each slot takes the next bill as soon as its previous one completes, so the
+ * batch keeps exactly {@code concurrency} submissions going until it runs out
+ * of bills. A failed bill is recorded and its slot moves on; one bad bill never
+ * stops the batch.
+ * </p>
+ */
+public class BillBatchSubmitter {
+
+    private static final Logger logger = LoggerFactory.getLogger(BillBatchSubmitter.class);
+
+    private final Function<GepgBillSubReq, CompletableFuture<GepgBillSubReqAck>> submission;
+    private final int concurrency;
+
+    /**
+     * Creates a batch submitter.
+     *
+     * @param submission  signs and submits one bill
+     * @param concurrency the maximum number of bills in flight
+     */
+    public BillBatchSubmitter(Function<GepgBillSubReq, CompletableFuture<GepgBillSubReqAck>> submission,
+            int concurrency) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("Concurrency must be at least 1: " + concurrency);
+        }
+        this.submission = submission;
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * Submits every bill and completes when all of them have a result.
+     *
+     * @param bills the bills to submit
+     * @return a future completed with the per-bill results
+     */
+    public CompletableFuture<BillBatchResult> submit(Collection<GepgBillSubReq> bills) {
+        List<GepgBillSubReq> pending = new ArrayList<>(bills);
+        BillSubmissionResult[] results = new BillSubmissionResult[pending.size()];
+        AtomicInteger next = new AtomicInteger();
+        long start = System.nanoTime();
+
+        int slots = Math.min(concurrency, pending.size());
+        CompletableFuture<?>[] workers = new CompletableFuture<?>[slots];
+        for (int i = 0; i < slots; i++) {
+            workers[i] = runSlot(pending, results, next);
+        }
+
+        return CompletableFuture.allOf(workers).thenApply(ignored -> {
+            BillBatchResult result = new BillBatchResult(Arrays.asList(results),
+                    Duration.ofNanos(System.nanoTime() - start));
+            logger.info("BILL_BATCH_COMPLETED size={} succeeded={} failed={} elapsedMs={} billsPerSecond={}",
+                    result.getSize(), result.getSucceeded(), result.getFailed(), result.getElapsed().toMillis(),
+                    String.format("%.1f", result.getBillsPerSecond()));
+            return result;
+        });
+    }
+
+    /**
+     * Submits bills one after another until none are left.
+     */
+    private CompletableFuture<Void> runSlot(List<GepgBillSubReq> pending, BillSubmissionResult[] results,
+            AtomicInteger next) {
+        int index = next.getAndIncrement();
+        if (index >= pending.size()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        GepgBillSubReq bill = pending.get(index);
+
+        CompletableFuture<GepgBillSubReqAck> ack;
+        try {
+            ack = submission.apply(bill);
+        } catch (RuntimeException e) {
+            ack = CompletableFuture.failedFuture(e);
+        }
+
+        CompletableFuture<Void> recorded = ack.handle((response, error) -> {
+            if (error == null) {
+                results[index] = BillSubmissionResult.success(bill, response);
+            } else {
+                Throwable cause = error instanceof CompletionException && error.getCause() != null
+                        ? error.getCause()
+                        : error;
+                logger.warn("BILL_BATCH_SUBMISSION_FAILED for {}: {}", billId(bill), cause.toString());
+                results[index] = BillSubmissionResult.failure(bill, cause);
+            }
+            return null;
+        });
+
+        // Continue asynchronously, so a run of bills that fail straight away does not grow the stack
+        return recorded.thenComposeAsync(ignored -> runSlot(pending, results, next));
+    }
+
+    private static String billId(GepgBillSubReq bill) {
+        return bill.getBillTrxInf() == null ? null : bill.getBillTrxInf().getBillId();
+    }
+}
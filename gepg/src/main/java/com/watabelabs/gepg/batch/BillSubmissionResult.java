@@ -0,0 +1,99 @@
+package com.watabelabs.gepg.batch;
+
+import com.watabelabs.gepg.mappers.bill.acks.GepgBillSubReqAck;
+import com.watabelabs.gepg.mappers.bill.requests.GepgBillSubReq;
+
+/**
+ * Outcome of submitting one bill in a batch: either the acknowledgment from
+ * GePG, or the error that prevented the bill from being signed or submitted.
+ */
+public final class BillSubmissionResult {
+
+    private final GepgBillSubReq bill;
+    private final GepgBillSubReqAck ack;
+    private final Throwable error;
+
+    private BillSubmissionResult(GepgBillSubReq bill, GepgBillSubReqAck ack, Throwable error) {
+        this.bill = bill;
+        this.ack = ack;
+        this.error = error;
+    }
+
+    /**
+     * Creates the result of a bill that GePG acknowledged.
+     *
+     * @param bill the bill that was submitted
+     * @param ack  the acknowledgment from GePG
+     * @return the result
+     */
+    public static BillSubmissionResult success(GepgBillSubReq bill, GepgBillSubReqAck ack) {
+        return new BillSubmissionResult(bill, ack, null);
+    }
+
+    /**
+     * Creates the result of a bill that could not be signed or submitted.
+     *
+     * @param bill  the bill that was submitted
+     * @param error the cause of the failure
+     * @return the result
+     */
+    public static BillSubmissionResult failure(GepgBillSubReq bill, Throwable error) {
+        return new BillSubmissionResult(bill, null, error);
+    }
+
+    /**
+     * Returns the bill this result belongs to.
+     *
+     * @return the bill
+     */
+    public GepgBillSubReq getBill() {
+        return bill;
+    }
+
+    /**
+     * Returns the id of the bill, or null if the bill has no transaction
+     * information.
+     *
+     * @return the bill id
+     */
+    public String getBillId() {
+        return bill.getBillTrxInf() == null ? null : bill.getBillTrxInf().getBillId();
+    }
+
+    /**
+     * Returns the acknowledgment from GePG.
+     *
+     * @return the acknowledgment, or null if the submission failed
+     */
+    public GepgBillSubReqAck getAck() {
+        return ack;
+    }
+
+    /**
+     * Returns the cause of the failure.
+     *
+     * @return the error, or null if GePG acknowledged the bill
+     */
+    public Throwable getError() {
+        return error;
+    }
+
+    /**
+     * Returns whether GePG acknowledged the bill. Check the status code of the
+     * acknowledgment to see whether it was accepted.
+     *
+     * @return true if an acknowledgment was received, false otherwise
+     */
+    public boolean isSuccess() {
+        return error == null;
+    }
+
+    @Override
+    public String toString() {
+        return "BillSubmissionResult{" +
+                "billId=" + getBillId() +
+                ", ack=" + ack +
+                ", error=" + error +
+                '}';
+    }
+}
@@ -0,0 +1,949 @@
+package com.watabelabs.gepg.config;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.function.Function;
+
+import com.watabelabs.gepg.amqp.publisher.GepgAMqPublisher;
+import com.watabelabs.gepg.http.JdkHttpTransport;
+import com.watabelabs.gepg.tenant.GepgTenant;
+import com.watabelabs.gepg.utils.DotEnvUtil;
+import com.watabelabs.gepg.utils.SignatureProviders;
+
+/**
+ * Immutable configuration of a {@link com.watabelabs.gepg.GepgApiClient}: the
+ * GePG URL and codes, the keystores, the HTTP pool and timeouts, the retry
+ * policy, the protection of the GePG endpoints and the RabbitMQ settings.
+ *
+ * <p>
+ * Every setting can be given in code, so nothing touches the filesystem until
+ * the keys are first used. A {@code .env} file is one optional source:
+ * {@link Builder#fromEnv()} fills the builder from the same variables the
+ * no-args client reads, and settings given in code afterwards override them.
+ * Settings that are not given keep their defaults.
+ * </p>
+ *
+ * <p>
+ * Example usage:
+ * </p>
+ *
+ * <pre>{@code
+ * GepgConfig config = GepgConfig.builder()
+ *         .apiUrl("https://uat1.gepg.go.tz")
+ *         .gepgCode("SP19988")
+ *         .privateKeystore("/etc/gepg/private.pfx", privatePassword, "gepgclient")
+ *         .publicKeystore("/etc/gepg/gepg-public.pfx", publicPassword, "gepgpublic")
+ *         .requestTimeout(Duration.ofSeconds(10))
+ *         .maxAttempts(2)
+ *         .build();
+ *
+ * GepgApiClient client = new GepgApiClient(config);
+ * }</pre>
+ */
+public final class GepgConfig {
+
+    /** Default number of attempts for a timed out request. */
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+
+    /** Default wait before the first retry, doubled for every further retry. */
+    public static final Duration DEFAULT_INITIAL_BACKOFF = Duration.ofSeconds(1);
+
+    /** Default number of consecutive failures that opens an endpoint's circuit. */
+    public static final int DEFAULT_CIRCUIT_FAILURE_THRESHOLD = 5;
+
+    /** Default time an open circuit rejects requests before letting one through. */
+    public static final Duration DEFAULT_CIRCUIT_OPEN_DURATION = Duration.ofSeconds(30);
+
+    /** Default share of requests that may be retried, beyond a small burst. */
+    public static final double DEFAULT_RETRY_BUDGET_RATIO = 0.2;
+
+    /** Default keystore type. */
+    public static final String DEFAULT_KEYSTORE_TYPE = "PKCS12";
+
+    /** Default signature algorithm. */
+    public static final String DEFAULT_SIGNATURE_ALGORITHM = "SHA1withRSA";
+
+    /** Default RabbitMQ host. */
+    public static final String DEFAULT_RABBITMQ_HOST = "localhost";
+
+    /** Default RabbitMQ port. */
+    public static final int DEFAULT_RABBITMQ_PORT = 5672;
+
+    private final String apiUrl;
+    private final String gepgCode;
+
+    private final String privateKeystorePath;
+    private final String privateKeystorePassword;
+    private final String privateKeyAlias;
+
+    private final String publicKeystorePath;
+    private final String publicKeystorePassword;
+    private final String publicKeyAlias;
+
+    private final String keystoreType;
+    private final String signatureAlgorithm;
+    private final String signatureProvider;
+
+    private final int httpPoolSize;
+    private final Duration connectTimeout;
+    private final Duration requestTimeout;
+
+    private final int maxAttempts;
+    private final Duration initialBackoff;
+
+    private final int circuitFailureThreshold;
+    private final Duration circuitOpenDuration;
+    private final Duration latencyThreshold;
+    private final double retryBudgetRatio;
+
+    private final String rabbitMqHost;
+    private final int rabbitMqPort;
+    private final String rabbitMqUsername;
+    private final String rabbitMqPassword;
+    private final int channelPoolSize;
+    private final Duration confirmTimeout;
+
+    private final boolean jaxbWarmUp;
+
+    private GepgConfig(Builder builder) {
+        this.apiUrl = builder.apiUrl;
+        this.gepgCode = builder.gepgCode;
+        this.privateKeystorePath = builder.privateKeystorePath;
+        this.privateKeystorePassword = builder.privateKeystorePassword;
+        this.privateKeyAlias = builder.privateKeyAlias;
+        this.publicKeystorePath = builder.publicKeystorePath;
+        this.publicKeystorePassword = builder.publicKeystorePassword;
+        this.publicKeyAlias = builder.publicKeyAlias;
+        this.keystoreType = builder.keystoreType;
+        this.signatureAlgorithm = builder.signatureAlgorithm;
+        this.signatureProvider = builder.signatureProvider;
+        this.httpPoolSize = builder.httpPoolSize;
+        this.connectTimeout = builder.connectTimeout;
+        this.requestTimeout = builder.requestTimeout;
+        this.maxAttempts = builder.maxAttempts;
+        this.initialBackoff = builder.initialBackoff;
+        this.circuitFailureThreshold = builder.circuitFailureThreshold;
+        this.circuitOpenDuration = builder.circuitOpenDuration;
+        this.latencyThreshold = builder.latencyThreshold;
+        this.retryBudgetRatio = builder.retryBudgetRatio;
+        this.rabbitMqHost = builder.rabbitMqHost;
+        this.rabbitMqPort = builder.rabbitMqPort;
+        this.rabbitMqUsername = builder.rabbitMqUsername;
+        this.rabbitMqPassword = builder.rabbitMqPassword;
+        this.channelPoolSize = builder.channelPoolSize;
+        this.confirmTimeout = builder.confirmTimeout;
+        this.jaxbWarmUp = builder.jaxbWarmUp;
+    }
+
+    /**
+     * Returns a builder with every setting at its default.
+     *
+     * @return a new builder
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Returns the configuration in the {@code .env} file and the environment,
+     * the same settings the no-args client reads.
+     *
+     * @return the configuration
+     */
+    public static GepgConfig fromEnv() {
+        return builder().fromEnv().build();
+    }
+
+    /**
+     * Returns a builder holding this configuration, to derive another from it.
+     *
+     * @return a new builder
+     */
+    public Builder toBuilder() {
+        return new Builder(this);
+    }
+
+    /**
+     * Returns the base URL of the GePG API.
+     *
+     * @return the API URL
+     */
+    public String getApiUrl() {
+        return apiUrl;
+    }
+
+    /**
+     * Returns the value of the Gepg-Code header.
+     *
+     * @return the Gepg-Code
+     */
+    public String getGepgCode() {
+        return gepgCode;
+    }
+
+    /**
+     * Returns the path to the private keystore.
+     *
+     * @return the private keystore path
+     */
+    public String getPrivateKeystorePath() {
+        return privateKeystorePath;
+    }
+
+    /**
+     * Returns the password of the private keystore.
+     *
+     * @return the private keystore password
+     */
+    public String getPrivateKeystorePassword() {
+        return privateKeystorePassword;
+    }
+
+    /**
+     * Returns the alias of the private key.
+     *
+     * @return the private key alias
+     */
+    public String getPrivateKeyAlias() {
+        return privateKeyAlias;
+    }
+
+    /**
+     * Returns the path to the keystore holding GePG's public key.
+     *
+     * @return the public keystore path
+     */
+    public String getPublicKeystorePath() {
+        return publicKeystorePath;
+    }
+
+    /**
+     * Returns the password of the public keystore.
+     *
+     * @return the public keystore password
+     */
+    public String getPublicKeystorePassword() {
+        return publicKeystorePassword;
+    }
+
+    /**
+     * Returns the alias of the public key.
+     *
+     * @return the public key alias
+     */
+    public String getPublicKeyAlias() {
+        return publicKeyAlias;
+    }
+
+    /**
+     * Returns the keystore type.
+     *
+     * @return the keystore type
+     */
+    public String getKeystoreType() {
+        return keystoreType;
+    }
+
+    /**
+     * Returns the signature algorithm.
+     *
+     * @return the signature algorithm
+     */
+    public String getSignatureAlgorithm() {
+        return signatureAlgorithm;
+    }
+
+    /**
+     * Returns the name of the provider that signs and verifies messages.
+     *
+     * @return the provider name, or null to use the JCA preference order
+     */
+    public String getSignatureProvider() {
+        return signatureProvider;
+    }
+
+    /**
+     * Returns the maximum number of concurrent HTTP requests.
+     *
+     * @return the HTTP pool size
+     */
+    public int getHttpPoolSize() {
+        return httpPoolSize;
+    }
+
+    /**
+     * Returns the time allowed to establish a connection.
+     *
+     * @return the connect timeout
+     */
+    public Duration getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    /**
+     * Returns the time allowed for a response to arrive.
+     *
+     * @return the request timeout
+     */
+    public Duration getRequestTimeout() {
+        return requestTimeout;
+    }
+
+    /**
+     * Returns the number of attempts for a timed out request.
+     *
+     * @return the maximum number of attempts
+     */
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * Returns the wait before the first retry.
+     *
+     * @return the initial backoff
+     */
+    public Duration getInitialBackoff() {
+        return initialBackoff;
+    }
+
+    /**
+     * Returns the number of consecutive failures that opens an endpoint's
+     * circuit.
+     *
+     * @return the circuit failure threshold
+     */
+    public int getCircuitFailureThreshold() {
+        return circuitFailureThreshold;
+    }
+
+    /**
+     * Returns the time an open circuit rejects requests before letting one
+     * through.
+     *
+     * @return the circuit open duration
+     */
+    public Duration getCircuitOpenDuration() {
+        return circuitOpenDuration;
+    }
+
+    /**
+     * Returns the response time above which an endpoint's concurrency limit is
+     * lowered. Unless set, half the request timeout.
+     *
+     * @return the latency threshold
+     */
+    public Duration getLatencyThreshold() {
+        return latencyThreshold != null ? latencyThreshold : requestTimeout.dividedBy(2);
+    }
+
+    /**
+     * Returns the number of retries each request adds to an endpoint's retry
+     * budget.
+     *
+     * @return the retry budget ratio
+     */
+    public double getRetryBudgetRatio() {
+        return retryBudgetRatio;
+    }
+
+    /**
+     * Returns the RabbitMQ host.
+     *
+     * @return the RabbitMQ host
+     */
+    public String getRabbitMqHost() {
+        return rabbitMqHost;
+    }
+
+    /**
+     * Returns the RabbitMQ port.
+     *
+     * @return the RabbitMQ port
+     */
+    public int getRabbitMqPort() {
+        return rabbitMqPort;
+    }
+
+    /**
+     * Returns the RabbitMQ username.
+     *
+     * @return the RabbitMQ username
+     */
+    public String getRabbitMqUsername() {
+        return rabbitMqUsername;
+    }
+
+    /**
+     * Returns the RabbitMQ password.
+     *
+     * @return the RabbitMQ password
+     */
+    public String getRabbitMqPassword() {
+        return rabbitMqPassword;
+    }
+
+    /**
+     * Returns the maximum number of pooled publisher channels.
+     *
+     * @return the channel pool size
+     */
+    public int getChannelPoolSize() {
+        return channelPoolSize;
+    }
+
+    /**
+     * Returns the time to wait for the broker to confirm a message.
+     *
+     * @return the confirm timeout
+     */
+    public Duration getConfirmTimeout() {
+        return confirmTimeout;
+    }
+
+    /**
+     * Returns whether clients build the JAXB contexts of every message on a
+     * background thread when they are created.
+     *
+     * @return true if the contexts are warmed up
+     */
+    public boolean isJaxbWarmUp() {
+        return jaxbWarmUp;
+    }
+
+    @Override
+    public String toString() {
+        // Passwords are left out so configurations can be logged
+        return "GepgConfig{" +
+                "apiUrl='" + apiUrl + '\'' +
+                ", gepgCode='" + gepgCode + '\'' +
+                ", privateKeystorePath='" + privateKeystorePath + '\'' +
+                ", publicKeystorePath='" + publicKeystorePath + '\'' +
+                ", httpPoolSize=" + httpPoolSize +
+                ", connectTimeout=" + connectTimeout +
+                ", requestTimeout=" + requestTimeout +
+                ", maxAttempts=" + maxAttempts +
+                ", initialBackoff=" + initialBackoff +
+                ", circuitFailureThreshold=" + circuitFailureThreshold +
+                ", circuitOpenDuration=" + circuitOpenDuration +
+                ", latencyThreshold=" + getLatencyThreshold() +
+                ", retryBudgetRatio=" + retryBudgetRatio +
+                ", rabbitMqHost='" + rabbitMqHost + '\'' +
+                ", rabbitMqPort=" + rabbitMqPort +
+                '}';
+    }
+
+    /**
+     * Builds a {@link GepgConfig}. Not thread-safe.
+     */
+    public static final class Builder {
+
+        private String apiUrl;
+        private String gepgCode;
+
+        private String privateKeystorePath;
+        private String privateKeystorePassword;
+        private String privateKeyAlias;
+
+        private String publicKeystorePath;
+        private String publicKeystorePassword;
+        private String publicKeyAlias;
+
+        private String keystoreType = DEFAULT_KEYSTORE_TYPE;
+        private String signatureAlgorithm = DEFAULT_SIGNATURE_ALGORITHM;
+        private String signatureProvider;
+
+        private int httpPoolSize = JdkHttpTransport.DEFAULT_POOL_SIZE;
+        private Duration connectTimeout = JdkHttpTransport.DEFAULT_CONNECT_TIMEOUT;
+        private Duration requestTimeout = JdkHttpTransport.DEFAULT_REQUEST_TIMEOUT;
+
+        private int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+        private Duration initialBackoff = DEFAULT_INITIAL_BACKOFF;
+
+        private int circuitFailureThreshold = DEFAULT_CIRCUIT_FAILURE_THRESHOLD;
+        private Duration circuitOpenDuration = DEFAULT_CIRCUIT_OPEN_DURATION;
+        private Duration latencyThreshold;
+        private double retryBudgetRatio = DEFAULT_RETRY_BUDGET_RATIO;
+
+        private String rabbitMqHost = DEFAULT_RABBITMQ_HOST;
+        private int rabbitMqPort = DEFAULT_RABBITMQ_PORT;
+        private String rabbitMqUsername = "guest";
+        private String rabbitMqPassword = "guest";
+        private int channelPoolSize = GepgAMqPublisher.DEFAULT_CHANNEL_POOL_SIZE;
+        private Duration confirmTimeout = GepgAMqPublisher.DEFAULT_CONFIRM_TIMEOUT;
+
+        private boolean jaxbWarmUp = true;
+
+        private Builder() {
+        }
+
+        private Builder(GepgConfig config) {
+            this.apiUrl = config.apiUrl;
+            this.gepgCode = config.gepgCode;
+            this.privateKeystorePath = config.privateKeystorePath;
+            this.privateKeystorePassword = config.privateKeystorePassword;
+            this.privateKeyAlias = config.privateKeyAlias;
+            this.publicKeystorePath = config.publicKeystorePath;
+            this.publicKeystorePassword = config.publicKeystorePassword;
+            this.publicKeyAlias = config.publicKeyAlias;
+            this.keystoreType = config.keystoreType;
+            this.signatureAlgorithm = config.signatureAlgorithm;
+            this.signatureProvider = config.signatureProvider;
+            this.httpPoolSize = config.httpPoolSize;
+            this.connectTimeout = config.connectTimeout;
+            this.requestTimeout = config.requestTimeout;
+            this.maxAttempts = config.maxAttempts;
+            this.initialBackoff = config.initialBackoff;
+            this.circuitFailureThreshold = config.circuitFailureThreshold;
+            this.circuitOpenDuration = config.circuitOpenDuration;
+            this.latencyThreshold = config.latencyThreshold;
+            this.retryBudgetRatio = config.retryBudgetRatio;
+            this.rabbitMqHost = config.rabbitMqHost;
+            this.rabbitMqPort = config.rabbitMqPort;
+            this.rabbitMqUsername = config.rabbitMqUsername;
+            this.rabbitMqPassword = config.rabbitMqPassword;
+            this.channelPoolSize = config.channelPoolSize;
+            this.confirmTimeout = config.confirmTimeout;
+            this.jaxbWarmUp = config.jaxbWarmUp;
+        }
+
+        /**
+         * Reads the settings in the {@code .env} file, if there is one, and the
+         * environment. See {@link #fromVariables(Function)} for the variable names.
+         *
+         * @return this builder
+         */
+        public Builder fromEnv() {
+            return fromVariables(DotEnvUtil::findEnvVariable);
+        }
+
+        /**
+         * Reads the settings from named variables. Variables that are not set leave
+         * the setting unchanged. The names are API_URL, GEPG_CODE,
+         * PRIVATE_KEYSTORE_PATH, PRIVATE_KEYSTORE_PASSWORD, PRIVATE_KEY_ALIAS,
+         * PUBLIC_KEYSTORE_PATH, PUBLIC_KEYSTORE_PASSWORD, PUBLIC_KEY_ALIAS,
+         * KEYSTORE_TYPE, SIGNATURE_ALGORITHM, SIGNATURE_PROVIDER,
+         * GEPG_HTTP_POOL_SIZE, GEPG_CONNECT_TIMEOUT_MILLIS,
+         * GEPG_REQUEST_TIMEOUT_MILLIS, GEPG_MAX_ATTEMPTS,
+         * GEPG_INITIAL_BACKOFF_MILLIS, GEPG_CIRCUIT_FAILURE_THRESHOLD,
+         * GEPG_CIRCUIT_OPEN_MILLIS, GEPG_LATENCY_THRESHOLD_MILLIS,
+         * GEPG_RETRY_BUDGET_RATIO, RABBITMQ_HOST, RABBITMQ_PORT,
+         * RABBITMQ_USERNAME, RABBITMQ_PASSWORD, RABBITMQ_CHANNEL_POOL_SIZE,
+         * RABBITMQ_CONFIRM_TIMEOUT_MILLIS and GEPG_JAXB_WARM_UP.
+         *
+         * @param variables looks up a variable, returning null if it is not set
+         * @return this builder
+         * @throws IllegalArgumentException if a numeric variable is not a number,
+         *                                  or a flag is not true or false
+         */
+        public Builder fromVariables(Function<String, String> variables) {
+            VariableReader reader = new VariableReader(variables);
+            apiUrl = reader.string("API_URL", apiUrl);
+            gepgCode = reader.string("GEPG_CODE", gepgCode);
+            privateKeystorePath = reader.string("PRIVATE_KEYSTORE_PATH", privateKeystorePath);
+            privateKeystorePassword = reader.string("PRIVATE_KEYSTORE_PASSWORD", privateKeystorePassword);
+            privateKeyAlias = reader.string("PRIVATE_KEY_ALIAS", privateKeyAlias);
+            publicKeystorePath = reader.string("PUBLIC_KEYSTORE_PATH", publicKeystorePath);
+            publicKeystorePassword = reader.string("PUBLIC_KEYSTORE_PASSWORD", publicKeystorePassword);
+            publicKeyAlias = reader.string("PUBLIC_KEY_ALIAS", publicKeyAlias);
+            keystoreType = reader.string("KEYSTORE_TYPE", keystoreType);
+            signatureAlgorithm = reader.string("SIGNATURE_ALGORITHM", signatureAlgorithm);
+            signatureProvider = reader.string("SIGNATURE_PROVIDER", signatureProvider);
+            httpPoolSize = reader.integer("GEPG_HTTP_POOL_SIZE", httpPoolSize);
+            connectTimeout = reader.millis("GEPG_CONNECT_TIMEOUT_MILLIS", connectTimeout);
+            requestTimeout = reader.millis("GEPG_REQUEST_TIMEOUT_MILLIS", requestTimeout);
+            maxAttempts = reader.integer("GEPG_MAX_ATTEMPTS", maxAttempts);
+            initialBackoff = reader.millis("GEPG_INITIAL_BACKOFF_MILLIS", initialBackoff);
+            circuitFailureThreshold = reader.integer("GEPG_CIRCUIT_FAILURE_THRESHOLD", circuitFailureThreshold);
+            circuitOpenDuration = reader.millis("GEPG_CIRCUIT_OPEN_MILLIS", circuitOpenDuration);
+            latencyThreshold = reader.millis("GEPG_LATENCY_THRESHOLD_MILLIS", latencyThreshold);
+            retryBudgetRatio = reader.decimal("GEPG_RETRY_BUDGET_RATIO", retryBudgetRatio);
+            rabbitMqHost = reader.string("RABBITMQ_HOST", rabbitMqHost);
+            rabbitMqPort = reader.integer("RABBITMQ_PORT", rabbitMqPort);
+            rabbitMqUsername = reader.string("RABBITMQ_USERNAME", rabbitMqUsername);
+            rabbitMqPassword = reader.string("RABBITMQ_PASSWORD", rabbitMqPassword);
+            channelPoolSize = reader.integer("RABBITMQ_CHANNEL_POOL_SIZE", channelPoolSize);
+            confirmTimeout = reader.millis("RABBITMQ_CONFIRM_TIMEOUT_MILLIS", confirmTimeout);
+            jaxbWarmUp = reader.flag("GEPG_JAXB_WARM_UP", jaxbWarmUp);
+            return this;
+        }
+
+        /**
+         * Sets the base URL of the GePG API.
+         *
+         * @param apiUrl the API URL
+         * @return this builder
+         */
+        public Builder apiUrl(String apiUrl) {
+            this.apiUrl = apiUrl;
+            return this;
+        }
+
+        /**
+         * Sets the value of the Gepg-Code header.
+         *
+         * @param gepgCode the Gepg-Code
+         * @return this builder
+         */
+        public Builder gepgCode(String gepgCode) {
+            this.gepgCode = gepgCode;
+            return this;
+        }
+
+        /**
+         * Sets the keystore holding the service provider's private key.
+         *
+         * @param path     the path to the keystore
+         * @param password the password of the keystore
+         * @param alias    the alias of the private key
+         * @return this builder
+         */
+        public Builder privateKeystore(String path, String password, String alias) {
+            this.privateKeystorePath = path;
+            this.privateKeystorePassword = password;
+            this.privateKeyAlias = alias;
+            return this;
+        }
+
+        /**
+         * Sets the keystore holding GePG's public key.
+         *
+         * @param path     the path to the keystore
+         * @param password the password of the keystore
+         * @param alias    the alias of the public key
+         * @return this builder
+         */
+        public Builder publicKeystore(String path, String password, String alias) {
+            this.publicKeystorePath = path;
+            this.publicKeystorePassword = password;
+            this.publicKeyAlias = alias;
+            return this;
+        }
+
+        /**
+         * Sets the keystore type. Defaults to {@value GepgConfig#DEFAULT_KEYSTORE_TYPE}.
+         *
+         * @param keystoreType the keystore type
+         * @return this builder
+         */
+        public Builder keystoreType(String keystoreType) {
+            this.keystoreType = keystoreType;
+            return this;
+        }
+
+        /**
+         * Sets the signature algorithm. Defaults to
+         * {@value GepgConfig#DEFAULT_SIGNATURE_ALGORITHM}.
+         *
+         * @param signatureAlgorithm the signature algorithm
+         * @return this builder
+         */
+        public Builder signatureAlgorithm(String signatureAlgorithm) {
+            this.signatureAlgorithm = signatureAlgorithm;
+            return this;
+        }
+
+        /**
+         * Sets the provider that signs and verifies messages, such as
+         * {@code SunRsaSign} or {@code BC} for Bouncy Castle. By default the first
+         * registered provider that implements the signature algorithm is used.
+         *
+         * @param signatureProvider the provider name, or null for the default
+         * @return this builder
+         * @see SignatureProviders#resolve(String)
+         */
+        public Builder signatureProvider(String signatureProvider) {
+            this.signatureProvider = signatureProvider;
+            return this;
+        }
+
+        /**
+         * Sets the Gepg-Code and keystores of a service provider. The keystore
+         * type and signature algorithm are kept if the tenant leaves them out.
+         *
+         * @param tenant the credentials of the service provider
+         * @return this builder
+         */
+        public Builder tenant(GepgTenant tenant) {
+            gepgCode(tenant.getGepgCode());
+            privateKeystore(tenant.getPrivateKeystorePath(), tenant.getPrivateKeystorePassword(),
+                    tenant.getPrivateKeyAlias());
+            publicKeystore(tenant.getPublicKeystorePath(), tenant.getPublicKeystorePassword(),
+                    tenant.getPublicKeyAlias());
+            if (tenant.getKeystoreType() != null) {
+                keystoreType(tenant.getKeystoreType());
+            }
+            if (tenant.getSignatureAlgorithm() != null) {
+                signatureAlgorithm(tenant.getSignatureAlgorithm());
+            }
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of concurrent HTTP requests. Defaults to
+         * {@value JdkHttpTransport#DEFAULT_POOL_SIZE}.
+         *
+         * @param httpPoolSize the HTTP pool size
+         * @return this builder
+         */
+        public Builder httpPoolSize(int httpPoolSize) {
+            this.httpPoolSize = httpPoolSize;
+            return this;
+        }
+
+        /**
+         * Sets the time allowed to establish a connection.
+         *
+         * @param connectTimeout the connect timeout
+         * @return this builder
+         */
+        public Builder connectTimeout(Duration connectTimeout) {
+            this.connectTimeout = connectTimeout;
+            return this;
+        }
+
+        /**
+         * Sets the time allowed for a response to arrive, also the longest a
+         * request waits for a free connection.
+         *
+         * @param requestTimeout the request timeout
+         * @return this builder
+         */
+        public Builder requestTimeout(Duration requestTimeout) {
+            this.requestTimeout = requestTimeout;
+            return this;
+        }
+
+        /**
+         * Sets the number of attempts for a timed out request, including the
+         * first. Defaults to {@value GepgConfig#DEFAULT_MAX_ATTEMPTS}.
+         *
+         * @param maxAttempts the maximum number of attempts
+         * @return this builder
+         */
+        public Builder maxAttempts(int maxAttempts) {
+            this.maxAttempts = maxAttempts;
+            return this;
+        }
+
+        /**
+         * Sets the wait before the first retry. Each further retry may wait up to
+         * twice as long as the one before; the actual wait is picked at random
+         * below that, so clients that failed together do not retry together.
+         *
+         * @param initialBackoff the initial backoff
+         * @return this builder
+         */
+        public Builder initialBackoff(Duration initialBackoff) {
+            this.initialBackoff = initialBackoff;
+            return this;
+        }
+
+        /**
+         * Sets when an endpoint's circuit opens. After the given number of
+         * consecutive failed requests the endpoint rejects requests at once, until
+         * the open duration has passed and a trial request succeeds. Defaults to
+         * {@value GepgConfig#DEFAULT_CIRCUIT_FAILURE_THRESHOLD} failures and 30
+         * seconds.
+         *
+         * @param failureThreshold the number of consecutive failures
+         * @param openDuration     the time the circuit stays open
+         * @return this builder
+         */
+        public Builder circuitBreaker(int failureThreshold, Duration openDuration) {
+            this.circuitFailureThreshold = failureThreshold;
+            this.circuitOpenDuration = openDuration;
+            return this;
+        }
+
+        /**
+         * Sets the response time above which an endpoint's concurrency limit is
+         * lowered, as it is for a timeout. Defaults to half the request timeout.
+         *
+         * @param latencyThreshold the latency threshold
+         * @return this builder
+         */
+        public Builder latencyThreshold(Duration latencyThreshold) {
+            this.latencyThreshold = latencyThreshold;
+            return this;
+        }
+
+        /**
+         * Sets the number of retries each request adds to an endpoint's retry
+         * budget, so retries stay a bounded share of the traffic while GePG is
+         * failing. Defaults to {@value GepgConfig#DEFAULT_RETRY_BUDGET_RATIO}.
+         *
+         * @param retryBudgetRatio the retry budget ratio, from 0 to 1
+         * @return this builder
+         */
+        public Builder retryBudgetRatio(double retryBudgetRatio) {
+            this.retryBudgetRatio = retryBudgetRatio;
+            return this;
+        }
+
+        /**
+         * Sets the RabbitMQ broker.
+         *
+         * @param host     the host
+         * @param port     the port
+         * @param username the username
+         * @param password the password
+         * @return this builder
+         */
+        public Builder rabbitMq(String host, int port, String username, String password) {
+            this.rabbitMqHost = host;
+            this.rabbitMqPort = port;
+            this.rabbitMqUsername = username;
+            this.rabbitMqPassword = password;
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of pooled publisher channels. Defaults to
+         * {@value GepgAMqPublisher#DEFAULT_CHANNEL_POOL_SIZE}.
+         *
+         * @param channelPoolSize the channel pool size
+         * @return this builder
+         */
+        public Builder channelPoolSize(int channelPoolSize) {
+            this.channelPoolSize = channelPoolSize;
+            return this;
+        }
+
+        /**
+         * Sets the time to wait for the broker to confirm a message.
+         *
+         * @param confirmTimeout the confirm timeout
+         * @return this builder
+         */
+        public Builder confirmTimeout(Duration confirmTimeout) {
+            this.confirmTimeout = confirmTimeout;
+            return this;
+        }
+
+        /**
+         * Sets whether clients build the JAXB contexts of every message on a
+         * background thread when they are created, so the first request does not
+         * wait for them. On by default; the contexts are built once per JVM.
+         *
+         * @param jaxbWarmUp false to build each context on first use instead
+         * @return this builder
+         */
+        public Builder jaxbWarmUp(boolean jaxbWarmUp) {
+            this.jaxbWarmUp = jaxbWarmUp;
+            return this;
+        }
+
+        /**
+         * Builds the configuration. Nothing is read or connected.
+         *
+         * @return the configuration
+         * @throws IllegalArgumentException if a size, count or duration is out of
+         *                                  range, or the signature provider is
+         *                                  unknown
+         */
+        public GepgConfig build() {
+            requireAtLeastOne("HTTP pool size", httpPoolSize);
+            requireAtLeastOne("Max attempts", maxAttempts);
+            requireAtLeastOne("Channel pool size", channelPoolSize);
+            requireAtLeastOne("Circuit failure threshold", circuitFailureThreshold);
+            requirePositive("Connect timeout", connectTimeout);
+            requirePositive("Request timeout", requestTimeout);
+            requirePositive("Confirm timeout", confirmTimeout);
+            requirePositive("Circuit open duration", circuitOpenDuration);
+            // Fail here rather than when the keys are first loaded
+            SignatureProviders.resolve(signatureProvider);
+            if (latencyThreshold != null) {
+                requirePositive("Latency threshold", latencyThreshold);
+            }
+            if (!(retryBudgetRatio >= 0 && retryBudgetRatio <= 1)) {
+                throw new IllegalArgumentException("Retry budget ratio must be from 0 to 1: " + retryBudgetRatio);
+            }
+            Objects.requireNonNull(initialBackoff, "Initial backoff");
+            if (initialBackoff.isNegative()) {
+                throw new IllegalArgumentException("Initial backoff cannot be negative: " + initialBackoff);
+            }
+            return new GepgConfig(this);
+        }
+
+        private static void requireAtLeastOne(String name, int value) {
+            if (value < 1) {
+                throw new IllegalArgumentException(name + " must be at least 1: " + value);
+            }
+        }
+
+        private static void requirePositive(String name, Duration value) {
+            Objects.requireNonNull(value, name);
+            if (value.isZero() || value.isNegative()) {
+                throw new IllegalArgumentException(name + " must be positive: " + value);
+            }
+        }
+    }
+
+    /**
+     * Reads typed settings from named variables, keeping the current value when
+     * a variable is not set.
+     */
+    private static final class VariableReader {
+        private final Function<String, String> variables;
+
+        VariableReader(Function<String, String> variables) {
+            this.variables = variables;
+        }
+
+        String string(String name, String current) {
+            String value = variables.apply(name);
+            return value == null || value.isEmpty() ? current : value;
+        }
+
+        int integer(String name, int current) {
+            String value = string(name, null);
+            if (value == null) {
+                return current;
+            }
+            try {
+                return Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(name + " is not a number: " + value, e);
+            }
+        }
+
+        double decimal(String name, double current) {
+            String value = string(name, null);
+            if (value == null) {
+                return current;
+            }
+            try {
+                return Double.parseDouble(value.trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(name + " is not a number: " + value, e);
+            }
+        }
+
+        boolean flag(String name, boolean current) {
+            String value = string(name, null);
+            if (value == null) {
+                return current;
+            }
+            if ("true".equalsIgnoreCase(value.trim())) {
+                return true;
+            }
+            if ("false".equalsIgnoreCase(value.trim())) {
+                return false;
+            }
+            throw new IllegalArgumentException(name + " is not true or false: " + value);
+        }
+
+        Duration millis(String name, Duration current) {
+            String value = string(name, null);
+            if (value == null) {
+                return current;
+            }
+            try {
+                return Duration.ofMillis(Long.parseLong(value.trim()));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(name + " is not a number: " + value, e);
+            }
+        }
+    }
+}
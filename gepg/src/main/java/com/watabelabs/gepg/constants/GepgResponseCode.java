@@ -140,6 +140,16 @@ public class GepgResponseCode {
         responseMessages.put(7324, "NO_PAYMENT_FOUND_FOR_SPECIFIED_BILL_CONTROL_NUMBER");
     }
 
+    /**
+     * Returns whether the given code is a known GePG response code.
+     *
+     * @param code the code to check
+     * @return true if {@link #getResponseMessage(int)} has a message for it
+     */
+    public static boolean isKnown(int code) {
+        return responseMessages.containsKey(code);
+    }
+
     /**
      * Returns a message corresponding to the given code.
      *
@@ -0,0 +1,33 @@
+package com.watabelabs.gepg.http;
+
+import java.io.IOException;
+
+/**
+ * Thrown when the GePG API answers with an error status.
+ */
+public class GepgHttpException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int statusCode;
+
+    /**
+     * Creates an exception for an error status.
+     *
+     * @param statusCode the HTTP status code
+     * @param url        the URL that was requested
+     */
+    public GepgHttpException(int statusCode, String url) {
+        super("Server returned HTTP response code: " + statusCode + " for URL: " + url);
+        this.statusCode = statusCode;
+    }
+
+    /**
+     * Returns the HTTP status code.
+     *
+     * @return the status code
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+}
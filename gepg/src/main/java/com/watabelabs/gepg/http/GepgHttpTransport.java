@@ -0,0 +1,70 @@
+package com.watabelabs.gepg.http;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import com.watabelabs.gepg.utils.VirtualThreads;
+
+/**
+ * Sends signed requests to the GePG API over HTTP.
+ *
+ * <p>
+ * {@link com.watabelabs.gepg.GepgApiClient} owns the retry policy and the GePG
+ * headers; a transport only has to deliver one POST and return the body of the
+ * response. Implementations must be safe to share between threads.
+ * </p>
+ *
+ * <p>
+ * Example usage:
+ * </p>
+ *
+ * <pre>{@code
+ * GepgApiClient client = new GepgApiClient();
+ * client.setHttpTransport(new JdkHttpTransport(50, Duration.ofSeconds(5), Duration.ofSeconds(10)));
+ * }</pre>
+ */
+public interface GepgHttpTransport {
+
+    /**
+     * Posts the body to the given URL and returns the body of the response.
+     *
+     * @param url     the URL to post to
+     * @param body    the request body
+     * @param headers the request headers; headers with a null value are not sent
+     * @return the response body
+     * @throws SocketTimeoutException if the connection or the response timed out,
+     *                                which the client treats as retryable
+     * @throws IOException            if the request failed or the server answered
+     *                                with an error status
+     */
+    String post(String url, byte[] body, Map<String, String> headers) throws IOException;
+
+    /**
+     * Posts the body to the given URL without blocking the calling thread.
+     *
+     * <p>
+     * The future fails with the same exceptions {@link #post} would throw. The
+     * default implementation runs {@link #post} on
+     * {@link VirtualThreads#blockingExecutor()}, so it still holds a thread per
+     * request: a virtual one on JDK 21 or later, a common pool thread before
+     * that. Transports with a non-blocking client should override it.
+     * </p>
+     *
+     * @param url     the URL to post to
+     * @param body    the request body
+     * @param headers the request headers; headers with a null value are not sent
+     * @return a future completed with the response body
+     */
+    default CompletableFuture<String> postAsync(String url, byte[] body, Map<String, String> headers) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return post(url, body, headers);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, VirtualThreads.blockingExecutor());
+    }
+}
@@ -0,0 +1,263 @@
+package com.watabelabs.gepg.http;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * {@link GepgHttpTransport} backed by the JDK {@link HttpClient}.
+ *
+ * <p>
+ * The client keeps connections alive between requests, so consecutive
+ * submissions to the same host reuse one TCP and TLS session instead of
+ * handshaking every time. HTTP/2 is negotiated when the server supports it,
+ * otherwise requests fall back to HTTP/1.1.
+ * </p>
+ *
+ * <p>
+ * The pool size bounds how many requests are in flight at once. The JDK
+ * client opens a connection per concurrent HTTP/1.1 exchange and never more,
+ * so this is also the upper bound on open connections to the GePG host.
+ * Callers beyond the bound wait for a free slot up to the request timeout.
+ * {@link #postAsync} waits in a queue instead of on a thread, so any number of
+ * asynchronous submissions can be outstanding without holding threads.
+ * </p>
+ */
+public class JdkHttpTransport implements GepgHttpTransport {
+
+    /** Default number of concurrent requests. */
+    public static final int DEFAULT_POOL_SIZE = 20;
+
+    /** Default connect timeout, the same as the previous per-request timeout. */
+    public static final Duration DEFAULT_CONNECT_TIMEOUT = Duration.ofSeconds(5);
+
+    /** Default time to wait for the response. */
+    public static final Duration DEFAULT_REQUEST_TIMEOUT = Duration.ofSeconds(5);
+
+    private static final ConcurrentMap<List<Object>, JdkHttpTransport> SHARED = new ConcurrentHashMap<>();
+
+    private final HttpClient client;
+    private final Semaphore permits;
+    private final Queue<Runnable> waiters = new ConcurrentLinkedQueue<>();
+    private final int poolSize;
+    private final Duration requestTimeout;
+
+    /**
+     * Creates a transport with the default pool size and timeouts.
+     */
+    public JdkHttpTransport() {
+        this(DEFAULT_POOL_SIZE, DEFAULT_CONNECT_TIMEOUT, DEFAULT_REQUEST_TIMEOUT);
+    }
+
+    /**
+     * Creates a transport that prefers HTTP/2.
+     *
+     * @param poolSize       the maximum number of concurrent requests
+     * @param connectTimeout the time allowed to establish a connection
+     * @param requestTimeout the time allowed for the response to arrive
+     */
+    public JdkHttpTransport(int poolSize, Duration connectTimeout, Duration requestTimeout) {
+        this(poolSize, connectTimeout, requestTimeout, HttpClient.Version.HTTP_2);
+    }
+
+    /**
+     * Creates a transport.
+     *
+     * @param poolSize       the maximum number of concurrent requests
+     * @param connectTimeout the time allowed to establish a connection
+     * @param requestTimeout the time allowed for the response to arrive
+     * @param version        the preferred HTTP version
+     */
+    public JdkHttpTransport(int poolSize, Duration connectTimeout, Duration requestTimeout,
+            HttpClient.Version version) {
+        if (poolSize < 1) {
+            throw new IllegalArgumentException("Pool size must be at least 1: " + poolSize);
+        }
+        this.client = HttpClient.newBuilder()
+                .version(version)
+                .connectTimeout(connectTimeout)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .build();
+        this.permits = new Semaphore(poolSize, true);
+        this.poolSize = poolSize;
+        this.requestTimeout = requestTimeout;
+    }
+
+    /**
+     * Returns the transport shared by clients that were not given one. Sharing
+     * it lets every client in the process draw on the same connection pool.
+     *
+     * @return the shared transport
+     */
+    public static JdkHttpTransport getDefault() {
+        return shared(DEFAULT_POOL_SIZE, DEFAULT_CONNECT_TIMEOUT, DEFAULT_REQUEST_TIMEOUT);
+    }
+
+    /**
+     * Returns the transport shared by clients configured with the same pool size
+     * and timeouts. It is created on first use, so clients that never send a
+     * request never start an HTTP client.
+     *
+     * @param poolSize       the maximum number of concurrent requests
+     * @param connectTimeout the time allowed to establish a connection
+     * @param requestTimeout the time allowed for the response to arrive
+     * @return the shared transport
+     */
+    public static JdkHttpTransport shared(int poolSize, Duration connectTimeout, Duration requestTimeout) {
+        return SHARED.computeIfAbsent(Arrays.asList(poolSize, connectTimeout, requestTimeout),
+                key -> new JdkHttpTransport(poolSize, connectTimeout, requestTimeout));
+    }
+
+    /**
+     * Returns the maximum number of concurrent requests.
+     *
+     * @return the pool size
+     */
+    public int getPoolSize() {
+        return poolSize;
+    }
+
+    @Override
+    public String post(String url, byte[] body, Map<String, String> headers) throws IOException {
+        HttpRequest request = buildRequest(url, body, headers);
+
+        try {
+            if (!permits.tryAcquire(requestTimeout.toMillis(), TimeUnit.MILLISECONDS)) {
+                throw noConnectionAvailable();
+            }
+            try {
+                // The body is decoded as it arrives, using the charset of the response
+                return bodyOf(client.send(request, HttpResponse.BodyHandlers.ofString()), url);
+            } finally {
+                release();
+            }
+        } catch (HttpTimeoutException e) {
+            throw toSocketTimeout(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            InterruptedIOException interrupted = new InterruptedIOException("Request interrupted");
+            interrupted.initCause(e);
+            throw interrupted;
+        }
+    }
+
+    @Override
+    public CompletableFuture<String> postAsync(String url, byte[] body, Map<String, String> headers) {
+        HttpRequest request = buildRequest(url, body, headers);
+        CompletableFuture<String> result = new CompletableFuture<>();
+        // Claimed either by the request when it gets a permit, or by the queue timeout
+        AtomicBoolean claimed = new AtomicBoolean();
+
+        waiters.add(() -> {
+            if (!claimed.compareAndSet(false, true)) {
+                release();
+                return;
+            }
+            CompletableFuture<HttpResponse<String>> exchange;
+            try {
+                exchange = client.sendAsync(request, HttpResponse.BodyHandlers.ofString());
+            } catch (RuntimeException e) {
+                release();
+                result.completeExceptionally(e);
+                return;
+            }
+            exchange.whenComplete((response, error) -> {
+                release();
+                if (error != null) {
+                    result.completeExceptionally(translate(error));
+                    return;
+                }
+                try {
+                    result.complete(bodyOf(response, url));
+                } catch (IOException e) {
+                    result.completeExceptionally(e);
+                }
+            });
+        });
+        drain();
+
+        if (!claimed.get()) {
+            CompletableFuture.delayedExecutor(requestTimeout.toMillis(), TimeUnit.MILLISECONDS).execute(() -> {
+                if (claimed.compareAndSet(false, true)) {
+                    result.completeExceptionally(noConnectionAvailable());
+                }
+            });
+        }
+        return result;
+    }
+
+    private HttpRequest buildRequest(String url, byte[] body, Map<String, String> headers) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(url))
+                .timeout(requestTimeout)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body));
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            if (header.getValue() != null) {
+                builder.header(header.getKey(), header.getValue());
+            }
+        }
+        return builder.build();
+    }
+
+    private static String bodyOf(HttpResponse<String> response, String url) throws GepgHttpException {
+        if (response.statusCode() >= 400) {
+            throw new GepgHttpException(response.statusCode(), url);
+        }
+        return response.body();
+    }
+
+    private void release() {
+        permits.release();
+        drain();
+    }
+
+    /**
+     * Starts queued asynchronous requests while permits are available. Called
+     * after every enqueue and every release, so no waiter is left behind.
+     */
+    private void drain() {
+        while (!waiters.isEmpty() && permits.tryAcquire()) {
+            Runnable waiter = waiters.poll();
+            if (waiter == null) {
+                permits.release();
+            } else {
+                waiter.run();
+            }
+        }
+    }
+
+    private SocketTimeoutException noConnectionAvailable() {
+        return new SocketTimeoutException("No connection available after " + requestTimeout.toMillis() + " ms");
+    }
+
+    private static Throwable translate(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        if (cause instanceof HttpTimeoutException) {
+            return toSocketTimeout((HttpTimeoutException) cause);
+        }
+        return cause;
+    }
+
+    private static SocketTimeoutException toSocketTimeout(HttpTimeoutException e) {
+        SocketTimeoutException timeout = new SocketTimeoutException(e.getMessage());
+        timeout.initCause(e);
+        return timeout;
+    }
+}
@@ -0,0 +1,182 @@
+package com.watabelabs.gepg.metrics;
+
+import com.watabelabs.gepg.constants.GepgResponseCode;
+import com.watabelabs.gepg.resilience.CircuitState;
+import com.watabelabs.gepg.resilience.RejectionReason;
+
+/**
+ * Receives timings and counts for the operations the library performs, so they
+ * can be recorded in a metrics system such as Micrometer.
+ *
+ * <p>
+ * Every method has an empty default, so an implementation only overrides what
+ * it records. Durations are in nanoseconds. Methods are called on the thread
+ * that did the work, often a request or signing thread, so they should record
+ * and return without blocking.
+ * </p>
+ *
+ * <p>
+ * Install an implementation with {@link GepgMetricsRegistry#set(GepgMetrics)}.
+ * Until then {@link #NOOP} is used, and the library skips reading the clock
+ * altogether.
+ * </p>
+ *
+ * <p>
+ * Example usage:
+ * </p>
+ *
+ * <pre>{@code
+ * GepgMetricsRegistry.set(new GepgMetrics() {
+ *     public void requestCompleted(String endpoint, long nanos, RequestOutcome outcome) {
+ *         Timer.builder("gepg.request")
+ *                 .tag("endpoint", endpoint)
+ *                 .tag("outcome", outcome.name())
+ *                 .register(registry)
+ *                 .record(nanos, TimeUnit.NANOSECONDS);
+ *     }
+ *
+ *     public void acknowledged(String endpoint, int statusCode) {
+ *         registry.counter("gepg.ack", "endpoint", endpoint,
+ *                 "status", GepgMetrics.statusName(statusCode)).increment();
+ *     }
+ * });
+ * }</pre>
+ */
+public interface GepgMetrics {
+
+    /**
+     * Metrics that record nothing, used until an implementation is installed.
+     */
+    GepgMetrics NOOP = new GepgMetrics() {
+        @Override
+        public boolean isEnabled() {
+            return false;
+        }
+    };
+
+    /**
+     * Returns whether anything is recorded. When false the library does not
+     * time its operations.
+     *
+     * @return true unless this is {@link #NOOP}
+     */
+    default boolean isEnabled() {
+        return true;
+    }
+
+    /**
+     * Called after each attempt to send a request to the GePG API.
+     *
+     * @param endpoint the endpoint, one of the {@code GepgEndpoints} constants
+     * @param nanos    the time the attempt took
+     * @param outcome  how the attempt ended
+     */
+    default void requestCompleted(String endpoint, long nanos, RequestOutcome outcome) {
+    }
+
+    /**
+     * Called when a timed out or refused request is about to be sent again.
+     *
+     * @param endpoint the endpoint, one of the {@code GepgEndpoints} constants
+     * @param attempt  the number of the attempt about to be made, starting at 2
+     */
+    default void requestRetried(String endpoint, int attempt) {
+    }
+
+    /**
+     * Called when a request is not sent, or not sent again, to protect an
+     * endpoint that is failing or overloaded.
+     *
+     * @param endpoint the endpoint, one of the {@code GepgEndpoints} constants
+     * @param reason   why the request was not sent
+     */
+    default void requestRejected(String endpoint, RejectionReason reason) {
+    }
+
+    /**
+     * Called when an endpoint's circuit opens, lets a trial request through or
+     * closes again.
+     *
+     * @param endpoint the endpoint, one of the {@code GepgEndpoints} constants
+     * @param state    the new state of the circuit
+     */
+    default void circuitStateChanged(String endpoint, CircuitState state) {
+    }
+
+    /**
+     * Called when the number of requests an endpoint is allowed in flight
+     * changes.
+     *
+     * @param endpoint the endpoint, one of the {@code GepgEndpoints} constants
+     * @param limit    the new concurrency limit
+     */
+    default void concurrencyLimitChanged(String endpoint, int limit) {
+    }
+
+    /**
+     * Called with the status code of each acknowledgement GePG returns.
+     *
+     * @param endpoint   the endpoint, one of the {@code GepgEndpoints} constants
+     * @param statusCode the status code in the acknowledgement
+     */
+    default void acknowledged(String endpoint, int statusCode) {
+    }
+
+    /**
+     * Called after content is signed.
+     *
+     * @param nanos the time signing took
+     */
+    default void signed(long nanos) {
+    }
+
+    /**
+     * Called after a signature is verified.
+     *
+     * @param nanos the time verification took
+     * @param valid whether the signature was valid
+     */
+    default void verified(long nanos, boolean valid) {
+    }
+
+    /**
+     * Called after an object is marshalled to XML.
+     *
+     * @param type  the class of the object, or of the Envelope content
+     * @param nanos the time marshalling took
+     */
+    default void marshalled(Class<?> type, long nanos) {
+    }
+
+    /**
+     * Called after XML is unmarshalled to an object.
+     *
+     * @param type  the class of the object, or of the Envelope content
+     * @param nanos the time unmarshalling took
+     */
+    default void unmarshalled(Class<?> type, long nanos) {
+    }
+
+    /**
+     * Called when the broker confirms a published message, or the publish
+     * fails.
+     *
+     * @param destination the queue, or the exchange, the message was published to
+     * @param nanos       the time from publishing to the confirm or the failure
+     * @param confirmed   whether the broker confirmed the message
+     */
+    default void published(String destination, long nanos, boolean confirmed) {
+    }
+
+    /**
+     * Returns the name of a GePG status code, for use as a tag. Codes not in
+     * {@link GepgResponseCode} are all named {@code UNKNOWN}, so a tag built
+     * from it takes a bounded number of values.
+     *
+     * @param statusCode the status code
+     * @return the name of the code
+     */
+    static String statusName(int statusCode) {
+        return GepgResponseCode.isKnown(statusCode) ? GepgResponseCode.getResponseMessage(statusCode) : "UNKNOWN";
+    }
+}
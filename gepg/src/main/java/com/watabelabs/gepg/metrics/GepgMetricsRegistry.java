@@ -0,0 +1,35 @@
+package com.watabelabs.gepg.metrics;
+
+import java.util.Objects;
+
+/**
+ * Holds the {@link GepgMetrics} the library reports to. Signing, verification
+ * and JAXB run in shared utilities rather than in a client, so there is one
+ * implementation per process.
+ */
+public final class GepgMetricsRegistry {
+
+    private static volatile GepgMetrics metrics = GepgMetrics.NOOP;
+
+    private GepgMetricsRegistry() {
+        // Private constructor to prevent instantiation
+    }
+
+    /**
+     * Returns the installed metrics.
+     *
+     * @return the metrics, {@link GepgMetrics#NOOP} if none are installed
+     */
+    public static GepgMetrics get() {
+        return metrics;
+    }
+
+    /**
+     * Installs the metrics the library reports to.
+     *
+     * @param metrics the metrics, or {@link GepgMetrics#NOOP} to stop recording
+     */
+    public static void set(GepgMetrics metrics) {
+        GepgMetricsRegistry.metrics = Objects.requireNonNull(metrics, "metrics");
+    }
+}
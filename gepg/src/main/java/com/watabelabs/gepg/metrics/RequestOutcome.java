@@ -0,0 +1,19 @@
+package com.watabelabs.gepg.metrics;
+
+/**
+ * How a single attempt to send a request to the GePG API ended.
+ */
+public enum RequestOutcome {
+
+    /** GePG returned a response. */
+    SUCCESS,
+
+    /** The attempt timed out and may be retried. */
+    TIMEOUT,
+
+    /**
+     * The attempt failed for any other reason. Refused connections and 502,
+     * 503 and 504 responses may be retried, other failures are not.
+     */
+    FAILURE
+}
@@ -0,0 +1,216 @@
+package com.watabelabs.gepg.notification;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.time.Duration;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link NotificationIndex} that is kept in memory and written through to a
+ * file, so the keys survive a restart.
+ *
+ * <p>
+ * Every key added or removed is appended to the file as one line and flushed
+ * before {@link #add(String)} returns. When the index is opened the file is
+ * replayed, keys past their retention are dropped, and the file is rewritten
+ * with only the live keys. The file is rewritten the same way whenever it
+ * grows to twice the maximum size, so it stays proportional to the index.
+ * </p>
+ *
+ * <p>
+ * Duplicates are answered from memory without touching the file. Adds are
+ * written one at a time.
+ * </p>
+ */
+public class FileNotificationIndex implements NotificationIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(FileNotificationIndex.class);
+
+    private static final char SEPARATOR = '\t';
+    private static final String REMOVED = "-";
+
+    private final Path file;
+    private final int maxSize;
+    private final InMemoryNotificationIndex index;
+    private final Clock clock;
+    private BufferedWriter writer;
+    private int lines;
+
+    /**
+     * Opens an index with the default size and retention, creating the file if
+     * it does not exist.
+     *
+     * @param file the file the keys are kept in
+     * @throws IOException if the file cannot be read or written
+     */
+    public FileNotificationIndex(Path file) throws IOException {
+        this(file, InMemoryNotificationIndex.DEFAULT_MAX_SIZE, InMemoryNotificationIndex.DEFAULT_RETENTION);
+    }
+
+    /**
+     * Opens an index, creating the file if it does not exist.
+     *
+     * @param file      the file the keys are kept in
+     * @param maxSize   the maximum number of keys remembered
+     * @param retention how long a key is remembered
+     * @throws IOException if the file cannot be read or written
+     */
+    public FileNotificationIndex(Path file, int maxSize, Duration retention) throws IOException {
+        this(file, maxSize, retention, Clock.systemUTC());
+    }
+
+    FileNotificationIndex(Path file, int maxSize, Duration retention, Clock clock) throws IOException {
+        this.file = file;
+        this.maxSize = maxSize;
+        this.index = new InMemoryNotificationIndex(maxSize, retention, clock);
+        this.clock = clock;
+        if (Files.exists(file)) {
+            replay();
+        }
+        compact();
+        logger.info("NOTIFICATION_INDEX_OPENED {} keys from {}", index.size(), file);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws IllegalArgumentException if the key contains a line break
+     * @throws UncheckedIOException     if the key cannot be written to the file;
+     *                                  it is not recorded
+     */
+    @Override
+    public boolean add(String key) {
+        if (key.indexOf('\n') >= 0 || key.indexOf('\r') >= 0) {
+            throw new IllegalArgumentException("Key cannot contain a line break");
+        }
+        if (index.contains(key)) {
+            return false;
+        }
+        synchronized (this) {
+            long now = clock.millis();
+            if (!index.add(key, now)) {
+                return false;
+            }
+            try {
+                append(Long.toString(now), key);
+            } catch (IOException e) {
+                index.remove(key);
+                throw new UncheckedIOException("Failed to record notification " + key, e);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws UncheckedIOException if the removal cannot be written to the file
+     */
+    @Override
+    public synchronized void remove(String key) {
+        index.remove(key);
+        try {
+            append(REMOVED, key);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to forget notification " + key, e);
+        }
+    }
+
+    @Override
+    public int size() {
+        return index.size();
+    }
+
+    /**
+     * Flushes and closes the file.
+     *
+     * @throws IOException if the file cannot be closed
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        writer.close();
+    }
+
+    private void append(String first, String key) throws IOException {
+        writer.write(first);
+        writer.write(SEPARATOR);
+        writer.write(key);
+        writer.newLine();
+        writer.flush();
+        if (++lines >= 2 * maxSize) {
+            writer.close();
+            compact();
+        }
+    }
+
+    private void replay() throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int separator = line.indexOf(SEPARATOR);
+                if (separator < 0) {
+                    // A line cut short when the process stopped mid-write
+                    logger.warn("NOTIFICATION_INDEX_LINE_SKIPPED in {}", file);
+                    continue;
+                }
+                String first = line.substring(0, separator);
+                String key = line.substring(separator + 1);
+                if (REMOVED.equals(first)) {
+                    index.remove(key);
+                    continue;
+                }
+                try {
+                    index.add(key, Long.parseLong(first));
+                } catch (NumberFormatException e) {
+                    logger.warn("NOTIFICATION_INDEX_LINE_SKIPPED in {}", file);
+                }
+            }
+        }
+    }
+
+    /**
+     * Rewrites the file with only the live keys and reopens it for appending.
+     */
+    private void compact() throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        int[] written = new int[1];
+        try (BufferedWriter out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            IOException[] failure = new IOException[1];
+            index.forEach((key, at) -> {
+                if (failure[0] != null) {
+                    return;
+                }
+                try {
+                    out.write(Long.toString(at));
+                    out.write(SEPARATOR);
+                    out.write(key);
+                    out.newLine();
+                    written[0]++;
+                } catch (IOException e) {
+                    failure[0] = e;
+                }
+            });
+            if (failure[0] != null) {
+                throw failure[0];
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+        lines = written[0];
+    }
+
+    @Override
+    public String toString() {
+        return "FileNotificationIndex{file=" + file + ", size=" + index.size() + '}';
+    }
+}
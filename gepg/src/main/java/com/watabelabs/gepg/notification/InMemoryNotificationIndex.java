@@ -0,0 +1,154 @@
+package com.watabelabs.gepg.notification;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * A {@link NotificationIndex} held in memory, bounded in size and age.
+ *
+ * <p>
+ * Keys are kept in a concurrent map alongside a queue in the order they were
+ * added. Each add drops keys from the head of the queue once they are older
+ * than the retention period or the index holds more than its maximum size, so
+ * the oldest keys are forgotten first and the index never grows without bound.
+ * A duplicate is answered with a single map lookup.
+ * </p>
+ */
+public class InMemoryNotificationIndex implements NotificationIndex {
+
+    /** Default number of keys remembered. */
+    public static final int DEFAULT_MAX_SIZE = 100_000;
+
+    /** Default time a key is remembered, longer than GePG keeps retrying. */
+    public static final Duration DEFAULT_RETENTION = Duration.ofDays(7);
+
+    private final ConcurrentHashMap<String, Seen> seen = new ConcurrentHashMap<>();
+    private final Queue<Seen> order = new ConcurrentLinkedQueue<>();
+    private final int maxSize;
+    private final long retentionMillis;
+    private final Clock clock;
+
+    /**
+     * Creates an index with the default size and retention.
+     */
+    public InMemoryNotificationIndex() {
+        this(DEFAULT_MAX_SIZE, DEFAULT_RETENTION);
+    }
+
+    /**
+     * Creates an index.
+     *
+     * @param maxSize   the maximum number of keys remembered
+     * @param retention how long a key is remembered
+     */
+    public InMemoryNotificationIndex(int maxSize, Duration retention) {
+        this(maxSize, retention, Clock.systemUTC());
+    }
+
+    InMemoryNotificationIndex(int maxSize, Duration retention, Clock clock) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Max size must be at least 1: " + maxSize);
+        }
+        if (retention.isNegative() || retention.isZero()) {
+            throw new IllegalArgumentException("Retention must be positive: " + retention);
+        }
+        this.maxSize = maxSize;
+        this.retentionMillis = retention.toMillis();
+        this.clock = clock;
+    }
+
+    @Override
+    public boolean add(String key) {
+        return add(key, clock.millis());
+    }
+
+    /**
+     * Records a key as seen at the given time, unless it is already known.
+     */
+    boolean add(String key, long seenAt) {
+        long now = clock.millis();
+        Seen entry = new Seen(key, seenAt);
+        Seen existing = seen.putIfAbsent(key, entry);
+        if (existing != null) {
+            // An expired key is new again, unless another thread renewed it first
+            if (!isExpired(existing, now) || !seen.replace(key, existing, entry)) {
+                return false;
+            }
+        } else if (isExpired(entry, now)) {
+            seen.remove(key, entry);
+            return true;
+        }
+        order.add(entry);
+        evict(now);
+        return true;
+    }
+
+    /**
+     * Returns whether a key is known, without recording it.
+     */
+    boolean contains(String key) {
+        Seen entry = seen.get(key);
+        return entry != null && !isExpired(entry, clock.millis());
+    }
+
+    @Override
+    public void remove(String key) {
+        // The queue entry is dropped when it reaches the head
+        seen.remove(key);
+    }
+
+    @Override
+    public int size() {
+        return seen.size();
+    }
+
+    /**
+     * Passes every key that has not expired to the action with the time it was
+     * seen, oldest first.
+     */
+    void forEach(ObjLongConsumer<String> action) {
+        long now = clock.millis();
+        for (Seen entry : order) {
+            if (seen.get(entry.key) == entry && !isExpired(entry, now)) {
+                action.accept(entry.key, entry.at);
+            }
+        }
+    }
+
+    private void evict(long now) {
+        Seen head;
+        while ((head = order.peek()) != null && (isExpired(head, now) || seen.size() > maxSize
+                || seen.get(head.key) != head)) {
+            if (order.remove(head)) {
+                seen.remove(head.key, head);
+            }
+        }
+    }
+
+    private boolean isExpired(Seen entry, long now) {
+        return now - entry.at >= retentionMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "InMemoryNotificationIndex{size=" + seen.size() + ", maxSize=" + maxSize + '}';
+    }
+
+    /**
+     * A key and the time it was added. Compared by identity, so a renewed key
+     * is not removed by its old queue entry.
+     */
+    private static final class Seen {
+        private final String key;
+        private final long at;
+
+        private Seen(String key, long at) {
+            this.key = key;
+            this.at = at;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.watabelabs.gepg.notification;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Remembers the notifications that have already been processed, so a
+ * notification GePG sends again is recognised as a duplicate.
+ *
+ * <p>
+ * Implementations must be safe to use from several threads, and
+ * {@link #add(String)} must return true for exactly one of several threads
+ * adding the same key at once.
+ * </p>
+ */
+public interface NotificationIndex extends Closeable {
+
+    /**
+     * Records a key unless it is already known.
+     *
+     * @param key identifies the notification
+     * @return true if the key was not known, false if it is a duplicate
+     */
+    boolean add(String key);
+
+    /**
+     * Forgets a key, so the notification is processed again the next time it
+     * arrives.
+     *
+     * @param key identifies the notification
+     */
+    void remove(String key);
+
+    /**
+     * Returns the number of keys currently remembered.
+     *
+     * @return the number of keys
+     */
+    int size();
+
+    /**
+     * Releases any resources held by the index. Does nothing by default.
+     *
+     * @throws IOException if the index cannot be closed
+     */
+    @Override
+    default void close() throws IOException {
+    }
+}
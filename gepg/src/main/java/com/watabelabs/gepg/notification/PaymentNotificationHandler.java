@@ -0,0 +1,207 @@
+package com.watabelabs.gepg.notification;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.validation.ValidationException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.watabelabs.gepg.GepgApiClient;
+import com.watabelabs.gepg.mappers.payment.acks.GepgPmtSpInfoAck;
+import com.watabelabs.gepg.mappers.payment.requests.GepgPmtSpInfo;
+import com.watabelabs.gepg.mappers.payment.requests.GepgPymtTrxInf;
+
+/**
+ * Verifies payment notifications from GePG and processes each payment once,
+ * however many times GePG sends it.
+ *
+ * <p>
+ * A notification is identified by its GePG {@code TrxId}, or by its
+ * {@code PspReceiptNumber} if it has none. The key is recorded in a
+ * {@link NotificationIndex} before the listener is called, and the payment is
+ * also marked as in progress until the listener returns. If the listener
+ * throws, the key is removed again and the next retry is processed.
+ * </p>
+ *
+ * <p>
+ * A duplicate of a payment that has been processed is acknowledged straight
+ * away without calling the listener, so GePG stops retrying it. A duplicate
+ * that arrives while the payment is still in progress waits up to
+ * {@value #DUPLICATE_WAIT_SECONDS} seconds for the first attempt: it is
+ * acknowledged if that attempt succeeds, and fails without an ack if the
+ * attempt fails or takes longer, so GePG sends it again.
+ * </p>
+ *
+ * <p>
+ * Example usage:
+ * </p>
+ *
+ * <pre>{@code
+ * PaymentNotificationHandler handler = new PaymentNotificationHandler(gepgApiClient,
+ *         new FileNotificationIndex(Paths.get("/var/lib/gepg/payments.idx")), ledger::post);
+ *
+ * // in the callback endpoint
+ * return handler.handle(requestBody);
+ * }</pre>
+ */
+public class PaymentNotificationHandler {
+
+    private static final Logger logger = LoggerFactory.getLogger(PaymentNotificationHandler.class);
+
+    /**
+     * How long a duplicate waits for the attempt already in progress.
+     */
+    public static final long DUPLICATE_WAIT_SECONDS = 30;
+
+    private final GepgApiClient client;
+    private final NotificationIndex index;
+    private final PaymentNotificationListener listener;
+    private final ConcurrentMap<String, CompletableFuture<Void>> inProgress = new ConcurrentHashMap<>();
+    private final AtomicLong processed = new AtomicLong();
+    private final AtomicLong duplicates = new AtomicLong();
+
+    /**
+     * Creates a handler that remembers notifications in memory.
+     *
+     * @param client   verifies the notifications and signs the acks
+     * @param listener processes each payment
+     */
+    public PaymentNotificationHandler(GepgApiClient client, PaymentNotificationListener listener) {
+        this(client, new InMemoryNotificationIndex(), listener);
+    }
+
+    /**
+     * Creates a handler.
+     *
+     * @param client   verifies the notifications and signs the acks
+     * @param index    remembers the notifications already processed
+     * @param listener processes each payment
+     */
+    public PaymentNotificationHandler(GepgApiClient client, NotificationIndex index,
+            PaymentNotificationListener listener) {
+        this.client = client;
+        this.index = index;
+        this.listener = listener;
+    }
+
+    /**
+     * Verifies a signed payment notification, processes it unless it is a
+     * duplicate, and returns the signed acknowledgement.
+     *
+     * @param signedNotification the signed notification as received from GePG
+     * @return the signed {@link GepgPmtSpInfoAck} to return to GePG
+     * @throws ValidationException if the signature is not valid or the
+     *                             notification cannot be identified
+     * @throws Exception           if the notification cannot be parsed or the
+     *                             listener fails
+     */
+    public String handle(String signedNotification) throws Exception {
+        GepgPmtSpInfo notification = client.verifyAndUnwrap(signedNotification, GepgPmtSpInfo.class);
+        String key = keyOf(notification);
+
+        CompletableFuture<Void> attempt = new CompletableFuture<>();
+        CompletableFuture<Void> running = inProgress.putIfAbsent(key, attempt);
+        if (running != null) {
+            awaitRunning(key, running);
+            duplicates.incrementAndGet();
+            logger.info("PAYMENT_NOTIFICATION_DUPLICATE {}", key);
+            return acknowledge();
+        }
+        try {
+            if (!index.add(key)) {
+                attempt.complete(null);
+                duplicates.incrementAndGet();
+                logger.info("PAYMENT_NOTIFICATION_DUPLICATE {}", key);
+                return acknowledge();
+            }
+            try {
+                listener.onPayment(notification);
+            } catch (Exception e) {
+                index.remove(key);
+                attempt.completeExceptionally(e);
+                logger.error("PAYMENT_NOTIFICATION_FAILED {}", key, e);
+                throw e;
+            }
+            attempt.complete(null);
+        } catch (RuntimeException | Error e) {
+            attempt.completeExceptionally(e);
+            throw e;
+        } finally {
+            inProgress.remove(key, attempt);
+        }
+        processed.incrementAndGet();
+        logger.info("PAYMENT_NOTIFICATION_PROCESSED {}", key);
+        return acknowledge();
+    }
+
+    /**
+     * Returns the number of notifications passed to the listener.
+     *
+     * @return the number of payments processed
+     */
+    public long getProcessedCount() {
+        return processed.get();
+    }
+
+    /**
+     * Returns the number of notifications acknowledged as duplicates.
+     *
+     * @return the number of duplicates
+     */
+    public long getDuplicateCount() {
+        return duplicates.get();
+    }
+
+    /**
+     * Returns the key a notification is remembered by.
+     *
+     * @param notification the payment notification
+     * @return the GePG transaction id, or the PSP receipt number prefixed with
+     *         {@code PSP:}
+     * @throws ValidationException if the notification has neither
+     */
+    static String keyOf(GepgPmtSpInfo notification) {
+        GepgPymtTrxInf trxInf = notification.getPymtTrxInf();
+        if (trxInf == null) {
+            throw new ValidationException("Payment notification has no PymtTrxInf");
+        }
+        String key = null;
+        if (trxInf.getTrxId() != null && !trxInf.getTrxId().trim().isEmpty()) {
+            key = trxInf.getTrxId().trim();
+        } else if (trxInf.getPspReceiptNumber() != null && !trxInf.getPspReceiptNumber().trim().isEmpty()) {
+            key = "PSP:" + trxInf.getPspReceiptNumber().trim();
+        }
+        if (key == null || key.indexOf('\n') >= 0 || key.indexOf('\r') >= 0) {
+            throw new ValidationException("Payment notification has no usable TrxId or PspReceiptNumber");
+        }
+        return key;
+    }
+
+    /**
+     * Waits for the attempt already processing a payment, and throws unless it
+     * succeeds, so the duplicate is not acknowledged for a payment that was not
+     * processed.
+     */
+    private static void awaitRunning(String key, CompletableFuture<Void> running) throws Exception {
+        logger.info("PAYMENT_NOTIFICATION_IN_PROGRESS {}", key);
+        try {
+            running.get(DUPLICATE_WAIT_SECONDS, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Payment notification " + key + " failed in a concurrent attempt",
+                    e.getCause());
+        } catch (TimeoutException e) {
+            throw new IllegalStateException("Payment notification " + key + " is still being processed", e);
+        }
+    }
+
+    private String acknowledge() throws Exception {
+        return client.generateResponseAck(new GepgPmtSpInfoAck());
+    }
+}
@@ -0,0 +1,20 @@
+package com.watabelabs.gepg.notification;
+
+import com.watabelabs.gepg.mappers.payment.requests.GepgPmtSpInfo;
+
+/**
+ * Processes a verified payment notification, for example by posting it to the
+ * ledger.
+ */
+@FunctionalInterface
+public interface PaymentNotificationListener {
+
+    /**
+     * Processes a payment notification. Throwing leaves the notification
+     * unprocessed, so it is processed again when GePG retries it.
+     *
+     * @param notification the verified payment notification
+     * @throws Exception if the payment cannot be processed
+     */
+    void onPayment(GepgPmtSpInfo notification) throws Exception;
+}
@@ -0,0 +1,534 @@
+package com.watabelabs.gepg.outbox;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.watabelabs.gepg.amqp.headers.GepgQueueHeaders;
+import com.watabelabs.gepg.http.JdkHttpTransport;
+
+/**
+ * Durable outbox for signed GePG requests.
+ *
+ * <p>
+ * {@link #append} writes a signed request to an append-only journal of
+ * memory-mapped segment files and returns a future that completes once the
+ * request is on disk. A background relay then hands every stored request to an
+ * {@link OutboxRelay}, for example {@link OutboxRelay#http} or
+ * {@link OutboxRelay#amqp}, and retries failed deliveries with backoff. A
+ * request that was appended is therefore delivered even if GePG or RabbitMQ is
+ * down, or the process stops, in the meantime. A request that still fails
+ * after the maximum number of attempts is written to a file of its own in the
+ * {@value #DEAD_LETTER_DIRECTORY} directory, named after its offset and
+ * request type, and counts as delivered, so it cannot hold up the requests
+ * after it.
+ * </p>
+ *
+ * <p>
+ * Appends are group committed: one thread forces the journal to disk for every
+ * append made since its last force, so concurrent appends share one fsync
+ * instead of paying for one each. The offset up to which every request has
+ * been delivered is checkpointed about once a second and when the outbox is
+ * closed. When the outbox is opened again, requests after the checkpoint are
+ * delivered again, so delivery is at least once; GePG answers a bill it has
+ * already received with DUPLICATE_BILL_INFORMATION (7226). Segments whose
+ * requests have all been delivered are deleted.
+ * </p>
+ *
+ * <p>
+ * If the journal cannot be forced to disk, the appends of that commit fail and
+ * are removed from the journal, so a caller that appends them again does not
+ * send them twice. After that, or if the relay finds a record it cannot read,
+ * the outbox stops accepting appends: they fail with an {@link IOException}
+ * whose cause is the original error, until the outbox is reopened.
+ * </p>
+ *
+ * <p>
+ * Example usage:
+ * </p>
+ *
+ * <pre>{@code
+ * GepgOutbox outbox = new GepgOutbox(Paths.get("/var/lib/gepg/outbox"), OutboxRelay.http(client));
+ *
+ * // Inside the unit of work that creates the bill
+ * outbox.appendBill(client.generatePayload(bill)).join();
+ * }</pre>
+ */
+public class GepgOutbox implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(GepgOutbox.class);
+
+    /** Default size of a segment file, 64 MiB. */
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    /** Default number of requests being delivered at once. */
+    public static final int DEFAULT_MAX_IN_FLIGHT = JdkHttpTransport.DEFAULT_POOL_SIZE;
+
+    /** Default number of attempts to deliver a request, about an hour and a half with backoff. */
+    public static final int DEFAULT_MAX_ATTEMPTS = 100;
+
+    /** Directory, inside the outbox's, that requests are moved to when they cannot be delivered. */
+    public static final String DEAD_LETTER_DIRECTORY = "dead-letters";
+
+    /** Smallest segment size accepted. */
+    static final int MIN_SEGMENT_SIZE = 1024;
+
+    static final String CHECKPOINT_FILE = "checkpoint";
+
+    private static final Set<String> REQUEST_TYPES = new HashSet<>(Arrays.asList(
+            GepgQueueHeaders.BILL_SUBMISSION_HEADER.trim(),
+            GepgQueueHeaders.CONTROL_NUMBER_REUSE_HEADER.trim(),
+            GepgQueueHeaders.BILL_UPDATE_HEADER.trim(),
+            GepgQueueHeaders.BILL_CANCELLATION_HEADER.trim(),
+            GepgQueueHeaders.PAYMENT_SUBMISSION_HEADER.trim(),
+            GepgQueueHeaders.RECONCILIATION_SUBMISSION_HEADER.trim()));
+
+    private static final long CHECKPOINT_INTERVAL_MILLIS = 1000;
+    private static final long INITIAL_RETRY_MILLIS = 1000;
+    private static final long MAX_RETRY_MILLIS = 60_000;
+
+    private final Path directory;
+    private final OutboxRelay relay;
+    private final MappedJournal journal;
+    private final Semaphore permits;
+    private final int maxAttempts;
+
+    // Guards the journal's write side, the pending appends, closed and failure
+    private final Object lock = new Object();
+    private List<PendingAppend> pending = new ArrayList<>();
+    private volatile boolean closed;
+    private Throwable failure;
+
+    private volatile long durableOffset;
+    private final Object durableSignal = new Object();
+
+    private final ArrayDeque<Delivery> inFlight = new ArrayDeque<>();
+    private volatile long deliveredOffset;
+    private long checkpointedOffset;
+    private long lastCheckpointMillis;
+
+    private final Thread committer;
+    private final Thread relayThread;
+
+    /**
+     * Opens an outbox with the default segment size and delivery concurrency,
+     * and starts delivering the requests left from a previous run.
+     *
+     * @param directory the directory the journal and checkpoint are kept in
+     * @param relay     delivers the stored requests
+     * @throws IOException if the journal cannot be read or created
+     */
+    public GepgOutbox(Path directory, OutboxRelay relay) throws IOException {
+        this(directory, relay, DEFAULT_SEGMENT_SIZE, DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    /**
+     * Opens an outbox and starts delivering the requests left from a previous
+     * run.
+     *
+     * @param directory   the directory the journal and checkpoint are kept in
+     * @param relay       delivers the stored requests
+     * @param segmentSize the size of a segment file in bytes; a larger request
+     *                    gets a segment of its own
+     * @param maxInFlight the maximum number of requests being delivered at once
+     * @throws IOException if the journal cannot be read or created
+     */
+    public GepgOutbox(Path directory, OutboxRelay relay, int segmentSize, int maxInFlight) throws IOException {
+        this(directory, relay, segmentSize, maxInFlight, DEFAULT_MAX_ATTEMPTS);
+    }
+
+    /**
+     * Opens an outbox and starts delivering the requests left from a previous
+     * run.
+     *
+     * @param directory   the directory the journal and checkpoint are kept in
+     * @param relay       delivers the stored requests
+     * @param segmentSize the size of a segment file in bytes; a larger request
+     *                    gets a segment of its own
+     * @param maxInFlight the maximum number of requests being delivered at once
+     * @param maxAttempts the number of failed deliveries after which a request
+     *                    is moved to the dead-letter directory
+     * @throws IOException if the journal cannot be read or created
+     */
+    public GepgOutbox(Path directory, OutboxRelay relay, int segmentSize, int maxInFlight, int maxAttempts)
+            throws IOException {
+        if (segmentSize < MIN_SEGMENT_SIZE) {
+            throw new IllegalArgumentException("Segment size must be at least " + MIN_SEGMENT_SIZE + ": "
+                    + segmentSize);
+        }
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("Max in flight must be at least 1: " + maxInFlight);
+        }
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("Max attempts must be at least 1: " + maxAttempts);
+        }
+        this.directory = directory;
+        this.relay = relay;
+        this.journal = new MappedJournal(directory, segmentSize);
+        this.permits = new Semaphore(maxInFlight);
+        this.maxAttempts = maxAttempts;
+
+        long checkpoint = readCheckpoint();
+        this.durableOffset = journal.getWriteOffset();
+        this.deliveredOffset = checkpoint;
+        this.checkpointedOffset = checkpoint;
+        logger.info("OUTBOX_OPENED {} checkpoint={} writeOffset={}", directory, checkpoint, durableOffset);
+
+        this.committer = new Thread(this::commitLoop, "gepg-outbox-committer");
+        this.committer.setDaemon(true);
+        this.relayThread = new Thread(() -> relayLoop(checkpoint), "gepg-outbox-relay");
+        this.relayThread.setDaemon(true);
+        this.committer.start();
+        this.relayThread.start();
+    }
+
+    /**
+     * Stores a signed request for delivery.
+     *
+     * @param requestType   the kind of request, one of the
+     *                      {@link GepgQueueHeaders} values
+     * @param signedRequest the signed XML request
+     * @return a future completed with the offset of the request once it is on
+     *         disk, or failed if it could not be stored
+     * @throws IllegalArgumentException if the request type is not one the
+     *                                  relays can deliver
+     */
+    public CompletableFuture<Long> append(String requestType, String signedRequest) {
+        String type = requestType == null ? null : requestType.trim();
+        if (!REQUEST_TYPES.contains(type)) {
+            // Stored, it could never be delivered
+            throw new IllegalArgumentException("Unknown request type: " + requestType);
+        }
+        byte[] payload = signedRequest.getBytes(StandardCharsets.UTF_8);
+        synchronized (lock) {
+            if (closed) {
+                return CompletableFuture.failedFuture(new IllegalStateException("Outbox is closed"));
+            }
+            if (failure != null) {
+                return CompletableFuture.failedFuture(new IOException("Outbox stopped after a failure", failure));
+            }
+            long offset;
+            try {
+                offset = journal.append(type, payload);
+            } catch (IOException | RuntimeException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+            PendingAppend append = new PendingAppend(offset);
+            pending.add(append);
+            if (pending.size() == 1) {
+                lock.notifyAll();
+            }
+            return append.future;
+        }
+    }
+
+    /**
+     * Stores a signed bill submission for delivery.
+     *
+     * @param signedRequest the signed XML request
+     * @return a future completed with the offset of the request once it is on
+     *         disk
+     */
+    public CompletableFuture<Long> appendBill(String signedRequest) {
+        return append(GepgQueueHeaders.BILL_SUBMISSION_HEADER, signedRequest);
+    }
+
+    /**
+     * Returns the offset up to which every stored request has been delivered.
+     *
+     * @return the delivered offset
+     */
+    public long getDeliveredOffset() {
+        return deliveredOffset;
+    }
+
+    /**
+     * Returns the offset up to which requests are on disk.
+     *
+     * @return the durable offset
+     */
+    public long getDurableOffset() {
+        return durableOffset;
+    }
+
+    /**
+     * Stops the relay, waits for pending appends to reach the disk and writes
+     * the checkpoint. Requests still being delivered are delivered again when
+     * the outbox is next opened.
+     */
+    @Override
+    public void close() {
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            lock.notifyAll();
+        }
+        relayThread.interrupt();
+        try {
+            committer.join();
+            relayThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        logger.info("OUTBOX_CLOSED {} checkpoint={}", directory, checkpointedOffset);
+    }
+
+    /**
+     * Forces every append made since the previous pass in one go, then
+     * completes their futures and wakes the relay. Also writes the checkpoint.
+     */
+    private void commitLoop() {
+        while (true) {
+            List<PendingAppend> batch;
+            List<MappedJournal.Segment> dirty;
+            long end;
+            boolean stopping;
+            synchronized (lock) {
+                if (pending.isEmpty() && !closed) {
+                    try {
+                        lock.wait(CHECKPOINT_INTERVAL_MILLIS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                batch = pending;
+                pending = new ArrayList<>();
+                dirty = journal.takeDirty();
+                end = journal.getWriteOffset();
+                stopping = closed;
+            }
+
+            if (!batch.isEmpty() || !dirty.isEmpty()) {
+                commit(batch, dirty, end);
+            }
+            checkpoint(stopping);
+            if (stopping) {
+                return;
+            }
+        }
+    }
+
+    private void commit(List<PendingAppend> batch, List<MappedJournal.Segment> dirty, long end) {
+        try {
+            MappedJournal.force(dirty);
+        } catch (RuntimeException e) {
+            logger.error("FAILED_TO_FORCE_OUTBOX_JOURNAL {}, appends stopped", directory, e);
+            Throwable cause = e instanceof UncheckedIOException ? e.getCause() : e;
+            List<PendingAppend> failed = new ArrayList<>(batch);
+            synchronized (lock) {
+                // Remove this batch and any append made since, so none is delivered after failing
+                failure = cause;
+                failed.addAll(pending);
+                pending = new ArrayList<>();
+                journal.truncate(durableOffset);
+            }
+            for (PendingAppend append : failed) {
+                append.future.completeExceptionally(cause);
+            }
+            return;
+        }
+        durableOffset = end;
+        for (PendingAppend append : batch) {
+            append.future.complete(append.offset);
+        }
+        synchronized (durableSignal) {
+            durableSignal.notifyAll();
+        }
+    }
+
+    /**
+     * Hands stored requests to the relay in offset order, keeping at most the
+     * permitted number in flight.
+     */
+    private void relayLoop(long startOffset) {
+        long readOffset = startOffset;
+        try {
+            while (!closed) {
+                synchronized (durableSignal) {
+                    while (readOffset >= durableOffset && !closed) {
+                        durableSignal.wait(CHECKPOINT_INTERVAL_MILLIS);
+                    }
+                }
+                if (closed) {
+                    return;
+                }
+                permits.acquire();
+                OutboxRecord record;
+                try {
+                    record = journal.read(readOffset);
+                } catch (IOException e) {
+                    permits.release();
+                    logger.error("OUTBOX_JOURNAL_CORRUPT {} at {}, relay and appends stopped", directory,
+                            readOffset, e);
+                    synchronized (lock) {
+                        failure = e;
+                    }
+                    return;
+                }
+                readOffset = record.getNextOffset();
+                Delivery delivery = new Delivery(record);
+                synchronized (inFlight) {
+                    inFlight.add(delivery);
+                }
+                deliver(delivery);
+            }
+        } catch (InterruptedException e) {
+            // Closed while waiting
+        }
+    }
+
+    private void deliver(Delivery delivery) {
+        CompletableFuture<?> result;
+        try {
+            result = relay.deliver(delivery.record);
+        } catch (RuntimeException e) {
+            result = CompletableFuture.failedFuture(e);
+        }
+        result.whenComplete((ignored, error) -> {
+            if (error == null) {
+                delivered(delivery);
+                return;
+            }
+            delivery.attempts++;
+            logger.warn("OUTBOX_DELIVERY_FAILED offset={} attempt={}", delivery.record.getOffset(),
+                    delivery.attempts, error);
+            if (closed) {
+                // Left for the next run, which starts from the checkpoint
+                return;
+            }
+            if (delivery.attempts >= maxAttempts && deadLetter(delivery.record, error)) {
+                delivered(delivery);
+                return;
+            }
+            CompletableFuture.delayedExecutor(retryMillis(delivery.attempts), TimeUnit.MILLISECONDS)
+                    .execute(() -> {
+                        if (!closed) {
+                            deliver(delivery);
+                        }
+                    });
+        });
+    }
+
+    /**
+     * Marks a request delivered and moves the delivered offset past every
+     * request delivered before it, so the offset never skips one still in
+     * flight.
+     */
+    private void delivered(Delivery delivery) {
+        synchronized (inFlight) {
+            delivery.done = true;
+            while (!inFlight.isEmpty() && inFlight.peek().done) {
+                deliveredOffset = inFlight.poll().record.getNextOffset();
+            }
+        }
+        permits.release();
+    }
+
+    /**
+     * Writes a request that cannot be delivered to the dead-letter directory.
+     *
+     * @return true once the file is on disk, false if it could not be written,
+     *         in which case the request is retried as before
+     */
+    private boolean deadLetter(OutboxRecord record, Throwable error) {
+        Path deadLetters = directory.resolve(DEAD_LETTER_DIRECTORY);
+        Path file = deadLetters.resolve(String.format("%020d-%s.xml", record.getOffset(), record.getRequestType()));
+        try {
+            if (!Files.isDirectory(deadLetters)) {
+                Files.createDirectories(deadLetters);
+                MappedJournal.syncDirectory(directory);
+            }
+            MappedJournal.writeDurably(file, record.getPayload().getBytes(StandardCharsets.UTF_8));
+            MappedJournal.syncDirectory(deadLetters);
+        } catch (IOException e) {
+            logger.error("FAILED_TO_WRITE_OUTBOX_DEAD_LETTER {}", file, e);
+            return false;
+        }
+        logger.error("OUTBOX_REQUEST_DEAD_LETTERED offset={} attempts={} file={}", record.getOffset(), maxAttempts,
+                file, error);
+        return true;
+    }
+
+    private void checkpoint(boolean force) {
+        long offset = deliveredOffset;
+        long now = System.currentTimeMillis();
+        if (offset == checkpointedOffset
+                || (!force && now - lastCheckpointMillis < CHECKPOINT_INTERVAL_MILLIS)) {
+            return;
+        }
+        Path file = directory.resolve(CHECKPOINT_FILE);
+        Path temp = directory.resolve(CHECKPOINT_FILE + ".tmp");
+        try {
+            // Forced before and after the rename, so a crash leaves the old or the new checkpoint whole
+            MappedJournal.writeDurably(temp, Long.toString(offset).getBytes(StandardCharsets.US_ASCII));
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            MappedJournal.syncDirectory(directory);
+        } catch (IOException e) {
+            logger.error("FAILED_TO_WRITE_OUTBOX_CHECKPOINT {}", file, e);
+            return;
+        }
+        checkpointedOffset = offset;
+        lastCheckpointMillis = now;
+        journal.deleteBefore(offset);
+    }
+
+    /**
+     * Reads the checkpoint, falling back to the oldest stored request when there
+     * is none, so nothing stored is skipped.
+     */
+    private long readCheckpoint() throws IOException {
+        long first = journal.getFirstOffset();
+        long end = journal.getWriteOffset();
+        Path file = directory.resolve(CHECKPOINT_FILE);
+        if (!Files.exists(file)) {
+            return first;
+        }
+        String text = new String(Files.readAllBytes(file), StandardCharsets.US_ASCII).trim();
+        try {
+            return Math.max(first, Math.min(end, Long.parseLong(text)));
+        } catch (NumberFormatException e) {
+            logger.warn("OUTBOX_CHECKPOINT_UNREADABLE {}, delivering from {}", file, first);
+            return first;
+        }
+    }
+
+    private static long retryMillis(int attempts) {
+        return Math.min(MAX_RETRY_MILLIS, INITIAL_RETRY_MILLIS << Math.min(attempts - 1, 16));
+    }
+
+    private static final class PendingAppend {
+        final long offset;
+        final CompletableFuture<Long> future = new CompletableFuture<>();
+
+        PendingAppend(long offset) {
+            this.offset = offset;
+        }
+    }
+
+    private static final class Delivery {
+        final OutboxRecord record;
+        int attempts;
+        boolean done;
+
+        Delivery(OutboxRecord record) {
+            this.record = record;
+        }
+    }
+}
@@ -0,0 +1,396 @@
+package com.watabelabs.gepg.outbox;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only journal of outbox records, kept in memory-mapped segment files.
+ *
+ * <p>
+ * Each record is written as its length, a CRC32 of its body, and the body: the
+ * request type prefixed by its length, then the payload. A record never spans
+ * two segments. When the active segment is full a new one is started at the
+ * current write offset, and is named after that offset, so an offset maps to
+ * the segment with the greatest base at or below it. Segments are sized up
+ * front and the unused tail stays zero, which is how the end of the records is
+ * found when the journal is reopened. A record cut short by a crash fails its
+ * checksum and is discarded along with anything after it. A new segment file
+ * is forced to disk along with its directory entry before records are
+ * written to it.
+ * </p>
+ *
+ * <p>
+ * Appends are not thread-safe and are made under the outbox's lock. Records
+ * below an offset published through a volatile write can be read from any
+ * thread.
+ * </p>
+ */
+final class MappedJournal {
+
+    private static final Logger logger = LoggerFactory.getLogger(MappedJournal.class);
+
+    /** Length, checksum and request type length. */
+    static final int HEADER_SIZE = 10;
+
+    private static final String SUFFIX = ".segment";
+
+    private final Path directory;
+    private final int segmentSize;
+    private final ConcurrentNavigableMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+    private final CRC32 crc = new CRC32();
+
+    private Segment active;
+    private long writeOffset;
+    private List<Segment> dirty = new ArrayList<>();
+
+    /**
+     * Opens the journal in a directory, creating the directory and the first
+     * segment if needed.
+     *
+     * @param directory   the directory holding the segment files
+     * @param segmentSize the size of a new segment in bytes
+     * @throws IOException if a segment cannot be read or created
+     */
+    MappedJournal(Path directory, int segmentSize) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        if (!Files.isDirectory(directory)) {
+            Files.createDirectories(directory);
+            Path parent = directory.toAbsolutePath().getParent();
+            if (parent != null) {
+                syncDirectory(parent);
+            }
+        }
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                long base = Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+                segments.put(base, map(file, base, (int) Files.size(file)));
+            }
+        }
+
+        if (segments.isEmpty()) {
+            active = create(0, segmentSize);
+            writeOffset = 0;
+        } else {
+            active = segments.lastEntry().getValue();
+            active.position = recover(active);
+            writeOffset = active.base + active.position;
+        }
+    }
+
+    /**
+     * Appends a record. The record is in the page cache when this returns, and
+     * on disk after the next {@link #force(List)} of the dirty segments.
+     *
+     * @param requestType the request type
+     * @param payload     the payload
+     * @return the offset of the record
+     * @throws IOException if a new segment cannot be created
+     */
+    long append(String requestType, byte[] payload) throws IOException {
+        byte[] type = requestType.getBytes(StandardCharsets.UTF_8);
+        if (type.length > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("Request type is too long: " + type.length + " bytes");
+        }
+        int size = HEADER_SIZE + type.length + payload.length;
+        if (active.capacity - active.position < size) {
+            // The record would not fit, start a segment that holds at least this record
+            active = create(writeOffset, Math.max(segmentSize, size));
+        }
+
+        crc.reset();
+        crc.update(type.length >>> 8);
+        crc.update(type.length);
+        crc.update(type);
+        crc.update(payload);
+
+        ByteBuffer writer = active.writer;
+        writer.position(active.position);
+        writer.putInt(size - 8);
+        writer.putInt((int) crc.getValue());
+        writer.putShort((short) type.length);
+        writer.put(type);
+        writer.put(payload);
+
+        long offset = writeOffset;
+        active.position += size;
+        writeOffset += size;
+        if (!active.dirty) {
+            active.dirty = true;
+            dirty.add(active);
+        }
+        return offset;
+    }
+
+    /**
+     * Returns the offset the next record will be written at.
+     */
+    long getWriteOffset() {
+        return writeOffset;
+    }
+
+    /**
+     * Returns the offset of the oldest record still kept.
+     */
+    long getFirstOffset() {
+        return segments.firstKey();
+    }
+
+    /**
+     * Returns the segments written since the last call, which need forcing.
+     */
+    List<Segment> takeDirty() {
+        List<Segment> taken = dirty;
+        for (Segment segment : taken) {
+            segment.dirty = false;
+        }
+        dirty = new ArrayList<>();
+        return taken;
+    }
+
+    /**
+     * Writes the given segments to the storage device. Records appended while
+     * this runs may be written too, which is harmless.
+     *
+     * @param toForce the segments to force
+     */
+    static void force(List<Segment> toForce) {
+        for (Segment segment : toForce) {
+            segment.buffer.force();
+        }
+    }
+
+    /**
+     * Discards every record from an offset on, after forcing them failed. The
+     * discarded bytes are cleared, segments that start after the offset are
+     * deleted, and the next record is written at the offset. Clearing the bytes
+     * is also forced, as far as the device still allows, so the records are
+     * not found when the journal is reopened.
+     *
+     * @param offset the offset up to which records are on disk
+     */
+    void truncate(long offset) {
+        while (segments.lastKey() > offset) {
+            Segment dropped = segments.remove(segments.lastKey());
+            try {
+                Files.deleteIfExists(dropped.file);
+            } catch (IOException e) {
+                logger.warn("FAILED_TO_DELETE_OUTBOX_SEGMENT {}", dropped.file, e);
+            }
+        }
+        active = segments.lastEntry().getValue();
+        int position = (int) (offset - active.base);
+        for (int i = position; i < active.position; i++) {
+            active.writer.put(i, (byte) 0);
+        }
+        active.position = position;
+        active.dirty = false;
+        writeOffset = offset;
+        dirty = new ArrayList<>();
+        try {
+            active.buffer.force();
+        } catch (RuntimeException e) {
+            logger.warn("FAILED_TO_FORCE_OUTBOX_TRUNCATION {}", active.file, e);
+        }
+        logger.warn("OUTBOX_JOURNAL_TRUNCATED {} at {}", directory, offset);
+    }
+
+    /**
+     * Forces a directory, so the files created, renamed or deleted in it
+     * survive a crash. Directories cannot be opened on Windows, where the
+     * entries are written with the files.
+     *
+     * @param directory the directory
+     * @throws IOException if the directory cannot be forced
+     */
+    static void syncDirectory(Path directory) throws IOException {
+        if (File.separatorChar == '\\') {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Writes a small file and forces it to disk.
+     *
+     * @param file  the file, replaced if it exists
+     * @param bytes the content
+     * @throws IOException if the file cannot be written or forced
+     */
+    static void writeDurably(Path file, byte[] bytes) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Reads the record at an offset, which must be below a published write
+     * offset.
+     *
+     * @param offset the offset of the record
+     * @return the record
+     * @throws IOException if there is no valid record at the offset
+     */
+    OutboxRecord read(long offset) throws IOException {
+        Map.Entry<Long, Segment> entry = segments.floorEntry(offset);
+        if (entry == null) {
+            throw new IOException("No segment holds offset " + offset);
+        }
+        Segment segment = entry.getValue();
+        int position = (int) (offset - segment.base);
+
+        // A duplicate has its own position, so readers never disturb each other
+        ByteBuffer reader = segment.buffer.duplicate();
+        int length = position + 8 <= segment.capacity ? reader.getInt(position) : 0;
+        if (length < 2 || position + 8 + length > segment.capacity) {
+            throw new IOException("No record at offset " + offset);
+        }
+        int checksum = reader.getInt(position + 4);
+        byte[] body = new byte[length];
+        reader.position(position + 8);
+        reader.get(body);
+
+        CRC32 bodyCrc = new CRC32();
+        bodyCrc.update(body);
+        int typeLength = ((body[0] & 0xff) << 8) | (body[1] & 0xff);
+        if ((int) bodyCrc.getValue() != checksum || typeLength > length - 2) {
+            throw new IOException("Corrupt record at offset " + offset);
+        }
+        String requestType = new String(body, 2, typeLength, StandardCharsets.UTF_8);
+        String payload = new String(body, 2 + typeLength, length - 2 - typeLength, StandardCharsets.UTF_8);
+        return new OutboxRecord(offset, offset + 8 + length, requestType, payload);
+    }
+
+    /**
+     * Deletes the segments whose records all lie below an offset.
+     *
+     * @param offset the offset every earlier record has been delivered up to
+     */
+    void deleteBefore(long offset) {
+        Map.Entry<Long, Segment> first = segments.firstEntry();
+        while (first != null) {
+            Long next = segments.higherKey(first.getKey());
+            if (next == null || next > offset) {
+                return;
+            }
+            segments.remove(first.getKey());
+            try {
+                Files.deleteIfExists(first.getValue().file);
+                logger.info("OUTBOX_SEGMENT_DELETED {}", first.getValue().file);
+            } catch (IOException e) {
+                logger.warn("FAILED_TO_DELETE_OUTBOX_SEGMENT {}", first.getValue().file, e);
+            }
+            first = segments.firstEntry();
+        }
+    }
+
+    private Segment create(long base, int capacity) throws IOException {
+        Path file = directory.resolve(String.format("%020d%s", base, SUFFIX));
+        Segment segment;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            segment = new Segment(file, base, channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity));
+            // The file's new size, then its name, must be on disk before any record in it counts as durable
+            channel.force(true);
+        }
+        syncDirectory(directory);
+        segments.put(base, segment);
+        logger.info("OUTBOX_SEGMENT_CREATED {}", file);
+        return segment;
+    }
+
+    private static Segment map(Path file, long base, int capacity) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            // Mapping past the end grows the file, and the mapping outlives the channel
+            return new Segment(file, base, channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity));
+        }
+    }
+
+    /**
+     * Finds the end of the valid records in a segment, and clears anything
+     * after a record that fails its checksum.
+     *
+     * @return the position after the last valid record
+     */
+    private static int recover(Segment segment) {
+        ByteBuffer reader = segment.buffer.duplicate();
+        CRC32 bodyCrc = new CRC32();
+        int position = 0;
+        while (position + HEADER_SIZE <= segment.capacity) {
+            int length = reader.getInt(position);
+            if (length == 0) {
+                return position;
+            }
+            if (length < 2 || position + 8 + length > segment.capacity) {
+                break;
+            }
+            byte[] body = new byte[length];
+            reader.position(position + 8);
+            reader.get(body);
+            bodyCrc.reset();
+            bodyCrc.update(body);
+            if ((int) bodyCrc.getValue() != reader.getInt(position + 4)) {
+                break;
+            }
+            position += 8 + length;
+        }
+        if (position + HEADER_SIZE <= segment.capacity) {
+            // The loop stopped at a record that is not whole
+            logger.warn("OUTBOX_TORN_RECORD_DISCARDED {} at {}", segment.file, segment.base + position);
+            for (int i = position; i < segment.capacity; i++) {
+                segment.writer.put(i, (byte) 0);
+            }
+            segment.buffer.force();
+        }
+        return position;
+    }
+
+    /**
+     * One mapped segment file.
+     */
+    static final class Segment {
+        final Path file;
+        final long base;
+        final int capacity;
+        final MappedByteBuffer buffer;
+        /** Used by appends only, under the outbox's lock. */
+        final ByteBuffer writer;
+        int position;
+        boolean dirty;
+
+        Segment(Path file, long base, MappedByteBuffer buffer) {
+            this.file = file;
+            this.base = base;
+            this.capacity = buffer.capacity();
+            this.buffer = buffer;
+            this.writer = buffer.duplicate();
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.watabelabs.gepg.outbox;
+
+/**
+ * A signed request kept in the outbox until it is delivered.
+ */
+public final class OutboxRecord {
+
+    private final long offset;
+    private final long nextOffset;
+    private final String requestType;
+    private final String payload;
+
+    OutboxRecord(long offset, long nextOffset, String requestType, String payload) {
+        this.offset = offset;
+        this.nextOffset = nextOffset;
+        this.requestType = requestType;
+        this.payload = payload;
+    }
+
+    /**
+     * Returns the position of the record in the journal. Offsets grow with every
+     * append and are never reused, so they order the records and identify them
+     * across restarts.
+     *
+     * @return the offset
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * Returns the kind of request, one of the
+     * {@link com.watabelabs.gepg.amqp.headers.GepgQueueHeaders} values without
+     * surrounding spaces.
+     *
+     * @return the request type
+     */
+    public String getRequestType() {
+        return requestType;
+    }
+
+    /**
+     * Returns the signed XML request.
+     *
+     * @return the payload
+     */
+    public String getPayload() {
+        return payload;
+    }
+
+    long getNextOffset() {
+        return nextOffset;
+    }
+
+    @Override
+    public String toString() {
+        return "OutboxRecord{offset=" + offset + ", requestType='" + requestType + "', size=" + payload.length() + '}';
+    }
+}
@@ -0,0 +1,74 @@
+package com.watabelabs.gepg.outbox;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import com.watabelabs.gepg.GepgApiClient;
+import com.watabelabs.gepg.amqp.consumer.GepgMessageHandler;
+import com.watabelabs.gepg.amqp.headers.GepgQueueHeaders;
+
+/**
+ * Delivers records taken from the outbox. A record is removed from the outbox
+ * when the returned future completes, and delivered again after a backoff if
+ * it fails, so delivery is at least once. A record that fails the outbox's
+ * maximum number of attempts is moved to its dead-letter directory.
+ */
+@FunctionalInterface
+public interface OutboxRelay {
+
+    /**
+     * Delivers a record.
+     *
+     * @param record the record
+     * @return a future completed when the record has been delivered
+     */
+    CompletableFuture<?> deliver(OutboxRecord record);
+
+    /**
+     * Returns a relay that submits each record to the GePG API. A record counts
+     * as delivered once GePG acknowledges it, whatever the status code.
+     *
+     * @param client the client that submits the records
+     * @return the relay
+     */
+    static OutboxRelay http(GepgApiClient client) {
+        Map<String, GepgMessageHandler> handlers = new HashMap<>();
+        handlers.put(GepgQueueHeaders.BILL_SUBMISSION_HEADER.trim(), client::submitBillAsync);
+        handlers.put(GepgQueueHeaders.CONTROL_NUMBER_REUSE_HEADER.trim(), client::reuseControlNumberAsync);
+        handlers.put(GepgQueueHeaders.BILL_UPDATE_HEADER.trim(), client::updateBillAsync);
+        handlers.put(GepgQueueHeaders.BILL_CANCELLATION_HEADER.trim(), client::cancelBillAsync);
+        handlers.put(GepgQueueHeaders.PAYMENT_SUBMISSION_HEADER.trim(), client::submitPaymentAsync);
+        handlers.put(GepgQueueHeaders.RECONCILIATION_SUBMISSION_HEADER.trim(), client::requestReconciliationAsync);
+        return byRequestType(handlers);
+    }
+
+    /**
+     * Returns a relay that publishes each record to its RabbitMQ queue. A record
+     * counts as delivered once the broker confirms it.
+     *
+     * @param client the client whose publisher is used
+     * @return the relay
+     */
+    static OutboxRelay amqp(GepgApiClient client) {
+        Map<String, GepgMessageHandler> handlers = new HashMap<>();
+        handlers.put(GepgQueueHeaders.BILL_SUBMISSION_HEADER.trim(), client::publishBill);
+        handlers.put(GepgQueueHeaders.CONTROL_NUMBER_REUSE_HEADER.trim(), client::publishControlNumberReuse);
+        handlers.put(GepgQueueHeaders.BILL_UPDATE_HEADER.trim(), client::publishBillUpdate);
+        handlers.put(GepgQueueHeaders.BILL_CANCELLATION_HEADER.trim(), client::publishBillCancellation);
+        handlers.put(GepgQueueHeaders.PAYMENT_SUBMISSION_HEADER.trim(), client::publishPayments);
+        handlers.put(GepgQueueHeaders.RECONCILIATION_SUBMISSION_HEADER.trim(), client::publishReconciliation);
+        return byRequestType(handlers);
+    }
+
+    private static OutboxRelay byRequestType(Map<String, GepgMessageHandler> handlers) {
+        return record -> {
+            GepgMessageHandler handler = handlers.get(record.getRequestType());
+            if (handler == null) {
+                return CompletableFuture.failedFuture(
+                        new IllegalArgumentException("Unknown request type: " + record.getRequestType()));
+            }
+            return handler.handle(record.getPayload());
+        };
+    }
+}
@@ -0,0 +1,239 @@
+package com.watabelabs.gepg.reconciliation;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import javax.validation.ValidationException;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import com.watabelabs.gepg.mappers.reconciliation.requests.GepgReconcBatchInfo;
+import com.watabelabs.gepg.mappers.reconciliation.requests.GepgReconcTrxInf;
+import com.watabelabs.gepg.metrics.GepgMetrics;
+import com.watabelabs.gepg.metrics.GepgMetricsRegistry;
+import com.watabelabs.gepg.utils.DigitalSignatureUtil;
+import com.watabelabs.gepg.utils.JaxbContextRegistry;
+import com.watabelabs.gepg.utils.SignedContentInputStream;
+
+/**
+ * Reads a signed {@code gepgSpReconcResp} payload one transaction at a time.
+ *
+ * <p>
+ * The payload is parsed with StAX and each {@code ReconcTrxInf} is unmarshalled
+ * on its own when the reader reaches it, so memory use does not depend on the
+ * size of the batch. The batch information comes before the transactions and
+ * is available as soon as the reader is created.
+ * </p>
+ *
+ * <p>
+ * The signature is computed over the content bytes as they are read, and is
+ * only known once the last transaction has been read, because the
+ * {@code gepgSignature} element comes last. Transactions should be staged until
+ * {@link #isSignatureValid()} returns true and discarded otherwise.
+ * </p>
+ *
+ * <p>
+ * Example usage:
+ * </p>
+ *
+ * <pre>{@code
+ * try (GepgReconcStreamReader reader = client.streamReconciliationResponse(in)) {
+ *     GepgReconcBatchInfo batchInfo = reader.getBatchInfo();
+ *     reader.forEachRemaining(staging::add);
+ *     if (reader.isSignatureValid()) {
+ *         staging.commit();
+ *     }
+ * }
+ * }</pre>
+ */
+public class GepgReconcStreamReader implements Iterator<GepgReconcTrxInf>, AutoCloseable {
+
+    private static final String BATCH_INFO = "ReconcBatchInfo";
+    private static final String TRX_INF = "ReconcTrxInf";
+    private static final String SIGNATURE = "gepgSignature";
+
+    private static final XMLInputFactory INPUT_FACTORY = createInputFactory();
+
+    private final SignedContentInputStream input;
+    private final XMLStreamReader reader;
+
+    private GepgReconcBatchInfo batchInfo;
+    private GepgReconcTrxInf next;
+    private String signature;
+    private Boolean signatureValid;
+    private long count;
+
+    /**
+     * Starts reading a payload and reads up to the first transaction.
+     *
+     * @param in                   the signed payload as received from GePG
+     * @param digitalSignatureUtil holds the public key the payload is verified
+     *                             with
+     * @throws Exception if the payload cannot be read or the key cannot be used
+     */
+    public GepgReconcStreamReader(InputStream in, DigitalSignatureUtil digitalSignatureUtil) throws Exception {
+        this.input = new SignedContentInputStream(in, digitalSignatureUtil.newVerifier());
+        this.reader = INPUT_FACTORY.createXMLStreamReader(input);
+        this.next = advance();
+    }
+
+    /**
+     * Returns the batch information, or null if the payload has none.
+     *
+     * @return the batch information
+     */
+    public GepgReconcBatchInfo getBatchInfo() {
+        return batchInfo;
+    }
+
+    /**
+     * Returns the number of transactions read so far.
+     *
+     * @return the number of transactions returned by {@link #next()}
+     */
+    public long getCount() {
+        return count;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return next != null;
+    }
+
+    /**
+     * Returns the next transaction.
+     *
+     * @return the next transaction
+     * @throws NoSuchElementException if every transaction has been read
+     * @throws ValidationException    if the payload cannot be parsed
+     */
+    @Override
+    public GepgReconcTrxInf next() {
+        if (next == null) {
+            throw new NoSuchElementException();
+        }
+        GepgReconcTrxInf current = next;
+        count++;
+        next = advance();
+        return current;
+    }
+
+    /**
+     * Returns the remaining transactions as a sequential stream. Closing the
+     * stream closes the reader.
+     *
+     * @return the remaining transactions
+     */
+    public Stream<GepgReconcTrxInf> stream() {
+        Spliterator<GepgReconcTrxInf> spliterator = Spliterators.spliteratorUnknownSize(this,
+                Spliterator.ORDERED | Spliterator.NONNULL);
+        return StreamSupport.stream(spliterator, false).onClose(this::close);
+    }
+
+    /**
+     * Returns whether the signature matches the content. Any transactions not
+     * read yet are skipped to reach the signature.
+     *
+     * @return true if the signature is valid, false otherwise
+     * @throws ValidationException if the payload cannot be parsed
+     */
+    public boolean isSignatureValid() {
+        while (next != null) {
+            next();
+        }
+        return signatureValid;
+    }
+
+    /**
+     * Returns the Base64-encoded signature, once every transaction has been read.
+     *
+     * @return the signature, or null if it has not been reached
+     */
+    public String getSignature() {
+        return signature;
+    }
+
+    /**
+     * Closes the parser and the underlying stream.
+     */
+    @Override
+    public void close() {
+        try {
+            reader.close();
+        } catch (XMLStreamException ignored) {
+            // Nothing more will be read
+        }
+        try {
+            input.close();
+        } catch (IOException ignored) {
+            // Nothing more will be read
+        }
+    }
+
+    /**
+     * Moves to the next transaction and unmarshals it, picking up the batch
+     * information and the signature on the way. Returns null at the end of the
+     * payload, once the signature has been checked.
+     */
+    private GepgReconcTrxInf advance() {
+        try {
+            while (true) {
+                int event = reader.getEventType();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    String name = reader.getLocalName();
+                    if (TRX_INF.equals(name)) {
+                        // Leaves the reader on the event after the element
+                        return unmarshal(GepgReconcTrxInf.class);
+                    }
+                    if (BATCH_INFO.equals(name)) {
+                        batchInfo = unmarshal(GepgReconcBatchInfo.class);
+                        continue;
+                    }
+                    if (SIGNATURE.equals(name)) {
+                        signature = reader.getElementText().trim();
+                    }
+                } else if (event == XMLStreamConstants.END_DOCUMENT) {
+                    signatureValid = input.verify(signature);
+                    return null;
+                }
+                reader.next();
+            }
+        } catch (XMLStreamException | JAXBException e) {
+            throw new ValidationException("Failed to read reconciliation response: " + e.getMessage(), e);
+        }
+    }
+
+    private <T> T unmarshal(Class<T> type) throws JAXBException {
+        GepgMetrics metrics = GepgMetricsRegistry.get();
+        long start = metrics.isEnabled() ? System.nanoTime() : 0L;
+
+        JAXBContext context = JaxbContextRegistry.getContext(type);
+        Unmarshaller unmarshaller = JaxbContextRegistry.borrowUnmarshaller(context);
+        T value = unmarshaller.unmarshal(reader, type).getValue();
+        JaxbContextRegistry.release(context, unmarshaller);
+
+        if (metrics.isEnabled()) {
+            metrics.unmarshalled(type, System.nanoTime() - start);
+        }
+        return value;
+    }
+
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newFactory();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        return factory;
+    }
+}
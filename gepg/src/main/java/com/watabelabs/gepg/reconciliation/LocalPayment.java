@@ -0,0 +1,109 @@
+package com.watabelabs.gepg.reconciliation;
+
+import javax.validation.ValidationException;
+
+import com.watabelabs.gepg.mappers.payment.requests.GepgPmtSpInfo;
+import com.watabelabs.gepg.mappers.payment.requests.GepgPymtTrxInf;
+
+/**
+ * A payment recorded by the service provider, to be reconciled against the
+ * transactions GePG reports.
+ */
+public final class LocalPayment {
+
+    private final long billCtrNum;
+    private final String pspTrxId;
+    private final String spBillId;
+    private final Double paidAmt;
+
+    /**
+     * Creates a local payment.
+     *
+     * @param billCtrNum the control number that was paid
+     * @param pspTrxId   the payment service provider's transaction id, or null
+     *                   if it is not known
+     * @param spBillId   the service provider's bill id
+     * @param paidAmt    the amount paid
+     */
+    public LocalPayment(long billCtrNum, String pspTrxId, String spBillId, Double paidAmt) {
+        this.billCtrNum = billCtrNum;
+        this.pspTrxId = pspTrxId;
+        this.spBillId = spBillId;
+        this.paidAmt = paidAmt;
+    }
+
+    /**
+     * Creates a local payment from a payment notification received from GePG.
+     * The PSP receipt number is the transaction id GePG reports in
+     * reconciliation.
+     *
+     * @param notification the payment notification
+     * @return the local payment
+     * @throws ValidationException if the notification has no valid control number
+     */
+    public static LocalPayment from(GepgPmtSpInfo notification) {
+        GepgPymtTrxInf trxInf = notification.getPymtTrxInf();
+        if (trxInf == null) {
+            throw new ValidationException("Payment notification has no PymtTrxInf");
+        }
+        return new LocalPayment(parseControlNumber(trxInf.getPayCtrNum()), trxInf.getPspReceiptNumber(),
+                trxInf.getBillId(), trxInf.getPaidAmt());
+    }
+
+    /**
+     * Returns the control number that was paid.
+     *
+     * @return the control number
+     */
+    public long getBillCtrNum() {
+        return billCtrNum;
+    }
+
+    /**
+     * Returns the payment service provider's transaction id.
+     *
+     * @return the PSP transaction id, or null if it is not known
+     */
+    public String getPspTrxId() {
+        return pspTrxId;
+    }
+
+    /**
+     * Returns the service provider's bill id.
+     *
+     * @return the bill id
+     */
+    public String getSpBillId() {
+        return spBillId;
+    }
+
+    /**
+     * Returns the amount paid.
+     *
+     * @return the paid amount
+     */
+    public Double getPaidAmt() {
+        return paidAmt;
+    }
+
+    private static long parseControlNumber(String payCtrNum) {
+        if (payCtrNum == null) {
+            throw new ValidationException("Payment notification has no control number");
+        }
+        try {
+            return Long.parseLong(payCtrNum.trim());
+        } catch (NumberFormatException e) {
+            throw new ValidationException("Invalid control number: " + payCtrNum);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "LocalPayment{" +
+                "billCtrNum=" + billCtrNum +
+                ", pspTrxId='" + pspTrxId + '\'' +
+                ", spBillId='" + spBillId + '\'' +
+                ", paidAmt=" + paidAmt +
+                '}';
+    }
+}
@@ -0,0 +1,337 @@
+package com.watabelabs.gepg.reconciliation;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.watabelabs.gepg.mappers.payment.requests.GepgPmtSpInfo;
+import com.watabelabs.gepg.mappers.reconciliation.requests.GepgReconcTrxInf;
+import com.watabelabs.gepg.mappers.reconciliation.responses.GepgSpReconcResp;
+
+/**
+ * Matches the transactions in a GePG reconciliation batch against the
+ * service provider's own payments.
+ *
+ * <p>
+ * Local payments are indexed by control number in hash maps keyed on the
+ * primitive {@code long}, so each GePG transaction is matched with one lookup
+ * however many payments there are. A transaction is matched to a payment on
+ * the same control number with the same PSP transaction id; a payment with no
+ * PSP transaction id matches the first transaction on its control number.
+ * Amounts are compared to the cent.
+ * </p>
+ *
+ * <p>
+ * The index is split into shards by control number, one per core by default.
+ * Transactions are read on the calling thread and handed to their shard in
+ * batches; each shard is matched by one task at a time, so the shards need no
+ * locking and a batch with millions of transactions is matched on every core.
+ * Payments no transaction matched are reported as missing at GePG once the
+ * batch has been read.
+ * </p>
+ *
+ * <p>
+ * Add the payments from one thread, then call {@code match} once. A matcher
+ * reconciles a single batch.
+ * </p>
+ *
+ * <p>
+ * Example usage:
+ * </p>
+ *
+ * <pre>{@code
+ * ReconciliationMatcher matcher = new ReconciliationMatcher();
+ * payments.forEach(matcher::add);
+ * try (GepgReconcStreamReader reader = client.streamReconciliationResponse(in)) {
+ *     ReconciliationReport report = matcher.match(reader);
+ *     if (reader.isSignatureValid()) {
+ *         report.getDiscrepancies().forEach(this::flag);
+ *     }
+ * }
+ * }</pre>
+ */
+public class ReconciliationMatcher {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReconciliationMatcher.class);
+
+    /** Number of transactions handed to a shard at a time. */
+    static final int BATCH_SIZE = 4096;
+
+    private final Shard[] shards;
+    private final Executor executor;
+    private boolean matched;
+
+    /**
+     * Creates a matcher with one shard per core, running on the common pool.
+     */
+    public ReconciliationMatcher() {
+        this(Runtime.getRuntime().availableProcessors(), ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates a matcher.
+     *
+     * @param parallelism the number of shards, and so the number of tasks that
+     *                    match at once
+     * @param executor    runs the matching tasks
+     */
+    public ReconciliationMatcher(int parallelism, Executor executor) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1: " + parallelism);
+        }
+        this.shards = new Shard[parallelism];
+        for (int i = 0; i < parallelism; i++) {
+            shards[i] = new Shard();
+        }
+        this.executor = executor;
+    }
+
+    /**
+     * Adds a local payment.
+     *
+     * @param payment the payment
+     */
+    public void add(LocalPayment payment) {
+        shardFor(payment.getBillCtrNum()).add(payment);
+    }
+
+    /**
+     * Adds local payments.
+     *
+     * @param payments the payments
+     */
+    public void addAll(Collection<LocalPayment> payments) {
+        payments.forEach(this::add);
+    }
+
+    /**
+     * Adds a payment received as a GePG payment notification.
+     *
+     * @param notification the payment notification
+     */
+    public void add(GepgPmtSpInfo notification) {
+        add(LocalPayment.from(notification));
+    }
+
+    /**
+     * Returns the number of local payments added.
+     *
+     * @return the number of payments
+     */
+    public long getPaymentCount() {
+        long count = 0;
+        for (Shard shard : shards) {
+            count += shard.payments;
+        }
+        return count;
+    }
+
+    /**
+     * Matches the transactions of a reconciliation response held in memory.
+     *
+     * @param response the reconciliation response
+     * @return the report
+     */
+    public ReconciliationReport match(GepgSpReconcResp response) {
+        List<GepgReconcTrxInf> transactions = response.getReconcTrans() == null
+                || response.getReconcTrans().getReconcTrxInf() == null
+                        ? new ArrayList<>()
+                        : response.getReconcTrans().getReconcTrxInf();
+        return match(transactions.iterator());
+    }
+
+    /**
+     * Matches transactions as they are read, for example from a
+     * {@link GepgReconcStreamReader}.
+     *
+     * @param transactions the GePG transactions
+     * @return the report
+     * @throws IllegalStateException if the matcher has already been used
+     */
+    public synchronized ReconciliationReport match(Iterator<GepgReconcTrxInf> transactions) {
+        if (matched) {
+            throw new IllegalStateException("A matcher reconciles a single batch");
+        }
+        matched = true;
+        long start = System.nanoTime();
+
+        if (shards.length == 1) {
+            Shard shard = shards[0];
+            transactions.forEachRemaining(shard::match);
+            shard.collectUnmatched();
+        } else {
+            matchInParallel(transactions);
+        }
+
+        long matchedCount = 0;
+        List<ReconciliationResult> discrepancies = new ArrayList<>();
+        for (Shard shard : shards) {
+            matchedCount += shard.matched;
+            discrepancies.addAll(shard.discrepancies);
+        }
+        ReconciliationReport report = new ReconciliationReport(matchedCount, discrepancies,
+                Duration.ofNanos(System.nanoTime() - start));
+        logger.info("RECONCILIATION_MATCHED {}", report);
+        return report;
+    }
+
+    private void matchInParallel(Iterator<GepgReconcTrxInf> transactions) {
+        // Bounds the transactions read ahead of the shards
+        Semaphore pending = new Semaphore(shards.length * 2);
+        @SuppressWarnings("unchecked")
+        List<GepgReconcTrxInf>[] batches = new List[shards.length];
+        CompletableFuture<?>[] tails = new CompletableFuture<?>[shards.length];
+        for (int i = 0; i < shards.length; i++) {
+            batches[i] = new ArrayList<>(BATCH_SIZE);
+            tails[i] = CompletableFuture.completedFuture(null);
+        }
+
+        while (transactions.hasNext()) {
+            GepgReconcTrxInf transaction = transactions.next();
+            // Transactions without a control number can only be missing locally
+            int index = transaction.getBillCtrNum() == null ? 0 : shardIndex(transaction.getBillCtrNum());
+            batches[index].add(transaction);
+            if (batches[index].size() == BATCH_SIZE) {
+                tails[index] = submit(tails[index], shards[index], batches[index], pending);
+                batches[index] = new ArrayList<>(BATCH_SIZE);
+            }
+        }
+
+        for (int i = 0; i < shards.length; i++) {
+            Shard shard = shards[i];
+            tails[i] = submit(tails[i], shard, batches[i], pending)
+                    .thenRunAsync(shard::collectUnmatched, executor);
+        }
+        CompletableFuture.allOf(tails).join();
+    }
+
+    /**
+     * Queues a batch behind the shard's previous one, so a shard is only ever
+     * matched by one task.
+     */
+    private CompletableFuture<Void> submit(CompletableFuture<?> tail, Shard shard, List<GepgReconcTrxInf> batch,
+            Semaphore pending) {
+        pending.acquireUninterruptibly();
+        CompletableFuture<Void> next = tail.thenRunAsync(() -> batch.forEach(shard::match), executor);
+        // Released even when an earlier batch failed and this one never runs
+        next.whenComplete((ignored, error) -> pending.release());
+        return next;
+    }
+
+    private Shard shardFor(long billCtrNum) {
+        return shards[shardIndex(billCtrNum)];
+    }
+
+    private int shardIndex(long billCtrNum) {
+        if (shards.length == 1) {
+            return 0;
+        }
+        // The map uses the low bits of the same hash, so take the high ones here
+        return (int) ((LongObjectHashMap.mix(billCtrNum) >>> 33) % shards.length);
+    }
+
+    /**
+     * Local payments for one control number, in the order they were added.
+     */
+    private static final class Entry {
+        private final LocalPayment payment;
+        private Entry next;
+        private boolean matched;
+
+        private Entry(LocalPayment payment) {
+            this.payment = payment;
+        }
+    }
+
+    /**
+     * The payments for a share of the control numbers and the results of
+     * matching them. Only one thread uses a shard at a time.
+     */
+    private static final class Shard {
+        private final LongObjectHashMap<Entry> index = new LongObjectHashMap<>(1024);
+        private final List<ReconciliationResult> discrepancies = new ArrayList<>();
+        private long payments;
+        private long matched;
+
+        private void add(LocalPayment payment) {
+            Entry entry = new Entry(payment);
+            Entry head = index.get(payment.getBillCtrNum());
+            if (head == null) {
+                index.put(payment.getBillCtrNum(), entry);
+            } else {
+                while (head.next != null) {
+                    head = head.next;
+                }
+                head.next = entry;
+            }
+            payments++;
+        }
+
+        private void match(GepgReconcTrxInf transaction) {
+            Entry entry = transaction.getBillCtrNum() == null
+                    ? null
+                    : find(index.get(transaction.getBillCtrNum()), transaction.getPspTrxId());
+            if (entry == null) {
+                discrepancies.add(new ReconciliationResult(ReconciliationStatus.MISSING_LOCALLY, transaction, null));
+                return;
+            }
+            entry.matched = true;
+            if (sameAmount(entry.payment.getPaidAmt(), transaction.getPaidAmt())) {
+                matched++;
+            } else {
+                discrepancies.add(new ReconciliationResult(ReconciliationStatus.AMOUNT_MISMATCH, transaction,
+                        entry.payment));
+            }
+        }
+
+        private void collectUnmatched() {
+            index.forEachValue(head -> {
+                for (Entry entry = head; entry != null; entry = entry.next) {
+                    if (!entry.matched) {
+                        discrepancies.add(new ReconciliationResult(ReconciliationStatus.MISSING_AT_GEPG, null,
+                                entry.payment));
+                    }
+                }
+            });
+        }
+
+        /**
+         * Finds the unmatched payment with the same PSP transaction id, or else
+         * the first unmatched one that has none.
+         */
+        private static Entry find(Entry head, String pspTrxId) {
+            Entry withoutId = null;
+            for (Entry entry = head; entry != null; entry = entry.next) {
+                if (entry.matched) {
+                    continue;
+                }
+                String localId = entry.payment.getPspTrxId();
+                if (localId == null || pspTrxId == null) {
+                    if (withoutId == null) {
+                        withoutId = entry;
+                    }
+                } else if (localId.equals(pspTrxId)) {
+                    return entry;
+                }
+            }
+            return withoutId;
+        }
+
+        private static boolean sameAmount(Double local, Double gepg) {
+            if (local == null || gepg == null) {
+                return Objects.equals(local, gepg);
+            }
+            return Math.round(local * 100) == Math.round(gepg * 100);
+        }
+    }
+}
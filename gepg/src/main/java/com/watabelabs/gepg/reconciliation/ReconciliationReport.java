@@ -0,0 +1,109 @@
+package com.watabelabs.gepg.reconciliation;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Outcome of reconciling a batch. Matched transactions are only counted; every
+ * other outcome is kept, so a report on millions of transactions holds no more
+ * than its discrepancies.
+ */
+public final class ReconciliationReport {
+
+    private final long matched;
+    private final List<ReconciliationResult> discrepancies;
+    private final Map<ReconciliationStatus, Long> counts = new EnumMap<>(ReconciliationStatus.class);
+    private final Duration elapsed;
+
+    /**
+     * Creates a report.
+     *
+     * @param matched       the number of matched transactions
+     * @param discrepancies every result that is not a match
+     * @param elapsed       the time the matching took
+     */
+    public ReconciliationReport(long matched, List<ReconciliationResult> discrepancies, Duration elapsed) {
+        this.matched = matched;
+        this.discrepancies = Collections.unmodifiableList(discrepancies);
+        this.elapsed = elapsed;
+        for (ReconciliationStatus status : ReconciliationStatus.values()) {
+            counts.put(status, 0L);
+        }
+        counts.put(ReconciliationStatus.MATCHED, matched);
+        for (ReconciliationResult result : discrepancies) {
+            counts.merge(result.getStatus(), 1L, Long::sum);
+        }
+    }
+
+    /**
+     * Returns the number of transactions with the given outcome.
+     *
+     * @param status the outcome
+     * @return the number of transactions
+     */
+    public long getCount(ReconciliationStatus status) {
+        return counts.get(status);
+    }
+
+    /**
+     * Returns the number of GePG transactions that matched a local payment.
+     *
+     * @return the number of matches
+     */
+    public long getMatched() {
+        return matched;
+    }
+
+    /**
+     * Returns every result that is not a match, grouped by shard rather than in
+     * the order of the batch.
+     *
+     * @return the discrepancies
+     */
+    public List<ReconciliationResult> getDiscrepancies() {
+        return discrepancies;
+    }
+
+    /**
+     * Returns the discrepancies with the given outcome.
+     *
+     * @param status the outcome
+     * @return the results with that status
+     */
+    public List<ReconciliationResult> getDiscrepancies(ReconciliationStatus status) {
+        return discrepancies.stream()
+                .filter(result -> result.getStatus() == status)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Returns whether every GePG transaction matched a local payment and every
+     * local payment was reported by GePG.
+     *
+     * @return true if there are no discrepancies
+     */
+    public boolean isBalanced() {
+        return discrepancies.isEmpty();
+    }
+
+    /**
+     * Returns the time the matching took.
+     *
+     * @return the elapsed time
+     */
+    public Duration getElapsed() {
+        return elapsed;
+    }
+
+    @Override
+    public String toString() {
+        return "ReconciliationReport{" +
+                "counts=" + counts +
+                ", elapsed=" + elapsed +
+                '}';
+    }
+}
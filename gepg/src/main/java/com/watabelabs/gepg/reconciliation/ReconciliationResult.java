@@ -0,0 +1,65 @@
+package com.watabelabs.gepg.reconciliation;
+
+import com.watabelabs.gepg.mappers.reconciliation.requests.GepgReconcTrxInf;
+
+/**
+ * Outcome of reconciling one transaction: the GePG transaction, the local
+ * payment it was matched with, or both.
+ */
+public final class ReconciliationResult {
+
+    private final ReconciliationStatus status;
+    private final GepgReconcTrxInf gepgTransaction;
+    private final LocalPayment localPayment;
+
+    /**
+     * Creates a result.
+     *
+     * @param status          the outcome
+     * @param gepgTransaction the transaction reported by GePG, or null if it is
+     *                        missing at GePG
+     * @param localPayment    the local payment, or null if it is missing locally
+     */
+    public ReconciliationResult(ReconciliationStatus status, GepgReconcTrxInf gepgTransaction,
+            LocalPayment localPayment) {
+        this.status = status;
+        this.gepgTransaction = gepgTransaction;
+        this.localPayment = localPayment;
+    }
+
+    /**
+     * Returns the outcome.
+     *
+     * @return the status
+     */
+    public ReconciliationStatus getStatus() {
+        return status;
+    }
+
+    /**
+     * Returns the transaction reported by GePG.
+     *
+     * @return the GePG transaction, or null if it is missing at GePG
+     */
+    public GepgReconcTrxInf getGepgTransaction() {
+        return gepgTransaction;
+    }
+
+    /**
+     * Returns the local payment.
+     *
+     * @return the local payment, or null if it is missing locally
+     */
+    public LocalPayment getLocalPayment() {
+        return localPayment;
+    }
+
+    @Override
+    public String toString() {
+        return "ReconciliationResult{" +
+                "status=" + status +
+                ", gepgTransaction=" + gepgTransaction +
+                ", localPayment=" + localPayment +
+                '}';
+    }
+}
@@ -0,0 +1,20 @@
+package com.watabelabs.gepg.reconciliation;
+
+/**
+ * Outcome of matching a GePG reconciliation transaction against the local
+ * payments.
+ */
+public enum ReconciliationStatus {
+
+    /** Found locally with the same amount. */
+    MATCHED,
+
+    /** Found locally, but the paid amounts differ. */
+    AMOUNT_MISMATCH,
+
+    /** Reported by GePG, but there is no local payment for it. */
+    MISSING_LOCALLY,
+
+    /** Recorded locally, but GePG did not report it. */
+    MISSING_AT_GEPG
+}
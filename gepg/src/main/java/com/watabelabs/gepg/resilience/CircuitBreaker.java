@@ -0,0 +1,122 @@
+package com.watabelabs.gepg.resilience;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.watabelabs.gepg.metrics.GepgMetricsRegistry;
+
+/**
+ * Circuit breaker of one endpoint. The circuit opens after a number of
+ * consecutive failures, and while it is open requests are rejected without
+ * being sent. Once the open duration has passed a single trial request is let
+ * through: the circuit closes if it succeeds and opens again if it fails.
+ */
+final class CircuitBreaker {
+
+    private static final Logger logger = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    private final String endpoint;
+    private final int failureThreshold;
+    private final Duration openDuration;
+    private final Clock clock;
+
+    private CircuitState state = CircuitState.CLOSED;
+    private int consecutiveFailures;
+    private Instant openedAt;
+    private boolean trialInFlight;
+
+    CircuitBreaker(String endpoint, int failureThreshold, Duration openDuration, Clock clock) {
+        this.endpoint = endpoint;
+        this.failureThreshold = failureThreshold;
+        this.openDuration = openDuration;
+        this.clock = clock;
+    }
+
+    /**
+     * Returns whether a request may be sent. A request that is let through must
+     * be followed by exactly one of {@link #onSuccess()}, {@link #onFailure()}
+     * or {@link #onIgnored()}.
+     */
+    boolean tryAcquire() {
+        CircuitState changed = null;
+        boolean allowed;
+        synchronized (this) {
+            if (state == CircuitState.OPEN && !clock.instant().isBefore(openedAt.plus(openDuration))) {
+                state = CircuitState.HALF_OPEN;
+                changed = state;
+            }
+            if (state == CircuitState.CLOSED) {
+                allowed = true;
+            } else if (state == CircuitState.HALF_OPEN && !trialInFlight) {
+                trialInFlight = true;
+                allowed = true;
+            } else {
+                allowed = false;
+            }
+        }
+        report(changed);
+        return allowed;
+    }
+
+    /**
+     * Records a request that reached the endpoint and was answered.
+     */
+    void onSuccess() {
+        CircuitState changed = null;
+        synchronized (this) {
+            consecutiveFailures = 0;
+            trialInFlight = false;
+            if (state == CircuitState.HALF_OPEN) {
+                state = CircuitState.CLOSED;
+                changed = state;
+            }
+        }
+        report(changed);
+    }
+
+    /**
+     * Records a request that timed out, was refused or got a server error.
+     */
+    void onFailure() {
+        CircuitState changed = null;
+        synchronized (this) {
+            trialInFlight = false;
+            consecutiveFailures++;
+            if (state == CircuitState.HALF_OPEN
+                    || (state == CircuitState.CLOSED && consecutiveFailures >= failureThreshold)) {
+                state = CircuitState.OPEN;
+                openedAt = clock.instant();
+                changed = state;
+            }
+        }
+        report(changed);
+    }
+
+    /**
+     * Records a request that ended without saying anything about the endpoint,
+     * such as an interrupted one.
+     */
+    synchronized void onIgnored() {
+        trialInFlight = false;
+    }
+
+    synchronized CircuitState getState() {
+        return state;
+    }
+
+    private void report(CircuitState changed) {
+        if (changed == null) {
+            return;
+        }
+        if (changed == CircuitState.OPEN) {
+            logger.warn("CIRCUIT_OPEN {} for {}", endpoint, openDuration);
+        } else {
+            logger.info("CIRCUIT_{} {}", changed, endpoint);
+        }
+        GepgMetricsRegistry.get().circuitStateChanged(endpoint, changed);
+    }
+}
@@ -0,0 +1,16 @@
+package com.watabelabs.gepg.resilience;
+
+/**
+ * The state of an endpoint's circuit breaker.
+ */
+public enum CircuitState {
+
+    /** Requests are sent. */
+    CLOSED,
+
+    /** Requests are rejected without being sent. */
+    OPEN,
+
+    /** One trial request is sent to find out whether the endpoint recovered. */
+    HALF_OPEN
+}
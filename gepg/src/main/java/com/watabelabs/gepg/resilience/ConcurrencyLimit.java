@@ -0,0 +1,103 @@
+package com.watabelabs.gepg.resilience;
+
+import com.watabelabs.gepg.metrics.GepgMetricsRegistry;
+
+/**
+ * Adaptive limit on the number of requests in flight to one endpoint, adjusted
+ * by additive increase and multiplicative decrease. Every answered request
+ * that was fast enough raises the limit by one over the current limit, so it
+ * grows by about one for each round trip of a full window. A timeout, a
+ * failure or a response slower than the latency threshold cuts it by a tenth.
+ * The limit starts at, and never exceeds, the HTTP pool size.
+ *
+ * <p>
+ * Requests are only rejected once the limit has dropped below the pool size.
+ * While it is at the pool size every request is let through, and those beyond
+ * the pool wait for a connection in the HTTP transport as they did without a
+ * limit, so a burst against a healthy GePG is queued rather than failed. The
+ * time a queued request spends waiting for a connection says nothing about
+ * GePG, so its latency does not lower the limit; its timeouts and failures
+ * still do.
+ * </p>
+ */
+final class ConcurrencyLimit {
+
+    /** Factor the limit is multiplied by on every sign of overload. */
+    static final double BACKOFF_RATIO = 0.9;
+
+    /**
+     * Whether a request was let through, and whether it has to wait for a
+     * connection in the HTTP transport.
+     */
+    enum Admission {
+        REJECTED, ADMITTED, QUEUED
+    }
+
+    private final String endpoint;
+    private final int maxLimit;
+    private final long latencyThresholdNanos;
+
+    private double limit;
+    private int inFlight;
+
+    ConcurrencyLimit(String endpoint, int maxLimit, long latencyThresholdNanos) {
+        this.endpoint = endpoint;
+        this.maxLimit = maxLimit;
+        this.latencyThresholdNanos = latencyThresholdNanos;
+        this.limit = maxLimit;
+    }
+
+    /**
+     * Takes a slot if fewer requests than the limit are in flight, or if the
+     * limit is at the pool size. A slot that is taken must be given back with
+     * {@link #onSample} or {@link #release()}.
+     */
+    synchronized Admission tryAcquire() {
+        int current = (int) limit;
+        if (current < maxLimit && inFlight >= current) {
+            return Admission.REJECTED;
+        }
+        inFlight++;
+        return inFlight > maxLimit ? Admission.QUEUED : Admission.ADMITTED;
+    }
+
+    /**
+     * Gives back a slot without adjusting the limit.
+     */
+    synchronized void release() {
+        inFlight--;
+    }
+
+    /**
+     * Gives back a slot and adjusts the limit to how the request went.
+     *
+     * @param nanos      the time the request took
+     * @param overloaded whether the request timed out or failed
+     * @param queued     whether the request waited for a connection
+     */
+    void onSample(long nanos, boolean overloaded, boolean queued) {
+        int before;
+        int after;
+        synchronized (this) {
+            inFlight--;
+            before = (int) limit;
+            if (overloaded || nanos > latencyThresholdNanos && !queued) {
+                limit = Math.max(1, limit * BACKOFF_RATIO);
+            } else {
+                limit = Math.min(maxLimit, limit + 1 / limit);
+            }
+            after = (int) limit;
+        }
+        if (after != before) {
+            GepgMetricsRegistry.get().concurrencyLimitChanged(endpoint, after);
+        }
+    }
+
+    synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    synchronized int getInFlight() {
+        return inFlight;
+    }
+}
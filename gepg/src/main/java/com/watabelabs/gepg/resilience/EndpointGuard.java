@@ -0,0 +1,193 @@
+package com.watabelabs.gepg.resilience;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.time.Clock;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.watabelabs.gepg.config.GepgConfig;
+import com.watabelabs.gepg.http.GepgHttpException;
+import com.watabelabs.gepg.metrics.GepgMetricsRegistry;
+
+/**
+ * Protects one GePG endpoint: a circuit breaker that stops sending to an
+ * endpoint that keeps failing, an adaptive concurrency limit that sheds load
+ * when responses slow down, and a retry budget that keeps retries from
+ * multiplying the traffic to an endpoint that is already struggling.
+ *
+ * <p>
+ * Every attempt takes a {@link Permit} before it is sent and releases it with
+ * its outcome. Timeouts, refused connections, other I/O errors and 5xx or 429
+ * responses count as failures; any other response shows that GePG is up and
+ * counts as a success, even if it is an error.
+ * </p>
+ */
+public final class EndpointGuard {
+
+    private final String endpoint;
+    private final CircuitBreaker circuitBreaker;
+    private final ConcurrencyLimit concurrencyLimit;
+    private final RetryBudget retryBudget;
+
+    EndpointGuard(String endpoint, GepgConfig config, Clock clock) {
+        this.endpoint = endpoint;
+        this.circuitBreaker = new CircuitBreaker(endpoint, config.getCircuitFailureThreshold(),
+                config.getCircuitOpenDuration(), clock);
+        this.concurrencyLimit = new ConcurrencyLimit(endpoint, config.getHttpPoolSize(),
+                config.getLatencyThreshold().toNanos());
+        this.retryBudget = new RetryBudget(config.getRetryBudgetRatio());
+    }
+
+    /**
+     * Takes a permit to send an attempt.
+     *
+     * @param attempt the number of the attempt, starting at 0
+     * @return the permit, to be released when the attempt ends
+     * @throws GepgRejectedException if the circuit is open or the endpoint is at
+     *                               a concurrency limit lowered below the HTTP
+     *                               pool size
+     */
+    public Permit acquire(int attempt) throws GepgRejectedException {
+        if (attempt == 0) {
+            retryBudget.deposit();
+        }
+        if (!circuitBreaker.tryAcquire()) {
+            throw reject(RejectionReason.CIRCUIT_OPEN);
+        }
+        ConcurrencyLimit.Admission admission = concurrencyLimit.tryAcquire();
+        if (admission == ConcurrencyLimit.Admission.REJECTED) {
+            circuitBreaker.onIgnored();
+            throw reject(RejectionReason.CONCURRENCY_LIMIT);
+        }
+        return new Permit(admission == ConcurrencyLimit.Admission.QUEUED);
+    }
+
+    /**
+     * Takes a retry from the budget.
+     *
+     * @return true if the failed attempt may be retried
+     */
+    public boolean tryRetry() {
+        if (retryBudget.tryWithdraw()) {
+            return true;
+        }
+        GepgMetricsRegistry.get().requestRejected(endpoint, RejectionReason.RETRY_BUDGET);
+        return false;
+    }
+
+    /**
+     * Returns the state of the endpoint's circuit.
+     *
+     * @return the circuit state
+     */
+    public CircuitState getCircuitState() {
+        return circuitBreaker.getState();
+    }
+
+    /**
+     * Returns the number of requests the endpoint is currently allowed in
+     * flight.
+     *
+     * @return the concurrency limit
+     */
+    public int getConcurrencyLimit() {
+        return concurrencyLimit.getLimit();
+    }
+
+    /**
+     * Returns the number of requests in flight to the endpoint.
+     *
+     * @return the requests in flight
+     */
+    public int getInFlight() {
+        return concurrencyLimit.getInFlight();
+    }
+
+    /**
+     * Returns whether an attempt that failed with an error may be sent again.
+     * Only timeouts, refused connections and 502, 503 and 504 responses are
+     * retried; after other errors GePG may already have processed the request.
+     *
+     * @param error the error the attempt failed with
+     * @return true if the attempt may be retried
+     */
+    public static boolean isRetryable(Throwable error) {
+        if (error instanceof GepgHttpException) {
+            int status = ((GepgHttpException) error).getStatusCode();
+            return status == 502 || status == 503 || status == 504;
+        }
+        return error instanceof SocketTimeoutException || error instanceof ConnectException;
+    }
+
+    /**
+     * Returns the wait before a retry, picked at random between zero and the
+     * initial backoff doubled once for each earlier retry. Spreading the waits
+     * keeps clients that failed at the same moment from retrying at the same
+     * moment.
+     *
+     * @param initialBackoffMillis the longest wait before the first retry
+     * @param attempt              the number of the failed attempt, starting at 0
+     * @return the wait in milliseconds
+     */
+    public static long backoffMillis(long initialBackoffMillis, int attempt) {
+        long ceiling = initialBackoffMillis << Math.min(attempt, 20);
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    private static boolean isFailure(Throwable error) {
+        if (error instanceof GepgHttpException) {
+            int status = ((GepgHttpException) error).getStatusCode();
+            return status >= 500 || status == 429;
+        }
+        if (error instanceof SocketTimeoutException) {
+            return true;
+        }
+        return error instanceof IOException && !(error instanceof InterruptedIOException);
+    }
+
+    private GepgRejectedException reject(RejectionReason reason) {
+        GepgMetricsRegistry.get().requestRejected(endpoint, reason);
+        return new GepgRejectedException(endpoint, reason);
+    }
+
+    /**
+     * Permission to send one attempt. Releasing it more than once has no
+     * effect.
+     */
+    public final class Permit {
+
+        private final long start = System.nanoTime();
+        private final boolean queued;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit(boolean queued) {
+            this.queued = queued;
+        }
+
+        /**
+         * Releases the permit with the outcome of the attempt.
+         *
+         * @param error the error the attempt failed with, or null if GePG
+         *              answered
+         */
+        public void release(Throwable error) {
+            if (!released.compareAndSet(false, true)) {
+                return;
+            }
+            long nanos = System.nanoTime() - start;
+            if (error == null || error instanceof GepgHttpException && !isFailure(error)) {
+                circuitBreaker.onSuccess();
+                concurrencyLimit.onSample(nanos, false, queued);
+            } else if (isFailure(error)) {
+                circuitBreaker.onFailure();
+                concurrencyLimit.onSample(nanos, true, queued);
+            } else {
+                circuitBreaker.onIgnored();
+                concurrencyLimit.release();
+            }
+        }
+    }
+}
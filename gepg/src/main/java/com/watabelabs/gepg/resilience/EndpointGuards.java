@@ -0,0 +1,44 @@
+package com.watabelabs.gepg.resilience;
+
+import java.time.Clock;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.watabelabs.gepg.config.GepgConfig;
+
+/**
+ * The {@link EndpointGuard} of each GePG endpoint, created on first use with
+ * the circuit breaker, latency threshold and retry budget settings of a
+ * configuration. Clients that talk to the same GePG deployment should share
+ * one instance, so a failing endpoint is noticed by all of them at once.
+ */
+public final class EndpointGuards {
+
+    private final GepgConfig config;
+    private final Clock clock;
+    private final ConcurrentMap<String, EndpointGuard> guards = new ConcurrentHashMap<>();
+
+    /**
+     * Creates the guards for a configuration.
+     *
+     * @param config the configuration
+     */
+    public EndpointGuards(GepgConfig config) {
+        this(config, Clock.systemUTC());
+    }
+
+    EndpointGuards(GepgConfig config, Clock clock) {
+        this.config = config;
+        this.clock = clock;
+    }
+
+    /**
+     * Returns the guard of an endpoint.
+     *
+     * @param endpoint the endpoint, one of the {@code GepgEndpoints} constants
+     * @return the guard
+     */
+    public EndpointGuard guard(String endpoint) {
+        return guards.computeIfAbsent(endpoint, key -> new EndpointGuard(key, config, clock));
+    }
+}
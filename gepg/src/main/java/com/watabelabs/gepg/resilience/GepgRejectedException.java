@@ -0,0 +1,46 @@
+package com.watabelabs.gepg.resilience;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a request is not sent to a GePG endpoint because the endpoint is
+ * failing or overloaded. Nothing reached GePG, so the request can safely be
+ * submitted again later.
+ */
+public class GepgRejectedException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String endpoint;
+    private final RejectionReason reason;
+
+    /**
+     * Creates an exception for a rejected request.
+     *
+     * @param endpoint the endpoint the request was for
+     * @param reason   why the request was not sent
+     */
+    public GepgRejectedException(String endpoint, RejectionReason reason) {
+        super("Request to " + endpoint + " rejected: " + reason);
+        this.endpoint = endpoint;
+        this.reason = reason;
+    }
+
+    /**
+     * Returns the endpoint the request was for.
+     *
+     * @return the endpoint
+     */
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    /**
+     * Returns why the request was not sent.
+     *
+     * @return the reason
+     */
+    public RejectionReason getReason() {
+        return reason;
+    }
+}
@@ -0,0 +1,19 @@
+package com.watabelabs.gepg.resilience;
+
+/**
+ * Why a request to a GePG endpoint was not sent.
+ */
+public enum RejectionReason {
+
+    /** The endpoint's circuit is open after repeated failures. */
+    CIRCUIT_OPEN,
+
+    /**
+     * The endpoint's concurrency limit was lowered after signs of overload,
+     * and it already has as many requests in flight as it is allowed.
+     */
+    CONCURRENCY_LIMIT,
+
+    /** A retry was due, but the endpoint's retry budget was spent. */
+    RETRY_BUDGET
+}
@@ -0,0 +1,34 @@
+package com.watabelabs.gepg.resilience;
+
+/**
+ * Token bucket limiting the retries to one endpoint. Each first attempt adds
+ * the ratio to the balance and each retry takes one token, so over time
+ * retries are at most that share of the requests. The bucket starts full and
+ * holds {@value #MAX_BALANCE} tokens, which lets a quiet endpoint retry a
+ * short burst of failures while an endpoint failing under load soon stops
+ * multiplying its own traffic.
+ */
+final class RetryBudget {
+
+    /** Tokens the bucket starts with and holds at most. */
+    static final double MAX_BALANCE = 10;
+
+    private final double ratio;
+    private double balance = MAX_BALANCE;
+
+    RetryBudget(double ratio) {
+        this.ratio = ratio;
+    }
+
+    synchronized void deposit() {
+        balance = Math.min(MAX_BALANCE, balance + ratio);
+    }
+
+    synchronized boolean tryWithdraw() {
+        if (balance < 1) {
+            return false;
+        }
+        balance--;
+        return true;
+    }
+}
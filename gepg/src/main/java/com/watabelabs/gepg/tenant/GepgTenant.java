@@ -0,0 +1,178 @@
+package com.watabelabs.gepg.tenant;
+
+import java.util.Objects;
+
+/**
+ * The credentials of one service provider: its SP code, the Gepg-Code header
+ * GePG issued it, and the keystores it signs with and verifies GePG's
+ * signatures against.
+ *
+ * <p>
+ * Example usage:
+ * </p>
+ *
+ * <pre>{@code
+ * GepgTenant tenant = new GepgTenant("SP19901", "SP19901",
+ *         "/etc/gepg/sp19901/private.pfx", privatePassword, "gepgclient",
+ *         "/etc/gepg/gepg-public.pfx", publicPassword, "gepgpublic",
+ *         "PKCS12", "SHA1withRSA");
+ * }</pre>
+ */
+public final class GepgTenant {
+
+    private final String spCode;
+    private final String gepgCode;
+
+    private final String privateKeystorePath;
+    private final String privateKeystorePassword;
+    private final String privateKeyAlias;
+
+    private final String publicKeystorePath;
+    private final String publicKeystorePassword;
+    private final String publicKeyAlias;
+
+    private final String keystoreType;
+    private final String signatureAlgorithm;
+
+    /**
+     * Creates the credentials of a service provider.
+     *
+     * @param spCode                  the service provider code, as in
+     *                                {@code GepgBillHdr.spCode}
+     * @param gepgCode                the value of the Gepg-Code header
+     * @param privateKeystorePath     the path to the service provider's private
+     *                                keystore
+     * @param privateKeystorePassword the password of the private keystore
+     * @param privateKeyAlias         the alias of the private key
+     * @param publicKeystorePath      the path to the keystore holding GePG's
+     *                                public key
+     * @param publicKeystorePassword  the password of the public keystore
+     * @param publicKeyAlias          the alias of the public key
+     * @param keystoreType            the keystore type, for example PKCS12
+     * @param signatureAlgorithm      the signature algorithm, for example
+     *                                SHA1withRSA
+     */
+    public GepgTenant(
+            String spCode,
+            String gepgCode,
+            String privateKeystorePath,
+            String privateKeystorePassword,
+            String privateKeyAlias,
+            String publicKeystorePath,
+            String publicKeystorePassword,
+            String publicKeyAlias,
+            String keystoreType,
+            String signatureAlgorithm) {
+        this.spCode = Objects.requireNonNull(spCode, "spCode");
+        this.gepgCode = Objects.requireNonNull(gepgCode, "gepgCode");
+        this.privateKeystorePath = privateKeystorePath;
+        this.privateKeystorePassword = privateKeystorePassword;
+        this.privateKeyAlias = privateKeyAlias;
+        this.publicKeystorePath = publicKeystorePath;
+        this.publicKeystorePassword = publicKeystorePassword;
+        this.publicKeyAlias = publicKeyAlias;
+        this.keystoreType = keystoreType;
+        this.signatureAlgorithm = signatureAlgorithm;
+    }
+
+    /**
+     * Returns the service provider code.
+     *
+     * @return the SP code
+     */
+    public String getSpCode() {
+        return spCode;
+    }
+
+    /**
+     * Returns the value of the Gepg-Code header.
+     *
+     * @return the Gepg-Code
+     */
+    public String getGepgCode() {
+        return gepgCode;
+    }
+
+    /**
+     * Returns the path to the private keystore.
+     *
+     * @return the private keystore path
+     */
+    public String getPrivateKeystorePath() {
+        return privateKeystorePath;
+    }
+
+    /**
+     * Returns the password of the private keystore.
+     *
+     * @return the private keystore password
+     */
+    public String getPrivateKeystorePassword() {
+        return privateKeystorePassword;
+    }
+
+    /**
+     * Returns the alias of the private key.
+     *
+     * @return the private key alias
+     */
+    public String getPrivateKeyAlias() {
+        return privateKeyAlias;
+    }
+
+    /**
+     * Returns the path to the public keystore.
+     *
+     * @return the public keystore path
+     */
+    public String getPublicKeystorePath() {
+        return publicKeystorePath;
+    }
+
+    /**
+     * Returns the password of the public keystore.
+     *
+     * @return the public keystore password
+     */
+    public String getPublicKeystorePassword() {
+        return publicKeystorePassword;
+    }
+
+    /**
+     * Returns the alias of the public key.
+     *
+     * @return the public key alias
+     */
+    public String getPublicKeyAlias() {
+        return publicKeyAlias;
+    }
+
+    /**
+     * Returns the keystore type.
+     *
+     * @return the keystore type
+     */
+    public String getKeystoreType() {
+        return keystoreType;
+    }
+
+    /**
+     * Returns the signature algorithm.
+     *
+     * @return the signature algorithm
+     */
+    public String getSignatureAlgorithm() {
+        return signatureAlgorithm;
+    }
+
+    @Override
+    public String toString() {
+        // Passwords are left out so tenants can be logged
+        return "GepgTenant{" +
+                "spCode='" + spCode + '\'' +
+                ", gepgCode='" + gepgCode + '\'' +
+                ", privateKeystorePath='" + privateKeystorePath + '\'' +
+                ", publicKeystorePath='" + publicKeystorePath + '\'' +
+                '}';
+    }
+}
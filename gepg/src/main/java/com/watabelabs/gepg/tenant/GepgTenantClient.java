@@ -0,0 +1,331 @@
+package com.watabelabs.gepg.tenant;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+
+import javax.validation.ValidationException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.watabelabs.gepg.GepgApiClient;
+import com.watabelabs.gepg.amqp.publisher.GepgAMqPublisher;
+import com.watabelabs.gepg.config.GepgConfig;
+import com.watabelabs.gepg.http.GepgHttpTransport;
+import com.watabelabs.gepg.http.JdkHttpTransport;
+import com.watabelabs.gepg.mappers.bill.acks.GepgBillSubReqAck;
+import com.watabelabs.gepg.mappers.bill.requests.GepgBillCanclReq;
+import com.watabelabs.gepg.mappers.bill.requests.GepgBillHdr;
+import com.watabelabs.gepg.mappers.bill.requests.GepgBillSubReq;
+import com.watabelabs.gepg.mappers.payment.acks.GepgPmtSpInfoAck;
+import com.watabelabs.gepg.mappers.payment.requests.GepgPmtSpInfo;
+import com.watabelabs.gepg.mappers.payment.requests.GepgPymtTrxInf;
+import com.watabelabs.gepg.resilience.EndpointGuards;
+
+/**
+ * Talks to GePG on behalf of many service providers from one process.
+ *
+ * <p>
+ * Each registered {@link GepgTenant} gets its own {@link GepgApiClient}, so it
+ * signs with its own keys and sends its own Gepg-Code header. Everything else
+ * is shared: every tenant's client uses the same HTTP transport and
+ * connection pool, the same AMQP publisher and connection, the same circuit
+ * breakers and concurrency limits on the GePG endpoints, and the process-wide
+ * JAXB contexts. GePG's public key is loaded once for every tenant that
+ * reads it from the same keystore path, alias and type.
+ * </p>
+ *
+ * <p>
+ * Messages are routed by the SP code they carry, for example the
+ * {@code spCode} of a bill header. Use {@link #client(String)} for messages
+ * that carry none.
+ * </p>
+ *
+ * <p>
+ * Example usage:
+ * </p>
+ *
+ * <pre>{@code
+ * GepgTenantClient gepg = new GepgTenantClient(apiUrl, tenantRepository.findAll());
+ *
+ * GepgBillSubReqAck ack = gepg.submitBill(bill); // signed with the keys of bill's SP code
+ * String reuse = gepg.client("SP19901").generatePayload(controlNumberReuse);
+ * }</pre>
+ */
+public class GepgTenantClient {
+
+    private static final Logger logger = LoggerFactory.getLogger(GepgTenantClient.class);
+
+    private final GepgConfig defaults;
+    private final ConcurrentMap<String, GepgApiClient> clients = new ConcurrentHashMap<>();
+    private final EndpointGuards endpointGuards;
+
+    private GepgHttpTransport httpTransport;
+    private Executor signingExecutor;
+    private GepgAMqPublisher publisher;
+
+    /**
+     * Creates a client with no tenants.
+     *
+     * @param apiUrl the base URL of the GePG API
+     */
+    public GepgTenantClient(String apiUrl) {
+        this(GepgConfig.builder().apiUrl(apiUrl).build());
+    }
+
+    /**
+     * Creates a client with no tenants whose clients take every setting but the
+     * credentials from a configuration, such as the URL, timeouts, retry policy
+     * and RabbitMQ broker.
+     *
+     * @param defaults the settings shared by all tenants
+     */
+    public GepgTenantClient(GepgConfig defaults) {
+        this.defaults = defaults;
+        this.endpointGuards = new EndpointGuards(defaults);
+    }
+
+    /**
+     * Creates a client for the given tenants.
+     *
+     * @param apiUrl  the base URL of the GePG API
+     * @param tenants the service providers to register
+     */
+    public GepgTenantClient(String apiUrl, Collection<GepgTenant> tenants) {
+        this(apiUrl);
+        tenants.forEach(this::register);
+    }
+
+    /**
+     * Creates a client for the given tenants with the settings of a
+     * configuration.
+     *
+     * @param defaults the settings shared by all tenants
+     * @param tenants  the service providers to register
+     */
+    public GepgTenantClient(GepgConfig defaults, Collection<GepgTenant> tenants) {
+        this(defaults);
+        tenants.forEach(this::register);
+    }
+
+    /**
+     * Registers a service provider, replacing any earlier credentials for its SP
+     * code. The keys cached for the replaced credentials are released.
+     *
+     * @param tenant the credentials of the service provider
+     * @throws RuntimeException if a keystore of the tenant cannot be read or a
+     *                          key cannot be loaded from it, in which case the
+     *                          tenant is not registered
+     */
+    public synchronized void register(GepgTenant tenant) {
+        GepgApiClient previous = clients.get(tenant.getSpCode());
+        if (previous != null) {
+            previous.releaseKeys();
+        }
+
+        GepgApiClient client = new GepgApiClient(defaults.toBuilder().tenant(tenant).build());
+        client.loadKeys();
+        client.setEndpointGuards(endpointGuards);
+        if (httpTransport != null) {
+            client.setHttpTransport(httpTransport);
+        }
+        if (signingExecutor != null) {
+            client.setSigningExecutor(signingExecutor);
+        }
+        if (publisher != null) {
+            client.setPublisher(publisher);
+        }
+
+        if (clients.put(tenant.getSpCode(), client) == null) {
+            logger.info("TENANT_REGISTERED {}", tenant);
+        } else {
+            logger.info("TENANT_REPLACED {}", tenant);
+        }
+    }
+
+    /**
+     * Removes a service provider and releases the keys cached for it.
+     *
+     * @param spCode the SP code
+     * @return true if the SP code was registered
+     */
+    public synchronized boolean unregister(String spCode) {
+        GepgApiClient removed = clients.remove(spCode);
+        if (removed == null) {
+            return false;
+        }
+        removed.releaseKeys();
+        logger.info("TENANT_UNREGISTERED {}", spCode);
+        return true;
+    }
+
+    /**
+     * Returns the SP codes of the registered service providers.
+     *
+     * @return a read-only view of the SP codes
+     */
+    public Set<String> getSpCodes() {
+        return Collections.unmodifiableSet(clients.keySet());
+    }
+
+    /**
+     * Returns the client of a service provider.
+     *
+     * @param spCode the SP code
+     * @return the client that signs with the service provider's keys
+     * @throws ValidationException if the SP code is not registered
+     */
+    public GepgApiClient client(String spCode) {
+        GepgApiClient client = spCode == null ? null : clients.get(spCode);
+        if (client == null) {
+            throw new ValidationException("No tenant registered for SP code: " + spCode);
+        }
+        return client;
+    }
+
+    /**
+     * Returns the client of the service provider a message belongs to.
+     *
+     * @param content the message content
+     * @return the client that signs with the service provider's keys
+     * @throws ValidationException if the content carries no SP code, or the SP
+     *                             code is not registered
+     */
+    public GepgApiClient clientFor(Object content) {
+        String spCode = spCodeOf(content);
+        if (spCode == null) {
+            throw new ValidationException("No SP code in " + content.getClass().getSimpleName()
+                    + ", use client(spCode) instead");
+        }
+        return client(spCode);
+    }
+
+    /**
+     * Signs the content with the keys of the service provider it belongs to.
+     *
+     * @param content the JAXB-annotated content
+     * @return the signed payload
+     * @throws Exception if the content cannot be routed or signed
+     */
+    public String generatePayload(Object content) throws Exception {
+        return clientFor(content).generatePayload(content);
+    }
+
+    /**
+     * Signs the content with the keys of the service provider it belongs to, on
+     * the signing executor.
+     *
+     * @param content the JAXB-annotated content
+     * @return a future completed with the signed payload
+     */
+    public CompletableFuture<String> generatePayloadAsync(Object content) {
+        try {
+            return clientFor(content).generatePayloadAsync(content);
+        } catch (ValidationException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Signs a bill with the keys of its SP code and submits it with that
+     * service provider's Gepg-Code.
+     *
+     * @param bill the bill
+     * @return the acknowledgment response from the GePG API
+     * @throws Exception if the bill cannot be routed, signed or submitted
+     */
+    public GepgBillSubReqAck submitBill(GepgBillSubReq bill) throws Exception {
+        GepgApiClient client = clientFor(bill);
+        return client.submitBill(client.generateSignedPayload(bill));
+    }
+
+    /**
+     * Signs a bill with the keys of its SP code and submits it without blocking
+     * the calling thread.
+     *
+     * @param bill the bill
+     * @return a future completed with the acknowledgment response from the GePG
+     *         API
+     */
+    public CompletableFuture<GepgBillSubReqAck> submitBillAsync(GepgBillSubReq bill) {
+        GepgApiClient client;
+        try {
+            client = clientFor(bill);
+        } catch (ValidationException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return client.generateSignedPayloadAsync(bill).thenCompose(client::submitBillAsync);
+    }
+
+    /**
+     * Signs a payment with the keys of its SP code and submits it with that
+     * service provider's Gepg-Code.
+     *
+     * @param payment the payment
+     * @return the acknowledgment response from the GePG API
+     * @throws Exception if the payment cannot be routed, signed or submitted
+     */
+    public GepgPmtSpInfoAck submitPayment(GepgPmtSpInfo payment) throws Exception {
+        GepgApiClient client = clientFor(payment);
+        return client.submitPayment(client.generatePayload(payment));
+    }
+
+    /**
+     * Sets the transport every tenant sends requests with. By default all
+     * tenants share the pooled {@link JdkHttpTransport} for their HTTP
+     * settings.
+     *
+     * @param httpTransport the HTTP transport to set
+     */
+    public synchronized void setHttpTransport(GepgHttpTransport httpTransport) {
+        this.httpTransport = httpTransport;
+        clients.values().forEach(client -> client.setHttpTransport(httpTransport));
+    }
+
+    /**
+     * Sets the executor every tenant signs payloads on asynchronously.
+     *
+     * @param signingExecutor the signing executor to set
+     */
+    public synchronized void setSigningExecutor(Executor signingExecutor) {
+        this.signingExecutor = signingExecutor;
+        clients.values().forEach(client -> client.setSigningExecutor(signingExecutor));
+    }
+
+    /**
+     * Sets the publisher every tenant publishes with. By default all tenants
+     * share the publisher for their RabbitMQ settings.
+     *
+     * @param publisher the RabbitMQ publisher to set
+     */
+    public synchronized void setPublisher(GepgAMqPublisher publisher) {
+        this.publisher = publisher;
+        clients.values().forEach(client -> client.setPublisher(publisher));
+    }
+
+    /**
+     * Returns the SP code a message carries, or null if it carries none.
+     *
+     * @param content the message content
+     * @return the SP code
+     */
+    static String spCodeOf(Object content) {
+        if (content instanceof GepgBillSubReq) {
+            GepgBillHdr billHdr = ((GepgBillSubReq) content).getGepgBillHeaderMapper();
+            return billHdr == null ? null : billHdr.getSpCode();
+        }
+        if (content instanceof GepgPmtSpInfo) {
+            GepgPymtTrxInf trxInf = ((GepgPmtSpInfo) content).getPymtTrxInf();
+            return trxInf == null ? null : trxInf.getSpCode();
+        }
+        if (content instanceof GepgBillCanclReq) {
+            return ((GepgBillCanclReq) content).getSpCode();
+        }
+        return null;
+    }
+}
@@ -0,0 +1,429 @@
+package com.watabelabs.gepg.utils;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * Minimal {@link XMLStreamWriter} that writes the compact, declaration-free
+ * form GePG signs, straight from a JAXB marshaller and in a single pass.
+ *
+ * <p>
+ * The output is byte-identical to what the previous marshal, DOM, Transformer
+ * and reparse chain produced: no whitespace between tags, text escaped as
+ * {@code &amp;}, {@code &lt;} and {@code &gt;} (quotes and apostrophes are
+ * left as is), carriage returns, C1 controls and characters outside the Basic
+ * Multilingual Plane written as numeric character references, and empty
+ * elements collapsed to {@code <Tag/>}. Characters that are not allowed in XML
+ * 1.0 are rejected rather than written.
+ * </p>
+ *
+ * <p>
+ * An optional second writer receives the same content the way the JAXB
+ * runtime writes it inside a signed {@link Envelope}: only elements without
+ * any text are collapsed, and only {@code &}, {@code <}, {@code >} and
+ * carriage returns are escaped. This lets {@link MessageUtil} build the signed
+ * payload from the same marshalling pass.
+ * </p>
+ *
+ * <p>
+ * Only what JAXB needs for the GePG mappers is supported. Comments, CDATA and
+ * processing instructions are written as-is, DTDs and entity references are
+ * rejected, and namespace prefixes are not tracked.
+ * </p>
+ */
+final class CanonicalXmlWriter implements XMLStreamWriter {
+
+    private final Writer out;
+    private final Writer envelopeOut;
+    private final Deque<String> openElements = new ArrayDeque<>();
+
+    // True while a start tag has been written without its closing '>'
+    private boolean startTagOpen;
+    private boolean envelopeStartTagOpen;
+
+    /**
+     * Creates a writer for the canonical form only.
+     *
+     * @param out where the canonical XML is written
+     */
+    CanonicalXmlWriter(Writer out) {
+        this(out, null);
+    }
+
+    /**
+     * Creates a writer for the canonical form and the Envelope form.
+     *
+     * @param out         where the canonical XML is written
+     * @param envelopeOut where the Envelope form is written, or null
+     */
+    CanonicalXmlWriter(Writer out, Writer envelopeOut) {
+        this.out = out;
+        this.envelopeOut = envelopeOut;
+    }
+
+    @Override
+    public void writeStartElement(String localName) throws XMLStreamException {
+        writeStartElement(null, localName, null);
+    }
+
+    @Override
+    public void writeStartElement(String namespaceURI, String localName) throws XMLStreamException {
+        writeStartElement(null, localName, namespaceURI);
+    }
+
+    @Override
+    public void writeStartElement(String prefix, String localName, String namespaceURI) throws XMLStreamException {
+        closeStartTags();
+        String name = qualifiedName(prefix, localName);
+        writeMarkup("<");
+        writeMarkup(name);
+        openElements.push(name);
+        startTagOpen = true;
+        envelopeStartTagOpen = true;
+    }
+
+    @Override
+    public void writeEmptyElement(String localName) throws XMLStreamException {
+        writeEmptyElement(null, localName, null);
+    }
+
+    @Override
+    public void writeEmptyElement(String namespaceURI, String localName) throws XMLStreamException {
+        writeEmptyElement(null, localName, namespaceURI);
+    }
+
+    @Override
+    public void writeEmptyElement(String prefix, String localName, String namespaceURI) throws XMLStreamException {
+        writeStartElement(prefix, localName, namespaceURI);
+        writeEndElement();
+    }
+
+    @Override
+    public void writeEndElement() throws XMLStreamException {
+        if (openElements.isEmpty()) {
+            throw new XMLStreamException("No open element to end");
+        }
+        String name = openElements.pop();
+
+        writeEndTag(out, name, startTagOpen);
+        startTagOpen = false;
+
+        if (envelopeOut != null) {
+            writeEndTag(envelopeOut, name, envelopeStartTagOpen);
+        }
+        envelopeStartTagOpen = false;
+    }
+
+    @Override
+    public void writeEndDocument() throws XMLStreamException {
+        while (!openElements.isEmpty()) {
+            writeEndElement();
+        }
+    }
+
+    @Override
+    public void close() throws XMLStreamException {
+        flush();
+    }
+
+    @Override
+    public void flush() throws XMLStreamException {
+        try {
+            out.flush();
+            if (envelopeOut != null) {
+                envelopeOut.flush();
+            }
+        } catch (IOException e) {
+            throw new XMLStreamException(e);
+        }
+    }
+
+    @Override
+    public void writeAttribute(String localName, String value) throws XMLStreamException {
+        writeAttribute(null, null, localName, value);
+    }
+
+    @Override
+    public void writeAttribute(String namespaceURI, String localName, String value) throws XMLStreamException {
+        writeAttribute(null, namespaceURI, localName, value);
+    }
+
+    @Override
+    public void writeAttribute(String prefix, String namespaceURI, String localName, String value)
+            throws XMLStreamException {
+        if (!startTagOpen) {
+            throw new XMLStreamException("Attribute " + localName + " written outside a start tag");
+        }
+        writeMarkup(" ");
+        writeMarkup(qualifiedName(prefix, localName));
+        writeMarkup("=\"");
+        writeCanonical(value, true);
+        writeEnvelope(value, true);
+        writeMarkup("\"");
+    }
+
+    @Override
+    public void writeNamespace(String prefix, String namespaceURI) throws XMLStreamException {
+        if (prefix == null || prefix.isEmpty() || "xmlns".equals(prefix)) {
+            writeDefaultNamespace(namespaceURI);
+        } else {
+            writeAttribute("xmlns", null, prefix, namespaceURI);
+        }
+    }
+
+    @Override
+    public void writeDefaultNamespace(String namespaceURI) throws XMLStreamException {
+        writeAttribute(null, null, "xmlns", namespaceURI == null ? "" : namespaceURI);
+    }
+
+    @Override
+    public void writeComment(String data) throws XMLStreamException {
+        closeStartTags();
+        writeMarkup("<!--");
+        writeMarkup(data);
+        writeMarkup("-->");
+    }
+
+    @Override
+    public void writeProcessingInstruction(String target) throws XMLStreamException {
+        writeProcessingInstruction(target, null);
+    }
+
+    @Override
+    public void writeProcessingInstruction(String target, String data) throws XMLStreamException {
+        closeStartTags();
+        writeMarkup("<?");
+        writeMarkup(target);
+        if (data != null && !data.isEmpty()) {
+            writeMarkup(" ");
+            writeMarkup(data);
+        }
+        writeMarkup("?>");
+    }
+
+    @Override
+    public void writeCData(String data) throws XMLStreamException {
+        closeStartTags();
+        writeMarkup("<![CDATA[");
+        writeMarkup(data);
+        writeMarkup("]]>");
+    }
+
+    @Override
+    public void writeDTD(String dtd) throws XMLStreamException {
+        throw new XMLStreamException("DTDs are not supported");
+    }
+
+    @Override
+    public void writeEntityRef(String name) throws XMLStreamException {
+        throw new XMLStreamException("Entity references are not supported");
+    }
+
+    @Override
+    public void writeStartDocument() {
+        // The canonical form has no XML declaration
+    }
+
+    @Override
+    public void writeStartDocument(String version) {
+        // The canonical form has no XML declaration
+    }
+
+    @Override
+    public void writeStartDocument(String encoding, String version) {
+        // The canonical form has no XML declaration
+    }
+
+    @Override
+    public void writeCharacters(String text) throws XMLStreamException {
+        // Empty text still closes the start tag in the Envelope form, JAXB writes
+        // an empty string as <Tag></Tag> there
+        if (envelopeOut != null && envelopeStartTagOpen) {
+            envelopeStartTagOpen = false;
+            write(envelopeOut, ">");
+        }
+        if (text.isEmpty()) {
+            return;
+        }
+        if (startTagOpen) {
+            startTagOpen = false;
+            write(out, ">");
+        }
+        writeCanonical(text, false);
+        writeEnvelope(text, false);
+    }
+
+    @Override
+    public void writeCharacters(char[] text, int start, int len) throws XMLStreamException {
+        writeCharacters(new String(text, start, len));
+    }
+
+    @Override
+    public String getPrefix(String uri) {
+        return null;
+    }
+
+    @Override
+    public void setPrefix(String prefix, String uri) {
+        // Prefixes are not tracked, JAXB passes them explicitly
+    }
+
+    @Override
+    public void setDefaultNamespace(String uri) {
+        // Prefixes are not tracked, JAXB passes them explicitly
+    }
+
+    @Override
+    public void setNamespaceContext(NamespaceContext context) {
+        // Prefixes are not tracked, JAXB passes them explicitly
+    }
+
+    @Override
+    public NamespaceContext getNamespaceContext() {
+        return null;
+    }
+
+    @Override
+    public Object getProperty(String name) {
+        throw new IllegalArgumentException("Property " + name + " is not supported");
+    }
+
+    private void closeStartTags() throws XMLStreamException {
+        if (startTagOpen) {
+            startTagOpen = false;
+            write(out, ">");
+        }
+        if (envelopeOut != null && envelopeStartTagOpen) {
+            envelopeStartTagOpen = false;
+            write(envelopeOut, ">");
+        }
+    }
+
+    private static void writeEndTag(Writer writer, String name, boolean collapse) throws XMLStreamException {
+        if (collapse) {
+            write(writer, "/>");
+        } else {
+            write(writer, "</");
+            write(writer, name);
+            write(writer, ">");
+        }
+    }
+
+    /**
+     * Writes text or an attribute value to the canonical output, escaping it the
+     * way the JDK Transformer does for UTF-8 output.
+     */
+    private void writeCanonical(String text, boolean attribute) throws XMLStreamException {
+        int length = text.length();
+        int plainStart = 0;
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            String replacement;
+            if (c == '&') {
+                replacement = "&amp;";
+            } else if (c == '<') {
+                replacement = "&lt;";
+            } else if (c == '>') {
+                replacement = attribute ? null : "&gt;";
+            } else if (c == '"') {
+                replacement = attribute ? "&quot;" : null;
+            } else if (c == '\r') {
+                replacement = "&#13;";
+            } else if (attribute && (c == '\n' || c == '\t')) {
+                replacement = c == '\n' ? "&#10;" : "&#9;";
+            } else if (c >= 0x7F && c <= 0x9F) {
+                replacement = "&#" + (int) c + ';';
+            } else if (c < 0x20 && c != '\n' && c != '\t' || c == 0xFFFE || c == 0xFFFF) {
+                throw new XMLStreamException("Character 0x" + Integer.toHexString(c) + " is not allowed in XML");
+            } else if (Character.isSurrogate(c)) {
+                if (!Character.isHighSurrogate(c) || i + 1 == length || !Character.isLowSurrogate(text.charAt(i + 1))) {
+                    throw new XMLStreamException("Unpaired surrogate 0x" + Integer.toHexString(c));
+                }
+                replacement = "&#" + Character.toCodePoint(c, text.charAt(i + 1)) + ';';
+                writeRange(out, text, plainStart, i);
+                write(out, replacement);
+                plainStart = ++i + 1;
+                continue;
+            } else {
+                continue;
+            }
+            if (replacement == null) {
+                continue;
+            }
+            writeRange(out, text, plainStart, i);
+            write(out, replacement);
+            plainStart = i + 1;
+        }
+        writeRange(out, text, plainStart, length);
+    }
+
+    /**
+     * Writes text or an attribute value to the Envelope output, escaping it the
+     * way the JAXB runtime does for UTF-8 output.
+     */
+    private void writeEnvelope(String text, boolean attribute) throws XMLStreamException {
+        if (envelopeOut == null) {
+            return;
+        }
+        int length = text.length();
+        int plainStart = 0;
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            String replacement;
+            if (c == '&') {
+                replacement = "&amp;";
+            } else if (c == '<') {
+                replacement = "&lt;";
+            } else if (c == '>') {
+                replacement = "&gt;";
+            } else if (c == '\r') {
+                replacement = "&#xD;";
+            } else if (attribute && c == '"') {
+                replacement = "&quot;";
+            } else if (attribute && c == '\n') {
+                replacement = "&#xA;";
+            } else {
+                continue;
+            }
+            writeRange(envelopeOut, text, plainStart, i);
+            write(envelopeOut, replacement);
+            plainStart = i + 1;
+        }
+        writeRange(envelopeOut, text, plainStart, length);
+    }
+
+    private static String qualifiedName(String prefix, String localName) {
+        return prefix == null || prefix.isEmpty() ? localName : prefix + ':' + localName;
+    }
+
+    private void writeMarkup(String s) throws XMLStreamException {
+        write(out, s);
+        if (envelopeOut != null) {
+            write(envelopeOut, s);
+        }
+    }
+
+    private static void write(Writer writer, String s) throws XMLStreamException {
+        try {
+            writer.write(s);
+        } catch (IOException e) {
+            throw new XMLStreamException(e);
+        }
+    }
+
+    private static void writeRange(Writer writer, String s, int start, int end) throws XMLStreamException {
+        if (start < end) {
+            try {
+                writer.write(s, start, end - start);
+            } catch (IOException e) {
+                throw new XMLStreamException(e);
+            }
+        }
+    }
+}
@@ -1,9 +1,20 @@
 package com.watabelabs.gepg.utils;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.Key;
 import java.security.PrivateKey;
+import java.security.Provider;
 import java.security.PublicKey;
 import java.security.Signature;
 import java.util.Base64;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.watabelabs.gepg.metrics.GepgMetrics;
+import com.watabelabs.gepg.metrics.GepgMetricsRegistry;
 
 /**
  * Utility class for generating and verifying digital signatures.
@@ -12,12 +23,26 @@ import java.util.Base64;
  * and verify a given digital signature using a public key.
  * The signature algorithm used for both operations is provided during the
  * instantiation of the class.
+ *
+ * <p>
+ * {@link Signature} instances are looked up and initialized with the keys once,
+ * then kept in a small pool for signing and one for verifying and reused by
+ * whichever thread calls next, since {@code Signature.getInstance} and
+ * {@code initSign} cost more than signing a small payload. An instance that
+ * fails part-way is dropped rather than returned to its pool. This class is
+ * thread-safe.
+ * </p>
  */
 public class DigitalSignatureUtil {
 
-    private String signatureAlgorithm;
-    private PrivateKey privateKey;
-    private PublicKey publicKey;
+    private static final Base64.Encoder BASE64_ENCODER = Base64.getEncoder();
+    private static final Base64.Decoder BASE64_DECODER = Base64.getDecoder();
+
+    // Enough idle instances for every core to sign while another verifies
+    private static final int MAX_IDLE = Math.max(2, Runtime.getRuntime().availableProcessors() * 2);
+
+    private final SignaturePool signers;
+    private final SignaturePool verifiers;
 
     /**
      * Constructs a DigitalSignatureUtil instance with the specified signature
@@ -31,36 +56,95 @@ public class DigitalSignatureUtil {
      *                           signatures
      */
     public DigitalSignatureUtil(String signatureAlgorithm, PrivateKey privateKey, PublicKey publicKey) {
-        this.signatureAlgorithm = signatureAlgorithm;
-        this.privateKey = privateKey;
-        this.publicKey = publicKey;
+        this(signatureAlgorithm, null, privateKey, publicKey);
+    }
+
+    /**
+     * Constructs a DigitalSignatureUtil instance that takes its signature
+     * implementation from the given provider.
+     *
+     * @param signatureAlgorithm the algorithm used for generating and verifying
+     *                           signatures (e.g., "SHA1withRSA")
+     * @param provider           the provider implementing the algorithm, or null
+     *                           to use the JCA preference order
+     * @param privateKey         the private key used for generating digital
+     *                           signatures
+     * @param publicKey          the public key used for verifying digital
+     *                           signatures
+     * @see SignatureProviders#resolve(String)
+     */
+    public DigitalSignatureUtil(String signatureAlgorithm, Provider provider, PrivateKey privateKey,
+            PublicKey publicKey) {
+        this.signers = new SignaturePool(signatureAlgorithm, provider, privateKey, true);
+        this.verifiers = new SignaturePool(signatureAlgorithm, provider, publicKey, false);
     }
 
     /**
-     * Generates a digital signature for the given content.
+     * Generates a digital signature for the given content, encoded as UTF-8.
      *
      * @param content the content to be signed
      * @return the Base64-encoded digital signature
      * @throws Exception if an error occurs during the signature generation process
      */
     public String generateSignature(String content) throws Exception {
-        // Convert the content string into a byte array
-        byte[] data = content.getBytes();
-
-        // Initialize the Signature object with the specified algorithm
-        Signature signature = Signature.getInstance(signatureAlgorithm);
+        // GePG signs UTF-8, whatever the platform default charset is
+        byte[] data = content.getBytes(StandardCharsets.UTF_8);
+        return generateSignature(data, 0, data.length);
+    }
 
-        // Initialize the Signature object for signing with the private key
-        signature.initSign(privateKey);
+    /**
+     * Generates a digital signature over a range of bytes, for example content
+     * that was serialized straight into UTF-8.
+     *
+     * @param data   the bytes containing the content to be signed
+     * @param offset the index of the first byte to sign
+     * @param length the number of bytes to sign
+     * @return the Base64-encoded digital signature
+     * @throws Exception if an error occurs during the signature generation process
+     */
+    public String generateSignature(byte[] data, int offset, int length) throws Exception {
+        GepgMetrics metrics = GepgMetricsRegistry.get();
+        long start = metrics.isEnabled() ? System.nanoTime() : 0L;
 
-        // Add the data to be signed to the Signature object
-        signature.update(data);
+        // Take a Signature already initialized for signing with the private key
+        Signature signature = signers.borrow();
 
-        // Generate the digital signature
+        // Add the data to be signed and generate the digital signature
+        signature.update(data, offset, length);
         byte[] signatureBytes = signature.sign();
 
+        // sign() leaves it ready to sign again with the same key
+        signers.release(signature);
+
+        if (metrics.isEnabled()) {
+            metrics.signed(System.nanoTime() - start);
+        }
+
         // Encode the signature bytes into a Base64 string and return it
-        return Base64.getEncoder().encodeToString(signatureBytes);
+        return BASE64_ENCODER.encodeToString(signatureBytes);
+    }
+
+    /**
+     * Generates a digital signature over the remaining bytes of a buffer, which
+     * is left at its limit.
+     *
+     * @param data the content to be signed
+     * @return the Base64-encoded digital signature
+     * @throws Exception if an error occurs during the signature generation process
+     */
+    public String generateSignature(ByteBuffer data) throws Exception {
+        GepgMetrics metrics = GepgMetricsRegistry.get();
+        long start = metrics.isEnabled() ? System.nanoTime() : 0L;
+
+        Signature signature = signers.borrow();
+        signature.update(data);
+        byte[] signatureBytes = signature.sign();
+        signers.release(signature);
+
+        if (metrics.isEnabled()) {
+            metrics.signed(System.nanoTime() - start);
+        }
+        return BASE64_ENCODER.encodeToString(signatureBytes);
     }
 
     /**
@@ -73,22 +157,130 @@ public class DigitalSignatureUtil {
      *                   process
      */
     public boolean verifySignature(String signature, String content) throws Exception {
+        // Convert the content string into UTF-8, as it was signed
+        byte[] data = content.getBytes(StandardCharsets.UTF_8);
+        return verifySignature(signature, data, 0, data.length);
+    }
+
+    /**
+     * Verifies a digital signature over a range of raw bytes, for example the
+     * content element of a payload exactly as it was received.
+     *
+     * @param signature the Base64-encoded digital signature to be verified
+     * @param data      the bytes containing the signed content
+     * @param offset    the index of the first signed byte
+     * @param length    the number of signed bytes
+     * @return true if the signature is valid; false otherwise
+     * @throws Exception if an error occurs during the signature verification
+     *                   process
+     */
+    public boolean verifySignature(String signature, byte[] data, int offset, int length) throws Exception {
+        GepgMetrics metrics = GepgMetricsRegistry.get();
+        long start = metrics.isEnabled() ? System.nanoTime() : 0L;
+
         // Decode the Base64-encoded signature into a byte array
-        byte[] signatureBytes = Base64.getDecoder().decode(signature);
+        byte[] signatureBytes = BASE64_DECODER.decode(signature);
+
+        // Take a Signature already initialized for verification with the public key
+        Signature signatureInstance = verifiers.borrow();
+
+        // Add the data to be verified and verify the digital signature
+        signatureInstance.update(data, offset, length);
+        boolean valid = signatureInstance.verify(signatureBytes);
+
+        // verify() leaves it ready to verify again with the same key
+        verifiers.release(signatureInstance);
 
-        // Initialize the Signature object with the specified algorithm
-        Signature signatureInstance = Signature.getInstance(signatureAlgorithm);
+        if (metrics.isEnabled()) {
+            metrics.verified(System.nanoTime() - start, valid);
+        }
+        return valid;
+    }
 
-        // Convert the content string into a byte array
-        byte[] data = content.getBytes();
+    /**
+     * Verifies a digital signature over the remaining bytes of a buffer, which
+     * is left at its limit.
+     *
+     * @param signature the Base64-encoded digital signature to be verified
+     * @param data      the signed content
+     * @return true if the signature is valid; false otherwise
+     * @throws Exception if an error occurs during the signature verification
+     *                   process
+     */
+    public boolean verifySignature(String signature, ByteBuffer data) throws Exception {
+        GepgMetrics metrics = GepgMetricsRegistry.get();
+        long start = metrics.isEnabled() ? System.nanoTime() : 0L;
 
-        // Initialize the Signature object for verification with the public key
-        signatureInstance.initVerify(publicKey);
+        byte[] signatureBytes = BASE64_DECODER.decode(signature);
 
-        // Add the data to be verified to the Signature object
+        Signature signatureInstance = verifiers.borrow();
         signatureInstance.update(data);
+        boolean valid = signatureInstance.verify(signatureBytes);
+        verifiers.release(signatureInstance);
+
+        if (metrics.isEnabled()) {
+            metrics.verified(System.nanoTime() - start, valid);
+        }
+        return valid;
+    }
+
+    /**
+     * Creates a signature initialized for verification with the public key, for
+     * content that arrives in pieces. The caller owns it, so it is not taken
+     * from the pool.
+     *
+     * @return a signature ready to be updated with the signed content
+     * @throws Exception if the algorithm or the public key cannot be used
+     */
+    public Signature newVerifier() throws Exception {
+        return verifiers.create();
+    }
+
+    /**
+     * Idle {@link Signature} instances initialized with one key, for signing or
+     * for verifying.
+     */
+    private static final class SignaturePool {
+        private final String algorithm;
+        private final Provider provider;
+        private final Key key;
+        private final boolean signing;
+        private final Deque<Signature> idle = new ConcurrentLinkedDeque<>();
+        private final AtomicInteger idleCount = new AtomicInteger();
+
+        private SignaturePool(String algorithm, Provider provider, Key key, boolean signing) {
+            this.algorithm = algorithm;
+            this.provider = provider;
+            this.key = key;
+            this.signing = signing;
+        }
+
+        Signature borrow() throws GeneralSecurityException {
+            Signature signature = idle.pollFirst();
+            if (signature == null) {
+                return create();
+            }
+            idleCount.decrementAndGet();
+            return signature;
+        }
+
+        void release(Signature signature) {
+            if (idleCount.incrementAndGet() <= MAX_IDLE) {
+                idle.offerFirst(signature);
+            } else {
+                idleCount.decrementAndGet();
+            }
+        }
 
-        // Verify the digital signature and return the result
-        return signatureInstance.verify(signatureBytes);
+        Signature create() throws GeneralSecurityException {
+            Signature signature = provider == null ? Signature.getInstance(algorithm)
+                    : Signature.getInstance(algorithm, provider);
+            if (signing) {
+                signature.initSign((PrivateKey) key);
+            } else {
+                signature.initVerify((PublicKey) key);
+            }
+            return signature;
+        }
     }
 }
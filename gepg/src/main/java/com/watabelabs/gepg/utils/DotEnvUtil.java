@@ -8,7 +8,6 @@ import io.github.cdimascio.dotenv.Dotenv;
 public class DotEnvUtil {
 
     private static final Logger logger = LoggerFactory.getLogger(DotEnvUtil.class);
-    private static final Dotenv dotenv = Dotenv.load();
 
     /**
      * Retrieves an environment variable by key.
@@ -17,10 +16,29 @@ public class DotEnvUtil {
      * @return the environment variable value, or null if not set
      */
     public static String getEnvVariable(String key) {
-        String value = dotenv.get(key);
+        String value = findEnvVariable(key);
         if (value == null || value.isEmpty()) {
             logger.warn("Environment variable '{}' is not set!", key);
         }
         return value;
     }
+
+    /**
+     * Retrieves an environment variable by key without warning when it is not
+     * set, for optional settings.
+     *
+     * @param key the environment variable key
+     * @return the environment variable value, or null if not set
+     */
+    public static String findEnvVariable(String key) {
+        return DotenvHolder.DOTENV.get(key);
+    }
+
+    /**
+     * Reads the .env file on first lookup rather than when the class loads. A
+     * missing file leaves only the process environment.
+     */
+    private static final class DotenvHolder {
+        private static final Dotenv DOTENV = Dotenv.configure().ignoreIfMissing().load();
+    }
 }
@@ -0,0 +1,120 @@
+package com.watabelabs.gepg.utils;
+
+import javax.validation.ValidationException;
+
+/**
+ * Location of the signed content and the signature inside a raw
+ * {@code <Gepg>} payload.
+ *
+ * <p>
+ * The payload is scanned once for the markup around the content element, and
+ * nothing is parsed. Every character the scan looks for is ASCII, and UTF-8
+ * never uses ASCII bytes inside a multi-byte sequence, so the same offsets are
+ * valid for a payload held as bytes and read as ISO-8859-1.
+ * </p>
+ */
+final class EnvelopeRange {
+
+    private static final String ROOT = "<Gepg";
+    private static final String SIGNATURE_START = "<gepgSignature>";
+    private static final String SIGNATURE_END = "</gepgSignature>";
+
+    private final int contentStart;
+    private final int contentEnd;
+    private final String signature;
+
+    private EnvelopeRange(int contentStart, int contentEnd, String signature) {
+        this.contentStart = contentStart;
+        this.contentEnd = contentEnd;
+        this.signature = signature;
+    }
+
+    /**
+     * Locates the content element and the signature in a payload.
+     *
+     * @param payload the payload as received
+     * @return the location of the content and the signature text
+     * @throws ValidationException if the payload is not a signed Envelope
+     */
+    static EnvelopeRange locate(String payload) {
+        int root = payload.indexOf(ROOT);
+        while (root >= 0 && !isNameEnd(payload, root + ROOT.length())) {
+            root = payload.indexOf(ROOT, root + 1);
+        }
+        if (root < 0) {
+            throw new ValidationException("Payload has no Gepg element");
+        }
+        int rootEnd = payload.indexOf('>', root);
+
+        int signatureStart = payload.lastIndexOf(SIGNATURE_START);
+        int signatureEnd = payload.lastIndexOf(SIGNATURE_END);
+        if (rootEnd < 0 || signatureStart < rootEnd || signatureEnd < signatureStart) {
+            throw new ValidationException("Payload has no gepgSignature element");
+        }
+
+        // The content is everything between the two, without the whitespace a
+        // formatted payload puts around it
+        int contentStart = skipWhitespace(payload, rootEnd + 1, signatureStart);
+        int contentEnd = signatureStart;
+        while (contentEnd > contentStart && isWhitespace(payload.charAt(contentEnd - 1))) {
+            contentEnd--;
+        }
+        if (contentStart == contentEnd || payload.charAt(contentStart) != '<') {
+            throw new ValidationException("Payload has no content element");
+        }
+
+        String signature = payload.substring(signatureStart + SIGNATURE_START.length(), signatureEnd).trim();
+        return new EnvelopeRange(contentStart, contentEnd, signature);
+    }
+
+    /**
+     * Returns the index of the first character of the content element.
+     *
+     * @return the start index, inclusive
+     */
+    int getContentStart() {
+        return contentStart;
+    }
+
+    /**
+     * Returns the index just after the last character of the content element.
+     *
+     * @return the end index, exclusive
+     */
+    int getContentEnd() {
+        return contentEnd;
+    }
+
+    /**
+     * Returns the number of characters, or bytes, in the content element.
+     *
+     * @return the content length
+     */
+    int getContentLength() {
+        return contentEnd - contentStart;
+    }
+
+    /**
+     * Returns the Base64-encoded signature.
+     *
+     * @return the signature text
+     */
+    String getSignature() {
+        return signature;
+    }
+
+    private static boolean isNameEnd(String payload, int index) {
+        return index < payload.length() && (payload.charAt(index) == '>' || isWhitespace(payload.charAt(index)));
+    }
+
+    private static int skipWhitespace(String payload, int from, int to) {
+        while (from < to && isWhitespace(payload.charAt(from))) {
+            from++;
+        }
+        return from;
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r';
+    }
+}
@@ -0,0 +1,246 @@
+package com.watabelabs.gepg.utils;
+
+import java.util.Deque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.validation.ValidationException;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.Unmarshaller;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.watabelabs.gepg.mappers.bill.acks.GepgBillSubReqAck;
+import com.watabelabs.gepg.mappers.bill.acks.GepgBillSubResAck;
+import com.watabelabs.gepg.mappers.bill.acks.GepgBillSubRespAck;
+import com.watabelabs.gepg.mappers.bill.requests.GepgBillCanclReq;
+import com.watabelabs.gepg.mappers.bill.requests.GepgBillControlNoReuse;
+import com.watabelabs.gepg.mappers.bill.requests.GepgBillSubReq;
+import com.watabelabs.gepg.mappers.bill.requests.GepgBillTrxInf;
+import com.watabelabs.gepg.mappers.bill.responses.GepgBillCanclResp;
+import com.watabelabs.gepg.mappers.bill.responses.GepgBillSubResp;
+import com.watabelabs.gepg.mappers.payment.acks.GepgOlPmtNtfSpInfoAck;
+import com.watabelabs.gepg.mappers.payment.acks.GepgPmtSpInfoAck;
+import com.watabelabs.gepg.mappers.payment.requests.GepgPmtSpInfo;
+import com.watabelabs.gepg.mappers.payment.requests.GepgPymtTrxInf;
+import com.watabelabs.gepg.mappers.reconciliation.acks.GepgSpReconcRespAck;
+import com.watabelabs.gepg.mappers.reconciliation.requests.GepgReconcBatchInfo;
+import com.watabelabs.gepg.mappers.reconciliation.requests.GepgReconcTrans;
+import com.watabelabs.gepg.mappers.reconciliation.requests.GepgReconcTrxInf;
+import com.watabelabs.gepg.mappers.reconciliation.responses.GepgSpReconcResp;
+
+/**
+ * Process-wide registry of {@link JAXBContext} instances.
+ *
+ * <p>
+ * Creating a JAXBContext is expensive, so one context is built per content
+ * class, and one per {@link Envelope} and content class pair, and then reused
+ * by {@link MessageUtil}, {@link XmlUtil} and the API client. JAXBContext is
+ * thread-safe, but {@link Marshaller} and {@link Unmarshaller} are not, so
+ * those are borrowed from a bounded pool per context and released after use.
+ * The pools are not tied to threads, so they are reused by virtual threads
+ * too, and each keeps at most twice as many idle instances as there are
+ * processors.
+ * </p>
+ *
+ * <p>
+ * Pooled marshallers keep whatever properties the previous caller set on
+ * them, so callers must set every property they depend on before use.
+ * </p>
+ *
+ * <pre>{@code
+ * Marshaller marshaller = JaxbContextRegistry.borrowMarshaller(context);
+ * marshaller.marshal(bill, writer);
+ * JaxbContextRegistry.release(context, marshaller);
+ * }</pre>
+ */
+public final class JaxbContextRegistry {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(JaxbContextRegistry.class);
+
+    /**
+     * Every JAXB-annotated root class in {@code com.watabelabs.gepg.mappers}.
+     */
+    static final Class<?>[] MAPPER_CLASSES = {
+            GepgBillSubReq.class,
+            GepgBillControlNoReuse.class,
+            GepgBillCanclReq.class,
+            GepgBillTrxInf.class,
+            GepgBillSubResp.class,
+            GepgBillCanclResp.class,
+            GepgBillSubReqAck.class,
+            GepgBillSubResAck.class,
+            GepgBillSubRespAck.class,
+            GepgPmtSpInfo.class,
+            GepgPymtTrxInf.class,
+            GepgPmtSpInfoAck.class,
+            GepgOlPmtNtfSpInfoAck.class,
+            GepgSpReconcResp.class,
+            GepgReconcBatchInfo.class,
+            GepgReconcTrans.class,
+            GepgReconcTrxInf.class,
+            GepgSpReconcRespAck.class
+    };
+
+    private static final ConcurrentMap<Class<?>, JAXBContext> CONTEXTS = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<Class<?>, JAXBContext> ENVELOPE_CONTEXTS = new ConcurrentHashMap<>();
+
+    /**
+     * Most idle marshallers, and most idle unmarshallers, kept per context.
+     */
+    static final int MAX_IDLE_PER_CONTEXT = Math.max(2, Runtime.getRuntime().availableProcessors() * 2);
+
+    private static final ConcurrentMap<JAXBContext, Pool<Marshaller>> MARSHALLERS = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<JAXBContext, Pool<Unmarshaller>> UNMARSHALLERS = new ConcurrentHashMap<>();
+
+    private static final AtomicBoolean WARM_UP_STARTED = new AtomicBoolean();
+
+    private JaxbContextRegistry() {
+    }
+
+    /**
+     * Returns the shared context for a single JAXB-annotated class.
+     *
+     * @param type the JAXB-annotated class
+     * @return the cached {@link JAXBContext}
+     * @throws ValidationException if the context cannot be created
+     */
+    public static JAXBContext getContext(Class<?> type) {
+        JAXBContext context = CONTEXTS.get(type);
+        return context != null ? context : CONTEXTS.computeIfAbsent(type, k -> newContext(k));
+    }
+
+    /**
+     * Returns the shared context for an {@link Envelope} wrapping the given
+     * content class.
+     *
+     * @param contentClass the class of the envelope content
+     * @return the cached {@link JAXBContext}
+     * @throws ValidationException if the context cannot be created
+     */
+    public static JAXBContext getEnvelopeContext(Class<?> contentClass) {
+        JAXBContext context = ENVELOPE_CONTEXTS.get(contentClass);
+        return context != null ? context
+                : ENVELOPE_CONTEXTS.computeIfAbsent(contentClass, k -> newContext(Envelope.class, k));
+    }
+
+    /**
+     * Takes an idle marshaller for the given context from the pool, or creates
+     * one. Pass it to {@link #release(JAXBContext, Marshaller)} when done.
+     *
+     * @param context a context obtained from this registry
+     * @return a marshaller only the caller uses until it is released
+     * @throws JAXBException if the marshaller cannot be created
+     */
+    public static Marshaller borrowMarshaller(JAXBContext context) throws JAXBException {
+        Marshaller marshaller = MARSHALLERS.computeIfAbsent(context, k -> new Pool<>()).poll();
+        return marshaller != null ? marshaller : context.createMarshaller();
+    }
+
+    /**
+     * Returns a marshaller to the pool of its context. A marshaller that
+     * failed need not be released.
+     *
+     * @param context    the context the marshaller was borrowed for
+     * @param marshaller the marshaller, which the caller must not use again
+     */
+    public static void release(JAXBContext context, Marshaller marshaller) {
+        MARSHALLERS.computeIfAbsent(context, k -> new Pool<>()).offer(marshaller);
+    }
+
+    /**
+     * Takes an idle unmarshaller for the given context from the pool, or
+     * creates one. Pass it to {@link #release(JAXBContext, Unmarshaller)} when
+     * done.
+     *
+     * @param context a context obtained from this registry
+     * @return an unmarshaller only the caller uses until it is released
+     * @throws JAXBException if the unmarshaller cannot be created
+     */
+    public static Unmarshaller borrowUnmarshaller(JAXBContext context) throws JAXBException {
+        Unmarshaller unmarshaller = UNMARSHALLERS.computeIfAbsent(context, k -> new Pool<>()).poll();
+        return unmarshaller != null ? unmarshaller : context.createUnmarshaller();
+    }
+
+    /**
+     * Returns an unmarshaller to the pool of its context. An unmarshaller that
+     * failed need not be released.
+     *
+     * @param context      the context the unmarshaller was borrowed for
+     * @param unmarshaller the unmarshaller, which the caller must not use again
+     */
+    public static void release(JAXBContext context, Unmarshaller unmarshaller) {
+        UNMARSHALLERS.computeIfAbsent(context, k -> new Pool<>()).offer(unmarshaller);
+    }
+
+    /**
+     * Builds the plain and envelope contexts for every mapper class so the first
+     * request does not pay for them.
+     */
+    public static void warmUp() {
+        long start = System.nanoTime();
+        for (Class<?> mapperClass : MAPPER_CLASSES) {
+            getContext(mapperClass);
+            getEnvelopeContext(mapperClass);
+        }
+        LOGGER.debug("JAXB_CONTEXTS_WARMED_UP in {} ms", (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /**
+     * Runs {@link #warmUp()} once per JVM on a background daemon thread. Every
+     * {@code GepgApiClient} calls this when it is created, unless its
+     * configuration turns the warm-up off.
+     */
+    public static void warmUpAsync() {
+        if (!WARM_UP_STARTED.compareAndSet(false, true)) {
+            return;
+        }
+        Thread thread = new Thread(() -> {
+            try {
+                warmUp();
+            } catch (RuntimeException e) {
+                LOGGER.warn("JAXB_CONTEXT_WARM_UP_FAILED", e);
+            }
+        }, "gepg-jaxb-warm-up");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static JAXBContext newContext(Class<?>... classes) {
+        try {
+            return JAXBContext.newInstance(classes);
+        } catch (JAXBException e) {
+            throw new ValidationException("Error creating JAXB context: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Idle marshallers or unmarshallers of one context.
+     */
+    private static final class Pool<T> {
+        private final Deque<T> idle = new ConcurrentLinkedDeque<>();
+        private final AtomicInteger idleCount = new AtomicInteger();
+
+        T poll() {
+            T value = idle.pollFirst();
+            if (value != null) {
+                idleCount.decrementAndGet();
+            }
+            return value;
+        }
+
+        void offer(T value) {
+            if (idleCount.incrementAndGet() <= MAX_IDLE_PER_CONTEXT) {
+                idle.offerFirst(value);
+            } else {
+                idleCount.decrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,409 @@
+package com.watabelabs.gepg.utils;
+
+import java.io.File;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Long-lived, thread-safe holder for the private and public keys used to sign
+ * and verify GePG messages.
+ *
+ * <p>
+ * Each keystore is read once through {@link PrivateKeyReader} and
+ * {@link PublicKeyReader}, and the keys are kept together with a shared
+ * {@link DigitalSignatureUtil}. One background task polls the keystore files
+ * of every loaded holder for changes and swaps in the new keys atomically, so
+ * callers never touch the filesystem once the keys have been loaded.
+ * </p>
+ *
+ * <p>
+ * Holders are shared per key configuration, so every {@link MessageUtil}
+ * created with the same paths, aliases, algorithm and provider uses the same
+ * keys. The public key is also shared between holders that read it from the
+ * same keystore path, alias, password and type, so service providers that each
+ * have their own private key load GePG's public key once, and a holder with a
+ * wrong password still fails to load it. A holder that is no
+ * longer needed, for example when a tenant is removed, is dropped with
+ * {@link #release} so its keys are no longer kept or polled.
+ * </p>
+ *
+ * <pre>{@code
+ * KeyStoreHolder holder = KeyStoreHolder.getInstance(privateKeyPath, publicKeyPath,
+ *         privateKeyPassword, privateKeyAlias, publicKeyAlias, publicKeyPassword,
+ *         "PKCS12", "SHA1withRSA");
+ * String signature = holder.getSignatureUtil().generateSignature(message);
+ * }</pre>
+ */
+public final class KeyStoreHolder {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(KeyStoreHolder.class);
+
+    /**
+     * How often the keystore files are checked for rotation, in seconds.
+     */
+    public static final long RELOAD_INTERVAL_SECONDS = 30;
+
+    private static final ConcurrentMap<List<String>, KeyStoreHolder> HOLDERS = new ConcurrentHashMap<>();
+
+    private static final ConcurrentMap<List<String>, SharedPublicKey> PUBLIC_KEYS = new ConcurrentHashMap<>();
+
+    private static final ScheduledExecutorService WATCHER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "gepg-keystore-watcher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final AtomicBoolean WATCHING = new AtomicBoolean();
+
+    private final String privateKeyPath;
+    private final String publicKeyPath;
+    private final String privateKeyPassword;
+    private final String privateKeyAlias;
+    private final String publicKeyAlias;
+    private final String publicKeyPassword;
+    private final String keyStoreType;
+    private final String signatureAlgorithm;
+    private final String signatureProvider;
+
+    private final AtomicReference<Keys> keys = new AtomicReference<>();
+
+    private KeyStoreHolder(
+            String privateKeyPath,
+            String publicKeyPath,
+            String privateKeyPassword,
+            String privateKeyAlias,
+            String publicKeyAlias,
+            String publicKeyPassword,
+            String keyStoreType,
+            String signatureAlgorithm,
+            String signatureProvider) {
+        this.privateKeyPath = privateKeyPath;
+        this.publicKeyPath = publicKeyPath;
+        this.privateKeyPassword = privateKeyPassword;
+        this.privateKeyAlias = privateKeyAlias;
+        this.publicKeyAlias = publicKeyAlias;
+        this.publicKeyPassword = publicKeyPassword;
+        this.keyStoreType = keyStoreType;
+        this.signatureAlgorithm = signatureAlgorithm;
+        this.signatureProvider = signatureProvider;
+    }
+
+    /**
+     * Returns the shared holder for the given key configuration, creating it on
+     * first use. The keystores themselves are loaded lazily on the first call to
+     * one of the key accessors.
+     *
+     * @param privateKeyPath     Path to the private key keystore.
+     * @param publicKeyPath      Path to the public key keystore.
+     * @param privateKeyPassword Password for the private key keystore.
+     * @param privateKeyAlias    Alias for the private key in the keystore.
+     * @param publicKeyAlias     Alias for the public key in the keystore.
+     * @param publicKeyPassword  Password for the public key keystore.
+     * @param keyStoreType       Type of the keystore (e.g., PKCS12).
+     * @param signatureAlgorithm Algorithm used for signing and verification (e.g.,
+     *                           SHA1withRSA).
+     * @return the shared {@link KeyStoreHolder} for this configuration
+     */
+    public static KeyStoreHolder getInstance(
+            String privateKeyPath,
+            String publicKeyPath,
+            String privateKeyPassword,
+            String privateKeyAlias,
+            String publicKeyAlias,
+            String publicKeyPassword,
+            String keyStoreType,
+            String signatureAlgorithm) {
+        return getInstance(privateKeyPath, publicKeyPath, privateKeyPassword, privateKeyAlias, publicKeyAlias,
+                publicKeyPassword, keyStoreType, signatureAlgorithm, null);
+    }
+
+    /**
+     * Returns the shared holder for the given key configuration, signing with
+     * the named provider.
+     *
+     * @param privateKeyPath     Path to the private key keystore.
+     * @param publicKeyPath      Path to the public key keystore.
+     * @param privateKeyPassword Password for the private key keystore.
+     * @param privateKeyAlias    Alias for the private key in the keystore.
+     * @param publicKeyAlias     Alias for the public key in the keystore.
+     * @param publicKeyPassword  Password for the public key keystore.
+     * @param keyStoreType       Type of the keystore (e.g., PKCS12).
+     * @param signatureAlgorithm Algorithm used for signing and verification (e.g.,
+     *                           SHA1withRSA).
+     * @param signatureProvider  Name of the provider implementing the algorithm,
+     *                           or null to use the JCA preference order.
+     * @return the shared {@link KeyStoreHolder} for this configuration
+     * @see SignatureProviders#resolve(String)
+     */
+    public static KeyStoreHolder getInstance(
+            String privateKeyPath,
+            String publicKeyPath,
+            String privateKeyPassword,
+            String privateKeyAlias,
+            String publicKeyAlias,
+            String publicKeyPassword,
+            String keyStoreType,
+            String signatureAlgorithm,
+            String signatureProvider) {
+        List<String> key = Arrays.asList(privateKeyPath, publicKeyPath, privateKeyPassword, privateKeyAlias,
+                publicKeyAlias, publicKeyPassword, keyStoreType, signatureAlgorithm, signatureProvider);
+        return HOLDERS.computeIfAbsent(key, k -> new KeyStoreHolder(privateKeyPath, publicKeyPath,
+                privateKeyPassword, privateKeyAlias, publicKeyAlias, publicKeyPassword, keyStoreType,
+                signatureAlgorithm, signatureProvider));
+    }
+
+    /**
+     * Drops the shared holder for the given key configuration, so its keys are
+     * no longer cached or checked for rotation. A holder still in use keeps
+     * working with the keys it has; the next {@link #getInstance} call for the
+     * configuration loads them again.
+     *
+     * @param privateKeyPath     Path to the private key keystore.
+     * @param publicKeyPath      Path to the public key keystore.
+     * @param privateKeyPassword Password for the private key keystore.
+     * @param privateKeyAlias    Alias for the private key in the keystore.
+     * @param publicKeyAlias     Alias for the public key in the keystore.
+     * @param publicKeyPassword  Password for the public key keystore.
+     * @param keyStoreType       Type of the keystore (e.g., PKCS12).
+     * @param signatureAlgorithm Algorithm used for signing and verification.
+     * @param signatureProvider  Name of the provider implementing the algorithm,
+     *                           or null.
+     * @return true if a holder was dropped
+     */
+    public static boolean release(
+            String privateKeyPath,
+            String publicKeyPath,
+            String privateKeyPassword,
+            String privateKeyAlias,
+            String publicKeyAlias,
+            String publicKeyPassword,
+            String keyStoreType,
+            String signatureAlgorithm,
+            String signatureProvider) {
+        List<String> key = Arrays.asList(privateKeyPath, publicKeyPath, privateKeyPassword, privateKeyAlias,
+                publicKeyAlias, publicKeyPassword, keyStoreType, signatureAlgorithm, signatureProvider);
+        if (HOLDERS.remove(key) == null) {
+            return false;
+        }
+        List<String> publicKey = Arrays.asList(publicKeyPath, publicKeyAlias, publicKeyPassword, keyStoreType);
+        if (HOLDERS.values().stream().noneMatch(holder -> holder.publicKeyConfig().equals(publicKey))) {
+            PUBLIC_KEYS.remove(publicKey);
+        }
+        LOGGER.info("KEYSTORE_HOLDER_RELEASED private={} public={}", privateKeyPath, publicKeyPath);
+        return true;
+    }
+
+    /**
+     * Returns the cached private key.
+     *
+     * @return the private key
+     */
+    public PrivateKey getPrivateKey() {
+        return keys().privateKey;
+    }
+
+    /**
+     * Returns the cached public key.
+     *
+     * @return the public key
+     */
+    public PublicKey getPublicKey() {
+        return keys().publicKey;
+    }
+
+    /**
+     * Returns the {@link DigitalSignatureUtil} bound to the current keys.
+     *
+     * @return the signature utility for the current keys
+     */
+    public DigitalSignatureUtil getSignatureUtil() {
+        return keys().signatureUtil;
+    }
+
+    /**
+     * Returns the generation of the currently loaded keys. The generation starts
+     * at 1 and is incremented every time rotated keys are swapped in, which lets
+     * callers invalidate anything derived from the previous keys.
+     *
+     * @return the key generation, or 0 if the keys have not been loaded yet
+     */
+    public long getGeneration() {
+        Keys current = keys.get();
+        return current == null ? 0 : current.generation;
+    }
+
+    /**
+     * Reloads the keys if either keystore file has changed since it was last
+     * read. A failed reload keeps the previous keys in place.
+     *
+     * @return true if new keys were swapped in, false otherwise
+     */
+    public boolean reloadIfChanged() {
+        Keys current = keys.get();
+        if (current == null) {
+            return false;
+        }
+        if (current.privateStamp.equals(FileStamp.of(privateKeyPath))
+                && current.publicStamp.equals(FileStamp.of(publicKeyPath))) {
+            return false;
+        }
+        try {
+            Keys reloaded = load(current.generation + 1);
+            keys.set(reloaded);
+            LOGGER.info("KEYSTORE_RELOADED private={} public={} generation={}", privateKeyPath, publicKeyPath,
+                    reloaded.generation);
+            return true;
+        } catch (RuntimeException e) {
+            LOGGER.error("KEYSTORE_RELOAD_FAILED, keeping previous keys", e);
+            return false;
+        }
+    }
+
+    private Keys keys() {
+        Keys current = keys.get();
+        if (current != null) {
+            return current;
+        }
+        synchronized (this) {
+            current = keys.get();
+            if (current == null) {
+                current = load(1);
+                keys.set(current);
+                if (WATCHING.compareAndSet(false, true)) {
+                    WATCHER.scheduleWithFixedDelay(KeyStoreHolder::reloadAllIfChanged, RELOAD_INTERVAL_SECONDS,
+                            RELOAD_INTERVAL_SECONDS, TimeUnit.SECONDS);
+                }
+            }
+            return current;
+        }
+    }
+
+    /**
+     * Checks the keystores of every shared holder, skipping those whose keys
+     * have not been loaded.
+     */
+    private static void reloadAllIfChanged() {
+        for (KeyStoreHolder holder : HOLDERS.values()) {
+            holder.reloadIfChanged();
+        }
+    }
+
+    private Keys load(long generation) {
+        // Take the stamps first so a rotation during the read is picked up next time
+        FileStamp privateStamp = FileStamp.of(privateKeyPath);
+        FileStamp publicStamp = FileStamp.of(publicKeyPath);
+
+        PrivateKey privateKey = PrivateKeyReader.get(privateKeyPath, keyStoreType, privateKeyPassword,
+                privateKeyAlias);
+        PublicKey publicKey = publicKey(publicStamp);
+
+        DigitalSignatureUtil signatureUtil = new DigitalSignatureUtil(signatureAlgorithm,
+                SignatureProviders.resolve(signatureProvider), privateKey, publicKey);
+
+        return new Keys(privateKey, publicKey, signatureUtil, privateStamp, publicStamp, generation);
+    }
+
+    /**
+     * Returns the public key shared by every holder that reads the same
+     * keystore, reading it again if the file has changed since it was read.
+     */
+    private PublicKey publicKey(FileStamp stamp) {
+        return PUBLIC_KEYS.compute(publicKeyConfig(), (k, shared) -> shared != null && shared.stamp.equals(stamp) ? shared
+                : new SharedPublicKey(
+                        PublicKeyReader.get(publicKeyPath, keyStoreType, publicKeyPassword, publicKeyAlias), stamp))
+                .publicKey;
+    }
+
+    /**
+     * Returns what the shared public key of this holder is cached under. The
+     * password is part of it, so a wrong password is never covered by a key
+     * another holder has loaded.
+     */
+    private List<String> publicKeyConfig() {
+        return Arrays.asList(publicKeyPath, publicKeyAlias, publicKeyPassword, keyStoreType);
+    }
+
+    /**
+     * A public key loaded from a keystore, with the stamp of the file it was
+     * read from.
+     */
+    private static final class SharedPublicKey {
+        private final PublicKey publicKey;
+        private final FileStamp stamp;
+
+        private SharedPublicKey(PublicKey publicKey, FileStamp stamp) {
+            this.publicKey = publicKey;
+            this.stamp = stamp;
+        }
+    }
+
+    /**
+     * Immutable snapshot of the loaded keys.
+     */
+    private static final class Keys {
+        private final PrivateKey privateKey;
+        private final PublicKey publicKey;
+        private final DigitalSignatureUtil signatureUtil;
+        private final FileStamp privateStamp;
+        private final FileStamp publicStamp;
+        private final long generation;
+
+        private Keys(PrivateKey privateKey, PublicKey publicKey, DigitalSignatureUtil signatureUtil,
+                FileStamp privateStamp, FileStamp publicStamp, long generation) {
+            this.privateKey = privateKey;
+            this.publicKey = publicKey;
+            this.signatureUtil = signatureUtil;
+            this.privateStamp = privateStamp;
+            this.publicStamp = publicStamp;
+            this.generation = generation;
+        }
+    }
+
+    /**
+     * Last-modified time and size of a keystore file, used to detect rotation.
+     */
+    private static final class FileStamp {
+        private final long lastModified;
+        private final long length;
+
+        private FileStamp(long lastModified, long length) {
+            this.lastModified = lastModified;
+            this.length = length;
+        }
+
+        private static FileStamp of(String path) {
+            if (path == null) {
+                return new FileStamp(0, 0);
+            }
+            File file = new File(path);
+            return new FileStamp(file.lastModified(), file.length());
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof FileStamp))
+                return false;
+            FileStamp that = (FileStamp) o;
+            return lastModified == that.lastModified && length == that.length;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Long.hashCode(lastModified) + Long.hashCode(length);
+        }
+    }
+}
@@ -1,26 +1,21 @@
 package com.watabelabs.gepg.utils;
 
+import java.io.ByteArrayInputStream;
 import java.io.StringReader;
 import java.io.StringWriter;
-import java.security.PrivateKey;
-import java.security.PublicKey;
+import java.nio.charset.StandardCharsets;
 import java.util.Collections;
 
 import javax.validation.ValidationException;
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.Marshaller;
 import javax.xml.bind.Unmarshaller;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.w3c.dom.Document;
-import org.xml.sax.InputSource;
+
+import com.watabelabs.gepg.metrics.GepgMetrics;
+import com.watabelabs.gepg.metrics.GepgMetricsRegistry;
 
 /**
  * Utility class for handling XML message signing and verification.
@@ -29,6 +24,19 @@ public class MessageUtil {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(MessageUtil.class);
 
+    /**
+     * The XML declaration JAXB writes in front of a signed {@link Envelope}.
+     */
+    private static final String XML_DECLARATION = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>";
+
+    private static final String ENVELOPE_START_TEXT = XML_DECLARATION + "<Gepg>";
+    private static final String SIGNATURE_START_TEXT = "<gepgSignature>";
+    private static final String ENVELOPE_END_TEXT = "</gepgSignature></Gepg>";
+
+    private static final byte[] ENVELOPE_START = ENVELOPE_START_TEXT.getBytes(StandardCharsets.UTF_8);
+    private static final byte[] SIGNATURE_START = SIGNATURE_START_TEXT.getBytes(StandardCharsets.UTF_8);
+    private static final byte[] ENVELOPE_END = ENVELOPE_END_TEXT.getBytes(StandardCharsets.UTF_8);
+
     private String privateKeyPath;
     private String publicKeyPath;
     private String privateKeyPassword;
@@ -37,6 +45,7 @@ public class MessageUtil {
     private String publicKeyAlias;
     private String keyStoreType;
     private String signatureAlgorithm;
+    private String signatureProvider;
 
     /**
      * Default constructor.
@@ -67,6 +76,37 @@ public class MessageUtil {
             String publicKeyPassword,
             String keyStoreType,
             String signatureAlgorithm) {
+        this(privateKeyPath, publicKeyPath, privateKeyPassword, privateKeyAlias, publicKeyAlias, publicKeyPassword,
+                keyStoreType, signatureAlgorithm, null);
+    }
+
+    /**
+     * Parameterized constructor for initializing MessageUtil with key and signature
+     * information, signing with the named provider.
+     *
+     * @param privateKeyPath     Path to the private key keystore.
+     * @param publicKeyPath      Path to the public key keystore.
+     * @param privateKeyPassword Password for the private key keystore.
+     * @param privateKeyAlias    Alias for the private key in the keystore.
+     * @param publicKeyAlias     Alias for the public key in the keystore.
+     * @param publicKeyPassword  Password for the public key keystore.
+     * @param keyStoreType       Type of the keystore (e.g., PKCS12).
+     * @param signatureAlgorithm Algorithm used for signing and verification (e.g.,
+     *                           SHA256withRSA).
+     * @param signatureProvider  Name of the provider implementing the algorithm
+     *                           (e.g., BC), or null to use the JCA preference
+     *                           order.
+     */
+    public MessageUtil(
+            String privateKeyPath,
+            String publicKeyPath,
+            String privateKeyPassword,
+            String privateKeyAlias,
+            String publicKeyAlias,
+            String publicKeyPassword,
+            String keyStoreType,
+            String signatureAlgorithm,
+            String signatureProvider) {
         this.privateKeyPath = privateKeyPath;
         this.publicKeyPath = publicKeyPath;
         this.privateKeyPassword = privateKeyPassword;
@@ -75,6 +115,7 @@ public class MessageUtil {
         this.publicKeyAlias = publicKeyAlias;
         this.keyStoreType = keyStoreType;
         this.signatureAlgorithm = signatureAlgorithm;
+        this.signatureProvider = signatureProvider;
     }
 
     /**
@@ -92,14 +133,10 @@ public class MessageUtil {
             throw new ValidationException("Message cannot be null or empty");
         }
 
-        LOGGER.info("Original Message: " + message);
-
-        // Read private key
-        PrivateKey privateKey = PrivateKeyReader.get(privateKeyPath, keyStoreType, privateKeyPassword, privateKeyAlias);
-        // Load the public key
-        PublicKey publicKey = PublicKeyReader.get(publicKeyPath, keyStoreType, publicKeyPassword, publicKeyAlias);
+        long start = System.nanoTime();
 
-        DigitalSignatureUtil digitalSignatureUtil = new DigitalSignatureUtil(signatureAlgorithm, privateKey, publicKey);
+        // Use the cached keys, the keystores are only read once per configuration
+        DigitalSignatureUtil digitalSignatureUtil = getKeyStoreHolder().getSignatureUtil();
 
         T content = parseContent(message, contentClass);
 
@@ -121,10 +158,96 @@ public class MessageUtil {
 
         // add back the xml declaration that was stripped off by the sanitize method
         String escapedString = escapeCharacter(signedXml);
-        LOGGER.info("Signed XML: " + escapedString);
+        PayloadLogger.signed(LOGGER, content, escapedString, start);
         return escapedString;
     }
 
+    /**
+     * Serializes the given content, signs it and wraps it in an Envelope.
+     *
+     * <p>
+     * The content is serialized once into the canonical form, the signature is
+     * computed over exactly that form in UTF-8, and the content and the
+     * {@code gepgSignature} element are spliced into the {@code <Gepg>} wrapper
+     * without another JAXB round trip. The result is the same as passing the
+     * output of {@link XmlUtil#convertToXmlStringWithoutDeclaration(Object)} to
+     * {@link #sign(String, Class)}.
+     * </p>
+     *
+     * @param content The JAXB-annotated content to be signed.
+     * @return The signed XML message wrapped in an Envelope.
+     * @throws Exception If an error occurs during serialization or signing.
+     */
+    public String signPayload(Object content) throws Exception {
+        long start = System.nanoTime();
+        SignedContent signed = signContent(content);
+
+        // Assembled as text, the payload is not encoded until it is sent
+        StringBuilder signedXml = new StringBuilder(ENVELOPE_START_TEXT.length() + signed.escapedContent.length()
+                + SIGNATURE_START_TEXT.length() + signed.signature.length() + ENVELOPE_END_TEXT.length());
+        signedXml.append(ENVELOPE_START_TEXT)
+                .append(signed.escapedContent)
+                .append(SIGNATURE_START_TEXT)
+                .append(signed.signature)
+                .append(ENVELOPE_END_TEXT);
+
+        String payload = signedXml.toString();
+        PayloadLogger.signed(LOGGER, content, payload, start);
+        return payload;
+    }
+
+    /**
+     * Serializes the given content, signs it and wraps it in an Envelope, as
+     * UTF-8 bytes.
+     *
+     * <p>
+     * The canonical form is serialized straight into UTF-8 and signed as it
+     * is, and the Envelope is assembled into an array of exactly its length,
+     * so the payload is never held as a String. The bytes are the UTF-8
+     * encoding of what {@link #signPayload(Object)} returns.
+     * </p>
+     *
+     * @param content The JAXB-annotated content to be signed.
+     * @return The signed payload.
+     * @throws Exception If an error occurs during serialization or signing.
+     */
+    public SignedPayload signPayloadBytes(Object content) throws Exception {
+        long start = System.nanoTime();
+        SignedContent signed = signContent(content);
+
+        Utf8Writer signedXml = new Utf8Writer(ENVELOPE_START.length + Utf8Writer.encodedLength(signed.escapedContent)
+                + SIGNATURE_START.length + signed.signature.length() + ENVELOPE_END.length);
+        signedXml.writeBytes(ENVELOPE_START);
+        signedXml.write(signed.escapedContent);
+        signedXml.writeBytes(SIGNATURE_START);
+        signedXml.write(signed.signature);
+        signedXml.writeBytes(ENVELOPE_END);
+
+        SignedPayload payload = new SignedPayload(signedXml.toByteArray(), signed.signature);
+        PayloadLogger.signed(LOGGER, content, payload, start);
+        return payload;
+    }
+
+    /**
+     * Serializes content into its canonical form and its Envelope form in one
+     * pass, and signs the canonical form as UTF-8.
+     */
+    private SignedContent signContent(Object content) throws Exception {
+        if (content == null) {
+            throw new ValidationException("Content cannot be null");
+        }
+
+        // One marshalling pass gives both the signed form and the Envelope form
+        Utf8Writer canonical = new Utf8Writer(4096);
+        StringWriter envelopeContent = new StringWriter();
+        XmlUtil.marshalCanonical(content, canonical, envelopeContent);
+
+        String encodedSignature = getKeyStoreHolder().getSignatureUtil()
+                .generateSignature(canonical.buffer(), 0, canonical.size());
+
+        return new SignedContent(escapeCharacter(envelopeContent.toString()), encodedSignature);
+    }
+
     /**
      * Parses the content of the given XML message into an instance of the specified
      * class.
@@ -136,9 +259,18 @@ public class MessageUtil {
      * @throws Exception If an error occurs during parsing.
      */
     public static <T> T parseContent(String message, Class<T> contentClass) throws Exception {
-        JAXBContext context = JAXBContext.newInstance(contentClass);
-        Unmarshaller unmarshaller = context.createUnmarshaller();
-        return contentClass.cast(unmarshaller.unmarshal(new StringReader(message)));
+        GepgMetrics metrics = GepgMetricsRegistry.get();
+        long start = metrics.isEnabled() ? System.nanoTime() : 0L;
+
+        JAXBContext context = JaxbContextRegistry.getContext(contentClass);
+        Unmarshaller unmarshaller = JaxbContextRegistry.borrowUnmarshaller(context);
+        T content = contentClass.cast(unmarshaller.unmarshal(new StringReader(message)));
+        JaxbContextRegistry.release(context, unmarshaller);
+
+        if (metrics.isEnabled()) {
+            metrics.unmarshalled(contentClass, System.nanoTime() - start);
+        }
+        return content;
     }
 
     /**
@@ -152,17 +284,22 @@ public class MessageUtil {
      * @throws Exception If an error occurs during the conversion.
      */
     public <T> String convertToXmlString(Envelope<T> envelope, Class<T> contentClass) throws Exception {
-        JAXBContext context;
         String xmlString;
+        GepgMetrics metrics = GepgMetricsRegistry.get();
+        long start = metrics.isEnabled() ? System.nanoTime() : 0L;
         try {
             StringWriter sw = new StringWriter();
-            context = JAXBContext.newInstance(Envelope.class, contentClass);
-            Marshaller marshaller = context.createMarshaller();
+            JAXBContext context = JaxbContextRegistry.getEnvelopeContext(contentClass);
+            Marshaller marshaller = JaxbContextRegistry.borrowMarshaller(context);
             marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, Boolean.TRUE);
             marshaller.setProperty(Marshaller.JAXB_ENCODING, "UTF-8");
             marshaller.setProperty(Marshaller.JAXB_FRAGMENT, false); // Include XML declaration
             marshaller.marshal(envelope, sw);
+            JaxbContextRegistry.release(context, marshaller);
             xmlString = sw.toString();
+            if (metrics.isEnabled()) {
+                metrics.marshalled(contentClass, System.nanoTime() - start);
+            }
             return xmlString;
         } catch (Exception e) {
             throw new ValidationException(e.getLocalizedMessage());
@@ -180,10 +317,18 @@ public class MessageUtil {
      * @throws Exception If an error occurs during the conversion.
      */
     public static <T> T unwrapAndConvertToPojo(String xmlString, Class<T> contentClass) throws Exception {
-        JAXBContext context = JAXBContext.newInstance(Envelope.class, contentClass);
-        Unmarshaller unmarshaller = context.createUnmarshaller();
+        GepgMetrics metrics = GepgMetricsRegistry.get();
+        long start = metrics.isEnabled() ? System.nanoTime() : 0L;
+
+        JAXBContext context = JaxbContextRegistry.getEnvelopeContext(contentClass);
+        Unmarshaller unmarshaller = JaxbContextRegistry.borrowUnmarshaller(context);
         @SuppressWarnings("unchecked")
         Envelope<T> envelope = (Envelope<T>) unmarshaller.unmarshal(new StringReader(xmlString));
+        JaxbContextRegistry.release(context, unmarshaller);
+
+        if (metrics.isEnabled()) {
+            metrics.unmarshalled(contentClass, System.nanoTime() - start);
+        }
         return envelope.getContent().get(0);
     }
 
@@ -199,45 +344,116 @@ public class MessageUtil {
      * @throws Exception If an error occurs during verification.
      */
     public <T> boolean verify(String xmlString, Class<T> contentClass) throws Exception {
-        // Parse the XML string to a Document
-        DocumentBuilderFactory docFactory = DocumentBuilderFactory.newInstance();
-        DocumentBuilder docBuilder = docFactory.newDocumentBuilder();
-        Document doc = docBuilder.parse(new InputSource(new StringReader(xmlString)));
-
-        // Unmarshal the XML to an Envelope object
-        JAXBContext context = JAXBContext.newInstance(Envelope.class, contentClass);
-        Unmarshaller unmarshaller = context.createUnmarshaller();
-        @SuppressWarnings("unchecked")
-        Envelope<T> envelope = (Envelope<T>) unmarshaller.unmarshal(doc);
+        return verifyPayload(xmlString, contentClass).isValid();
+    }
 
-        // Extract the content and signature
-        T content = envelope.getContent().get(0);
-        String gepgSignature = envelope.getGepgSignature();
+    /**
+     * Verifies the digital signature of the provided payload and returns its
+     * content.
+     *
+     * <p>
+     * The content element is located in the payload as received and the
+     * signature is checked over exactly that text, so nothing is re-marshalled
+     * unless that check fails. Payloads signed by {@link #sign(String, Class)}
+     * carry unescaped text, so as a fallback the signature is also checked over
+     * the canonical form of the content.
+     * </p>
+     *
+     * @param payload      The XML string containing the Envelope with the digital
+     *                     signature.
+     * @param contentClass The class of the content within the Envelope.
+     * @param <T>          The type of the content.
+     * @return The content together with the outcome of the signature check.
+     * @throws Exception If the payload is not a signed Envelope or cannot be
+     *                   unmarshalled.
+     */
+    public <T> VerifiedMessage<T> verifyPayload(String payload, Class<T> contentClass) throws Exception {
+        EnvelopeRange range = EnvelopeRange.locate(payload);
+        String message = payload.substring(range.getContentStart(), range.getContentEnd());
+
+        T content = parseContent(message, contentClass);
 
-        // Re-marshal the content to an XML string
-        Document contentDoc = docBuilder.newDocument();
-        Marshaller marshaller = context.createMarshaller();
-        marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, Boolean.TRUE);
-        marshaller.setProperty(Marshaller.JAXB_FRAGMENT, Boolean.TRUE);
-        marshaller.marshal(content, contentDoc);
-        TransformerFactory tf = TransformerFactory.newInstance();
-        Transformer transformer = tf.newTransformer();
-        StringWriter writer = new StringWriter();
-        transformer.transform(new DOMSource(contentDoc), new StreamResult(writer));
-        String message = writer.toString();
+        DigitalSignatureUtil digitalSignatureUtil = getKeyStoreHolder().getSignatureUtil();
+        boolean valid = digitalSignatureUtil.verifySignature(range.getSignature(), message)
+                || verifyCanonical(digitalSignatureUtil, range.getSignature(), message, content);
+
+        return new VerifiedMessage<>(content, range.getSignature(), valid);
+    }
 
-        // Remove XML declaration if present
-        message = message.replaceAll("^<\\?xml.*?\\?>", "").trim();
+    /**
+     * Verifies the digital signature of the provided payload bytes and returns its
+     * content.
+     *
+     * <p>
+     * Same as {@link #verifyPayload(String, Class)}, but the signature is checked
+     * over the content bytes exactly as they were received and the content is
+     * unmarshalled straight from those bytes, without decoding the payload into a
+     * string first.
+     * </p>
+     *
+     * @param payload      The UTF-8 payload containing the Envelope with the
+     *                     digital signature.
+     * @param contentClass The class of the content within the Envelope.
+     * @param <T>          The type of the content.
+     * @return The content together with the outcome of the signature check.
+     * @throws Exception If the payload is not a signed Envelope or cannot be
+     *                   unmarshalled.
+     */
+    public <T> VerifiedMessage<T> verifyPayload(byte[] payload, Class<T> contentClass) throws Exception {
+        // Every marker EnvelopeRange looks for is ASCII, so offsets in the
+        // ISO-8859-1 view are byte offsets
+        EnvelopeRange range = EnvelopeRange.locate(new String(payload, StandardCharsets.ISO_8859_1));
+
+        GepgMetrics metrics = GepgMetricsRegistry.get();
+        long start = metrics.isEnabled() ? System.nanoTime() : 0L;
+        JAXBContext context = JaxbContextRegistry.getContext(contentClass);
+        Unmarshaller unmarshaller = JaxbContextRegistry.borrowUnmarshaller(context);
+        T content = contentClass.cast(unmarshaller.unmarshal(
+                new ByteArrayInputStream(payload, range.getContentStart(), range.getContentLength())));
+        JaxbContextRegistry.release(context, unmarshaller);
+        if (metrics.isEnabled()) {
+            metrics.unmarshalled(contentClass, System.nanoTime() - start);
+        }
 
-        // Load the public key
-        PublicKey publicKey = PublicKeyReader.get(publicKeyPath, keyStoreType, publicKeyPassword, publicKeyAlias);
+        DigitalSignatureUtil digitalSignatureUtil = getKeyStoreHolder().getSignatureUtil();
+        boolean valid = digitalSignatureUtil.verifySignature(range.getSignature(), payload, range.getContentStart(),
+                range.getContentLength());
+        if (!valid) {
+            String message = new String(payload, range.getContentStart(), range.getContentLength(),
+                    StandardCharsets.UTF_8);
+            valid = verifyCanonical(digitalSignatureUtil, range.getSignature(), message, content);
+        }
 
-        // Load the private key
-        PrivateKey privateKey = PrivateKeyReader.get(privateKeyPath, keyStoreType, privateKeyPassword, privateKeyAlias);
+        return new VerifiedMessage<>(content, range.getSignature(), valid);
+    }
 
-        DigitalSignatureUtil digitalSignatureUtil = new DigitalSignatureUtil(signatureAlgorithm, privateKey, publicKey);
+    /**
+     * Checks the signature over the canonical form of the content, which is what
+     * {@link #sign(String, Class)} signs when the payload it returns differs from
+     * it.
+     */
+    private static boolean verifyCanonical(DigitalSignatureUtil digitalSignatureUtil, String signature,
+            String message, Object content) throws Exception {
+        String canonical = XmlUtil.convertToXmlStringWithoutDeclaration(content);
+        if (canonical.equals(message)) {
+            return false;
+        }
+        boolean valid = digitalSignatureUtil.verifySignature(signature, canonical);
+        if (valid) {
+            LOGGER.debug("SIGNATURE_VERIFIED_AGAINST_CANONICAL_FORM for {}", content.getClass().getSimpleName());
+        }
+        return valid;
+    }
 
-        return digitalSignatureUtil.verifySignature(gepgSignature, message);
+    /**
+     * Returns the shared {@link KeyStoreHolder} for this instance's key
+     * configuration.
+     *
+     * @return the key holder caching the keys used by this instance
+     */
+    public KeyStoreHolder getKeyStoreHolder() {
+        return KeyStoreHolder.getInstance(privateKeyPath, publicKeyPath, privateKeyPassword, privateKeyAlias,
+                publicKeyAlias, publicKeyPassword, keyStoreType, signatureAlgorithm, signatureProvider);
     }
 
     /**
@@ -245,31 +461,22 @@ public class MessageUtil {
      *
      * @param xmlString The XML string to be escaped.
      * @return The escaped XML string.
+     * @see XmlUtil#escapeCharacter(String)
      */
-
     public static String escapeCharacter(String xmlString) {
-        // Unescape any pre-escaped characters first
-        String unescapedString = htmlUnescape(xmlString);
-
-        // Remove newlines and spaces between tags but keep the inner spaces
-        String compressedString = unescapedString.replaceAll(">\\s+<", "><").trim();
-
-        return compressedString;
+        return XmlUtil.escapeCharacter(xmlString);
     }
 
     /**
-     * Unescapes special characters in the provided XML string.
-     *
-     * @param xmlString The XML string to be unescaped.
-     * @return The unescaped XML string.
+     * The escaped Envelope content and the signature over its canonical form.
      */
-    private static String htmlUnescape(String xmlString) {
-        return xmlString
-                .replace("&amp;", "&")
-                .replace("&apos;", "'")
-                .replace("&Ouml;", "Ö")
-                .replace("&quot;", "\"")
-                .replace("&lt;", "<")
-                .replace("&gt;", ">");
+    private static final class SignedContent {
+        private final String escapedContent;
+        private final String signature;
+
+        private SignedContent(String escapedContent, String signature) {
+            this.escapedContent = escapedContent;
+            this.signature = signature;
+        }
     }
 }
@@ -0,0 +1,261 @@
+package com.watabelabs.gepg.utils;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.watabelabs.gepg.mappers.bill.requests.GepgBillCanclReq;
+import com.watabelabs.gepg.mappers.bill.requests.GepgBillControlNoReuse;
+import com.watabelabs.gepg.mappers.bill.requests.GepgBillSubReq;
+import com.watabelabs.gepg.mappers.bill.requests.GepgBillTrxInf;
+import com.watabelabs.gepg.mappers.bill.responses.GepgBillSubResp;
+import com.watabelabs.gepg.mappers.payment.requests.GepgPmtSpInfo;
+import com.watabelabs.gepg.mappers.payment.requests.GepgPymtTrxInf;
+
+/**
+ * Logs GePG messages without logging their payloads on every request.
+ *
+ * <p>
+ * At INFO only a summary is logged: the message type, the bill id and
+ * control number when the content has them, the payload size in characters,
+ * or in bytes for a {@link SignedPayload}, and how long the operation took.
+ * Full payloads go to the {@value #LOGGER_NAME} logger at DEBUG, and only one
+ * in every {@link #setSampleRate(int) sample rate} payloads is logged, so the
+ * channel can be left on in production without writing every bill.
+ * </p>
+ *
+ * <p>
+ * A response from GePG is written to the payload channel as soon as it is
+ * received, before it is parsed, and at WARN if it cannot be read, so a
+ * response that breaks parsing is never lost.
+ * </p>
+ *
+ * <pre>{@code
+ * <logger name="com.watabelabs.gepg.payload" level="DEBUG" />
+ * }</pre>
+ */
+public final class PayloadLogger {
+
+    /** Name of the logger full payloads are written to at DEBUG. */
+    public static final String LOGGER_NAME = "com.watabelabs.gepg.payload";
+
+    /**
+     * Default sample rate. The payload channel is off unless DEBUG is enabled
+     * for {@value #LOGGER_NAME}, and whoever enables it to follow a request
+     * needs every payload, so sampling is something to opt in to.
+     */
+    public static final int DEFAULT_SAMPLE_RATE = 1;
+
+    /** Most characters of an unreadable response logged at WARN. */
+    static final int MAX_UNREADABLE_CHARS = 4096;
+
+    private static final Logger PAYLOADS = LoggerFactory.getLogger(LOGGER_NAME);
+
+    private static final AtomicLong payloadCount = new AtomicLong();
+    private static volatile int sampleRate = DEFAULT_SAMPLE_RATE;
+
+    private PayloadLogger() {
+        // Private constructor to prevent instantiation
+    }
+
+    /**
+     * Sets how many payloads are seen for every one that is logged. The default
+     * of {@value #DEFAULT_SAMPLE_RATE} logs every payload while DEBUG is enabled
+     * for {@value #LOGGER_NAME}.
+     *
+     * @param sampleRate log one payload in this many, or 0 to log none
+     * @throws IllegalArgumentException if the rate is negative
+     */
+    public static void setSampleRate(int sampleRate) {
+        if (sampleRate < 0) {
+            throw new IllegalArgumentException("Sample rate cannot be negative: " + sampleRate);
+        }
+        PayloadLogger.sampleRate = sampleRate;
+    }
+
+    /**
+     * Returns how many payloads are seen for every one that is logged.
+     *
+     * @return the sample rate, 0 if no payloads are logged
+     */
+    public static int getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * Logs a summary of content that was just signed, and the signed payload if
+     * it is sampled.
+     *
+     * @param logger     the logger of the class that signed the content
+     * @param content    the content that was signed
+     * @param payload    the signed payload
+     * @param startNanos {@link System#nanoTime()} when signing started
+     */
+    public static void signed(Logger logger, Object content, String payload, long startNanos) {
+        if (logger.isInfoEnabled()) {
+            logger.info("PAYLOAD_SIGNED type={} billId={} controlNumber={} size={} elapsedMicros={}",
+                    content.getClass().getSimpleName(), billId(content), controlNumber(content), payload.length(),
+                    elapsedMicros(startNanos));
+        }
+        payload("PAYLOAD_SIGNED", content.getClass().getSimpleName(), payload);
+    }
+
+    /**
+     * Logs a summary of content that was just signed into bytes, and the signed
+     * payload if it is sampled. The payload is only decoded if it is logged.
+     *
+     * @param logger     the logger of the class that signed the content
+     * @param content    the content that was signed
+     * @param payload    the signed payload
+     * @param startNanos {@link System#nanoTime()} when signing started
+     */
+    public static void signed(Logger logger, Object content, SignedPayload payload, long startNanos) {
+        if (logger.isInfoEnabled()) {
+            logger.info("PAYLOAD_SIGNED type={} billId={} controlNumber={} size={} elapsedMicros={}",
+                    content.getClass().getSimpleName(), billId(content), controlNumber(content), payload.length(),
+                    elapsedMicros(startNanos));
+        }
+        payload("PAYLOAD_SIGNED", content.getClass().getSimpleName(), payload);
+    }
+
+    /**
+     * Logs a response as it was received from GePG, before it is parsed, if it
+     * is sampled.
+     *
+     * @param event    the name the response is logged under
+     * @param response the response
+     */
+    public static void received(String event, String response) {
+        payload(event, "received", response);
+    }
+
+    /**
+     * Logs a response that could not be read at WARN, with its body, so the
+     * failure can be diagnosed whatever the sample rate. Bodies longer than
+     * {@value #MAX_UNREADABLE_CHARS} characters are cut short.
+     *
+     * @param logger   the logger of the class that sent the request
+     * @param event    the name the response is logged under
+     * @param response the response
+     * @param error    why the response could not be read
+     */
+    public static void unreadable(Logger logger, String event, String response, Exception error) {
+        if (logger.isWarnEnabled()) {
+            logger.warn("{} unreadable size={}: {}", event, response == null ? 0 : response.length(), clip(response),
+                    error);
+        }
+    }
+
+    /**
+     * Logs a summary of a response received from GePG. The response itself
+     * is logged by {@link #received(String, String)} before it is parsed.
+     *
+     * @param logger     the logger of the class that sent the request
+     * @param event      the name the response is logged under
+     * @param statusCode the status code in the acknowledgement
+     * @param response   the response
+     * @param startNanos {@link System#nanoTime()} when the request was sent
+     */
+    public static void response(Logger logger, String event, int statusCode, String response, long startNanos) {
+        if (logger.isInfoEnabled()) {
+            logger.info("{} status={} size={} elapsedMicros={}", event, statusCode, response.length(),
+                    elapsedMicros(startNanos));
+        }
+    }
+
+    /**
+     * Logs a payload at DEBUG if the payload channel is enabled and this payload
+     * is sampled.
+     *
+     * @param event   the name the payload is logged under
+     * @param key     what the payload is about, for example a queue name
+     * @param payload the payload, turned into text only if it is logged
+     */
+    public static void payload(String event, Object key, Object payload) {
+        if (PAYLOADS.isDebugEnabled() && isSampled()) {
+            PAYLOADS.debug("{} {}: {}", event, key, payload);
+        }
+    }
+
+    /**
+     * Returns the microseconds elapsed since the given {@link System#nanoTime()}.
+     *
+     * @param startNanos the start time
+     * @return the elapsed microseconds
+     */
+    public static long elapsedMicros(long startNanos) {
+        return TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Returns a response cut short to {@value #MAX_UNREADABLE_CHARS} characters.
+     */
+    static String clip(String response) {
+        if (response == null || response.length() <= MAX_UNREADABLE_CHARS) {
+            return response;
+        }
+        return response.substring(0, MAX_UNREADABLE_CHARS) + "...";
+    }
+
+    /**
+     * Returns whether the next payload is logged under the sample rate.
+     */
+    static boolean isSampled() {
+        int rate = sampleRate;
+        return rate == 1 || (rate > 1 && payloadCount.getAndIncrement() % rate == 0);
+    }
+
+    /**
+     * Returns the service provider's bill id of known content, or null.
+     */
+    static String billId(Object content) {
+        if (content instanceof GepgBillSubReq) {
+            GepgBillTrxInf trxInf = ((GepgBillSubReq) content).getBillTrxInf();
+            return trxInf == null ? null : trxInf.getBillId();
+        }
+        if (content instanceof GepgBillControlNoReuse) {
+            GepgBillTrxInf trxInf = ((GepgBillControlNoReuse) content).getBillTrxInf();
+            return trxInf == null ? null : trxInf.getBillId();
+        }
+        if (content instanceof GepgBillSubResp) {
+            GepgBillSubResp.GepgBillTrxInf trxInf = ((GepgBillSubResp) content).getBillTrxInf();
+            return trxInf == null ? null : trxInf.getBillId();
+        }
+        if (content instanceof GepgPmtSpInfo) {
+            GepgPymtTrxInf trxInf = ((GepgPmtSpInfo) content).getPymtTrxInf();
+            return trxInf == null ? null : trxInf.getBillId();
+        }
+        if (content instanceof GepgBillCanclReq) {
+            // Only the first of the cancelled bills, the summary stays one line
+            List<String> billIds = ((GepgBillCanclReq) content).getBillIds();
+            return billIds == null || billIds.isEmpty() ? null : billIds.get(0);
+        }
+        return null;
+    }
+
+    /**
+     * Returns the control number of known content, or null.
+     */
+    static String controlNumber(Object content) {
+        if (content instanceof GepgBillSubReq) {
+            GepgBillTrxInf trxInf = ((GepgBillSubReq) content).getBillTrxInf();
+            return trxInf == null ? null : trxInf.getPayCntrNum();
+        }
+        if (content instanceof GepgBillControlNoReuse) {
+            GepgBillTrxInf trxInf = ((GepgBillControlNoReuse) content).getBillTrxInf();
+            return trxInf == null ? null : trxInf.getPayCntrNum();
+        }
+        if (content instanceof GepgBillSubResp) {
+            GepgBillSubResp.GepgBillTrxInf trxInf = ((GepgBillSubResp) content).getBillTrxInf();
+            return trxInf == null ? null : trxInf.getPayCntrNum();
+        }
+        if (content instanceof GepgPmtSpInfo) {
+            GepgPymtTrxInf trxInf = ((GepgPmtSpInfo) content).getPymtTrxInf();
+            return trxInf == null ? null : trxInf.getPayCtrNum();
+        }
+        return null;
+    }
+}
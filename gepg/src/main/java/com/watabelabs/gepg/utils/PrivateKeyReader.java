@@ -27,10 +27,8 @@ public class PrivateKeyReader {
      */
     public static PrivateKey get(String privateKeyPath, String keystoreType, String privateKeyPassword,
             String privateKeyAlias) {
-        try {
-            // Load the keystore file from the specified path
-            FileInputStream fileInputStream = new FileInputStream(privateKeyPath);
-
+        // Load the keystore file from the specified path
+        try (FileInputStream fileInputStream = new FileInputStream(privateKeyPath)) {
             // Create a KeyStore instance based on the specified keystore type
             KeyStore keyStore = KeyStore.getInstance(keystoreType);
 
@@ -36,13 +36,11 @@ public class PublicKeyReader {
      */
     public static PublicKey get(String publicKeyPath, String keystoreType, String publicKeyPassword,
             String publicKeyAlias) {
-        try {
+        // Load the keystore file from the specified path
+        try (FileInputStream fileInputStream = new FileInputStream(publicKeyPath)) {
             // Create a KeyStore instance based on the specified keystore type
             KeyStore keyStore = KeyStore.getInstance(keystoreType);
 
-            // Load the keystore file from the specified path
-            FileInputStream fileInputStream = new FileInputStream(publicKeyPath);
-
             // Load the keystore from the file input stream using the provided password
             keyStore.load(fileInputStream, publicKeyPassword.toCharArray());
 
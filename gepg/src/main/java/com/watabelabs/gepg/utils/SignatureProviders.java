@@ -0,0 +1,87 @@
+package com.watabelabs.gepg.utils;
+
+import java.security.Provider;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+
+/**
+ * Looks up the JCA {@link Provider} that signs and verifies GePG messages by
+ * name, so the provider can be chosen in configuration.
+ *
+ * <p>
+ * Any provider registered with {@link Security} can be named, for example
+ * {@code SunRsaSign} or a PKCS#11 provider set up in {@code java.security}.
+ * Bouncy Castle, which is a dependency of this library, can be named as
+ * {@value #BOUNCY_CASTLE} without being registered; one shared instance is
+ * created on first use and is not added to {@link Security}, so the providers
+ * the rest of the application sees are unchanged.
+ * </p>
+ *
+ * <pre>{@code
+ * GepgConfig config = GepgConfig.fromEnv().toBuilder()
+ *         .signatureProvider(SignatureProviders.BOUNCY_CASTLE)
+ *         .build();
+ * }</pre>
+ */
+public final class SignatureProviders {
+
+    /** Name of the Bouncy Castle provider. */
+    public static final String BOUNCY_CASTLE = BouncyCastleProvider.PROVIDER_NAME;
+
+    private SignatureProviders() {
+    }
+
+    /**
+     * Returns the provider with the given name.
+     *
+     * @param name the provider name, or null to use the JCA preference order
+     * @return the provider, or null if {@code name} is null or empty
+     * @throws IllegalArgumentException if no provider has that name
+     */
+    public static Provider resolve(String name) {
+        if (name == null || name.isEmpty()) {
+            return null;
+        }
+        Provider provider = Security.getProvider(name);
+        if (provider != null) {
+            return provider;
+        }
+        if (BOUNCY_CASTLE.equals(name)) {
+            return BouncyCastleHolder.PROVIDER;
+        }
+        throw new IllegalArgumentException("Unknown signature provider: " + name);
+    }
+
+    /**
+     * Returns every provider that implements a signature algorithm: the
+     * registered ones in preference order, then Bouncy Castle if it is not
+     * registered.
+     *
+     * @param algorithm the signature algorithm, for example {@code SHA1withRSA}
+     * @return the providers, possibly empty
+     */
+    public static List<Provider> supporting(String algorithm) {
+        List<Provider> providers = new ArrayList<>();
+        for (Provider provider : Security.getProviders()) {
+            if (provider.getService("Signature", algorithm) != null) {
+                providers.add(provider);
+            }
+        }
+        if (Security.getProvider(BOUNCY_CASTLE) == null
+                && BouncyCastleHolder.PROVIDER.getService("Signature", algorithm) != null) {
+            providers.add(BouncyCastleHolder.PROVIDER);
+        }
+        return providers;
+    }
+
+    /**
+     * Creates the Bouncy Castle provider on first use, since building its
+     * algorithm tables takes a while.
+     */
+    private static final class BouncyCastleHolder {
+        static final Provider PROVIDER = new BouncyCastleProvider();
+    }
+}
@@ -0,0 +1,117 @@
+package com.watabelabs.gepg.utils;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+
+import com.watabelabs.gepg.mappers.bill.acks.GepgBillSubResAck;
+import com.watabelabs.gepg.mappers.bill.acks.GepgBillSubRespAck;
+import com.watabelabs.gepg.mappers.payment.acks.GepgOlPmtNtfSpInfoAck;
+import com.watabelabs.gepg.mappers.payment.acks.GepgPmtSpInfoAck;
+import com.watabelabs.gepg.mappers.reconciliation.acks.GepgSpReconcRespAck;
+
+/**
+ * Signed acknowledgements ready to return to GePG, one per ack class and
+ * status code.
+ *
+ * <p>
+ * An acknowledgement only carries its status code, and RSA signatures are
+ * deterministic, so the signed payload for a given class and code never
+ * changes while the keys stay the same. Each payload is signed the first time
+ * it is asked for and then returned as is. Every entry records the
+ * {@link KeyStoreHolder#getGeneration() key generation} it was signed under
+ * and is signed again once the keys have been rotated.
+ * </p>
+ */
+public final class SignedAckCache {
+
+    /** Creates each ack class with a status code, without reflection. */
+    private static final Map<Class<?>, IntFunction<Object>> FACTORIES = createFactories();
+
+    private final Supplier<MessageUtil> messageUtil;
+    private final Map<Class<?>, Map<Integer, SignedAck>> acks = new ConcurrentHashMap<>();
+
+    /**
+     * Creates an empty cache.
+     *
+     * @param messageUtil supplies the message utility for the keys the acks are
+     *                    signed with
+     */
+    public SignedAckCache(Supplier<MessageUtil> messageUtil) {
+        this.messageUtil = messageUtil;
+    }
+
+    /**
+     * Returns whether acks of the given class can be created by this cache.
+     *
+     * @param ackClass the ack class
+     * @return true if the class is a GePG acknowledgement
+     */
+    public static boolean supports(Class<?> ackClass) {
+        return FACTORIES.containsKey(ackClass);
+    }
+
+    /**
+     * Returns the signed acknowledgement for a class and status code, signing it
+     * if it has not been signed under the current keys.
+     *
+     * @param ackClass   the ack class
+     * @param statusCode the status code, for example 7101
+     * @return the signed payload
+     * @throws IllegalArgumentException if the class is not a GePG
+     *                                  acknowledgement
+     * @throws Exception                if the ack cannot be signed
+     */
+    public String get(Class<?> ackClass, int statusCode) throws Exception {
+        IntFunction<Object> factory = FACTORIES.get(ackClass);
+        if (factory == null) {
+            throw new IllegalArgumentException("Unknown response class: " + ackClass.getSimpleName());
+        }
+        MessageUtil util = messageUtil.get();
+        KeyStoreHolder keys = util.getKeyStoreHolder();
+        // Loads the keys on first use, so the generation is known before signing
+        keys.getSignatureUtil();
+        long generation = keys.getGeneration();
+
+        Map<Integer, SignedAck> byCode = acks.computeIfAbsent(ackClass, ignored -> new ConcurrentHashMap<>());
+        SignedAck cached = byCode.get(statusCode);
+        if (cached != null && cached.generation == generation) {
+            return cached.payload;
+        }
+        // Tagged with the generation read before signing, so a rotation during
+        // signing only causes one more signature
+        SignedAck signed = new SignedAck(generation, util.signPayload(factory.apply(statusCode)));
+        byCode.put(statusCode, signed);
+        return signed.payload;
+    }
+
+    /**
+     * Drops every signed ack, so each one is signed again on next use.
+     */
+    public void invalidate() {
+        acks.clear();
+    }
+
+    private static Map<Class<?>, IntFunction<Object>> createFactories() {
+        Map<Class<?>, IntFunction<Object>> factories = new HashMap<>();
+        factories.put(GepgBillSubRespAck.class, GepgBillSubRespAck::new);
+        factories.put(GepgBillSubResAck.class, GepgBillSubResAck::new);
+        factories.put(GepgPmtSpInfoAck.class, GepgPmtSpInfoAck::new);
+        factories.put(GepgOlPmtNtfSpInfoAck.class, GepgOlPmtNtfSpInfoAck::new);
+        factories.put(GepgSpReconcRespAck.class, GepgSpReconcRespAck::new);
+        return Collections.unmodifiableMap(factories);
+    }
+
+    private static final class SignedAck {
+        private final long generation;
+        private final String payload;
+
+        private SignedAck(long generation, String payload) {
+            this.generation = generation;
+            this.payload = payload;
+        }
+    }
+}
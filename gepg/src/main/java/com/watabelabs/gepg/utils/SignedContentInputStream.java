@@ -0,0 +1,306 @@
+package com.watabelabs.gepg.utils;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.Signature;
+import java.security.SignatureException;
+import java.util.Arrays;
+import java.util.Base64;
+
+import com.watabelabs.gepg.metrics.GepgMetrics;
+import com.watabelabs.gepg.metrics.GepgMetricsRegistry;
+
+/**
+ * An input stream over a signed {@code <Gepg>} payload that feeds the content
+ * element into a {@link Signature} as it is read.
+ *
+ * <p>
+ * The signed bytes are the same ones {@link EnvelopeRange} finds in a payload
+ * held in memory: everything between the {@code <Gepg>} start tag and the
+ * last {@code <gepgSignature>} element, without the whitespace around it.
+ * The bytes are scanned as they pass, so the whole payload is never held at
+ * once. Every marker is ASCII, which UTF-8 never uses inside a multi-byte
+ * sequence.
+ * </p>
+ *
+ * <p>
+ * The bytes after a {@code <gepgSignature>} tag are held back from the
+ * verifier, and only passed on if another such tag follows, so the
+ * signature is checked over the content up to the last tag read.
+ * {@link #verify(String)} should therefore only be called once the stream
+ * has been read to the end of the document.
+ * </p>
+ */
+public class SignedContentInputStream extends FilterInputStream {
+
+    private static final byte[] ROOT = "<Gepg".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] SIGNATURE_START = "<gepgSignature>".getBytes(StandardCharsets.US_ASCII);
+
+    private enum State {
+        PROLOG, ROOT_TAG, CONTENT
+    }
+
+    private final Signature verifier;
+
+    // Bytes that may still turn out to be the whitespace and start tag before
+    // the signature, and where the tag starts in them
+    private byte[] held = new byte[64];
+    private int heldLength;
+    private int tagStart = -1;
+
+    // Everything read since the last signature tag, which is content after all
+    // if another signature tag follows
+    private byte[] pending = new byte[256];
+    private int pendingLength;
+    private boolean signatureSeen;
+
+    private State state = State.PROLOG;
+    private int rootMatched;
+    private boolean contentStarted;
+    private boolean contentWritten;
+
+    /**
+     * Creates a stream that feeds the content of the payload into a verifier.
+     *
+     * @param in       the signed payload
+     * @param verifier a signature initialized for verification
+     */
+    public SignedContentInputStream(InputStream in, Signature verifier) {
+        super(in);
+        this.verifier = verifier;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b >= 0) {
+            scan((byte) b);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        int read = super.read(buffer, offset, length);
+        int end = offset + Math.max(read, 0);
+        int i = offset;
+        while (i < end) {
+            if (state == State.CONTENT && contentStarted && heldLength == 0) {
+                // Text and names go to the verifier in runs rather than a byte at a time
+                int run = i;
+                while (run < end && buffer[run] != '<' && !isWhitespace(buffer[run])) {
+                    run++;
+                }
+                if (run > i) {
+                    update(buffer, i, run - i);
+                    i = run;
+                    continue;
+                }
+            }
+            scan(buffer[i++]);
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        // Skipped bytes would be missing from the signature
+        byte[] buffer = new byte[(int) Math.min(n, 8192)];
+        int read = read(buffer, 0, buffer.length);
+        return Math.max(read, 0);
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    /**
+     * Returns whether the stream has been read past the start of a signature
+     * element. The content is complete if that element is the last one.
+     *
+     * @return true if a signature element has been read
+     */
+    public boolean isContentComplete() {
+        return signatureSeen;
+    }
+
+    /**
+     * Checks the signature over the content read so far.
+     *
+     * @param signature the Base64-encoded signature from the payload
+     * @return true if the content is complete and the signature matches
+     */
+    public boolean verify(String signature) {
+        if (!isContentComplete() || !contentWritten || signature == null) {
+            return false;
+        }
+        // The content was hashed as it was read, so only the final check is timed
+        GepgMetrics metrics = GepgMetricsRegistry.get();
+        long start = metrics.isEnabled() ? System.nanoTime() : 0L;
+        boolean valid;
+        try {
+            valid = verifier.verify(Base64.getMimeDecoder().decode(signature));
+        } catch (SignatureException | IllegalArgumentException e) {
+            valid = false;
+        }
+        if (metrics.isEnabled()) {
+            metrics.verified(System.nanoTime() - start, valid);
+        }
+        return valid;
+    }
+
+    private void scan(byte b) {
+        switch (state) {
+            case PROLOG:
+                scanProlog(b);
+                break;
+            case ROOT_TAG:
+                if (b == '>') {
+                    state = State.CONTENT;
+                }
+                break;
+            case CONTENT:
+                scanContent(b);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void scanProlog(byte b) {
+        if (rootMatched == ROOT.length) {
+            // "<Gepg" must be followed by the end of the name
+            rootMatched = 0;
+            if (b == '>') {
+                state = State.CONTENT;
+                return;
+            }
+            if (isWhitespace(b)) {
+                state = State.ROOT_TAG;
+                return;
+            }
+        }
+        if (b == ROOT[rootMatched]) {
+            rootMatched++;
+        } else {
+            rootMatched = b == ROOT[0] ? 1 : 0;
+        }
+    }
+
+    private void scanContent(byte b) {
+        if (!contentStarted) {
+            if (isWhitespace(b)) {
+                return;
+            }
+            contentStarted = true;
+        }
+        if (heldLength == 0 && b != '<' && !isWhitespace(b)) {
+            update(b);
+            return;
+        }
+
+        if (tagStart < 0) {
+            // Only whitespace held so far
+            if (isWhitespace(b)) {
+                hold(b);
+            } else if (b == '<') {
+                tagStart = heldLength;
+                hold(b);
+            } else {
+                release();
+                update(b);
+            }
+            return;
+        }
+
+        int matched = heldLength - tagStart;
+        if (b == SIGNATURE_START[matched]) {
+            hold(b);
+            if (matched + 1 == SIGNATURE_START.length) {
+                signatureFound();
+            }
+            return;
+        }
+
+        // Not the signature after all, and this byte may start the whitespace
+        // or tag before it
+        release();
+        scanContent(b);
+    }
+
+    /**
+     * Passes whatever followed the previous signature tag to the verifier, and
+     * holds back the whitespace and tag just matched.
+     */
+    private void signatureFound() {
+        if (signatureSeen) {
+            signatureSeen = false;
+            update(pending, 0, pendingLength);
+        }
+        pendingLength = 0;
+        signatureSeen = true;
+        update(held, 0, heldLength);
+        heldLength = 0;
+        tagStart = -1;
+    }
+
+    private void hold(byte b) {
+        if (heldLength == held.length) {
+            held = Arrays.copyOf(held, held.length * 2);
+        }
+        held[heldLength++] = b;
+    }
+
+    private void release() {
+        update(held, 0, heldLength);
+        heldLength = 0;
+        tagStart = -1;
+    }
+
+    private void update(byte b) {
+        if (signatureSeen) {
+            if (pendingLength == pending.length) {
+                pending = Arrays.copyOf(pending, pending.length * 2);
+            }
+            pending[pendingLength++] = b;
+            return;
+        }
+        try {
+            verifier.update(b);
+            contentWritten = true;
+        } catch (SignatureException e) {
+            throw new IllegalStateException("Verifier is not initialized", e);
+        }
+    }
+
+    private void update(byte[] bytes, int offset, int length) {
+        if (length == 0) {
+            return;
+        }
+        if (signatureSeen) {
+            keep(bytes, offset, length);
+            return;
+        }
+        try {
+            verifier.update(bytes, offset, length);
+            contentWritten = true;
+        } catch (SignatureException e) {
+            throw new IllegalStateException("Verifier is not initialized", e);
+        }
+    }
+
+    private void keep(byte[] bytes, int offset, int length) {
+        if (pendingLength + length > pending.length) {
+            pending = Arrays.copyOf(pending, Math.max(pending.length * 2, pendingLength + length));
+        }
+        System.arraycopy(bytes, offset, pending, pendingLength, length);
+        pendingLength += length;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == '\r';
+    }
+}
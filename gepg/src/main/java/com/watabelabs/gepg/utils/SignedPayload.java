@@ -0,0 +1,99 @@
+package com.watabelabs.gepg.utils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+
+/**
+ * A signed GePG payload held as the UTF-8 bytes that are sent, together with
+ * its signature.
+ *
+ * <p>
+ * The content is serialized and signed straight into bytes, and the same
+ * array is used as the HTTP request body and the AMQP message body, so a
+ * payload is encoded once however it is delivered. The String form is only
+ * built if {@link #toString()} is called, for example when the payload is
+ * logged.
+ * </p>
+ *
+ * <p>
+ * Example usage:
+ * </p>
+ *
+ * <pre>{@code
+ * SignedPayload payload = client.generateSignedPayload(bill);
+ * GepgBillSubReqAck ack = client.submitBill(payload);
+ * }</pre>
+ */
+public final class SignedPayload {
+
+    private final byte[] bytes;
+    private final String signature;
+    private volatile String string;
+
+    /**
+     * Creates a payload. The array is not copied and must not be changed
+     * afterwards.
+     *
+     * @param bytes     the signed XML, encoded as UTF-8
+     * @param signature the Base64-encoded signature inside it
+     */
+    public SignedPayload(byte[] bytes, String signature) {
+        this.bytes = Objects.requireNonNull(bytes, "bytes");
+        this.signature = signature;
+    }
+
+    /**
+     * Returns the signed XML encoded as UTF-8. The array is not copied and must
+     * not be changed.
+     *
+     * @return the payload bytes
+     */
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Returns the number of bytes in the payload.
+     *
+     * @return the payload length
+     */
+    public int length() {
+        return bytes.length;
+    }
+
+    /**
+     * Returns the Base64-encoded signature inside the payload.
+     *
+     * @return the signature
+     */
+    public String getSignature() {
+        return signature;
+    }
+
+    /**
+     * Writes the payload bytes to a stream.
+     *
+     * @param out the stream
+     * @throws IOException if the stream cannot be written
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(bytes);
+    }
+
+    /**
+     * Returns the signed XML as a String, decoded on the first call.
+     *
+     * @return the signed XML
+     */
+    @Override
+    public String toString() {
+        String value = string;
+        if (value == null) {
+            value = new String(bytes, StandardCharsets.UTF_8);
+            string = value;
+        }
+        return value;
+    }
+}
@@ -0,0 +1,187 @@
+package com.watabelabs.gepg.utils;
+
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * {@link Writer} that encodes what it is given as UTF-8 into a growing byte
+ * array, so XML written as characters ends up as the bytes that are signed and
+ * sent without an intermediate String.
+ *
+ * <p>
+ * The bytes are the same as {@code String.getBytes(StandardCharsets.UTF_8)}
+ * gives for the same characters: a surrogate pair may be split across two
+ * writes, and a surrogate without its pair is written as {@code '?'}. Not
+ * thread-safe.
+ * </p>
+ */
+final class Utf8Writer extends Writer {
+
+    private byte[] buffer;
+    private int size;
+    // A high surrogate waiting for the low surrogate of the next write, or 0
+    private char pendingHighSurrogate;
+
+    /**
+     * Creates a writer.
+     *
+     * @param initialCapacity the number of bytes to allocate up front
+     */
+    Utf8Writer(int initialCapacity) {
+        this.buffer = new byte[Math.max(16, initialCapacity)];
+    }
+
+    /**
+     * Returns the number of bytes {@code value} takes in UTF-8.
+     *
+     * @param value the characters
+     * @return the encoded length
+     */
+    static int encodedLength(CharSequence value) {
+        int length = value.length();
+        int bytes = length;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x800) {
+                if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    // Two chars, four bytes
+                    bytes += 2;
+                    i++;
+                } else if (!Character.isSurrogate(c)) {
+                    bytes += 2;
+                }
+            } else if (c >= 0x80) {
+                bytes++;
+            }
+        }
+        return bytes;
+    }
+
+    @Override
+    public void write(int c) {
+        writeChar((char) c);
+    }
+
+    @Override
+    public void write(char[] chars, int offset, int length) {
+        ensureCapacity(length);
+        for (int i = offset; i < offset + length; i++) {
+            writeChar(chars[i]);
+        }
+    }
+
+    @Override
+    public void write(String value, int offset, int length) {
+        ensureCapacity(length);
+        for (int i = offset; i < offset + length; i++) {
+            writeChar(value.charAt(i));
+        }
+    }
+
+    /**
+     * Appends bytes that are already encoded.
+     *
+     * @param bytes the bytes
+     */
+    void writeBytes(byte[] bytes) {
+        flushPendingSurrogate();
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buffer, size, bytes.length);
+        size += bytes.length;
+    }
+
+    /**
+     * Returns the buffer holding the bytes written so far, which is valid up to
+     * {@link #size()}.
+     *
+     * @return the buffer, not a copy
+     */
+    byte[] buffer() {
+        flushPendingSurrogate();
+        return buffer;
+    }
+
+    /**
+     * Returns the number of bytes written.
+     *
+     * @return the size
+     */
+    int size() {
+        flushPendingSurrogate();
+        return size;
+    }
+
+    /**
+     * Returns the bytes written, without copying them if the buffer is exactly
+     * full.
+     *
+     * @return the bytes
+     */
+    byte[] toByteArray() {
+        flushPendingSurrogate();
+        return size == buffer.length ? buffer : Arrays.copyOf(buffer, size);
+    }
+
+    @Override
+    public void flush() {
+        // Nothing is buffered outside the array
+    }
+
+    @Override
+    public void close() {
+        flushPendingSurrogate();
+    }
+
+    private void writeChar(char c) {
+        if (pendingHighSurrogate != 0) {
+            char high = pendingHighSurrogate;
+            pendingHighSurrogate = 0;
+            if (Character.isLowSurrogate(c)) {
+                int codePoint = Character.toCodePoint(high, c);
+                ensureCapacity(4);
+                buffer[size++] = (byte) (0xF0 | (codePoint >> 18));
+                buffer[size++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                buffer[size++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                buffer[size++] = (byte) (0x80 | (codePoint & 0x3F));
+                return;
+            }
+            writeByte('?');
+        }
+
+        if (c < 0x80) {
+            ensureCapacity(1);
+            buffer[size++] = (byte) c;
+        } else if (c < 0x800) {
+            ensureCapacity(2);
+            buffer[size++] = (byte) (0xC0 | (c >> 6));
+            buffer[size++] = (byte) (0x80 | (c & 0x3F));
+        } else if (Character.isHighSurrogate(c)) {
+            pendingHighSurrogate = c;
+        } else if (Character.isLowSurrogate(c)) {
+            writeByte('?');
+        } else {
+            ensureCapacity(3);
+            buffer[size++] = (byte) (0xE0 | (c >> 12));
+            buffer[size++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+            buffer[size++] = (byte) (0x80 | (c & 0x3F));
+        }
+    }
+
+    private void flushPendingSurrogate() {
+        if (pendingHighSurrogate != 0) {
+            pendingHighSurrogate = 0;
+            writeByte('?');
+        }
+    }
+
+    private void writeByte(int b) {
+        ensureCapacity(1);
+        buffer[size++] = (byte) b;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (size + extra > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + extra));
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.watabelabs.gepg.utils;
+
+/**
+ * Result of verifying a signed GePG payload: the unmarshalled content together
+ * with the outcome of the signature check.
+ *
+ * <p>
+ * The content is returned even when the signature does not match, so callers
+ * can log what was received. Always check {@link #isValid()} before acting on
+ * it.
+ * </p>
+ *
+ * @param <T> the type of the content
+ */
+public final class VerifiedMessage<T> {
+
+    private final T content;
+    private final String signature;
+    private final boolean valid;
+
+    /**
+     * Creates a verification result.
+     *
+     * @param content   the unmarshalled content
+     * @param signature the Base64-encoded signature found in the payload
+     * @param valid     whether the signature matches the content
+     */
+    public VerifiedMessage(T content, String signature, boolean valid) {
+        this.content = content;
+        this.signature = signature;
+        this.valid = valid;
+    }
+
+    /**
+     * Returns the unmarshalled content.
+     *
+     * @return the content
+     */
+    public T getContent() {
+        return content;
+    }
+
+    /**
+     * Returns the Base64-encoded signature found in the payload.
+     *
+     * @return the signature
+     */
+    public String getSignature() {
+        return signature;
+    }
+
+    /**
+     * Returns whether the signature matches the content.
+     *
+     * @return true if the signature is valid, false otherwise
+     */
+    public boolean isValid() {
+        return valid;
+    }
+
+    @Override
+    public String toString() {
+        return "VerifiedMessage{" +
+                "content=" + content +
+                ", valid=" + valid +
+                '}';
+    }
+}
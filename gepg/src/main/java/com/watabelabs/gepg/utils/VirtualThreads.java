@@ -0,0 +1,132 @@
+package com.watabelabs.gepg.utils;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Creates executors backed by virtual threads when the library runs on JDK 21
+ * or later.
+ *
+ * <p>
+ * The library is compiled for Java 11, so the virtual thread API is looked up
+ * reflectively once, when this class is loaded. On older JDKs
+ * {@link #isAvailable()} returns false and {@link #blockingExecutor()} falls
+ * back to the common pool, which is what blocking work ran on before.
+ * </p>
+ *
+ * <p>
+ * Virtual threads suit the blocking paths: {@code submitBill} and the other
+ * blocking submit methods wait on the network and sleep between retries, and
+ * a virtual thread gives up its carrier thread while it waits. Signing is
+ * CPU-bound and gains nothing from them.
+ * </p>
+ */
+public final class VirtualThreads {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(VirtualThreads.class);
+
+    /** Creates a named virtual thread factory, or null before JDK 21. */
+    private static final MethodHandle FACTORY = lookupFactory();
+
+    /** Creates a thread-per-task executor, or null before JDK 21. */
+    private static final MethodHandle PER_TASK_EXECUTOR = lookupPerTaskExecutor();
+
+    private VirtualThreads() {
+    }
+
+    /**
+     * Returns whether virtual threads are available in this JVM.
+     *
+     * @return true on JDK 21 or later
+     */
+    public static boolean isAvailable() {
+        return FACTORY != null && PER_TASK_EXECUTOR != null;
+    }
+
+    /**
+     * Creates an executor that starts a new virtual thread for each task.
+     * Threads are named with the prefix and a counter.
+     *
+     * @param namePrefix the prefix of the thread names
+     * @return the executor; shut it down when it is no longer needed
+     * @throws UnsupportedOperationException if virtual threads are not
+     *                                       available
+     */
+    public static ExecutorService newExecutor(String namePrefix) {
+        if (!isAvailable()) {
+            throw new UnsupportedOperationException(
+                    "Virtual threads need JDK 21 or later, running on " + System.getProperty("java.version"));
+        }
+        try {
+            ThreadFactory factory = (ThreadFactory) FACTORY.invoke(namePrefix);
+            return (ExecutorService) PER_TASK_EXECUTOR.invoke(factory);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException("Failed to create a virtual thread executor", e);
+        }
+    }
+
+    /**
+     * Returns the shared executor for work that blocks on I/O: one virtual
+     * thread per task when available, the common pool otherwise.
+     *
+     * @return the shared blocking executor
+     */
+    public static Executor blockingExecutor() {
+        return BlockingHolder.EXECUTOR;
+    }
+
+    private static MethodHandle lookupFactory() {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            Class<?> ofVirtual = Class.forName("java.lang.Thread$Builder$OfVirtual");
+            MethodHandle newBuilder = lookup.findStatic(Thread.class, "ofVirtual", MethodType.methodType(ofVirtual));
+            MethodHandle name = lookup.findVirtual(ofVirtual, "name",
+                    MethodType.methodType(ofVirtual, String.class, long.class));
+            MethodHandle factory = lookup.findVirtual(builder, "factory", MethodType.methodType(ThreadFactory.class));
+            // (String prefix) -> Thread.ofVirtual().name(prefix, 0).factory()
+            MethodHandle named = MethodHandles.insertArguments(
+                    MethodHandles.collectArguments(name, 0, newBuilder), 1, 0L);
+            return MethodHandles.filterReturnValue(named, factory.asType(MethodType.methodType(
+                    ThreadFactory.class, ofVirtual)));
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    private static MethodHandle lookupPerTaskExecutor() {
+        try {
+            return MethodHandles.publicLookup().findStatic(Executors.class,
+                    "newThreadPerTaskExecutor", MethodType.methodType(ExecutorService.class, ThreadFactory.class));
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Creates the shared executor on first use. Its virtual threads end with
+     * their tasks, so it is never shut down.
+     */
+    private static final class BlockingHolder {
+        private static final Executor EXECUTOR = create();
+
+        private static Executor create() {
+            if (isAvailable()) {
+                LOGGER.info("VIRTUAL_THREADS_ENABLED for blocking GePG calls");
+                return newExecutor("gepg-blocking-");
+            }
+            return ForkJoinPool.commonPool();
+        }
+    }
+}
@@ -2,6 +2,7 @@ package com.watabelabs.gepg.utils;
 
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.io.Writer;
 
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
@@ -22,7 +23,8 @@ import org.w3c.dom.Document;
 import org.w3c.dom.Node;
 import org.xml.sax.InputSource;
 
-import com.sun.xml.bind.marshaller.CharacterEscapeHandler;
+import com.watabelabs.gepg.metrics.GepgMetrics;
+import com.watabelabs.gepg.metrics.GepgMetricsRegistry;
 
 /**
  * Utility class for converting Java objects to XML strings using JAXB
@@ -47,11 +49,13 @@ public class XmlUtil {
      */
     public static String convertToXmlString(Object object) throws Exception {
         String xmlContent = null;
+        GepgMetrics metrics = GepgMetricsRegistry.get();
+        long start = metrics.isEnabled() ? System.nanoTime() : 0L;
         try {
-            // Create JAXB Context
-            JAXBContext jaxbContext = JAXBContext.newInstance(object.getClass());
-            // Create Marshaller
-            Marshaller jaxbMarshaller = jaxbContext.createMarshaller();
+            // Get the shared JAXB Context
+            JAXBContext jaxbContext = JaxbContextRegistry.getContext(object.getClass());
+            // Borrow a pooled Marshaller
+            Marshaller jaxbMarshaller = JaxbContextRegistry.borrowMarshaller(jaxbContext);
             jaxbMarshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, Boolean.TRUE);
             jaxbMarshaller.setProperty(Marshaller.JAXB_ENCODING, "UTF-8");
             jaxbMarshaller.setProperty(Marshaller.JAXB_FRAGMENT, false);
@@ -59,8 +63,12 @@ public class XmlUtil {
             // Write XML to StringWriter
             StringWriter sw = new StringWriter();
             jaxbMarshaller.marshal(object, sw);
+            JaxbContextRegistry.release(jaxbContext, jaxbMarshaller);
             // Verify XML Content
             xmlContent = sw.toString();
+            if (metrics.isEnabled()) {
+                metrics.marshalled(object.getClass(), System.nanoTime() - start);
+            }
         } catch (JAXBException e) {
             e.printStackTrace();
             throw new Exception("Error converting object to XML string", e);
@@ -86,38 +94,38 @@ public class XmlUtil {
      * }</pre>
      */
     public static String convertToXmlStringWithoutDeclaration(Object object) throws Exception {
-        // Create a new instance of DocumentBuilderFactory
-        DocumentBuilderFactory docFactory = DocumentBuilderFactory.newInstance();
-        // Create a new DocumentBuilder
-        DocumentBuilder docBuilder = docFactory.newDocumentBuilder();
-        // Create a new Document
-        Document doc = docBuilder.newDocument();
-
-        // Create a JAXB context for the object's class
-        JAXBContext context = JAXBContext.newInstance(object.getClass());
-        // Create a Marshaller
-        Marshaller marshaller = context.createMarshaller();
-        // Set Marshaller properties
-        marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, Boolean.TRUE);
-        marshaller.setProperty(Marshaller.JAXB_FRAGMENT, Boolean.TRUE);
-        // Prevent JAXB from escaping characters
-        marshaller.setProperty("com.sun.xml.bind.characterEscapeHandler",
-                (CharacterEscapeHandler) (ch, start, length, isAttVal, writer) -> writer.write(ch, start, length));
-
-        // Marshal the object to the Document
-        marshaller.marshal(object, doc);
-
-        // Create a TransformerFactory
-        TransformerFactory tf = TransformerFactory.newInstance();
-        // Create a Transformer
-        Transformer transformer = tf.newTransformer();
-        // Create a StringWriter
         StringWriter writer = new StringWriter();
-        // Transform the Document to a string
-        transformer.transform(new DOMSource(doc), new StreamResult(writer));
+        marshalCanonical(object, writer, null);
+        return writer.toString();
+    }
 
-        // Return the transformed XML string
-        return sanitizeRequest(writer.toString());
+    /**
+     * Marshals a JAXB-annotated object into its canonical form in a single pass,
+     * and optionally into the form it takes inside a signed {@link Envelope}.
+     *
+     * @param object      the JAXB-annotated object to convert
+     * @param out         where the canonical form is written
+     * @param envelopeOut where the Envelope form is written, or null
+     * @throws JAXBException if an error occurs during marshalling
+     */
+    static void marshalCanonical(Object object, Writer out, Writer envelopeOut) throws JAXBException {
+        GepgMetrics metrics = GepgMetricsRegistry.get();
+        long start = metrics.isEnabled() ? System.nanoTime() : 0L;
+
+        // Get the shared JAXB context and borrow a pooled Marshaller
+        JAXBContext context = JaxbContextRegistry.getContext(object.getClass());
+        Marshaller marshaller = JaxbContextRegistry.borrowMarshaller(context);
+        marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, Boolean.FALSE);
+        marshaller.setProperty(Marshaller.JAXB_FRAGMENT, Boolean.TRUE);
+
+        // Stream straight into the canonical form, the writer does the escaping and
+        // drops the declaration, so no DOM or Transformer round trip is needed
+        marshaller.marshal(object, new CanonicalXmlWriter(out, envelopeOut));
+        JaxbContextRegistry.release(context, marshaller);
+
+        if (metrics.isEnabled()) {
+            metrics.marshalled(object.getClass(), System.nanoTime() - start);
+        }
     }
 
     /**
@@ -152,34 +160,92 @@ public class XmlUtil {
     /**
      * Escapes special characters in the provided XML string.
      *
+     * <p>
+     * Pre-escaped entities are unescaped, whitespace between tags is removed and
+     * the result is trimmed. This is done in a single scan and gives the same
+     * result as unescaping with {@code String.replace} and then collapsing with
+     * the {@code >\s+<} regex.
+     * </p>
+     *
      * @param xmlString The XML string to be escaped.
      * @return The escaped XML string.
      */
-
     public static String escapeCharacter(String xmlString) {
-        // Unescape any pre-escaped characters first
-        String unescapedString = htmlUnescape(xmlString);
+        int length = xmlString.length();
+        StringBuilder result = new StringBuilder(length);
+        // Start of a whitespace run that directly follows '>', or -1
+        int collapsibleFrom = -1;
+
+        int i = 0;
+        while (i < length) {
+            char c = xmlString.charAt(i);
+            int next = i + 1;
+            if (c == '&') {
+                // "&amp;" is unescaped before the other entities, so the '&' it
+                // produces can start one of them, as in "&amp;lt;"
+                int nameStart = xmlString.startsWith("amp;", next) ? i + 5 : next;
+                char unescaped = unescapeEntity(xmlString, nameStart);
+                if (unescaped != 0) {
+                    c = unescaped;
+                    next = xmlString.indexOf(';', nameStart) + 1;
+                } else {
+                    next = nameStart;
+                }
+            }
 
-        // Remove newlines and spaces between tags but keep the inner spaces
-        String compressedString = unescapedString.replaceAll(">\\s+<", "><").trim();
+            // Remove newlines and spaces between tags but keep the inner spaces
+            if (isWhitespace(c)) {
+                if (collapsibleFrom < 0 && result.length() > 0 && result.charAt(result.length() - 1) == '>') {
+                    collapsibleFrom = result.length();
+                }
+            } else {
+                if (c == '<' && collapsibleFrom >= 0) {
+                    result.setLength(collapsibleFrom);
+                }
+                collapsibleFrom = -1;
+            }
+            result.append(c);
+            i = next;
+        }
 
-        return compressedString;
+        // Same as String.trim()
+        int start = 0;
+        int end = result.length();
+        while (start < end && result.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && result.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        return result.substring(start, end);
     }
 
     /**
-     * Unescapes special characters in the provided XML string.
+     * Returns the character for the entity whose name starts at the given index,
+     * or 0 if there is none. Only the entities GePG messages are known to carry
+     * are recognised.
      *
-     * @param xmlString The XML string to be unescaped.
-     * @return The unescaped XML string.
+     * @param xmlString the XML string
+     * @param nameStart the index just after the '&amp;'
+     * @return the unescaped character, or 0
      */
-    private static String htmlUnescape(String xmlString) {
-        return xmlString
-                .replace("&amp;", "&")
-                .replace("&apos;", "'")
-                .replace("&Ouml;", "Ö")
-                .replace("&quot;", "\"")
-                .replace("&lt;", "<")
-                .replace("&gt;", ">");
+    private static char unescapeEntity(String xmlString, int nameStart) {
+        if (xmlString.startsWith("apos;", nameStart)) {
+            return '\'';
+        } else if (xmlString.startsWith("Ouml;", nameStart)) {
+            return 'Ö';
+        } else if (xmlString.startsWith("quot;", nameStart)) {
+            return '"';
+        } else if (xmlString.startsWith("lt;", nameStart)) {
+            return '<';
+        } else if (xmlString.startsWith("gt;", nameStart)) {
+            return '>';
+        }
+        return 0;
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == 0x0B || c == '\f' || c == '\r';
     }
 
     /**
@@ -1,18 +1,36 @@
 package com.watabelabs.gepg;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.validation.ValidationException;
+import javax.xml.bind.UnmarshalException;
 
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.watabelabs.gepg.batch.BillBatchResult;
+import com.watabelabs.gepg.config.GepgConfig;
+import com.watabelabs.gepg.http.GepgHttpException;
+import com.watabelabs.gepg.mappers.bill.acks.GepgBillSubReqAck;
+import com.watabelabs.gepg.mappers.bill.requests.GepgBillCanclReq;
 import com.watabelabs.gepg.mappers.bill.requests.GepgBillHdr;
 import com.watabelabs.gepg.mappers.bill.requests.GepgBillItem;
 import com.watabelabs.gepg.mappers.bill.requests.GepgBillSubReq;
 import com.watabelabs.gepg.mappers.bill.requests.GepgBillTrxInf;
+import com.watabelabs.gepg.utils.SignedPayload;
 
 import io.github.cdimascio.dotenv.Dotenv;
 
@@ -106,6 +124,121 @@ class GepgApiClientTest {
         assertTrue(payload.contains("<gepgSignature>"));
     }
 
+    @Test
+    public void testSubmitBillGoesThroughTheHttpTransport() throws Exception {
+        GepgApiClient client = new GepgApiClient();
+        client.setApiUrl("http://gepg.test");
+        String ack = client.generatePayload(new GepgBillSubReqAck(7101));
+        Map<String, String> sent = new HashMap<>();
+
+        client.setHttpTransport((url, body, headers) -> {
+            sent.putAll(headers);
+            sent.put("url", url);
+            sent.put("body", new String(body, StandardCharsets.UTF_8));
+            return ack;
+        });
+
+        String payload = client.generatePayload(createActualBillWithValidSpCode());
+        GepgBillSubReqAck response = client.submitBill(payload);
+
+        assertEquals(7101, response.getTrxStsCode());
+        assertEquals("http://gepg.test/api/bill/sigqrequest", sent.get("url"));
+        assertEquals("default.sp.in", sent.get("Gepg-Com"));
+        assertEquals(getEnvVariable("GEPG_CODE"), sent.get("Gepg-Code"));
+        assertEquals(payload, sent.get("body"));
+    }
+
+    @Test
+    public void testSubmitBillAsyncRetriesTimedOutRequests() throws Exception {
+        GepgApiClient client = new GepgApiClient();
+        String ack = client.generatePayload(new GepgBillSubReqAck(7101));
+        AtomicInteger attempts = new AtomicInteger();
+
+        client.setHttpTransport((url, body, headers) -> {
+            if (attempts.incrementAndGet() == 1) {
+                throw new SocketTimeoutException("Read timed out");
+            }
+            return ack;
+        });
+
+        GepgBillSubReqAck response = client.generatePayloadAsync(createActualBillWithValidSpCode())
+                .thenCompose(client::submitBillAsync)
+                .get();
+
+        assertEquals(7101, response.getTrxStsCode());
+        assertEquals(2, attempts.get());
+    }
+
+    @Test
+    public void testSignedPayloadIsSentAsItIs() throws Exception {
+        GepgApiClient client = new GepgApiClient();
+        String ack = client.generatePayload(new GepgBillSubReqAck(7101));
+        SignedPayload payload = client.generateSignedPayload(new GepgBillCanclReq(getEnvVariable("SP_CODE"),
+                getEnvVariable("SYSTEM_ID"), "Duplicate", Arrays.asList("bill-1")));
+        List<byte[]> bodies = new ArrayList<>();
+        client.setHttpTransport((url, body, headers) -> {
+            bodies.add(body);
+            return ack;
+        });
+
+        assertEquals(7101, client.cancelBill(payload).getTrxStsCode());
+        assertEquals(7101, client.cancelBillAsync(payload).get().getTrxStsCode());
+        assertTrue(Arrays.equals(payload.getBytes(), bodies.get(0)));
+        assertTrue(Arrays.equals(payload.getBytes(), bodies.get(1)));
+    }
+
+    @Test
+    public void testKeystoresAreCheckedWhenFirstUsed() throws Exception {
+        GepgConfig config = GepgConfig.fromEnv().toBuilder()
+                .privateKeystore("/nonexistent/private.pfx", "secret", "gepgclient")
+                .build();
+        GepgApiClient client = new GepgApiClient(config);
+
+        RuntimeException e = assertThrows(RuntimeException.class,
+                () -> client.generatePayload(new GepgBillSubReqAck(7101)));
+        assertTrue(e.getMessage().contains("/nonexistent/private.pfx"), e.getMessage());
+    }
+
+    @Test
+    public void testUnreadableResponsesAreRejected() throws Exception {
+        GepgApiClient client = new GepgApiClient();
+
+        client.setHttpTransport((url, body, headers) -> "502 Bad Gateway");
+        assertThrows(UnmarshalException.class, () -> client.submitBill("<Gepg/>"));
+
+        client.setHttpTransport((url, body, headers) -> "<Gepg></Gepg>");
+        assertThrows(ValidationException.class, () -> client.submitBill("<Gepg/>"));
+    }
+
+    @Test
+    public void testSubmitBillBatchReportsEveryBill() throws Exception {
+        GepgApiClient client = new GepgApiClient();
+        String ack = client.generatePayload(new GepgBillSubReqAck(7101));
+
+        // The server rejects the bill with id "bill-2"
+        client.setHttpTransport((url, body, headers) -> {
+            if (new String(body, StandardCharsets.UTF_8).contains("<BillId>bill-2</BillId>")) {
+                throw new GepgHttpException(500, url);
+            }
+            return ack;
+        });
+
+        List<GepgBillSubReq> bills = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            GepgBillSubReq bill = createActualBillWithValidSpCode();
+            bill.getBillTrxInf().setBillId("bill-" + i);
+            bills.add(bill);
+        }
+
+        BillBatchResult batch = client.submitBillBatch(bills, 2);
+
+        assertEquals(4, batch.getSucceeded());
+        assertEquals(1, batch.getFailed());
+        assertEquals("bill-2", batch.getResults().get(2).getBillId());
+        assertTrue(batch.getResults().get(2).getError() instanceof GepgHttpException);
+        assertEquals(7101, batch.getResults().get(4).getAck().getTrxStsCode());
+    }
+
     private GepgBillSubReq createActualBillWithValidSpCode() {
 
         String spCode = getEnvVariable("SP_CODE");
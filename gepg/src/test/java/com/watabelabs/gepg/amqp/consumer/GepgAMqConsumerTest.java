@@ -0,0 +1,250 @@
+package com.watabelabs.gepg.amqp.consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.jupiter.api.Test;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.CancelCallback;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+import com.rabbitmq.client.DeliverCallback;
+import com.rabbitmq.client.Delivery;
+import com.rabbitmq.client.Envelope;
+import com.watabelabs.gepg.GepgApiClient;
+import com.watabelabs.gepg.amqp.headers.GepgQueueHeaders;
+import com.watabelabs.gepg.amqp.queues.GepgAMqQueues;
+import com.watabelabs.gepg.mappers.bill.acks.GepgBillSubReqAck;
+
+public class GepgAMqConsumerTest {
+
+    @Test
+    public void testMessagesAreRoutedToTheClientAndAckedAfterTheGepgAck() throws Exception {
+        GepgApiClient client = new GepgApiClient();
+        String ack = client.generatePayload(new GepgBillSubReqAck(7101));
+        List<String> urls = new CopyOnWriteArrayList<>();
+        client.setHttpTransport((url, body, headers) -> {
+            urls.add(url);
+            return ack;
+        });
+
+        FakeBroker broker = new FakeBroker();
+        GepgAMqConsumer consumer = new GepgAMqConsumer(client, broker.factory(), 5);
+        consumer.start();
+
+        FakeChannel bills = broker.channel(GepgAMqQueues.BILL_SUBMISSION_QUEUE);
+        bills.deliver(1, GepgQueueHeaders.BILL_SUBMISSION_HEADER, "<bill/>", false);
+        // Published with a trailing space in the header value
+        bills.deliver(2, GepgQueueHeaders.BILL_CANCELLATION_HEADER, "<cancel/>", false);
+        consumer.close();
+
+        verify(bills.channel).basicAck(1L, false);
+        verify(bills.channel).basicAck(2L, false);
+        assertTrue(urls.stream().anyMatch(url -> url.endsWith("/api/bill/sigqrequest")));
+        assertTrue(urls.stream().anyMatch(url -> url.endsWith("/api/bill/sigcancel_request")), urls.toString());
+    }
+
+    @Test
+    public void testEveryQueueIsConsumedWithManualAckAndPrefetch() throws Exception {
+        FakeBroker broker = new FakeBroker();
+        GepgAMqConsumer consumer = new GepgAMqConsumer(new GepgApiClient(), broker.factory(), 7);
+
+        consumer.start();
+
+        assertEquals(3, broker.created.size());
+        for (FakeChannel channel : broker.created) {
+            verify(channel.channel).queueDeclare(channel.consumedQueue, true, false, false, null);
+            verify(channel.channel).basicQos(7);
+            verify(channel.channel).basicConsume(eq(channel.consumedQueue), eq(false), any(DeliverCallback.class),
+                    any(CancelCallback.class));
+        }
+        assertNotNull(broker.channel(GepgAMqQueues.RECONCILIATION_SUBMISSION_QUEUE));
+    }
+
+    @Test
+    public void testMessageIsAckedOnlyWhenTheHandlerCompletes() throws Exception {
+        FakeBroker broker = new FakeBroker();
+        GepgAMqConsumer consumer = new GepgAMqConsumer(new GepgApiClient(), broker.factory(), 5);
+        CompletableFuture<String> gepgAck = new CompletableFuture<>();
+        consumer.setHandler(GepgQueueHeaders.PAYMENT_SUBMISSION_HEADER, message -> gepgAck);
+        consumer.start(GepgAMqQueues.PAYMENT_SUBMISSION_QUEUE);
+
+        FakeChannel payments = broker.channel(GepgAMqQueues.PAYMENT_SUBMISSION_QUEUE);
+        payments.deliver(9, GepgQueueHeaders.PAYMENT_SUBMISSION_HEADER, "<payment/>", false);
+
+        verify(payments.channel, never()).basicAck(anyLong(), anyBoolean());
+        assertEquals(1, consumer.getInFlightCount());
+
+        gepgAck.complete("ack");
+
+        verify(payments.channel).basicAck(9L, false);
+        assertEquals(0, consumer.getInFlightCount());
+    }
+
+    @Test
+    public void testFailedMessageIsRequeuedOnceThenRejected() throws Exception {
+        FakeBroker broker = new FakeBroker();
+        GepgAMqConsumer consumer = new GepgAMqConsumer(new GepgApiClient(), broker.factory(), 5);
+        consumer.setHandler(GepgQueueHeaders.BILL_SUBMISSION_HEADER,
+                message -> CompletableFuture.failedFuture(new IOException("Connection reset")));
+        consumer.start(GepgAMqQueues.BILL_SUBMISSION_QUEUE);
+
+        FakeChannel bills = broker.channel(GepgAMqQueues.BILL_SUBMISSION_QUEUE);
+        bills.deliver(1, GepgQueueHeaders.BILL_SUBMISSION_HEADER, "<bill/>", false);
+        bills.deliver(2, GepgQueueHeaders.BILL_SUBMISSION_HEADER, "<bill/>", true);
+
+        verify(bills.channel).basicReject(1L, true);
+        verify(bills.channel).basicReject(2L, false);
+        verify(bills.channel, never()).basicAck(anyLong(), anyBoolean());
+    }
+
+    @Test
+    public void testUnknownRequestTypeIsRejected() throws Exception {
+        FakeBroker broker = new FakeBroker();
+        GepgAMqConsumer consumer = new GepgAMqConsumer(new GepgApiClient(), broker.factory(), 5);
+        consumer.start(GepgAMqQueues.BILL_SUBMISSION_QUEUE);
+
+        FakeChannel bills = broker.channel(GepgAMqQueues.BILL_SUBMISSION_QUEUE);
+        bills.deliver(1, "SOMETHING_ELSE", "<bill/>", false);
+        bills.deliver(2, null, "<bill/>", false);
+
+        verify(bills.channel).basicReject(1L, false);
+        verify(bills.channel).basicReject(2L, false);
+    }
+
+    @Test
+    public void testCloseCancelsTheConsumers() throws Exception {
+        FakeBroker broker = new FakeBroker();
+        GepgAMqConsumer consumer = new GepgAMqConsumer(new GepgApiClient(), broker.factory(), 5);
+        consumer.start(GepgAMqQueues.BILL_SUBMISSION_QUEUE);
+
+        consumer.close();
+
+        verify(broker.channel(GepgAMqQueues.BILL_SUBMISSION_QUEUE).channel)
+                .basicCancel("consumer-" + GepgAMqQueues.BILL_SUBMISSION_QUEUE);
+        verify(broker.connection).close();
+    }
+
+    @Test
+    public void testBlockingSubmissionsRunOnTheGivenExecutor() throws Exception {
+        FakeBroker broker = new FakeBroker();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            GepgAMqConsumer consumer = new GepgAMqConsumer(new GepgApiClient(), broker.factory(), 5);
+            consumer.setExecutor(executor);
+            List<Thread> threads = new CopyOnWriteArrayList<>();
+            consumer.setHandler(GepgQueueHeaders.BILL_SUBMISSION_HEADER, GepgMessageHandler.blocking(message -> {
+                threads.add(Thread.currentThread());
+                if (message.equals("<fail/>")) {
+                    throw new IOException("Connection reset");
+                }
+                return "ack";
+            }, executor));
+            consumer.start(GepgAMqQueues.BILL_SUBMISSION_QUEUE);
+
+            FakeChannel bills = broker.channel(GepgAMqQueues.BILL_SUBMISSION_QUEUE);
+            bills.deliver(1, GepgQueueHeaders.BILL_SUBMISSION_HEADER, "<bill/>", false);
+            bills.deliver(2, GepgQueueHeaders.BILL_SUBMISSION_HEADER, "<fail/>", false);
+            consumer.close();
+
+            assertSame(executor, broker.executor);
+            verify(bills.channel).basicAck(1L, false);
+            verify(bills.channel).basicReject(2L, true);
+            assertEquals(2, threads.size());
+            assertFalse(threads.contains(Thread.currentThread()));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * A mocked channel that hands deliveries to the registered consumer.
+     */
+    private static final class FakeChannel {
+        private final Channel channel = mock(Channel.class);
+        private volatile DeliverCallback consumer;
+        private volatile String consumedQueue;
+
+        private FakeChannel() throws IOException {
+            doAnswer(invocation -> {
+                consumedQueue = invocation.getArgument(0);
+                consumer = invocation.getArgument(2);
+                return "consumer-" + consumedQueue;
+            }).when(channel).basicConsume(anyString(), anyBoolean(), any(DeliverCallback.class),
+                    any(CancelCallback.class));
+        }
+
+        private void deliver(long deliveryTag, String requestType, String body, boolean redeliver)
+                throws IOException {
+            Map<String, Object> headers = new HashMap<>();
+            if (requestType != null) {
+                headers.put("REQUEST_TYPE", requestType);
+            }
+            AMQP.BasicProperties props = new AMQP.BasicProperties.Builder().headers(headers).build();
+            Envelope envelope = new Envelope(deliveryTag, redeliver, "", "queue");
+            consumer.handle("consumer", new Delivery(envelope, props, body.getBytes(StandardCharsets.UTF_8)));
+        }
+    }
+
+    private static final class FakeBroker {
+        private final List<FakeChannel> created = new CopyOnWriteArrayList<>();
+        private final Connection connection = mock(Connection.class);
+        private ExecutorService executor;
+
+        private FakeBroker() throws IOException {
+            when(connection.createChannel()).thenAnswer(invocation -> {
+                FakeChannel channel = new FakeChannel();
+                created.add(channel);
+                return channel.channel;
+            });
+        }
+
+        private FakeChannel channel(String queueName) {
+            return created.stream()
+                    .filter(channel -> queueName.equals(channel.consumedQueue))
+                    .findFirst()
+                    .orElse(null);
+        }
+
+        private ConnectionFactory factory() {
+            return new ConnectionFactory() {
+                @Override
+                public Connection newConnection() throws IOException, TimeoutException {
+                    return connection;
+                }
+
+                @Override
+                public Connection newConnection(ExecutorService executor) throws IOException, TimeoutException {
+                    FakeBroker.this.executor = executor;
+                    return connection;
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,312 @@
+package com.watabelabs.gepg.amqp.publisher;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.ConfirmCallback;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+import com.rabbitmq.client.ShutdownListener;
+import com.rabbitmq.client.ShutdownSignalException;
+import com.watabelabs.gepg.amqp.queues.GepgAMqQueues;
+import com.watabelabs.gepg.metrics.GepgMetrics;
+import com.watabelabs.gepg.metrics.GepgMetricsRegistry;
+
+public class GepgAMqPublisherTest {
+
+    @Test
+    public void testPublishCompletesWhenTheBrokerConfirms() throws Exception {
+        FakeBroker broker = new FakeBroker();
+        GepgAMqPublisher publisher = broker.publisher(2, Duration.ofSeconds(5));
+        Map<String, Object> headers = Collections.singletonMap("REQUEST_TYPE", "BILL_SUBMISSION_REQUEST_HEADER");
+
+        CompletableFuture<Void> published = publisher.publishToQueue(GepgAMqQueues.BILL_SUBMISSION_QUEUE,
+                "<Gepg>Özil</Gepg>", headers);
+
+        assertFalse(published.isDone(), "The future must wait for the confirm");
+        FakeChannel channel = broker.channels.get(0);
+        channel.ack(1, false);
+        published.get();
+
+        ArgumentCaptor<AMQP.BasicProperties> props = ArgumentCaptor.forClass(AMQP.BasicProperties.class);
+        ArgumentCaptor<byte[]> body = ArgumentCaptor.forClass(byte[].class);
+        verify(channel.channel).basicPublish(eq(""), eq(GepgAMqQueues.BILL_SUBMISSION_QUEUE), props.capture(),
+                body.capture());
+        assertEquals("<Gepg>Özil</Gepg>", new String(body.getValue(), StandardCharsets.UTF_8));
+        assertEquals(headers, props.getValue().getHeaders());
+        assertEquals(Integer.valueOf(2), props.getValue().getDeliveryMode());
+    }
+
+    @Test
+    public void testQueueIsDeclaredOnceAndChannelIsReused() throws Exception {
+        FakeBroker broker = new FakeBroker();
+        GepgAMqPublisher publisher = broker.publisher(4, Duration.ofSeconds(5));
+
+        for (int i = 0; i < 5; i++) {
+            publisher.publishToQueue(GepgAMqQueues.BILL_SUBMISSION_QUEUE, "bill " + i, new HashMap<>());
+        }
+
+        assertEquals(1, broker.channels.size(), "Sequential publishes should share one channel");
+        Channel channel = broker.channels.get(0).channel;
+        verify(channel).queueDeclare(GepgAMqQueues.BILL_SUBMISSION_QUEUE, true, false, false, null);
+        verify(channel, times(5)).basicPublish(anyString(), anyString(), any(AMQP.BasicProperties.class),
+                any(byte[].class));
+    }
+
+    @Test
+    public void testMultipleAckSettlesEveryEarlierMessage() throws Exception {
+        FakeBroker broker = new FakeBroker();
+        GepgAMqPublisher publisher = broker.publisher(1, Duration.ofSeconds(5));
+
+        List<CompletableFuture<Void>> published = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            published.add(publisher.publishToQueue(GepgAMqQueues.BILL_SUBMISSION_QUEUE, "bill " + i, new HashMap<>()));
+        }
+        broker.channels.get(0).ack(3, true);
+
+        assertTrue(published.get(0).isDone() && published.get(1).isDone() && published.get(2).isDone());
+        assertFalse(published.get(3).isDone());
+    }
+
+    @Test
+    public void testNackFailsThePublish() throws Exception {
+        FakeBroker broker = new FakeBroker();
+        GepgAMqPublisher publisher = broker.publisher(1, Duration.ofSeconds(5));
+
+        CompletableFuture<Void> published = publisher.publishToQueue(GepgAMqQueues.BILL_SUBMISSION_QUEUE, "bill",
+                new HashMap<>());
+        broker.channels.get(0).nack(1, false);
+
+        ExecutionException exception = assertThrows(ExecutionException.class, published::get);
+        assertInstanceOf(IOException.class, exception.getCause());
+    }
+
+    @Test
+    public void testConnectionLossFailsUnconfirmedMessagesAndKeepsTheChannel() throws Exception {
+        FakeBroker broker = new FakeBroker();
+        GepgAMqPublisher publisher = broker.publisher(1, Duration.ofSeconds(5));
+
+        CompletableFuture<Void> unconfirmed = publisher.publishToQueue(GepgAMqQueues.BILL_SUBMISSION_QUEUE, "bill",
+                new HashMap<>());
+        FakeChannel channel = broker.channels.get(0);
+        channel.shutdown(new ShutdownSignalException(true, false, null, null));
+
+        ExecutionException exception = assertThrows(ExecutionException.class, unconfirmed::get);
+        assertInstanceOf(IOException.class, exception.getCause());
+
+        // Automatic recovery restores the channel, so it stays in the pool
+        channel.recover();
+        CompletableFuture<Void> republished = publisher.publishToQueue(GepgAMqQueues.BILL_SUBMISSION_QUEUE, "bill",
+                new HashMap<>());
+        channel.ack(1, false);
+        republished.get();
+        assertEquals(1, broker.channels.size());
+    }
+
+    @Test
+    public void testChannelErrorReplacesTheChannel() throws Exception {
+        FakeBroker broker = new FakeBroker();
+        GepgAMqPublisher publisher = broker.publisher(1, Duration.ofSeconds(5));
+
+        publisher.publishToQueue(GepgAMqQueues.BILL_SUBMISSION_QUEUE, "bill", new HashMap<>());
+        broker.channels.get(0).shutdown(new ShutdownSignalException(false, false, null, null));
+
+        // The channel closed while idle, so the next publish opens a new one
+        publisher.publishToQueue(GepgAMqQueues.BILL_SUBMISSION_QUEUE, "bill", new HashMap<>());
+        publisher.publishToQueue(GepgAMqQueues.BILL_SUBMISSION_QUEUE, "bill", new HashMap<>());
+
+        assertEquals(2, broker.channels.size());
+        verify(broker.channels.get(1).channel, times(2)).basicPublish(anyString(), anyString(),
+                any(AMQP.BasicProperties.class), any(byte[].class));
+    }
+
+    @Test
+    public void testMissingConfirmTimesOut() throws Exception {
+        FakeBroker broker = new FakeBroker();
+        GepgAMqPublisher publisher = broker.publisher(1, Duration.ofMillis(100));
+
+        CompletableFuture<Void> published = publisher.publishToQueue(GepgAMqQueues.BILL_SUBMISSION_QUEUE, "bill",
+                new HashMap<>());
+
+        ExecutionException exception = assertThrows(ExecutionException.class, published::get);
+        assertInstanceOf(TimeoutException.class, exception.getCause());
+    }
+
+    @Test
+    public void testConfirmsAndFailuresAreReportedToMetrics() throws Exception {
+        List<String> reported = Collections.synchronizedList(new ArrayList<>());
+        GepgMetricsRegistry.set(new GepgMetrics() {
+            @Override
+            public void published(String destination, long nanos, boolean confirmed) {
+                reported.add(destination + " " + confirmed);
+            }
+        });
+        try {
+            FakeBroker broker = new FakeBroker();
+            GepgAMqPublisher publisher = broker.publisher(1, Duration.ofSeconds(5));
+
+            CompletableFuture<Void> confirmed = publisher.publishToQueue(GepgAMqQueues.BILL_SUBMISSION_QUEUE, "bill",
+                    new HashMap<>());
+            CompletableFuture<Void> rejected = publisher.publishToQueue(GepgAMqQueues.BILL_SUBMISSION_QUEUE, "bill",
+                    new HashMap<>());
+            broker.channels.get(0).ack(1, false);
+            broker.channels.get(0).nack(2, false);
+            confirmed.get();
+            assertThrows(ExecutionException.class, rejected::get);
+
+            assertEquals(Arrays.asList(GepgAMqQueues.BILL_SUBMISSION_QUEUE + " true",
+                    GepgAMqQueues.BILL_SUBMISSION_QUEUE + " false"), reported);
+        } finally {
+            GepgMetricsRegistry.set(GepgMetrics.NOOP);
+        }
+    }
+
+    @Test
+    public void testBrokerUnavailableFailsThePublish() throws Exception {
+        FakeBroker broker = new FakeBroker();
+        broker.available = false;
+        GepgAMqPublisher publisher = broker.publisher(1, Duration.ofSeconds(5));
+
+        CompletableFuture<Void> published = publisher.publishToQueue(GepgAMqQueues.BILL_SUBMISSION_QUEUE, "bill",
+                new HashMap<>());
+
+        ExecutionException exception = assertThrows(ExecutionException.class, published::get);
+        assertInstanceOf(IOException.class, exception.getCause());
+
+        // The next publish connects once the broker is back
+        broker.available = true;
+        publisher.publishToQueue(GepgAMqQueues.BILL_SUBMISSION_QUEUE, "bill", new HashMap<>());
+        assertEquals(1, broker.channels.size());
+    }
+
+    @Test
+    public void testClosedPublisherRejectsMessages() throws Exception {
+        FakeBroker broker = new FakeBroker();
+        GepgAMqPublisher publisher = broker.publisher(1, Duration.ofSeconds(5));
+        publisher.close();
+
+        CompletableFuture<Void> published = publisher.publishToQueue(GepgAMqQueues.BILL_SUBMISSION_QUEUE, "bill",
+                new HashMap<>());
+
+        assertTrue(published.isCompletedExceptionally());
+    }
+
+    /**
+     * A mocked channel that lets the test play the broker's confirms and
+     * shutdowns.
+     */
+    private static final class FakeChannel {
+        private final Channel channel = mock(Channel.class);
+        private final List<ShutdownListener> shutdownListeners = new ArrayList<>();
+        private ConfirmCallback ackCallback;
+        private ConfirmCallback nackCallback;
+        private long nextSequenceNumber;
+        private boolean open = true;
+
+        private FakeChannel() throws IOException, TimeoutException {
+            doAnswer(invocation -> {
+                nextSequenceNumber = 1;
+                return null;
+            }).when(channel).confirmSelect();
+            when(channel.getNextPublishSeqNo()).thenAnswer(invocation -> nextSequenceNumber);
+            doAnswer(invocation -> {
+                ackCallback = invocation.getArgument(0);
+                nackCallback = invocation.getArgument(1);
+                return null;
+            }).when(channel).addConfirmListener(any(ConfirmCallback.class), any(ConfirmCallback.class));
+            doAnswer(invocation -> {
+                shutdownListeners.add(invocation.getArgument(0));
+                return null;
+            }).when(channel).addShutdownListener(any(ShutdownListener.class));
+            doAnswer(invocation -> {
+                if (!open) {
+                    throw new IOException("Channel is closed");
+                }
+                nextSequenceNumber++;
+                return null;
+            }).when(channel).basicPublish(anyString(), anyString(), any(AMQP.BasicProperties.class), any(byte[].class));
+            when(channel.isOpen()).thenAnswer(invocation -> open);
+            doAnswer(invocation -> {
+                open = false;
+                return null;
+            }).when(channel).close();
+        }
+
+        private void ack(long deliveryTag, boolean multiple) throws IOException {
+            ackCallback.handle(deliveryTag, multiple);
+        }
+
+        private void nack(long deliveryTag, boolean multiple) throws IOException {
+            nackCallback.handle(deliveryTag, multiple);
+        }
+
+        private void shutdown(ShutdownSignalException cause) {
+            open = false;
+            for (ShutdownListener listener : shutdownListeners) {
+                listener.shutdownCompleted(cause);
+            }
+        }
+
+        private void recover() {
+            open = true;
+            nextSequenceNumber = 1;
+        }
+    }
+
+    private static final class FakeBroker {
+        private final List<FakeChannel> channels = new ArrayList<>();
+        private final Connection connection = mock(Connection.class);
+        private volatile boolean available = true;
+
+        private FakeBroker() throws IOException {
+            when(connection.createChannel()).thenAnswer(invocation -> {
+                FakeChannel channel = new FakeChannel();
+                channels.add(channel);
+                return channel.channel;
+            });
+            when(connection.isOpen()).thenReturn(true);
+        }
+
+        private GepgAMqPublisher publisher(int channelPoolSize, Duration confirmTimeout) {
+            ConnectionFactory factory = new ConnectionFactory() {
+                @Override
+                public Connection newConnection() throws IOException, TimeoutException {
+                    if (!available) {
+                        throw new IOException("Connection refused");
+                    }
+                    return connection;
+                }
+            };
+            return new GepgAMqPublisher(factory, channelPoolSize, confirmTimeout);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.watabelabs.gepg.batch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import com.watabelabs.gepg.mappers.bill.acks.GepgBillSubReqAck;
+import com.watabelabs.gepg.mappers.bill.requests.GepgBillHdr;
+import com.watabelabs.gepg.mappers.bill.requests.GepgBillSubReq;
+import com.watabelabs.gepg.mappers.bill.requests.GepgBillTrxInf;
+
+public class BillBatchSubmitterTest {
+
+    @Test
+    public void testResultsFollowTheOrderOfTheBills() throws Exception {
+        List<GepgBillSubReq> bills = bills(50);
+        // Later bills complete first
+        BillBatchSubmitter submitter = new BillBatchSubmitter(
+                bill -> ackAfter(50 - Integer.parseInt(bill.getBillTrxInf().getBillId()), 7101), 10);
+
+        BillBatchResult batch = submitter.submit(bills).get();
+
+        assertEquals(50, batch.getSize());
+        for (int i = 0; i < bills.size(); i++) {
+            assertEquals(String.valueOf(i), batch.getResults().get(i).getBillId());
+        }
+        assertTrue(batch.getBillsPerSecond() > 0);
+    }
+
+    @Test
+    public void testFailuresAreRecordedWithoutStoppingTheBatch() throws Exception {
+        BillBatchSubmitter submitter = new BillBatchSubmitter(bill -> {
+            int id = Integer.parseInt(bill.getBillTrxInf().getBillId());
+            if (id == 3) {
+                throw new IllegalStateException("Signing failed");
+            }
+            if (id % 5 == 0) {
+                return CompletableFuture.failedFuture(new IOException("Connection reset"));
+            }
+            return ackAfter(1, 7101);
+        }, 4);
+
+        BillBatchResult batch = submitter.submit(bills(20)).get();
+
+        assertEquals(20, batch.getSize());
+        assertEquals(5, batch.getFailed());
+        assertEquals(15, batch.getSucceeded());
+
+        BillSubmissionResult signingFailure = batch.getResults().get(3);
+        assertFalse(signingFailure.isSuccess());
+        assertEquals("Signing failed", signingFailure.getError().getMessage());
+
+        BillSubmissionResult submitFailure = batch.getResults().get(10);
+        assertFalse(submitFailure.isSuccess());
+        assertTrue(submitFailure.getError() instanceof IOException);
+
+        assertEquals(7101, batch.getResults().get(1).getAck().getTrxStsCode());
+    }
+
+    @Test
+    public void testConcurrencyIsBounded() throws Exception {
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        BillBatchSubmitter submitter = new BillBatchSubmitter(bill -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            return ackAfter(5, 7101).whenComplete((ack, error) -> inFlight.decrementAndGet());
+        }, 3);
+
+        BillBatchResult batch = submitter.submit(bills(30)).get();
+
+        assertEquals(30, batch.getSucceeded());
+        assertTrue(maxInFlight.get() <= 3, "At most 3 bills should be in flight, saw " + maxInFlight.get());
+    }
+
+    @Test
+    public void testEmptyBatchCompletes() throws Exception {
+        BillBatchSubmitter submitter = new BillBatchSubmitter(bill -> ackAfter(1, 7101), 4);
+
+        BillBatchResult batch = submitter.submit(Collections.emptyList()).get();
+
+        assertEquals(0, batch.getSize());
+    }
+
+    @Test
+    public void testConcurrencyMustBePositive() {
+        assertThrows(IllegalArgumentException.class, () -> new BillBatchSubmitter(bill -> ackAfter(1, 7101), 0));
+    }
+
+    private static CompletableFuture<GepgBillSubReqAck> ackAfter(long millis, int status) {
+        Executor delayed = CompletableFuture.delayedExecutor(millis, TimeUnit.MILLISECONDS);
+        return CompletableFuture.supplyAsync(() -> new GepgBillSubReqAck(status), delayed);
+    }
+
+    private static List<GepgBillSubReq> bills(int count) {
+        List<GepgBillSubReq> bills = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            GepgBillTrxInf trxInf = new GepgBillTrxInf();
+            trxInf.setBillId(String.valueOf(i));
+            bills.add(new GepgBillSubReq(new GepgBillHdr("SP023", true), trxInf));
+        }
+        return bills;
+    }
+}
@@ -0,0 +1,146 @@
+package com.watabelabs.gepg.config;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import com.watabelabs.gepg.GepgApiClient;
+import com.watabelabs.gepg.amqp.publisher.GepgAMqPublisher;
+import com.watabelabs.gepg.http.JdkHttpTransport;
+import com.watabelabs.gepg.mappers.bill.acks.GepgBillSubReqAck;
+import com.watabelabs.gepg.utils.SignatureProviders;
+
+public class GepgConfigTest {
+
+    @Test
+    public void testUnsetSettingsKeepTheirDefaults() {
+        GepgConfig config = GepgConfig.builder().build();
+
+        assertEquals(JdkHttpTransport.DEFAULT_POOL_SIZE, config.getHttpPoolSize());
+        assertEquals(JdkHttpTransport.DEFAULT_REQUEST_TIMEOUT, config.getRequestTimeout());
+        assertEquals(GepgConfig.DEFAULT_MAX_ATTEMPTS, config.getMaxAttempts());
+        assertEquals(GepgConfig.DEFAULT_KEYSTORE_TYPE, config.getKeystoreType());
+        assertEquals(GepgConfig.DEFAULT_RABBITMQ_PORT, config.getRabbitMqPort());
+        assertEquals(GepgAMqPublisher.DEFAULT_CONFIRM_TIMEOUT, config.getConfirmTimeout());
+        assertEquals(JdkHttpTransport.DEFAULT_REQUEST_TIMEOUT.dividedBy(2), config.getLatencyThreshold());
+        assertTrue(config.isJaxbWarmUp());
+    }
+
+    @Test
+    public void testVariablesOnlyOverrideWhatTheySet() {
+        Map<String, String> variables = new HashMap<>();
+        variables.put("API_URL", "http://gepg.test");
+        variables.put("GEPG_REQUEST_TIMEOUT_MILLIS", "2500");
+        variables.put("RABBITMQ_PORT", "5673");
+        variables.put("GEPG_RETRY_BUDGET_RATIO", "0.1");
+        variables.put("GEPG_JAXB_WARM_UP", "false");
+
+        GepgConfig config = GepgConfig.builder()
+                .maxAttempts(5)
+                .fromVariables(variables::get)
+                .gepgCode("SP10001")
+                .build();
+
+        assertEquals("http://gepg.test", config.getApiUrl());
+        assertEquals(Duration.ofMillis(2500), config.getRequestTimeout());
+        assertEquals(5673, config.getRabbitMqPort());
+        assertEquals(5, config.getMaxAttempts());
+        assertEquals("SP10001", config.getGepgCode());
+        assertEquals(0.1, config.getRetryBudgetRatio());
+        assertEquals(Duration.ofMillis(1250), config.getLatencyThreshold());
+        assertFalse(config.isJaxbWarmUp());
+
+        variables.put("GEPG_JAXB_WARM_UP", "no");
+        assertThrows(IllegalArgumentException.class, () -> GepgConfig.builder().fromVariables(variables::get));
+        variables.put("GEPG_JAXB_WARM_UP", "false");
+
+        variables.put("GEPG_MAX_ATTEMPTS", "three");
+        assertThrows(IllegalArgumentException.class, () -> GepgConfig.builder().fromVariables(variables::get));
+    }
+
+    @Test
+    public void testOutOfRangeSettingsAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> GepgConfig.builder().httpPoolSize(0).build());
+        assertThrows(IllegalArgumentException.class, () -> GepgConfig.builder().maxAttempts(0).build());
+        assertThrows(IllegalArgumentException.class,
+                () -> GepgConfig.builder().requestTimeout(Duration.ZERO).build());
+        assertThrows(IllegalArgumentException.class,
+                () -> GepgConfig.builder().initialBackoff(Duration.ofMillis(-1)).build());
+        assertThrows(IllegalArgumentException.class, () -> GepgConfig.builder().retryBudgetRatio(1.5).build());
+        assertThrows(IllegalArgumentException.class,
+                () -> GepgConfig.builder().circuitBreaker(0, Duration.ofSeconds(30)).build());
+        assertThrows(IllegalArgumentException.class,
+                () -> GepgConfig.builder().signatureProvider("NoSuchProvider").build());
+    }
+
+    @Test
+    public void testPasswordsAreLeftOutOfToString() {
+        GepgConfig config = GepgConfig.builder()
+                .privateKeystore("private.pfx", "private-secret", "gepgclient")
+                .rabbitMq("localhost", 5672, "guest", "broker-secret")
+                .build();
+
+        assertFalse(config.toString().contains("secret"), config.toString());
+    }
+
+    @Test
+    public void testClientFollowsTheConfiguredRetryPolicy() throws Exception {
+        GepgConfig config = GepgConfig.fromEnv().toBuilder()
+                .apiUrl("http://gepg.test")
+                .maxAttempts(1)
+                .build();
+        GepgApiClient client = new GepgApiClient(config);
+        AtomicInteger attempts = new AtomicInteger();
+        client.setHttpTransport((url, body, headers) -> {
+            attempts.incrementAndGet();
+            throw new SocketTimeoutException("Read timed out");
+        });
+
+        IOException e = assertThrows(IOException.class, () -> client.submitBill("<Gepg/>"));
+
+        assertEquals(1, attempts.get());
+        assertTrue(e.getCause() instanceof SocketTimeoutException);
+    }
+
+    @Test
+    public void testClientSignsWithTheConfiguredProvider() throws Exception {
+        GepgConfig config = GepgConfig.fromEnv();
+        GepgApiClient defaultClient = new GepgApiClient(config);
+        GepgApiClient bouncyCastleClient = new GepgApiClient(
+                config.toBuilder().signatureProvider(SignatureProviders.BOUNCY_CASTLE).build());
+        GepgBillSubReqAck ack = new GepgBillSubReqAck(7101);
+
+        // RSA PKCS#1 v1.5 signatures do not depend on the provider
+        String payload = bouncyCastleClient.generatePayload(ack);
+        assertEquals(defaultClient.generatePayload(ack), payload);
+        assertEquals(7101, defaultClient.verifyAndUnwrap(payload.getBytes(StandardCharsets.UTF_8),
+                GepgBillSubReqAck.class).getTrxStsCode());
+    }
+
+    @Test
+    public void testClientsWithTheSameSettingsShareTheTransport() {
+        GepgConfig config = GepgConfig.fromEnv();
+        GepgConfig slower = config.toBuilder().requestTimeout(Duration.ofSeconds(30)).build();
+
+        GepgApiClient first = new GepgApiClient(config);
+        GepgApiClient second = new GepgApiClient(config.toBuilder().gepgCode("SP10001").build());
+        GepgApiClient third = new GepgApiClient(slower);
+
+        assertSame(first.getHttpTransport(), second.getHttpTransport());
+        assertNotSame(first.getHttpTransport(), third.getHttpTransport());
+        assertSame(first.getPublisher(), second.getPublisher());
+    }
+}
@@ -0,0 +1,188 @@
+package com.watabelabs.gepg.http;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+public class JdkHttpTransportTest {
+
+    private static HttpServer server;
+    private static ExecutorService executor;
+    private static String baseUrl;
+
+    // Remote ports seen by the stub server, one per client connection
+    private static final Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+
+    private static final AtomicInteger inFlight = new AtomicInteger();
+    private static final AtomicInteger maxInFlight = new AtomicInteger();
+
+    @BeforeAll
+    public static void setup() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+
+        server.createContext("/echo", exchange -> {
+            clientPorts.add(exchange.getRemoteAddress().getPort());
+            String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+            String response = exchange.getRequestHeaders().getFirst("Gepg-Com") + "|"
+                    + exchange.getRequestHeaders().getFirst("Gepg-Code") + "|" + body;
+            respond(exchange, 200, response);
+        });
+        server.createContext("/slow", exchange -> {
+            try {
+                Thread.sleep(2000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            respond(exchange, 200, "late");
+        });
+        server.createContext("/concurrent", exchange -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            inFlight.decrementAndGet();
+            respond(exchange, 200, new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+        });
+        server.createContext("/error", exchange -> respond(exchange, 500, "boom"));
+        server.start();
+
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @AfterAll
+    public static void teardown() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testPostSendsBodyAndHeaders() throws Exception {
+        JdkHttpTransport transport = new JdkHttpTransport();
+
+        String response = transport.post(baseUrl + "/echo", "<Gepg>Özil &amp; Co</Gepg>".getBytes(StandardCharsets.UTF_8),
+                headers("default.sp.in", "SP023"));
+
+        assertEquals("default.sp.in|SP023|<Gepg>Özil &amp; Co</Gepg>", response);
+    }
+
+    @Test
+    public void testConsecutiveRequestsReuseTheConnection() throws Exception {
+        JdkHttpTransport transport = new JdkHttpTransport();
+        clientPorts.clear();
+
+        for (int i = 0; i < 5; i++) {
+            transport.post(baseUrl + "/echo", ("bill " + i).getBytes(StandardCharsets.UTF_8),
+                    headers("default.sp.in", "SP023"));
+        }
+
+        assertEquals(1, clientPorts.size(), "Every request should have used the same connection");
+    }
+
+    @Test
+    public void testNullHeadersAreNotSent() throws Exception {
+        JdkHttpTransport transport = new JdkHttpTransport();
+
+        String response = transport.post(baseUrl + "/echo", new byte[0], headers("default.sp.in", null));
+
+        assertEquals("default.sp.in|null|", response);
+    }
+
+    @Test
+    public void testSlowResponseTimesOut() {
+        JdkHttpTransport transport = new JdkHttpTransport(2, Duration.ofSeconds(1), Duration.ofMillis(200));
+
+        assertThrows(SocketTimeoutException.class,
+                () -> transport.post(baseUrl + "/slow", new byte[0], headers("default.sp.in", "SP023")));
+    }
+
+    @Test
+    public void testErrorStatusIsReported() {
+        JdkHttpTransport transport = new JdkHttpTransport();
+
+        GepgHttpException exception = assertThrows(GepgHttpException.class,
+                () -> transport.post(baseUrl + "/error", new byte[0], headers("default.sp.in", "SP023")));
+
+        assertEquals(500, exception.getStatusCode());
+    }
+
+    @Test
+    public void testPostAsyncKeepsWithinThePoolSize() throws Exception {
+        JdkHttpTransport transport = new JdkHttpTransport(2, Duration.ofSeconds(1), Duration.ofSeconds(10));
+        maxInFlight.set(0);
+
+        List<CompletableFuture<String>> responses = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            responses.add(transport.postAsync(baseUrl + "/concurrent", ("bill " + i).getBytes(StandardCharsets.UTF_8),
+                    headers("default.sp.in", "SP023")));
+        }
+
+        for (int i = 0; i < responses.size(); i++) {
+            assertEquals("bill " + i, responses.get(i).get());
+        }
+        assertTrue(maxInFlight.get() <= 2, "At most 2 requests should be in flight, saw " + maxInFlight.get());
+    }
+
+    @Test
+    public void testPostAsyncReportsTimeouts() {
+        JdkHttpTransport transport = new JdkHttpTransport(2, Duration.ofSeconds(1), Duration.ofMillis(200));
+
+        CompletableFuture<String> response = transport.postAsync(baseUrl + "/slow", new byte[0],
+                headers("default.sp.in", "SP023"));
+
+        ExecutionException exception = assertThrows(ExecutionException.class, response::get);
+        assertInstanceOf(SocketTimeoutException.class, exception.getCause());
+    }
+
+    @Test
+    public void testPoolSizeMustBePositive() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new JdkHttpTransport(0, Duration.ofSeconds(1), Duration.ofSeconds(1)));
+    }
+
+    private static Map<String, String> headers(String gepgCom, String gepgCode) {
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Content-Type", "Application/xml");
+        headers.put("Gepg-Com", gepgCom);
+        headers.put("Gepg-Code", gepgCode);
+        return headers;
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/xml; charset=UTF-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
@@ -4,8 +4,8 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.Mockito.mock;
-import static org.mockito.Mockito.mockStatic;
 import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.text.SimpleDateFormat;
@@ -18,7 +18,6 @@ import java.util.concurrent.CountDownLatch;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
-import org.mockito.MockedStatic;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -261,21 +260,19 @@ public class GepgBillSubReqTest {
 
     @Test
     public void testPublishBillToQueue() throws Exception {
-        try (MockedStatic<GepgAMqPublisher> mockedRabbitMqUtil = mockStatic(GepgAMqPublisher.class)) {
-            GepgBillSubReq gepgBillSubReq = createBillSubReq();
+        GepgAMqPublisher publisher = mock(GepgAMqPublisher.class);
+        gepgApiClient.setPublisher(publisher);
 
-            String xmlOutput = gepgApiClient.generatePayload(gepgBillSubReq);
-            gepgApiClient.publishBill(xmlOutput);
+        GepgBillSubReq gepgBillSubReq = createBillSubReq();
 
-            Map<String, Object> headers = new HashMap<>();
+        String xmlOutput = gepgApiClient.generatePayload(gepgBillSubReq);
+        gepgApiClient.publishBill(xmlOutput);
 
-            headers.put(GepgQueueHeaderRequestType.REQUEST_TYPE.toString(), GepgQueueHeaders.BILL_SUBMISSION_HEADER);
+        Map<String, Object> headers = new HashMap<>();
 
-            mockedRabbitMqUtil.verify(
-                    () -> GepgAMqPublisher.publishToQueue(GepgAMqQueues.BILL_SUBMISSION_QUEUE, xmlOutput,
-                            headers),
-                    times(1));
-        }
+        headers.put(GepgQueueHeaderRequestType.REQUEST_TYPE.toString(), GepgQueueHeaders.BILL_SUBMISSION_HEADER);
+
+        verify(publisher, times(1)).publishToQueue(GepgAMqQueues.BILL_SUBMISSION_QUEUE, xmlOutput, headers);
     }
 
     @Test
@@ -0,0 +1,127 @@
+package com.watabelabs.gepg.metrics;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.watabelabs.gepg.GepgApiClient;
+import com.watabelabs.gepg.mappers.bill.acks.GepgBillSubReqAck;
+import com.watabelabs.gepg.utils.GepgEndpoints;
+
+public class GepgMetricsTest {
+
+    @AfterEach
+    public void uninstall() {
+        GepgMetricsRegistry.set(GepgMetrics.NOOP);
+    }
+
+    @Test
+    public void testNothingIsRecordedByDefault() {
+        assertSame(GepgMetrics.NOOP, GepgMetricsRegistry.get());
+        assertFalse(GepgMetrics.NOOP.isEnabled());
+    }
+
+    @Test
+    public void testSigningAndVerificationAreTimed() throws Exception {
+        RecordingMetrics metrics = new RecordingMetrics();
+        GepgApiClient client = new GepgApiClient();
+        GepgMetricsRegistry.set(metrics);
+
+        String payload = client.generatePayload(new GepgBillSubReqAck(7101));
+        client.verifyAndUnwrap(payload, GepgBillSubReqAck.class);
+
+        assertTrue(metrics.events.contains("marshalled GepgBillSubReqAck"), metrics.events.toString());
+        assertTrue(metrics.events.contains("signed"), metrics.events.toString());
+        assertTrue(metrics.events.contains("unmarshalled GepgBillSubReqAck"), metrics.events.toString());
+        assertTrue(metrics.events.contains("verified true"), metrics.events.toString());
+    }
+
+    @Test
+    public void testRequestsAreRecordedPerEndpointWithRetriesAndStatus() throws Exception {
+        GepgApiClient client = new GepgApiClient();
+        client.setApiUrl("http://gepg.test");
+        String ack = client.generatePayload(new GepgBillSubReqAck(7201));
+        AtomicInteger attempts = new AtomicInteger();
+        client.setHttpTransport((url, body, headers) -> {
+            if (attempts.incrementAndGet() == 1) {
+                throw new SocketTimeoutException("Read timed out");
+            }
+            return ack;
+        });
+        RecordingMetrics metrics = new RecordingMetrics();
+        GepgMetricsRegistry.set(metrics);
+
+        client.submitBill("<Gepg/>");
+
+        assertEquals(Arrays.asList(
+                "request " + GepgEndpoints.SUBMIT_BILL + " TIMEOUT",
+                "retried " + GepgEndpoints.SUBMIT_BILL + " 2",
+                "request " + GepgEndpoints.SUBMIT_BILL + " SUCCESS",
+                "unmarshalled GepgBillSubReqAck",
+                "acknowledged " + GepgEndpoints.SUBMIT_BILL + " FAILURE"), metrics.events);
+    }
+
+    @Test
+    public void testUnknownStatusCodesShareOneName() {
+        assertEquals("SUCCESSFUL", GepgMetrics.statusName(7101));
+        assertEquals("UNKNOWN", GepgMetrics.statusName(1234));
+    }
+
+    /**
+     * Records each call as a line of text, leaving out the durations.
+     */
+    static final class RecordingMetrics implements GepgMetrics {
+        final List<String> events = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public void requestCompleted(String endpoint, long nanos, RequestOutcome outcome) {
+            events.add("request " + endpoint + " " + outcome);
+        }
+
+        @Override
+        public void requestRetried(String endpoint, int attempt) {
+            events.add("retried " + endpoint + " " + attempt);
+        }
+
+        @Override
+        public void acknowledged(String endpoint, int statusCode) {
+            events.add("acknowledged " + endpoint + " " + GepgMetrics.statusName(statusCode));
+        }
+
+        @Override
+        public void signed(long nanos) {
+            events.add("signed");
+        }
+
+        @Override
+        public void verified(long nanos, boolean valid) {
+            events.add("verified " + valid);
+        }
+
+        @Override
+        public void marshalled(Class<?> type, long nanos) {
+            events.add("marshalled " + type.getSimpleName());
+        }
+
+        @Override
+        public void unmarshalled(Class<?> type, long nanos) {
+            events.add("unmarshalled " + type.getSimpleName());
+        }
+
+        @Override
+        public void published(String destination, long nanos, boolean confirmed) {
+            events.add("published " + destination + " " + confirmed);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.watabelabs.gepg.notification;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class FileNotificationIndexTest {
+
+    private Path file;
+
+    @BeforeEach
+    public void setup() throws Exception {
+        file = Files.createTempDirectory("notification-index").resolve("payments.idx");
+    }
+
+    @Test
+    public void testKeysSurviveReopening() throws Exception {
+        try (FileNotificationIndex index = new FileNotificationIndex(file)) {
+            assertTrue(index.add("TRX1"));
+            assertTrue(index.add("TRX2"));
+            index.remove("TRX2");
+        }
+
+        try (FileNotificationIndex index = new FileNotificationIndex(file)) {
+            assertEquals(1, index.size());
+            assertFalse(index.add("TRX1"));
+            assertTrue(index.add("TRX2"));
+        }
+    }
+
+    @Test
+    public void testExpiredKeysAreNotRestored() throws Exception {
+        MutableClock clock = new MutableClock();
+        try (FileNotificationIndex index = new FileNotificationIndex(file, 100, Duration.ofHours(1), clock)) {
+            index.add("TRX1");
+            clock.advance(Duration.ofMinutes(30));
+            index.add("TRX2");
+        }
+
+        clock.advance(Duration.ofMinutes(45));
+        try (FileNotificationIndex index = new FileNotificationIndex(file, 100, Duration.ofHours(1), clock)) {
+            assertEquals(1, index.size());
+            assertTrue(index.add("TRX1"));
+            assertFalse(index.add("TRX2"));
+        }
+    }
+
+    @Test
+    public void testFileIsCompactedAsItGrows() throws Exception {
+        try (FileNotificationIndex index = new FileNotificationIndex(file, 10, Duration.ofDays(1))) {
+            for (int i = 0; i < 1000; i++) {
+                index.add("TRX" + i);
+            }
+        }
+
+        assertTrue(Files.readAllLines(file).size() < 20);
+        try (FileNotificationIndex index = new FileNotificationIndex(file, 10, Duration.ofDays(1))) {
+            assertEquals(10, index.size());
+            assertFalse(index.add("TRX999"));
+        }
+    }
+
+    @Test
+    public void testLineCutShortIsSkipped() throws Exception {
+        try (FileNotificationIndex index = new FileNotificationIndex(file)) {
+            index.add("TRX1");
+        }
+        Files.write(file, "17040".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        try (FileNotificationIndex index = new FileNotificationIndex(file)) {
+            assertEquals(1, index.size());
+            assertFalse(index.add("TRX1"));
+        }
+    }
+}
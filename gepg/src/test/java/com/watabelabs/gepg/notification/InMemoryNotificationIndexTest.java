@@ -0,0 +1,92 @@
+package com.watabelabs.gepg.notification;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+public class InMemoryNotificationIndexTest {
+
+    @Test
+    public void testSecondAddIsADuplicate() {
+        InMemoryNotificationIndex index = new InMemoryNotificationIndex();
+
+        assertTrue(index.add("TRX1"));
+        assertFalse(index.add("TRX1"));
+        assertTrue(index.add("TRX2"));
+        assertEquals(2, index.size());
+    }
+
+    @Test
+    public void testOldestKeysAreEvictedBeyondTheMaximumSize() {
+        InMemoryNotificationIndex index = new InMemoryNotificationIndex(3, Duration.ofDays(1));
+        for (int i = 1; i <= 5; i++) {
+            index.add("TRX" + i);
+        }
+
+        assertEquals(3, index.size());
+        assertTrue(index.add("TRX1"));
+        assertFalse(index.add("TRX5"));
+    }
+
+    @Test
+    public void testKeysExpireAfterTheRetentionPeriod() {
+        MutableClock clock = new MutableClock();
+        InMemoryNotificationIndex index = new InMemoryNotificationIndex(100, Duration.ofHours(1), clock);
+        index.add("TRX1");
+
+        clock.advance(Duration.ofMinutes(59));
+        assertFalse(index.add("TRX1"));
+
+        clock.advance(Duration.ofMinutes(1));
+        assertTrue(index.add("TRX1"));
+        assertFalse(index.add("TRX1"));
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    public void testRemovedKeyIsNewAgain() {
+        InMemoryNotificationIndex index = new InMemoryNotificationIndex();
+        index.add("TRX1");
+        index.remove("TRX1");
+
+        assertTrue(index.add("TRX1"));
+    }
+
+    @Test
+    public void testOnlyOneConcurrentAddSucceeds() throws Exception {
+        InMemoryNotificationIndex index = new InMemoryNotificationIndex();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger added = new AtomicInteger();
+        try {
+            for (int i = 0; i < 64; i++) {
+                executor.execute(() -> {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    if (index.add("TRX1")) {
+                        added.incrementAndGet();
+                    }
+                });
+            }
+            start.countDown();
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(1, added.get());
+    }
+}
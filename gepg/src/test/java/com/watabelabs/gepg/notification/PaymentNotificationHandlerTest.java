@@ -0,0 +1,169 @@
+package com.watabelabs.gepg.notification;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.validation.ValidationException;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.watabelabs.gepg.GepgApiClient;
+import com.watabelabs.gepg.mappers.payment.acks.GepgPmtSpInfoAck;
+import com.watabelabs.gepg.mappers.payment.requests.GepgPmtSpInfo;
+import com.watabelabs.gepg.mappers.payment.requests.GepgPymtTrxInf;
+
+public class PaymentNotificationHandlerTest {
+
+    private static GepgApiClient client;
+
+    @BeforeAll
+    public static void setup() throws Exception {
+        client = new GepgApiClient();
+    }
+
+    @Test
+    public void testDuplicateIsAcknowledgedWithoutReprocessing() throws Exception {
+        List<GepgPmtSpInfo> posted = new ArrayList<>();
+        PaymentNotificationHandler handler = new PaymentNotificationHandler(client, posted::add);
+        String notification = client.generatePayload(notification("TRX1", "PSP1"));
+
+        String first = handler.handle(notification);
+        String retry = handler.handle(notification);
+
+        assertEquals(1, posted.size());
+        assertEquals(1, handler.getProcessedCount());
+        assertEquals(1, handler.getDuplicateCount());
+        assertEquals(7101, client.verifyAndUnwrap(first, GepgPmtSpInfoAck.class).getTrxStsCode());
+        assertEquals(7101, client.verifyAndUnwrap(retry, GepgPmtSpInfoAck.class).getTrxStsCode());
+    }
+
+    @Test
+    public void testFailedPaymentIsProcessedOnRetry() throws Exception {
+        List<GepgPmtSpInfo> posted = new ArrayList<>();
+        PaymentNotificationHandler handler = new PaymentNotificationHandler(client, payment -> {
+            if (posted.isEmpty()) {
+                posted.add(null);
+                throw new IllegalStateException("Ledger unavailable");
+            }
+            posted.add(payment);
+        });
+        String notification = client.generatePayload(notification("TRX2", "PSP2"));
+
+        assertThrows(IllegalStateException.class, () -> handler.handle(notification));
+        handler.handle(notification);
+
+        assertEquals(2, posted.size());
+        assertEquals(1, handler.getProcessedCount());
+    }
+
+    @Test
+    public void testConcurrentDuplicateWaitsForTheFirstAttempt() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<GepgPmtSpInfo> posted = new ArrayList<>();
+        PaymentNotificationHandler handler = new PaymentNotificationHandler(client, payment -> {
+            started.countDown();
+            release.await();
+            posted.add(payment);
+        });
+        String notification = client.generatePayload(notification("TRX5", "PSP5"));
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<String> first = executor.submit(() -> handler.handle(notification));
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+            Future<String> duplicate = executor.submit(() -> handler.handle(notification));
+
+            Thread.sleep(200);
+            assertFalse(duplicate.isDone(), "duplicate was acknowledged before the payment was processed");
+            release.countDown();
+
+            assertEquals(7101, client.verifyAndUnwrap(first.get(10, TimeUnit.SECONDS), GepgPmtSpInfoAck.class)
+                    .getTrxStsCode());
+            assertEquals(7101, client.verifyAndUnwrap(duplicate.get(10, TimeUnit.SECONDS), GepgPmtSpInfoAck.class)
+                    .getTrxStsCode());
+            assertEquals(1, posted.size());
+            assertEquals(1, handler.getDuplicateCount());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testConcurrentDuplicateIsNotAcknowledgedWhenTheFirstAttemptFails() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<GepgPmtSpInfo> posted = new ArrayList<>();
+        PaymentNotificationHandler handler = new PaymentNotificationHandler(client, payment -> {
+            if (started.getCount() > 0) {
+                started.countDown();
+                release.await();
+                throw new IllegalStateException("Ledger unavailable");
+            }
+            posted.add(payment);
+        });
+        String notification = client.generatePayload(notification("TRX6", "PSP6"));
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<String> first = executor.submit(() -> handler.handle(notification));
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+            Future<String> duplicate = executor.submit(() -> handler.handle(notification));
+            Thread.sleep(200);
+            release.countDown();
+
+            assertThrows(ExecutionException.class, () -> first.get(10, TimeUnit.SECONDS));
+            assertThrows(ExecutionException.class, () -> duplicate.get(10, TimeUnit.SECONDS));
+            assertEquals(0, handler.getDuplicateCount());
+
+            handler.handle(notification);
+            assertEquals(1, posted.size());
+            assertEquals(1, handler.getProcessedCount());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testReceiptNumberIdentifiesNotificationWithoutTrxId() {
+        assertEquals("PSP:PSP3", PaymentNotificationHandler.keyOf(notification(null, " PSP3 ")));
+        assertThrows(ValidationException.class,
+                () -> PaymentNotificationHandler.keyOf(notification(" ", null)));
+    }
+
+    @Test
+    public void testTamperedNotificationIsRejected() throws Exception {
+        List<GepgPmtSpInfo> posted = new ArrayList<>();
+        PaymentNotificationHandler handler = new PaymentNotificationHandler(client, posted::add);
+        String tampered = client.generatePayload(notification("TRX4", "PSP4"))
+                .replace("<PaidAmt>1000.0</PaidAmt>", "<PaidAmt>9000.0</PaidAmt>");
+
+        assertThrows(ValidationException.class, () -> handler.handle(tampered));
+        assertEquals(0, posted.size());
+    }
+
+    private static GepgPmtSpInfo notification(String trxId, String pspReceiptNumber) {
+        GepgPymtTrxInf trxInf = new GepgPymtTrxInf();
+        trxInf.setTrxId(trxId);
+        trxInf.setSpCode("SP023");
+        trxInf.setPayRefId("REF1");
+        trxInf.setBillId("BILL1");
+        trxInf.setPayCtrNum("995120000001");
+        trxInf.setBillAmt(1000.0);
+        trxInf.setPaidAmt(1000.0);
+        trxInf.setCCy("TZS");
+        trxInf.setTrxDtTm("2017-05-30T10:00:01");
+        trxInf.setPspReceiptNumber(pspReceiptNumber);
+        return new GepgPmtSpInfo(trxInf);
+    }
+}
@@ -0,0 +1,259 @@
+package com.watabelabs.gepg.outbox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.watabelabs.gepg.GepgApiClient;
+import com.watabelabs.gepg.amqp.headers.GepgQueueHeaders;
+import com.watabelabs.gepg.mappers.bill.acks.GepgBillSubReqAck;
+import com.watabelabs.gepg.utils.GepgEndpoints;
+
+public class GepgOutboxTest {
+
+    private Path directory;
+
+    @BeforeEach
+    public void setup() throws Exception {
+        directory = Files.createTempDirectory("gepg-outbox");
+    }
+
+    @Test
+    public void testEveryAppendedRequestIsDeliveredAcrossSegments() throws Exception {
+        List<String> delivered = Collections.synchronizedList(new ArrayList<>());
+        OutboxRelay relay = record -> {
+            delivered.add(record.getPayload());
+            return CompletableFuture.completedFuture(null);
+        };
+
+        Set<String> appended = new HashSet<>();
+        try (GepgOutbox outbox = new GepgOutbox(directory, relay, 4096, 4)) {
+            List<CompletableFuture<Long>> offsets = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                String payload = "<Gepg><BillId>" + i + "</BillId></Gepg>";
+                appended.add(payload);
+                offsets.add(outbox.appendBill(payload));
+            }
+            CompletableFuture.allOf(offsets.toArray(new CompletableFuture[0])).join();
+            awaitDelivered(outbox);
+        }
+
+        assertEquals(appended, new HashSet<>(delivered));
+        assertEquals(200, delivered.size());
+        // Delivered segments are deleted when the checkpoint passes them
+        assertEquals(1, segmentFiles().size(), segmentFiles().toString());
+    }
+
+    @Test
+    public void testUndeliveredRequestsAreReplayedAfterRestart() throws Exception {
+        try (GepgOutbox outbox = new GepgOutbox(directory, record -> new CompletableFuture<>(), 4096, 4)) {
+            outbox.appendBill("<bill>1</bill>").join();
+            outbox.appendBill("<bill>2</bill>").join();
+            outbox.append(GepgQueueHeaders.BILL_CANCELLATION_HEADER, "<cancel>3</cancel>").join();
+        }
+
+        List<String> delivered = Collections.synchronizedList(new ArrayList<>());
+        try (GepgOutbox outbox = new GepgOutbox(directory, record -> {
+            delivered.add(record.getRequestType() + " " + record.getPayload());
+            return CompletableFuture.completedFuture(null);
+        }, 4096, 1)) {
+            awaitDelivered(outbox);
+        }
+
+        assertEquals(Arrays.asList(
+                "BILL_SUBMISSION_REQUEST_HEADER <bill>1</bill>",
+                "BILL_SUBMISSION_REQUEST_HEADER <bill>2</bill>",
+                "BILL_CANCELLATION_REQUEST_HEADER <cancel>3</cancel>"), delivered);
+    }
+
+    @Test
+    public void testFailedDeliveriesAreRetried() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        OutboxRelay relay = record -> attempts.incrementAndGet() == 1
+                ? CompletableFuture.failedFuture(new IOException("Connection refused"))
+                : CompletableFuture.completedFuture(null);
+
+        try (GepgOutbox outbox = new GepgOutbox(directory, relay, 4096, 1)) {
+            outbox.appendBill("<bill>1</bill>").join();
+            awaitDelivered(outbox);
+        }
+
+        assertEquals(2, attempts.get());
+    }
+
+    @Test
+    public void testRequestThatKeepsFailingIsDeadLetteredAndDoesNotHoldUpTheRest() throws Exception {
+        List<String> delivered = Collections.synchronizedList(new ArrayList<>());
+        OutboxRelay relay = record -> {
+            if (record.getPayload().contains("poison")) {
+                return CompletableFuture.failedFuture(new IOException("Rejected"));
+            }
+            delivered.add(record.getPayload());
+            return CompletableFuture.completedFuture(null);
+        };
+
+        try (GepgOutbox outbox = new GepgOutbox(directory, relay, 4096, 1, 2)) {
+            outbox.appendBill("<bill>poison</bill>").join();
+            outbox.appendBill("<bill>2</bill>").join();
+            awaitDelivered(outbox);
+        }
+
+        assertEquals(Arrays.asList("<bill>2</bill>"), delivered);
+        Path deadLetter = directory.resolve(GepgOutbox.DEAD_LETTER_DIRECTORY)
+                .resolve(String.format("%020d-%s.xml", 0, GepgQueueHeaders.BILL_SUBMISSION_HEADER));
+        assertEquals("<bill>poison</bill>", new String(Files.readAllBytes(deadLetter), StandardCharsets.UTF_8));
+        // The checkpoint moved past it, so its segment is gone
+        assertEquals(1, segmentFiles().size(), segmentFiles().toString());
+    }
+
+    @Test
+    public void testUnknownRequestTypeIsRejected() throws Exception {
+        try (GepgOutbox outbox = new GepgOutbox(directory, record -> new CompletableFuture<>(), 4096, 1)) {
+            assertThrows(IllegalArgumentException.class, () -> outbox.append("BILL_SUBMISION", "<Gepg/>"));
+            assertEquals(0, outbox.getDurableOffset());
+        }
+    }
+
+    @Test
+    public void testAppendsFailOnceTheRelayHitsACorruptRecord() throws Exception {
+        char[] filler = new char[600];
+        Arrays.fill(filler, 'x');
+        String payload = "<bill>" + new String(filler) + "</bill>";
+        try (GepgOutbox outbox = new GepgOutbox(directory, record -> new CompletableFuture<>(), 1024, 1)) {
+            outbox.appendBill(payload).join();
+            outbox.appendBill(payload).join();
+        }
+        // Only the last segment is checked when the journal is opened
+        try (FileChannel channel = FileChannel.open(segmentFiles().get(0), StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[] { 'y' }), 100);
+        }
+
+        try (GepgOutbox outbox = new GepgOutbox(directory, record -> CompletableFuture.completedFuture(null),
+                1024, 1)) {
+            long deadline = System.currentTimeMillis() + 10_000;
+            CompletionException e = null;
+            while (e == null) {
+                assertTrue(System.currentTimeMillis() < deadline, "Appends were still accepted");
+                try {
+                    outbox.appendBill("<bill>3</bill>").join();
+                    Thread.sleep(10);
+                } catch (CompletionException failed) {
+                    e = failed;
+                }
+            }
+            assertTrue(e.getCause() instanceof IOException, e.toString());
+            assertEquals(0, outbox.getDeliveredOffset());
+        }
+    }
+
+    @Test
+    public void testTruncatedRecordsAreGoneAfterReopen() throws Exception {
+        MappedJournal journal = new MappedJournal(directory, 1024);
+        journal.append("BILL_SUBMISSION_REQUEST_HEADER", "<bill>1</bill>".getBytes(StandardCharsets.UTF_8));
+        long durable = journal.getWriteOffset();
+        journal.append("BILL_SUBMISSION_REQUEST_HEADER", "<bill>2</bill>".getBytes(StandardCharsets.UTF_8));
+        // Too large for the first segment, so it starts another
+        journal.append("BILL_SUBMISSION_REQUEST_HEADER", new byte[2000]);
+        assertEquals(2, segmentFiles().size());
+
+        journal.truncate(durable);
+        assertEquals(durable, journal.getWriteOffset());
+        assertEquals(1, segmentFiles().size());
+        journal.append("BILL_SUBMISSION_REQUEST_HEADER", "<bill>3</bill>".getBytes(StandardCharsets.UTF_8));
+        long end = journal.getWriteOffset();
+
+        MappedJournal reopened = new MappedJournal(directory, 1024);
+        assertEquals(end, reopened.getWriteOffset());
+        assertEquals("<bill>1</bill>", reopened.read(0).getPayload());
+        assertEquals("<bill>3</bill>", reopened.read(durable).getPayload());
+    }
+
+    @Test
+    public void testTornRecordIsDiscardedOnReopen() throws Exception {
+        long end;
+        try (GepgOutbox outbox = new GepgOutbox(directory, record -> new CompletableFuture<>(), 4096, 1)) {
+            outbox.appendBill("<bill>1</bill>").join();
+            end = outbox.getDurableOffset();
+        }
+
+        // A record whose header was written but whose body was not
+        Path segment = segmentFiles().get(0);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            ByteBuffer torn = ByteBuffer.allocate(12).putInt(500).putInt(0xCAFE).putShort((short) 3);
+            torn.flip();
+            channel.write(torn, end);
+        }
+
+        List<String> delivered = Collections.synchronizedList(new ArrayList<>());
+        try (GepgOutbox outbox = new GepgOutbox(directory, record -> {
+            delivered.add(record.getPayload());
+            return CompletableFuture.completedFuture(null);
+        }, 4096, 1)) {
+            assertEquals(end, outbox.getDurableOffset());
+            outbox.appendBill("<bill>2</bill>").join();
+            awaitDelivered(outbox);
+        }
+
+        assertEquals(Arrays.asList("<bill>1</bill>", "<bill>2</bill>"), delivered);
+    }
+
+    @Test
+    public void testHttpRelaySubmitsEachRequestToItsEndpoint() throws Exception {
+        GepgApiClient client = new GepgApiClient();
+        client.setApiUrl("http://gepg.test");
+        String ack = client.generatePayload(new GepgBillSubReqAck(7101));
+        Set<String> urls = Collections.synchronizedSet(new HashSet<>());
+        client.setHttpTransport((url, body, headers) -> {
+            urls.add(url);
+            return ack;
+        });
+
+        try (GepgOutbox outbox = new GepgOutbox(directory, OutboxRelay.http(client))) {
+            outbox.appendBill("<Gepg/>").join();
+            outbox.append(GepgQueueHeaders.CONTROL_NUMBER_REUSE_HEADER, "<Gepg/>").join();
+            awaitDelivered(outbox);
+        }
+
+        assertEquals(new HashSet<>(Arrays.asList(
+                "http://gepg.test" + GepgEndpoints.SUBMIT_BILL,
+                "http://gepg.test" + GepgEndpoints.REUSE_CONTROL_NUMBER)), urls);
+    }
+
+    private static void awaitDelivered(GepgOutbox outbox) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (outbox.getDeliveredOffset() < outbox.getDurableOffset()) {
+            assertTrue(System.currentTimeMillis() < deadline, "Outbox was not drained");
+            Thread.sleep(10);
+        }
+    }
+
+    private List<Path> segmentFiles() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*.segment")) {
+            stream.forEach(files::add);
+        }
+        Collections.sort(files);
+        return files;
+    }
+}
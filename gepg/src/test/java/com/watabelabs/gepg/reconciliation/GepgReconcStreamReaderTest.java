@@ -0,0 +1,148 @@
+package com.watabelabs.gepg.reconciliation;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import javax.validation.ValidationException;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.watabelabs.gepg.GepgApiClient;
+import com.watabelabs.gepg.mappers.reconciliation.requests.GepgReconcBatchInfo;
+import com.watabelabs.gepg.mappers.reconciliation.requests.GepgReconcTrans;
+import com.watabelabs.gepg.mappers.reconciliation.requests.GepgReconcTrxInf;
+import com.watabelabs.gepg.mappers.reconciliation.responses.GepgSpReconcResp;
+
+public class GepgReconcStreamReaderTest {
+
+    private static GepgApiClient client;
+    private static String payload;
+
+    @BeforeAll
+    public static void setup() throws Exception {
+        client = new GepgApiClient();
+        payload = client.generatePayload(reconciliation(500));
+    }
+
+    @Test
+    public void testTransactionsAreReadInOrderAndTheSignatureIsVerified() throws Exception {
+        try (GepgReconcStreamReader reader = client.streamReconciliationResponse(stream(payload))) {
+            assertEquals("SP023", reader.getBatchInfo().getSpCode());
+
+            List<String> billIds = new ArrayList<>();
+            reader.forEachRemaining(trx -> billIds.add(trx.getSpBillId()));
+
+            assertEquals(500, billIds.size());
+            assertEquals("BILL0", billIds.get(0));
+            assertEquals("BILL499", billIds.get(499));
+            assertEquals(500, reader.getCount());
+            assertTrue(reader.isSignatureValid());
+        }
+    }
+
+    @Test
+    public void testStreamMatchesTheInMemoryResponse() throws Exception {
+        GepgSpReconcResp inMemory = client.verifyAndUnwrap(payload, GepgSpReconcResp.class);
+
+        try (GepgReconcStreamReader reader = client.streamReconciliationResponse(stream(payload))) {
+            List<Double> amounts = reader.stream().map(GepgReconcTrxInf::getPaidAmt).collect(Collectors.toList());
+
+            assertEquals(inMemory.getReconcTrans().getReconcTrxInf().stream()
+                    .map(GepgReconcTrxInf::getPaidAmt)
+                    .collect(Collectors.toList()), amounts);
+        }
+    }
+
+    @Test
+    public void testFormattedPayloadIsVerifiedOverTheTrimmedContent() throws Exception {
+        // The whitespace a formatting server adds around the content is not signed
+        String formatted = payload
+                .replace("<Gepg>", "\n<Gepg >\n    ")
+                .replace("<gepgSignature>", "\n    <gepgSignature>\n")
+                .replace("</Gepg>", "\n</Gepg>\n");
+
+        try (GepgReconcStreamReader reader = client.streamReconciliationResponse(trickle(formatted))) {
+            assertEquals(500, reader.stream().count());
+            assertTrue(reader.isSignatureValid());
+        }
+    }
+
+    @Test
+    public void testTamperedTransactionFailsVerification() throws Exception {
+        String tampered = payload.replace("<PaidAmt>250.0</PaidAmt>", "<PaidAmt>950.0</PaidAmt>");
+        assertFalse(tampered.equals(payload));
+
+        try (GepgReconcStreamReader reader = client.streamReconciliationResponse(stream(tampered))) {
+            assertFalse(reader.isSignatureValid());
+            assertEquals(500, reader.getCount());
+        }
+    }
+
+    @Test
+    public void testMissingSignatureFailsVerification() throws Exception {
+        String unsigned = payload.replaceAll("<gepgSignature>.*</gepgSignature>", "");
+
+        try (GepgReconcStreamReader reader = client.streamReconciliationResponse(stream(unsigned))) {
+            assertFalse(reader.isSignatureValid());
+        }
+    }
+
+    @Test
+    public void testReceiveReconciliationResponseRejectsAnInvalidSignature() throws Exception {
+        List<GepgReconcTrxInf> staged = new ArrayList<>();
+        GepgReconcBatchInfo batchInfo = client.receiveReconciliationResponse(stream(payload), staged::add);
+
+        assertEquals(Long.valueOf(1020), batchInfo.getSpReconcReqId());
+        assertEquals(500, staged.size());
+
+        String tampered = payload.replace("<SpCode>SP023</SpCode>", "<SpCode>SP024</SpCode>");
+        assertThrows(ValidationException.class,
+                () -> client.receiveReconciliationResponse(stream(tampered), trx -> {
+                }));
+    }
+
+    private static InputStream stream(String xml) {
+        return new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Returns at most 7 bytes per read, so markers are split across reads.
+     */
+    private static InputStream trickle(String xml) {
+        return new FilterInputStream(stream(xml)) {
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                return super.read(buffer, offset, Math.min(length, 7));
+            }
+        };
+    }
+
+    private static GepgSpReconcResp reconciliation(int count) {
+        List<GepgReconcTrxInf> transactions = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            GepgReconcTrxInf trx = new GepgReconcTrxInf();
+            trx.setSpBillId("BILL" + i);
+            trx.setBillCtrNum(995120000000L + i);
+            trx.setPspTrxId("PSPTRX" + i);
+            trx.setPaidAmt(i + 0.0);
+            trx.setCCy("TZS");
+            trx.setPayRefId("REF" + i);
+            trx.setTrxDtTm("2017-05-30T10:00:01");
+            transactions.add(trx);
+        }
+        return new GepgSpReconcResp(new GepgReconcBatchInfo(1020L, "SP023", "Service Provider", "7101"),
+                new GepgReconcTrans(transactions));
+    }
+}
@@ -0,0 +1,71 @@
+package com.watabelabs.gepg.reconciliation;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+public class LongObjectHashMapTest {
+
+    @Test
+    public void testValuesSurviveResizing() {
+        LongObjectHashMap<String> map = new LongObjectHashMap<>(4);
+        for (long key = 0; key < 100_000; key++) {
+            map.put(995120000000L + key, "CN" + key);
+        }
+
+        assertEquals(100_000, map.size());
+        for (long key = 0; key < 100_000; key++) {
+            assertEquals("CN" + key, map.get(995120000000L + key));
+        }
+        assertNull(map.get(995120100000L));
+    }
+
+    @Test
+    public void testZeroAndNegativeKeysAreOrdinaryKeys() {
+        LongObjectHashMap<String> map = new LongObjectHashMap<>(0);
+        map.put(0L, "zero");
+        map.put(-1L, "minus one");
+        map.put(Long.MIN_VALUE, "min");
+
+        assertEquals("zero", map.get(0L));
+        assertEquals("minus one", map.get(-1L));
+        assertEquals("min", map.get(Long.MIN_VALUE));
+        assertNull(map.get(1L));
+    }
+
+    @Test
+    public void testPutReplacesTheValue() {
+        LongObjectHashMap<String> map = new LongObjectHashMap<>(16);
+
+        assertNull(map.put(7L, "first"));
+        assertEquals("first", map.put(7L, "second"));
+
+        assertEquals("second", map.get(7L));
+        assertEquals(1, map.size());
+    }
+
+    @Test
+    public void testForEachValueVisitsEveryValue() {
+        LongObjectHashMap<Long> map = new LongObjectHashMap<>(16);
+        for (long key = 0; key < 1000; key++) {
+            map.put(key * 31, key);
+        }
+
+        Set<Long> seen = new HashSet<>();
+        map.forEachValue(seen::add);
+
+        assertEquals(1000, seen.size());
+    }
+
+    @Test
+    public void testNullValuesAreRejected() {
+        LongObjectHashMap<String> map = new LongObjectHashMap<>(16);
+
+        assertThrows(IllegalArgumentException.class, () -> map.put(1L, null));
+    }
+}
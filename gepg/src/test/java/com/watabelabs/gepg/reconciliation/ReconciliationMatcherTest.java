@@ -0,0 +1,164 @@
+package com.watabelabs.gepg.reconciliation;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.validation.ValidationException;
+
+import org.junit.jupiter.api.Test;
+
+import com.watabelabs.gepg.mappers.payment.requests.GepgPmtSpInfo;
+import com.watabelabs.gepg.mappers.payment.requests.GepgPymtTrxInf;
+import com.watabelabs.gepg.mappers.reconciliation.requests.GepgReconcTrxInf;
+
+public class ReconciliationMatcherTest {
+
+    @Test
+    public void testEachOutcomeIsClassified() {
+        ReconciliationMatcher matcher = new ReconciliationMatcher(1, Runnable::run);
+        matcher.add(new LocalPayment(995120000001L, "PSP1", "BILL1", 1000.0));
+        matcher.add(new LocalPayment(995120000002L, "PSP2", "BILL2", 2000.0));
+        matcher.add(new LocalPayment(995120000004L, "PSP4", "BILL4", 4000.0));
+
+        ReconciliationReport report = matcher.match(Arrays.asList(
+                transaction(995120000001L, "PSP1", 1000.0),
+                transaction(995120000002L, "PSP2", 2500.0),
+                transaction(995120000003L, "PSP3", 3000.0)).iterator());
+
+        assertEquals(1, report.getMatched());
+        assertEquals(1, report.getCount(ReconciliationStatus.AMOUNT_MISMATCH));
+        assertEquals(1, report.getCount(ReconciliationStatus.MISSING_LOCALLY));
+        assertEquals(1, report.getCount(ReconciliationStatus.MISSING_AT_GEPG));
+        assertFalse(report.isBalanced());
+
+        ReconciliationResult mismatch = report.getDiscrepancies(ReconciliationStatus.AMOUNT_MISMATCH).get(0);
+        assertEquals("BILL2", mismatch.getLocalPayment().getSpBillId());
+        assertEquals(Double.valueOf(2500.0), mismatch.getGepgTransaction().getPaidAmt());
+
+        ReconciliationResult missingAtGepg = report.getDiscrepancies(ReconciliationStatus.MISSING_AT_GEPG).get(0);
+        assertEquals("BILL4", missingAtGepg.getLocalPayment().getSpBillId());
+        assertNull(missingAtGepg.getGepgTransaction());
+    }
+
+    @Test
+    public void testPaymentsOnOneControlNumberAreMatchedByPspTransactionId() {
+        ReconciliationMatcher matcher = new ReconciliationMatcher(1, Runnable::run);
+        // A partially paid bill: two payments on the same control number
+        matcher.add(new LocalPayment(995120000001L, "PSP1", "BILL1", 400.0));
+        matcher.add(new LocalPayment(995120000001L, "PSP2", "BILL1", 600.0));
+
+        ReconciliationReport report = matcher.match(Arrays.asList(
+                transaction(995120000001L, "PSP2", 600.0),
+                transaction(995120000001L, "PSP1", 400.0)).iterator());
+
+        assertEquals(2, report.getMatched());
+        assertTrue(report.isBalanced());
+    }
+
+    @Test
+    public void testPaymentWithoutPspTransactionIdMatchesByControlNumber() {
+        ReconciliationMatcher matcher = new ReconciliationMatcher(1, Runnable::run);
+        matcher.add(new LocalPayment(995120000001L, null, "BILL1", 1000.0));
+
+        ReconciliationReport report = matcher.match(Collections.singletonList(
+                transaction(995120000001L, "PSP1", 1000.0)).iterator());
+
+        assertEquals(1, report.getMatched());
+        assertTrue(report.isBalanced());
+    }
+
+    @Test
+    public void testAmountsAreComparedToTheCent() {
+        ReconciliationMatcher matcher = new ReconciliationMatcher(1, Runnable::run);
+        matcher.add(new LocalPayment(995120000001L, "PSP1", "BILL1", 0.1 + 0.2));
+
+        ReconciliationReport report = matcher.match(Collections.singletonList(
+                transaction(995120000001L, "PSP1", 0.3)).iterator());
+
+        assertEquals(1, report.getMatched());
+    }
+
+    @Test
+    public void testParallelMatchingGivesTheSameReport() {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            ReconciliationReport sequential = matchLargeBatch(new ReconciliationMatcher(1, Runnable::run));
+            ReconciliationReport parallel = matchLargeBatch(new ReconciliationMatcher(4, executor));
+
+            for (ReconciliationStatus status : ReconciliationStatus.values()) {
+                assertEquals(sequential.getCount(status), parallel.getCount(status));
+            }
+            assertEquals(90_000, parallel.getMatched());
+            assertEquals(5_000, parallel.getCount(ReconciliationStatus.AMOUNT_MISMATCH));
+            assertEquals(5_000, parallel.getCount(ReconciliationStatus.MISSING_LOCALLY));
+            assertEquals(5_000, parallel.getCount(ReconciliationStatus.MISSING_AT_GEPG));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testPaymentNotificationsAreMatchedByReceiptNumber() {
+        GepgPymtTrxInf trxInf = new GepgPymtTrxInf();
+        trxInf.setPayCtrNum("995120000001");
+        trxInf.setPspReceiptNumber("PSP1");
+        trxInf.setBillId("BILL1");
+        trxInf.setPaidAmt(1000.0);
+
+        ReconciliationMatcher matcher = new ReconciliationMatcher(1, Runnable::run);
+        matcher.add(new GepgPmtSpInfo(trxInf));
+
+        ReconciliationReport report = matcher.match(Collections.singletonList(
+                transaction(995120000001L, "PSP1", 1000.0)).iterator());
+
+        assertEquals(1, report.getMatched());
+
+        trxInf.setPayCtrNum("not a number");
+        assertThrows(ValidationException.class, () -> LocalPayment.from(new GepgPmtSpInfo(trxInf)));
+    }
+
+    @Test
+    public void testMatcherReconcilesASingleBatch() {
+        ReconciliationMatcher matcher = new ReconciliationMatcher(1, Runnable::run);
+        matcher.match(Collections.<GepgReconcTrxInf>emptyList().iterator());
+
+        assertThrows(IllegalStateException.class,
+                () -> matcher.match(Collections.<GepgReconcTrxInf>emptyList().iterator()));
+    }
+
+    /**
+     * 100,000 payments and 100,000 transactions: 90,000 match, 5,000 differ in
+     * amount, 5,000 are unknown locally and 5,000 payments are not reported.
+     */
+    private static ReconciliationReport matchLargeBatch(ReconciliationMatcher matcher) {
+        for (long i = 0; i < 100_000; i++) {
+            matcher.add(new LocalPayment(995120000000L + i, "PSP" + i, "BILL" + i, 1000.0));
+        }
+        List<GepgReconcTrxInf> transactions = new ArrayList<>();
+        for (long i = 0; i < 95_000; i++) {
+            transactions.add(transaction(995120000000L + i, "PSP" + i, i % 19 == 0 ? 999.0 : 1000.0));
+        }
+        for (long i = 0; i < 5_000; i++) {
+            transactions.add(transaction(995130000000L + i, "PSP" + i, 1000.0));
+        }
+        return matcher.match(transactions.iterator());
+    }
+
+    private static GepgReconcTrxInf transaction(long billCtrNum, String pspTrxId, double paidAmt) {
+        GepgReconcTrxInf transaction = new GepgReconcTrxInf();
+        transaction.setBillCtrNum(billCtrNum);
+        transaction.setPspTrxId(pspTrxId);
+        transaction.setPaidAmt(paidAmt);
+        return transaction;
+    }
+}
@@ -0,0 +1,293 @@
+package com.watabelabs.gepg.resilience;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.watabelabs.gepg.GepgApiClient;
+import com.watabelabs.gepg.config.GepgConfig;
+import com.watabelabs.gepg.http.GepgHttpException;
+import com.watabelabs.gepg.mappers.bill.acks.GepgBillSubReqAck;
+import com.watabelabs.gepg.metrics.GepgMetrics;
+import com.watabelabs.gepg.metrics.GepgMetricsRegistry;
+import com.watabelabs.gepg.utils.GepgEndpoints;
+
+public class EndpointGuardTest {
+
+    private final MutableClock clock = new MutableClock();
+
+    @AfterEach
+    public void tearDown() {
+        GepgMetricsRegistry.set(GepgMetrics.NOOP);
+    }
+
+    @Test
+    public void testCircuitOpensAfterConsecutiveFailuresAndClosesAfterTrial() throws Exception {
+        EndpointGuard guard = guards(GepgConfig.builder().circuitBreaker(3, Duration.ofSeconds(30)).build())
+                .guard(GepgEndpoints.SUBMIT_BILL);
+
+        guard.acquire(0).release(new SocketTimeoutException("Read timed out"));
+        guard.acquire(0).release(null);
+        for (int i = 0; i < 3; i++) {
+            guard.acquire(0).release(new ConnectException("Connection refused"));
+        }
+
+        assertEquals(CircuitState.OPEN, guard.getCircuitState());
+        GepgRejectedException e = assertThrows(GepgRejectedException.class, () -> guard.acquire(0));
+        assertEquals(RejectionReason.CIRCUIT_OPEN, e.getReason());
+
+        clock.advance(Duration.ofSeconds(30));
+        EndpointGuard.Permit trial = guard.acquire(0);
+        assertEquals(CircuitState.HALF_OPEN, guard.getCircuitState());
+        // Only one trial request at a time
+        assertThrows(GepgRejectedException.class, () -> guard.acquire(0));
+
+        // GePG answered, so it is up even though it rejected the request
+        trial.release(new GepgHttpException(400, "http://gepg.test"));
+        assertEquals(CircuitState.CLOSED, guard.getCircuitState());
+        guard.acquire(0).release(null);
+    }
+
+    @Test
+    public void testFailedTrialOpensTheCircuitAgain() throws Exception {
+        EndpointGuard guard = guards(GepgConfig.builder().circuitBreaker(1, Duration.ofSeconds(10)).build())
+                .guard(GepgEndpoints.SUBMIT_BILL);
+        guard.acquire(0).release(new GepgHttpException(503, "http://gepg.test"));
+
+        clock.advance(Duration.ofSeconds(10));
+        guard.acquire(0).release(new SocketTimeoutException("Read timed out"));
+
+        assertEquals(CircuitState.OPEN, guard.getCircuitState());
+        clock.advance(Duration.ofSeconds(9));
+        assertThrows(GepgRejectedException.class, () -> guard.acquire(0));
+    }
+
+    @Test
+    public void testConcurrencyLimitFallsOnTimeoutsAndRecoversOnFastResponses() throws Exception {
+        RecordingMetrics metrics = new RecordingMetrics();
+        GepgMetricsRegistry.set(metrics);
+        EndpointGuard guard = guards(GepgConfig.builder()
+                .httpPoolSize(10)
+                .circuitBreaker(100, Duration.ofSeconds(30))
+                .build()).guard(GepgEndpoints.SUBMIT_BILL);
+
+        // At the pool size nothing is rejected; the extra requests wait in the transport
+        List<EndpointGuard.Permit> permits = new ArrayList<>();
+        for (int i = 0; i < 12; i++) {
+            permits.add(guard.acquire(0));
+        }
+        for (EndpointGuard.Permit permit : permits) {
+            permit.release(new SocketTimeoutException("Read timed out"));
+        }
+        int lowered = guard.getConcurrencyLimit();
+        assertTrue(lowered < 5, "limit " + lowered);
+        assertEquals(0, guard.getInFlight());
+
+        permits.clear();
+        for (int i = 0; i < lowered; i++) {
+            permits.add(guard.acquire(0));
+        }
+        GepgRejectedException e = assertThrows(GepgRejectedException.class, () -> guard.acquire(0));
+        assertEquals(RejectionReason.CONCURRENCY_LIMIT, e.getReason());
+        for (EndpointGuard.Permit permit : permits) {
+            permit.release(null);
+        }
+
+        for (int i = 0; i < 200; i++) {
+            guard.acquire(0).release(null);
+        }
+        assertEquals(10, guard.getConcurrencyLimit());
+        assertTrue(metrics.events.contains("limit " + GepgEndpoints.SUBMIT_BILL + " " + lowered), metrics.events.toString());
+        assertTrue(metrics.events.contains("rejected " + GepgEndpoints.SUBMIT_BILL + " CONCURRENCY_LIMIT"),
+                metrics.events.toString());
+    }
+
+    @Test
+    public void testWaitingForAConnectionDoesNotLowerTheLimit() throws Exception {
+        EndpointGuard guard = guards(GepgConfig.builder()
+                .httpPoolSize(2)
+                .latencyThreshold(Duration.ofNanos(1))
+                .build()).guard(GepgEndpoints.SUBMIT_BILL);
+
+        List<EndpointGuard.Permit> permits = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            permits.add(guard.acquire(0));
+        }
+        // Slower than the threshold, but only because it queued behind the pool
+        EndpointGuard.Permit queued = guard.acquire(0);
+        Thread.sleep(1);
+        queued.release(null);
+
+        assertEquals(2, guard.getConcurrencyLimit());
+        permits.get(0).release(null);
+        assertEquals(1, guard.getConcurrencyLimit());
+    }
+
+    @Test
+    public void testClientQueuesABurstLargerThanThePoolAgainstAHealthyEndpoint() throws Exception {
+        GepgConfig config = GepgConfig.fromEnv().toBuilder()
+                .apiUrl("http://gepg.test")
+                .httpPoolSize(4)
+                .build();
+        GepgApiClient client = new GepgApiClient(config);
+        client.setEndpointGuards(guards(config));
+        String ack = client.generatePayload(new GepgBillSubReqAck(7101));
+        int burst = 12;
+        CountDownLatch allSent = new CountDownLatch(burst);
+        client.setHttpTransport((url, body, headers) -> {
+            // Hold every call until the whole burst has got past the guard
+            allSent.countDown();
+            try {
+                allSent.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return ack;
+        });
+
+        ExecutorService executor = Executors.newFixedThreadPool(burst);
+        try {
+            List<Future<GepgBillSubReqAck>> acks = new ArrayList<>();
+            for (int i = 0; i < burst; i++) {
+                acks.add(executor.submit(() -> client.submitBill("<Gepg/>")));
+            }
+            for (Future<GepgBillSubReqAck> result : acks) {
+                assertEquals(7101, result.get(10, TimeUnit.SECONDS).getTrxStsCode());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(4, client.getEndpointGuards().guard(GepgEndpoints.SUBMIT_BILL).getConcurrencyLimit());
+    }
+
+    @Test
+    public void testRetryBudgetAllowsABurstThenAShareOfRequests() throws Exception {
+        EndpointGuard guard = guards(GepgConfig.builder().retryBudgetRatio(0.5).build())
+                .guard(GepgEndpoints.SUBMIT_BILL);
+
+        int retries = 0;
+        while (guard.tryRetry()) {
+            retries++;
+        }
+        assertEquals(10, retries);
+
+        // Two more requests pay for one more retry
+        guard.acquire(0).release(null);
+        assertFalse(guard.tryRetry());
+        guard.acquire(0).release(null);
+        assertTrue(guard.tryRetry());
+        assertFalse(guard.tryRetry());
+    }
+
+    @Test
+    public void testClientFailsFastWhileTheCircuitIsOpen() throws Exception {
+        RecordingMetrics metrics = new RecordingMetrics();
+        GepgMetricsRegistry.set(metrics);
+        GepgConfig config = GepgConfig.fromEnv().toBuilder()
+                .apiUrl("http://gepg.test")
+                .initialBackoff(Duration.ZERO)
+                .circuitBreaker(2, Duration.ofMinutes(1))
+                .build();
+        GepgApiClient client = new GepgApiClient(config);
+        client.setEndpointGuards(guards(config));
+        String ack = client.generatePayload(new GepgBillSubReqAck(7101));
+        AtomicInteger attempts = new AtomicInteger();
+        client.setHttpTransport((url, body, headers) -> {
+            attempts.incrementAndGet();
+            throw new ConnectException("Connection refused");
+        });
+
+        // Refused connections are retried until the circuit opens
+        IOException e = assertThrows(IOException.class, () -> client.submitBill("<Gepg/>"));
+        assertInstanceOf(GepgRejectedException.class, e);
+        assertEquals(2, attempts.get());
+
+        assertThrows(GepgRejectedException.class, () -> client.submitBill("<Gepg/>"));
+        CompletionException async = assertThrows(CompletionException.class,
+                () -> client.submitBillAsync("<Gepg/>").join());
+        assertInstanceOf(GepgRejectedException.class, async.getCause());
+        assertEquals(2, attempts.get());
+        assertTrue(metrics.events.contains("circuit " + GepgEndpoints.SUBMIT_BILL + " OPEN"), metrics.events.toString());
+
+        // Other endpoints are not affected
+        client.setHttpTransport((url, body, headers) -> ack);
+        assertEquals(7101, client.reuseControlNumber("<Gepg/>").getTrxStsCode());
+    }
+
+    private EndpointGuards guards(GepgConfig config) {
+        return new EndpointGuards(config, clock);
+    }
+
+    /**
+     * Records each call as a line of text.
+     */
+    static final class RecordingMetrics implements GepgMetrics {
+        final List<String> events = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public void requestRejected(String endpoint, RejectionReason reason) {
+            events.add("rejected " + endpoint + " " + reason);
+        }
+
+        @Override
+        public void circuitStateChanged(String endpoint, CircuitState state) {
+            events.add("circuit " + endpoint + " " + state);
+        }
+
+        @Override
+        public void concurrencyLimitChanged(String endpoint, int limit) {
+            events.add("limit " + endpoint + " " + limit);
+        }
+    }
+
+    /**
+     * A clock that only moves when a test advances it.
+     */
+    static final class MutableClock extends Clock {
+
+        private volatile Instant now = Instant.parse("2024-01-01T00:00:00Z");
+
+        void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.watabelabs.gepg.tenant;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+import javax.validation.ValidationException;
+
+import org.junit.jupiter.api.Test;
+
+import com.watabelabs.gepg.GepgApiClient;
+import com.watabelabs.gepg.http.GepgHttpTransport;
+import com.watabelabs.gepg.mappers.bill.acks.GepgBillSubReqAck;
+import com.watabelabs.gepg.mappers.bill.requests.GepgBillControlNoReuse;
+import com.watabelabs.gepg.mappers.bill.requests.GepgBillHdr;
+import com.watabelabs.gepg.mappers.bill.requests.GepgBillItem;
+import com.watabelabs.gepg.mappers.bill.requests.GepgBillSubReq;
+import com.watabelabs.gepg.mappers.bill.requests.GepgBillTrxInf;
+
+import io.github.cdimascio.dotenv.Dotenv;
+
+public class GepgTenantClientTest {
+
+    private static final Dotenv dotenv = Dotenv.load();
+
+    @Test
+    public void testEachTenantSendsItsOwnGepgCodeOverOneTransport() throws Exception {
+        GepgTenantClient gepg = new GepgTenantClient("http://gepg.test",
+                Arrays.asList(tenant("SP10001", "GEPG-A"), tenant("SP10002", "GEPG-B")));
+        String ack = gepg.client("SP10001").generatePayload(new GepgBillSubReqAck(7101));
+        List<String> gepgCodes = Collections.synchronizedList(new ArrayList<>());
+        gepg.setHttpTransport((url, body, headers) -> {
+            gepgCodes.add(headers.get("Gepg-Code"));
+            return ack;
+        });
+
+        gepg.submitBill(bill("SP10002"));
+        gepg.submitBill(bill("SP10001"));
+        gepg.submitBillAsync(bill("SP10002")).get();
+
+        assertEquals(Arrays.asList("GEPG-B", "GEPG-A", "GEPG-B"), gepgCodes);
+        assertSame(gepg.client("SP10001").getHttpTransport(), gepg.client("SP10002").getHttpTransport());
+    }
+
+    @Test
+    public void testClientsAreReusedUntilTheTenantIsReplaced() {
+        GepgTenantClient gepg = new GepgTenantClient("http://gepg.test");
+        gepg.register(tenant("SP10001", "GEPG-A"));
+        GepgApiClient client = gepg.client("SP10001");
+
+        assertSame(client, gepg.clientFor(bill("SP10001")));
+
+        gepg.register(tenant("SP10001", "GEPG-C"));
+
+        assertNotSame(client, gepg.client("SP10001"));
+        assertEquals("GEPG-C", gepg.client("SP10001").getGepgCode());
+        assertEquals(Collections.singleton("SP10001"), gepg.getSpCodes());
+    }
+
+    @Test
+    public void testSharedResourcesApplyToRegisteredAndLaterTenants() {
+        GepgTenantClient gepg = new GepgTenantClient("http://gepg.test");
+        gepg.register(tenant("SP10001", "GEPG-A"));
+        GepgHttpTransport transport = (url, body, headers) -> "";
+
+        gepg.setHttpTransport(transport);
+        gepg.register(tenant("SP10002", "GEPG-B"));
+
+        assertSame(transport, gepg.client("SP10001").getHttpTransport());
+        assertSame(transport, gepg.client("SP10002").getHttpTransport());
+    }
+
+    @Test
+    public void testUnknownTenantsAreRejected() {
+        GepgTenantClient gepg = new GepgTenantClient("http://gepg.test");
+        gepg.register(tenant("SP10001", "GEPG-A"));
+
+        assertThrows(ValidationException.class, () -> gepg.client("SP99999"));
+        assertThrows(ValidationException.class, () -> gepg.clientFor(new GepgBillControlNoReuse()));
+
+        ExecutionException e = assertThrows(ExecutionException.class,
+                () -> gepg.submitBillAsync(bill("SP99999")).get());
+        assertTrue(e.getCause() instanceof ValidationException);
+
+        assertTrue(gepg.unregister("SP10001"));
+        assertThrows(ValidationException.class, () -> gepg.client("SP10001"));
+    }
+
+    @Test
+    public void testUnregisterReleasesTheTenantsKeys() throws Exception {
+        GepgTenantClient gepg = new GepgTenantClient("http://gepg.test");
+        gepg.register(tenant("SP10001", "GEPG-A"));
+        GepgApiClient client = gepg.client("SP10001");
+        client.generatePayload(bill("SP10001"));
+
+        assertTrue(gepg.unregister("SP10001"));
+
+        assertFalse(client.releaseKeys());
+    }
+
+    @Test
+    public void testTenantWithBadCredentialsIsNotRegistered() {
+        GepgTenantClient gepg = new GepgTenantClient("http://gepg.test");
+        GepgTenant tenant = new GepgTenant("SP10003", "GEPG-C",
+                dotenv.get("PRIVATE_KEYSTORE_PATH"), "wrong-password", dotenv.get("PRIVATE_KEY_ALIAS"),
+                dotenv.get("PUBLIC_KEYSTORE_PATH"), dotenv.get("PUBLIC_KEYSTORE_PASSWORD"),
+                dotenv.get("PUBLIC_KEY_ALIAS"),
+                dotenv.get("KEYSTORE_TYPE"), dotenv.get("SIGNATURE_ALGORITHM"));
+
+        assertThrows(ValidationException.class, () -> gepg.register(tenant));
+        assertTrue(gepg.getSpCodes().isEmpty());
+    }
+
+    private GepgTenant tenant(String spCode, String gepgCode) {
+        // Every tenant signs with the test keys, only the codes differ
+        return new GepgTenant(spCode, gepgCode,
+                dotenv.get("PRIVATE_KEYSTORE_PATH"), dotenv.get("PRIVATE_KEYSTORE_PASSWORD"),
+                dotenv.get("PRIVATE_KEY_ALIAS"),
+                dotenv.get("PUBLIC_KEYSTORE_PATH"), dotenv.get("PUBLIC_KEYSTORE_PASSWORD"),
+                dotenv.get("PUBLIC_KEY_ALIAS"),
+                dotenv.get("KEYSTORE_TYPE"), dotenv.get("SIGNATURE_ALGORITHM"));
+    }
+
+    private GepgBillSubReq bill(String spCode) {
+        GepgBillHdr billHdr = new GepgBillHdr(spCode, true);
+        GepgBillItem item = new GepgBillItem("788578851", "N", 7885.0, 7885.0, 0.0, "140206");
+
+        GepgBillTrxInf billTrxInf = new GepgBillTrxInf(
+                "11ae8614-ceda-4b32-aa83-2dc651ed4bcd", "2001", "LHGSS001", 7885.0, 0.0,
+                "2017-05-30T10:00:01", "Palapala",
+                "Charles Palapala",
+                "Bill Number 7885", "2017-02-22T10:00:10", "100", "Hashim",
+                "0699210053",
+                "charlestp@yahoo.com",
+                "TZS", 7885.0, true, 1, Arrays.asList(item));
+
+        return new GepgBillSubReq(billHdr, billTrxInf);
+    }
+}
@@ -0,0 +1,109 @@
+package com.watabelabs.gepg.utils;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.watabelabs.gepg.mappers.bill.acks.GepgBillSubReqAck;
+import com.watabelabs.gepg.mappers.bill.acks.GepgBillSubResAck;
+import com.watabelabs.gepg.mappers.bill.acks.GepgBillSubRespAck;
+import com.watabelabs.gepg.mappers.bill.requests.GepgBillCanclReq;
+import com.watabelabs.gepg.mappers.bill.requests.GepgBillControlNoReuse;
+import com.watabelabs.gepg.mappers.bill.requests.GepgBillHdr;
+import com.watabelabs.gepg.mappers.bill.requests.GepgBillItem;
+import com.watabelabs.gepg.mappers.bill.requests.GepgBillSubReq;
+import com.watabelabs.gepg.mappers.bill.requests.GepgBillTrxInf;
+import com.watabelabs.gepg.mappers.bill.responses.GepgBillCanclResp;
+import com.watabelabs.gepg.mappers.bill.responses.GepgBillSubResp;
+import com.watabelabs.gepg.mappers.payment.acks.GepgOlPmtNtfSpInfoAck;
+import com.watabelabs.gepg.mappers.payment.acks.GepgPmtSpInfoAck;
+import com.watabelabs.gepg.mappers.payment.requests.GepgBillPaymentOption;
+import com.watabelabs.gepg.mappers.payment.requests.GepgPmtSpInfo;
+import com.watabelabs.gepg.mappers.payment.requests.GepgPymtTrxInf;
+import com.watabelabs.gepg.mappers.reconciliation.acks.GepgSpReconcRespAck;
+import com.watabelabs.gepg.mappers.reconciliation.requests.GepgReconcBatchInfo;
+import com.watabelabs.gepg.mappers.reconciliation.requests.GepgReconcTrans;
+import com.watabelabs.gepg.mappers.reconciliation.requests.GepgReconcTrxInf;
+import com.watabelabs.gepg.mappers.reconciliation.responses.GepgSpReconcResp;
+
+/**
+ * Deterministic instances of every mapper class, used by the golden-file
+ * tests. The golden files under {@code src/test/resources/golden} were
+ * produced from these fixtures, so changing a value here means regenerating
+ * them.
+ */
+final class CanonicalFixtures {
+
+    // Text that exercises escaping, whitespace handling and non-ASCII output
+    static final String TRICKY = "Tom & Jerry <Ltd> \"O'Neil\" Öland";
+    static final String SPACED = "  two  spaces\tand a tab  ";
+    static final String MULTILINE = "line one\nline two\n  line three";
+
+    private CanonicalFixtures() {
+    }
+
+    /**
+     * Returns one fixture per mapper class, keyed by the golden file name.
+     *
+     * @return the fixtures in a stable order
+     */
+    static Map<String, Object> all() {
+        Map<String, Object> fixtures = new LinkedHashMap<>();
+
+        fixtures.put("GepgBillSubReq", new GepgBillSubReq(billHdr(), billTrxInf(null)));
+        fixtures.put("GepgBillTrxInf", billTrxInf(null));
+        fixtures.put("GepgBillControlNoReuse", new GepgBillControlNoReuse(billHdr(), billTrxInf("995120001234")));
+        fixtures.put("GepgBillCanclReq", new GepgBillCanclReq("SP023", "LHOTEL001", TRICKY,
+                Arrays.asList("7885", "", "7886")));
+        fixtures.put("GepgBillSubResp", new GepgBillSubResp(
+                new GepgBillSubResp.GepgBillTrxInf("7885", "GS", "995120001234", "7101;7226")));
+        fixtures.put("GepgBillCanclResp", new GepgBillCanclResp(Arrays.asList(
+                new GepgBillCanclResp.BillCanclTrxDtMapper("7885", "GS", "7283"),
+                new GepgBillCanclResp.BillCanclTrxDtMapper(TRICKY, "", null))));
+        fixtures.put("GepgBillSubReqAck", new GepgBillSubReqAck(7101));
+        fixtures.put("GepgBillSubResAck", new GepgBillSubResAck(7101));
+        fixtures.put("GepgBillSubRespAck", new GepgBillSubRespAck(7101));
+        fixtures.put("GepgPmtSpInfo", new GepgPmtSpInfo(pymtTrxInf()));
+        fixtures.put("GepgPymtTrxInf", pymtTrxInf());
+        fixtures.put("GepgPmtSpInfoAck", new GepgPmtSpInfoAck(7101));
+        fixtures.put("GepgOlPmtNtfSpInfoAck", new GepgOlPmtNtfSpInfoAck(7101));
+        fixtures.put("GepgSpReconcResp", new GepgSpReconcResp(reconcBatchInfo(),
+                new GepgReconcTrans(Arrays.asList(reconcTrxInf("7885", 995120001234L), reconcTrxInf(TRICKY, null)))));
+        fixtures.put("GepgReconcBatchInfo", reconcBatchInfo());
+        fixtures.put("GepgReconcTrans", new GepgReconcTrans(Arrays.asList(reconcTrxInf("7885", 995120001234L))));
+        fixtures.put("GepgReconcTrxInf", reconcTrxInf("7885", 995120001234L));
+        fixtures.put("GepgSpReconcRespAck", new GepgSpReconcRespAck(7101));
+
+        return fixtures;
+    }
+
+    private static GepgBillHdr billHdr() {
+        return new GepgBillHdr("SP023", true);
+    }
+
+    private static GepgBillTrxInf billTrxInf(String payCntrNum) {
+        return new GepgBillTrxInf("7885", "2001", "LHOTEL001", 7885.0, 0.0, "2017-05-30T10:00:01", "Palapala",
+                TRICKY, MULTILINE, "2017-02-22T10:00:10", SPACED, "", "0699210053", "charles.palapala@test.go.tz",
+                "TZS", 1.0E7, true, 1, payCntrNum, Arrays.asList(
+                        new GepgBillItem("788578851", "N", 7885.0, 7885.0, 0.0, "140206"),
+                        new GepgBillItem(TRICKY, "", 0.5, 0.5, 0.0, " 140206 ")));
+    }
+
+    private static GepgPymtTrxInf pymtTrxInf() {
+        GepgPymtTrxInf trxInf = new GepgPymtTrxInf("TRX123", "SP023", "REF123", "7885", "995120001234", 7885.0,
+                7885.0, null, "TZS", "2017-05-30T10:00:01", "MPESA", "0699210053", TRICKY, "", "RCPT123",
+                SPACED, "0150000000");
+        trxInf.setBillPayOpt(GepgBillPaymentOption.PARTIAL);
+        return trxInf;
+    }
+
+    private static GepgReconcBatchInfo reconcBatchInfo() {
+        return new GepgReconcBatchInfo(1020L, "SP023", TRICKY, "7101");
+    }
+
+    private static GepgReconcTrxInf reconcTrxInf(String spBillId, Long billCtrNum) {
+        return new GepgReconcTrxInf(spBillId, billCtrNum, "PSPTRX1", 7885.0, "TZS", "REF123",
+                "2017-05-30T10:00:01", "0150000000", "MPESA", TRICKY, "PSP001", "0699210053", SPACED, "",
+                MULTILINE, null, "", "RVS3");
+    }
+}
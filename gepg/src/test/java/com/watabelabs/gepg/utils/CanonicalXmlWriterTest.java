@@ -0,0 +1,127 @@
+package com.watabelabs.gepg.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+
+import javax.xml.bind.MarshalException;
+
+import org.junit.jupiter.api.Test;
+
+import com.watabelabs.gepg.mappers.bill.requests.GepgBillCanclReq;
+
+import io.github.cdimascio.dotenv.Dotenv;
+
+/**
+ * Golden-file tests for the canonical serializer. The files under
+ * {@code src/test/resources/golden} were written by the previous marshal, DOM,
+ * Transformer and reparse pipeline, so these tests prove the single-pass
+ * writer produces byte-identical output for every mapper class, and that
+ * {@link MessageUtil#signPayload(Object)} signs exactly what
+ * {@link MessageUtil#sign(String, Class)} did.
+ */
+public class CanonicalXmlWriterTest {
+
+    // Load environment variables once
+    private static final Dotenv dotenv = Dotenv.load();
+
+    @Test
+    public void testEveryMapperClassHasAFixture() {
+        Map<String, Object> fixtures = CanonicalFixtures.all();
+
+        for (Class<?> mapperClass : JaxbContextRegistry.MAPPER_CLASSES) {
+            assertNotNull(fixtures.get(mapperClass.getSimpleName()), "No fixture for " + mapperClass.getName());
+        }
+    }
+
+    @Test
+    public void testCanonicalFormMatchesGoldenFiles() throws Exception {
+        for (Map.Entry<String, Object> fixture : CanonicalFixtures.all().entrySet()) {
+            String canonical = XmlUtil.convertToXmlStringWithoutDeclaration(fixture.getValue());
+
+            assertEquals(golden(fixture.getKey() + ".xml"), canonical, fixture.getKey());
+        }
+    }
+
+    @Test
+    public void testSignedMessagesMatchGoldenFiles() throws Exception {
+        MessageUtil messageUtil = new MessageUtil(
+                dotenv.get("PRIVATE_KEYSTORE_PATH"),
+                dotenv.get("PUBLIC_KEYSTORE_PATH"),
+                dotenv.get("PRIVATE_KEYSTORE_PASSWORD"),
+                dotenv.get("PRIVATE_KEY_ALIAS"),
+                dotenv.get("PUBLIC_KEY_ALIAS"),
+                dotenv.get("PUBLIC_KEYSTORE_PASSWORD"),
+                dotenv.get("KEYSTORE_TYPE"),
+                dotenv.get("SIGNATURE_ALGORITHM"));
+
+        for (Map.Entry<String, Object> fixture : CanonicalFixtures.all().entrySet()) {
+            String canonical = XmlUtil.convertToXmlStringWithoutDeclaration(fixture.getValue());
+            String signed = messageUtil.sign(canonical, fixture.getValue().getClass());
+
+            assertEquals(golden(fixture.getKey() + ".signed.xml"), signed, fixture.getKey());
+            // The sign-once path must produce the same payload without the JAXB round trip
+            assertEquals(signed, messageUtil.signPayload(fixture.getValue()), fixture.getKey());
+        }
+    }
+
+    @Test
+    public void testEscapeCharacterMatchesReplaceAndRegex() {
+        String[] inputs = {
+                "<?xml version=\"1.0\"?>\n<Gepg>\n    <A>x &amp; y</A>\n</Gepg>\n",
+                "<A>&amp;lt;B&amp;gt;</A>",
+                "<A>&amp;amp;lt;</A>",
+                "<A>&lt;B&gt; \n &lt;C&gt;</A>",
+                "<A>  keep  inner  </A>  \t <B/>",
+                "<A>&apos;&quot;&Ouml;&unknown;&</A>",
+                "  \n  "
+        };
+
+        for (String input : inputs) {
+            assertEquals(replaceAndRegex(input), XmlUtil.escapeCharacter(input), input);
+        }
+    }
+
+    @Test
+    public void testCharacterReferencesMatchTransformerOutput() throws Exception {
+        // Kept out of the fixtures, the signed form of a CR depends on the JAXB runtime
+        GepgBillCanclReq request = new GepgBillCanclReq("SP023", "LHOTEL001", "a\r\nb\u0085c😀",
+                Arrays.asList("7885"));
+
+        assertEquals("<gepgBillCanclReq><SpCode>SP023</SpCode><SpSysId>LHOTEL001</SpSysId>"
+                + "<CanclReasn>a&#13;\nb&#133;c&#128512;</CanclReasn><BillId>7885</BillId></gepgBillCanclReq>",
+                XmlUtil.convertToXmlStringWithoutDeclaration(request));
+    }
+
+    @Test
+    public void testCharactersNotAllowedInXmlAreRejected() {
+        GepgBillCanclReq request = new GepgBillCanclReq("SP023", "LHOTEL001", "bell\u0007", Arrays.asList("7885"));
+
+        assertThrows(MarshalException.class, () -> XmlUtil.convertToXmlStringWithoutDeclaration(request));
+    }
+
+    private static String golden(String name) throws Exception {
+        try (InputStream in = CanonicalXmlWriterTest.class.getResourceAsStream("/golden/" + name)) {
+            assertNotNull(in, "Missing golden file " + name);
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    // The escaping previously used by XmlUtil and MessageUtil
+    private static String replaceAndRegex(String xmlString) {
+        return xmlString
+                .replace("&amp;", "&")
+                .replace("&apos;", "'")
+                .replace("&Ouml;", "Ö")
+                .replace("&quot;", "\"")
+                .replace("&lt;", "<")
+                .replace("&gt;", ">")
+                .replaceAll(">\\s+<", "><")
+                .trim();
+    }
+}
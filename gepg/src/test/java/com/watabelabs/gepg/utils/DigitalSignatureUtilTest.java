@@ -0,0 +1,118 @@
+package com.watabelabs.gepg.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Provider;
+import java.security.Signature;
+import java.security.SignatureException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+public class DigitalSignatureUtilTest {
+
+    private static KeyPair keyPair;
+
+    @BeforeAll
+    public static void generateKeys() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        keyPair = generator.generateKeyPair();
+    }
+
+    @Test
+    public void testPooledSignaturesMatchFreshOnesAcrossThreads() throws Exception {
+        for (String algorithm : new String[] { "SHA1withRSA", "SHA256withRSA" }) {
+            DigitalSignatureUtil signatureUtil = new DigitalSignatureUtil(algorithm, keyPair.getPrivate(),
+                    keyPair.getPublic());
+            ExecutorService executor = Executors.newFixedThreadPool(8);
+            try {
+                List<Future<?>> results = new ArrayList<>();
+                for (int i = 0; i < 64; i++) {
+                    String content = "<gepgBillSubReq><BillId>" + i + "</BillId></gepgBillSubReq>";
+                    results.add(executor.submit(() -> {
+                        String signature = signatureUtil.generateSignature(content);
+                        assertEquals(sign(algorithm, content), signature);
+                        assertTrue(signatureUtil.verifySignature(signature, content));
+                        assertFalse(signatureUtil.verifySignature(signature, content + " "));
+                        return null;
+                    }));
+                }
+                for (Future<?> result : results) {
+                    result.get();
+                }
+            } finally {
+                executor.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void testByteBufferContentIsSignedFromPositionToLimit() throws Exception {
+        DigitalSignatureUtil signatureUtil = new DigitalSignatureUtil("SHA256withRSA", keyPair.getPrivate(),
+                keyPair.getPublic());
+        byte[] bytes = "xx<Gepg>Ñ</Gepg>yy".getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes).position(2).limit(bytes.length - 2);
+
+        String signature = signatureUtil.generateSignature(buffer.slice());
+        assertEquals(signatureUtil.generateSignature(bytes, 2, bytes.length - 4), signature);
+        assertTrue(signatureUtil.verifySignature(signature, buffer));
+        assertEquals(buffer.limit(), buffer.position());
+        assertTrue(signatureUtil.verifySignature(signature, "<Gepg>Ñ</Gepg>"));
+    }
+
+    @Test
+    public void testVerifierStillWorksAfterAMalformedSignature() throws Exception {
+        DigitalSignatureUtil signatureUtil = new DigitalSignatureUtil("SHA1withRSA", keyPair.getPrivate(),
+                keyPair.getPublic());
+        String signature = signatureUtil.generateSignature("<Gepg/>");
+
+        assertThrows(SignatureException.class, () -> signatureUtil.verifySignature("AAAA", "<Gepg/>"));
+        assertTrue(signatureUtil.verifySignature(signature, "<Gepg/>"));
+    }
+
+    @Test
+    public void testProvidersProduceInterchangeableSignatures() throws Exception {
+        for (String algorithm : new String[] { "SHA1withRSA", "SHA256withRSA" }) {
+            List<Provider> supporting = SignatureProviders.supporting(algorithm);
+            // Installed providers such as PKCS#11 ones may only sign with their own keys
+            List<Provider> providers = Arrays.asList(SignatureProviders.resolve("SunRsaSign"),
+                    SignatureProviders.resolve(SignatureProviders.BOUNCY_CASTLE));
+            assertTrue(supporting.containsAll(providers), supporting.toString());
+
+            String expected = sign(algorithm, "<Gepg/>");
+            for (Provider provider : providers) {
+                DigitalSignatureUtil signatureUtil = new DigitalSignatureUtil(algorithm, provider,
+                        keyPair.getPrivate(), keyPair.getPublic());
+                assertEquals(expected, signatureUtil.generateSignature("<Gepg/>"), provider.getName());
+                assertTrue(signatureUtil.verifySignature(expected, "<Gepg/>"), provider.getName());
+                assertEquals(provider, signatureUtil.newVerifier().getProvider());
+            }
+        }
+        assertNull(SignatureProviders.resolve(null));
+        assertThrows(IllegalArgumentException.class, () -> SignatureProviders.resolve("NoSuchProvider"));
+    }
+
+    private static String sign(String algorithm, String content) throws Exception {
+        Signature signature = Signature.getInstance(algorithm);
+        signature.initSign(keyPair.getPrivate());
+        signature.update(content.getBytes(StandardCharsets.UTF_8));
+        return Base64.getEncoder().encodeToString(signature.sign());
+    }
+}
@@ -0,0 +1,76 @@
+package com.watabelabs.gepg.utils;
+
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.annotation.XmlRootElement;
+
+import org.junit.jupiter.api.Test;
+
+import com.watabelabs.gepg.mappers.bill.requests.GepgBillSubReq;
+
+public class JaxbContextRegistryTest {
+
+    @Test
+    public void testContextsAreCachedPerClass() {
+        assertSame(JaxbContextRegistry.getContext(GepgBillSubReq.class),
+                JaxbContextRegistry.getContext(GepgBillSubReq.class));
+        assertSame(JaxbContextRegistry.getEnvelopeContext(GepgBillSubReq.class),
+                JaxbContextRegistry.getEnvelopeContext(GepgBillSubReq.class));
+        assertNotSame(JaxbContextRegistry.getContext(GepgBillSubReq.class),
+                JaxbContextRegistry.getEnvelopeContext(GepgBillSubReq.class));
+    }
+
+    @Test
+    public void testReleasedMarshallersAreReusedAcrossThreads() throws Exception {
+        JAXBContext context = JaxbContextRegistry.getContext(GepgBillSubReq.class);
+        Marshaller marshaller = JaxbContextRegistry.borrowMarshaller(context);
+
+        assertNotSame(marshaller, JaxbContextRegistry.borrowMarshaller(context));
+
+        CompletableFuture.runAsync(() -> JaxbContextRegistry.release(context, marshaller)).get();
+
+        assertSame(marshaller, JaxbContextRegistry.borrowMarshaller(context));
+    }
+
+    @Test
+    public void testEveryRootElementIsAMapperClass() throws Exception {
+        Path mappers = Paths.get(GepgBillSubReq.class.getResource("/com/watabelabs/gepg/mappers").toURI());
+        List<Class<?>> registered = Arrays.asList(JaxbContextRegistry.MAPPER_CLASSES);
+
+        try (Stream<Path> files = Files.walk(mappers)) {
+            List<String> classNames = files.map(file -> mappers.relativize(file).toString())
+                    .filter(name -> name.endsWith(".class") && !name.contains("$"))
+                    .map(name -> "com.watabelabs.gepg.mappers." + name.substring(0, name.length() - ".class".length())
+                            .replace(mappers.getFileSystem().getSeparator(), "."))
+                    .collect(Collectors.toList());
+            for (String className : classNames) {
+                Class<?> mapperClass = Class.forName(className);
+                if (mapperClass.isAnnotationPresent(XmlRootElement.class)) {
+                    assertTrue(registered.contains(mapperClass), className + " is not in MAPPER_CLASSES");
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testWarmUpBuildsEveryMapperContext() {
+        JaxbContextRegistry.warmUp();
+
+        for (Class<?> mapperClass : JaxbContextRegistry.MAPPER_CLASSES) {
+            assertSame(JaxbContextRegistry.getContext(mapperClass), JaxbContextRegistry.getContext(mapperClass));
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.watabelabs.gepg.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+
+import javax.validation.ValidationException;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import io.github.cdimascio.dotenv.Dotenv;
+
+public class KeyStoreHolderTest {
+
+    // Load environment variables once
+    private static final Dotenv dotenv = Dotenv.load();
+
+    private static Path privateKeyCopy;
+
+    @BeforeAll
+    public static void setup() throws Exception {
+        // Work on a copy so the rotation test can touch the file
+        privateKeyCopy = Files.createTempFile("private-key", ".pfx");
+        Files.copy(Paths.get(dotenv.get("PRIVATE_KEYSTORE_PATH")), privateKeyCopy,
+                StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    @Test
+    public void testHolderIsSharedPerConfiguration() {
+        KeyStoreHolder first = holderFor(dotenv.get("PRIVATE_KEYSTORE_PATH"));
+        KeyStoreHolder second = holderFor(dotenv.get("PRIVATE_KEYSTORE_PATH"));
+
+        assertSame(first, second);
+        assertNotNull(first.getPrivateKey());
+        assertNotNull(first.getPublicKey());
+        assertSame(first.getSignatureUtil(), second.getSignatureUtil());
+    }
+
+    @Test
+    public void testPublicKeyIsSharedBetweenHoldersWithDifferentPrivateKeys() {
+        KeyStoreHolder first = holderFor(dotenv.get("PRIVATE_KEYSTORE_PATH"));
+        KeyStoreHolder second = holderFor(privateKeyCopy.toString());
+
+        assertNotSame(first, second);
+        assertSame(first.getPublicKey(), second.getPublicKey());
+    }
+
+    @Test
+    public void testWrongPublicKeystorePasswordIsNotCoveredBySharedKey() {
+        assertNotNull(holderFor(dotenv.get("PRIVATE_KEYSTORE_PATH")).getPublicKey());
+
+        KeyStoreHolder misconfigured = KeyStoreHolder.getInstance(
+                dotenv.get("PRIVATE_KEYSTORE_PATH"),
+                dotenv.get("PUBLIC_KEYSTORE_PATH"),
+                dotenv.get("PRIVATE_KEYSTORE_PASSWORD"),
+                dotenv.get("PRIVATE_KEY_ALIAS"),
+                dotenv.get("PUBLIC_KEY_ALIAS"),
+                "wrong-password",
+                dotenv.get("KEYSTORE_TYPE"),
+                dotenv.get("SIGNATURE_ALGORITHM"));
+
+        assertThrows(ValidationException.class, misconfigured::getPublicKey);
+    }
+
+    @Test
+    public void testKeysAreSwappedWhenKeystoreChanges() throws Exception {
+        KeyStoreHolder holder = holderFor(privateKeyCopy.toString());
+
+        String signature = holder.getSignatureUtil().generateSignature("<gepgBillSubReq/>");
+        assertEquals(1, holder.getGeneration());
+        assertFalse(holder.reloadIfChanged());
+
+        // Simulate a rotation by changing the file's modification time
+        assertTrue(privateKeyCopy.toFile().setLastModified(System.currentTimeMillis() - 60_000));
+
+        assertTrue(holder.reloadIfChanged());
+        assertEquals(2, holder.getGeneration());
+        assertTrue(holder.getSignatureUtil().verifySignature(signature, "<gepgBillSubReq/>"));
+    }
+
+    @Test
+    public void testReleasedHolderIsNoLongerShared() throws Exception {
+        Path privateKey = Files.createTempFile("private-key", ".pfx");
+        Files.copy(Paths.get(dotenv.get("PRIVATE_KEYSTORE_PATH")), privateKey, StandardCopyOption.REPLACE_EXISTING);
+        KeyStoreHolder holder = holderFor(privateKey.toString());
+        assertNotNull(holder.getPrivateKey());
+
+        assertTrue(release(privateKey.toString()));
+        assertFalse(release(privateKey.toString()));
+        assertNotSame(holder, holderFor(privateKey.toString()));
+        assertTrue(release(privateKey.toString()));
+    }
+
+    private static boolean release(String privateKeyPath) {
+        return KeyStoreHolder.release(
+                privateKeyPath,
+                dotenv.get("PUBLIC_KEYSTORE_PATH"),
+                dotenv.get("PRIVATE_KEYSTORE_PASSWORD"),
+                dotenv.get("PRIVATE_KEY_ALIAS"),
+                dotenv.get("PUBLIC_KEY_ALIAS"),
+                dotenv.get("PUBLIC_KEYSTORE_PASSWORD"),
+                dotenv.get("KEYSTORE_TYPE"),
+                dotenv.get("SIGNATURE_ALGORITHM"),
+                null);
+    }
+
+    private static KeyStoreHolder holderFor(String privateKeyPath) {
+        return KeyStoreHolder.getInstance(
+                privateKeyPath,
+                dotenv.get("PUBLIC_KEYSTORE_PATH"),
+                dotenv.get("PRIVATE_KEYSTORE_PASSWORD"),
+                dotenv.get("PRIVATE_KEY_ALIAS"),
+                dotenv.get("PUBLIC_KEY_ALIAS"),
+                dotenv.get("PUBLIC_KEYSTORE_PASSWORD"),
+                dotenv.get("KEYSTORE_TYPE"),
+                dotenv.get("SIGNATURE_ALGORITHM"));
+    }
+}
@@ -1,11 +1,13 @@
 package com.watabelabs.gepg.utils;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
@@ -161,6 +163,70 @@ public class MessageUtilTest {
         assertTrue(signedMessage.contains("<gepgSignature>"));
     }
 
+    @Test
+    public void testVerifyAndUnwrapChecksTheReceivedBytes() throws Exception {
+        String payload = gepgApiClient.generatePayload(createBillSubReq());
+
+        // GePG may format the envelope, the signature only covers the content element
+        String formatted = payload
+                .replace("<Gepg>", "\n<Gepg>\n    ")
+                .replace("<gepgSignature>", "\n    <gepgSignature>")
+                .replace("</Gepg>", "\n</Gepg>\n");
+
+        GepgBillSubReq fromString = gepgApiClient.verifyAndUnwrap(formatted, GepgBillSubReq.class);
+        GepgBillSubReq fromBytes = gepgApiClient.verifyAndUnwrap(formatted.getBytes(StandardCharsets.UTF_8),
+                GepgBillSubReq.class);
+
+        assertEquals("11ae8614-ceda-4b32-aa83-2dc651ed4bcd", fromString.getBillTrxInf().getBillId());
+        assertEquals("11ae8614-ceda-4b32-aa83-2dc651ed4bcd", fromBytes.getBillTrxInf().getBillId());
+        assertEquals(2, fromBytes.getBillTrxInf().getBillItems().size());
+    }
+
+    @Test
+    public void testVerifyAndUnwrapRejectsTamperedContent() throws Exception {
+        String payload = gepgApiClient.generatePayload(createBillSubReq());
+        String tampered = payload.replace("<BillAmt>7885.0</BillAmt>", "<BillAmt>1.0</BillAmt>");
+
+        assertThrows(ValidationException.class,
+                () -> gepgApiClient.verifyAndUnwrap(tampered, GepgBillSubReq.class));
+        assertThrows(ValidationException.class,
+                () -> gepgApiClient.verifyAndUnwrap(tampered.getBytes(StandardCharsets.UTF_8), GepgBillSubReq.class));
+        assertFalse(gepgApiClient.verifyMessage(tampered, GepgBillSubReq.class));
+    }
+
+    @Test
+    public void testVerifyAcceptsPayloadsWhoseContentDiffersFromTheSignedForm() throws Exception {
+        // Empty strings are written as <Tag></Tag> in the envelope but signed as <Tag/>
+        GepgBillSubReq billSubReq = createBillSubReq();
+        billSubReq.getBillTrxInf().setPyrEmail("");
+        String payload = gepgApiClient.generatePayload(billSubReq);
+
+        assertTrue(payload.contains("<PyrEmail></PyrEmail>"));
+        assertTrue(gepgApiClient.verifyMessage(payload, GepgBillSubReq.class));
+        assertEquals("", gepgApiClient.verifyAndUnwrap(payload, GepgBillSubReq.class).getBillTrxInf().getPyrEmail());
+    }
+
+    @Test
+    public void testVerifyRejectsPayloadWithoutSignature() {
+        assertThrows(ValidationException.class, () -> gepgApiClient.verifyAndUnwrap(
+                "<Gepg><gepgBillSubReq></gepgBillSubReq></Gepg>", GepgBillSubReq.class));
+    }
+
+    @Test
+    public void testSignedPayloadBytesAreTheUtf8OfTheSignedString() throws Exception {
+        GepgBillSubReq billSubReq = createBillSubReq();
+        billSubReq.getBillTrxInf().setPyrName("Zuhura Ñandú \u2013 \uD83D\uDE00");
+
+        SignedPayload payload = gepgApiClient.generateSignedPayload(billSubReq);
+        String signed = gepgApiClient.generatePayload(billSubReq);
+
+        assertTrue(Arrays.equals(signed.getBytes(StandardCharsets.UTF_8), payload.getBytes()));
+        assertEquals(signed, payload.toString());
+        assertTrue(signed.contains("<gepgSignature>" + payload.getSignature() + "</gepgSignature>"));
+        assertEquals("Zuhura Ñandú \u2013 \uD83D\uDE00",
+                gepgApiClient.verifyAndUnwrap(payload.getBytes(), GepgBillSubReq.class).getBillTrxInf().getPyrName());
+    }
+
     private static GepgBillSubReq createBillSubReq() {
 
         GepgBillHdr billHdr = new GepgBillHdr("SP023", true);
@@ -0,0 +1,84 @@
+package com.watabelabs.gepg.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Arrays;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.watabelabs.gepg.mappers.bill.acks.GepgBillSubReqAck;
+import com.watabelabs.gepg.mappers.bill.requests.GepgBillCanclReq;
+import com.watabelabs.gepg.mappers.bill.requests.GepgBillHdr;
+import com.watabelabs.gepg.mappers.bill.requests.GepgBillSubReq;
+import com.watabelabs.gepg.mappers.bill.requests.GepgBillTrxInf;
+import com.watabelabs.gepg.mappers.payment.requests.GepgPmtSpInfo;
+import com.watabelabs.gepg.mappers.payment.requests.GepgPymtTrxInf;
+
+public class PayloadLoggerTest {
+
+    @AfterEach
+    public void resetSampleRate() {
+        PayloadLogger.setSampleRate(PayloadLogger.DEFAULT_SAMPLE_RATE);
+    }
+
+    @Test
+    public void testSummaryFieldsAreReadFromTheContent() {
+        GepgBillTrxInf billTrxInf = new GepgBillTrxInf();
+        billTrxInf.setBillId("BILL-1");
+        GepgBillSubReq bill = new GepgBillSubReq(new GepgBillHdr(), billTrxInf);
+
+        GepgPymtTrxInf pymtTrxInf = new GepgPymtTrxInf();
+        pymtTrxInf.setBillId("BILL-2");
+        pymtTrxInf.setPayCtrNum("991234567890");
+        GepgPmtSpInfo payment = new GepgPmtSpInfo(pymtTrxInf);
+
+        GepgBillCanclReq cancellation = new GepgBillCanclReq("SP001", "SYS001", "Duplicate",
+                Arrays.asList("BILL-3", "BILL-4"));
+
+        assertEquals("BILL-1", PayloadLogger.billId(bill));
+        assertNull(PayloadLogger.controlNumber(bill));
+        assertEquals("BILL-2", PayloadLogger.billId(payment));
+        assertEquals("991234567890", PayloadLogger.controlNumber(payment));
+        assertEquals("BILL-3", PayloadLogger.billId(cancellation));
+        assertNull(PayloadLogger.billId(new GepgBillSubReqAck(7101)));
+        assertNull(PayloadLogger.billId(new GepgBillSubReq()));
+    }
+
+    @Test
+    public void testOneInEverySampleRatePayloadsIsSampled() {
+        PayloadLogger.setSampleRate(4);
+        int sampled = 0;
+        for (int i = 0; i < 100; i++) {
+            if (PayloadLogger.isSampled()) {
+                sampled++;
+            }
+        }
+        assertEquals(25, sampled);
+
+        PayloadLogger.setSampleRate(0);
+        for (int i = 0; i < 10; i++) {
+            assertFalse(PayloadLogger.isSampled());
+        }
+    }
+
+    @Test
+    public void testNegativeSampleRateIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> PayloadLogger.setSampleRate(-1));
+        assertEquals(PayloadLogger.DEFAULT_SAMPLE_RATE, PayloadLogger.getSampleRate());
+    }
+
+    @Test
+    public void testUnreadableResponseIsClipped() {
+        char[] body = new char[PayloadLogger.MAX_UNREADABLE_CHARS + 10];
+        Arrays.fill(body, 'x');
+        String response = new String(body);
+
+        assertEquals("<html>", PayloadLogger.clip("<html>"));
+        assertNull(PayloadLogger.clip(null));
+        assertEquals(PayloadLogger.MAX_UNREADABLE_CHARS + 3, PayloadLogger.clip(response).length());
+    }
+}
@@ -0,0 +1,92 @@
+package com.watabelabs.gepg.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.watabelabs.gepg.mappers.bill.acks.GepgBillSubReqAck;
+import com.watabelabs.gepg.mappers.payment.acks.GepgPmtSpInfoAck;
+import com.watabelabs.gepg.mappers.reconciliation.acks.GepgSpReconcRespAck;
+
+import io.github.cdimascio.dotenv.Dotenv;
+
+public class SignedAckCacheTest {
+
+    private static final Dotenv dotenv = Dotenv.load();
+
+    private static MessageUtil messageUtil;
+    private static Path privateKeyCopy;
+
+    @BeforeAll
+    public static void setup() throws Exception {
+        // A key file of its own, so rotating it does not affect other tests
+        privateKeyCopy = Files.createTempFile("ack-private-key", ".pfx");
+        Files.copy(Paths.get(dotenv.get("PRIVATE_KEYSTORE_PATH")), privateKeyCopy,
+                StandardCopyOption.REPLACE_EXISTING);
+        messageUtil = new MessageUtil(
+                privateKeyCopy.toString(),
+                dotenv.get("PUBLIC_KEYSTORE_PATH"),
+                dotenv.get("PRIVATE_KEYSTORE_PASSWORD"),
+                dotenv.get("PRIVATE_KEY_ALIAS"),
+                dotenv.get("PUBLIC_KEY_ALIAS"),
+                dotenv.get("PUBLIC_KEYSTORE_PASSWORD"),
+                dotenv.get("KEYSTORE_TYPE"),
+                dotenv.get("SIGNATURE_ALGORITHM"));
+    }
+
+    @Test
+    public void testAckIsSignedOnceAndMatchesAFreshSignature() throws Exception {
+        SignedAckCache cache = new SignedAckCache(() -> messageUtil);
+
+        String first = cache.get(GepgPmtSpInfoAck.class, 7101);
+        String second = cache.get(GepgPmtSpInfoAck.class, 7101);
+
+        assertSame(first, second);
+        assertEquals(messageUtil.signPayload(new GepgPmtSpInfoAck(7101)), first);
+        assertTrue(messageUtil.verifyPayload(first, GepgPmtSpInfoAck.class).isValid());
+    }
+
+    @Test
+    public void testEachStatusCodeIsSignedSeparately() throws Exception {
+        SignedAckCache cache = new SignedAckCache(() -> messageUtil);
+
+        String success = cache.get(GepgSpReconcRespAck.class, 7101);
+        String failure = cache.get(GepgSpReconcRespAck.class, 7201);
+
+        assertEquals(7101, messageUtil.verifyPayload(success, GepgSpReconcRespAck.class).getContent()
+                .getReconcStsCode());
+        assertEquals(7201, messageUtil.verifyPayload(failure, GepgSpReconcRespAck.class).getContent()
+                .getReconcStsCode());
+    }
+
+    @Test
+    public void testAcksAreSignedAgainAfterKeyRotation() throws Exception {
+        SignedAckCache cache = new SignedAckCache(() -> messageUtil);
+        String before = cache.get(GepgPmtSpInfoAck.class, 7101);
+
+        // Simulate a rotation by changing the file's modification time
+        assertTrue(privateKeyCopy.toFile().setLastModified(System.currentTimeMillis() - 120_000));
+        assertTrue(messageUtil.getKeyStoreHolder().reloadIfChanged());
+
+        String after = cache.get(GepgPmtSpInfoAck.class, 7101);
+        assertNotSame(before, after);
+        assertSame(after, cache.get(GepgPmtSpInfoAck.class, 7101));
+    }
+
+    @Test
+    public void testUnknownAckClassIsRejected() {
+        SignedAckCache cache = new SignedAckCache(() -> messageUtil);
+
+        assertThrows(IllegalArgumentException.class, () -> cache.get(GepgBillSubReqAck.class, 7101));
+    }
+}
@@ -0,0 +1,75 @@
+package com.watabelabs.gepg.utils;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.util.Base64;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+public class SignedContentInputStreamTest {
+
+    private static KeyPair keyPair;
+
+    @BeforeAll
+    public static void setup() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        keyPair = generator.generateKeyPair();
+    }
+
+    @Test
+    public void testContentEndsAtTheLastSignatureTagLikeEnvelopeRange() throws Exception {
+        String payload = "<Gepg>\n  <a>x</a> <gepgSignature>early</gepgSignature><b>y</b>\n"
+                + "  <gepgSignature>SIGNATURE</gepgSignature>\n</Gepg>";
+        EnvelopeRange range = EnvelopeRange.locate(payload);
+        String content = payload.substring(range.getContentStart(), range.getContentEnd());
+        assertTrue(content.endsWith("<b>y</b>"), content);
+        String signature = sign(content);
+
+        assertTrue(readAndVerify(payload, signature, false));
+        assertTrue(readAndVerify(payload, signature, true));
+    }
+
+    @Test
+    public void testContentEndingAtAnEarlierTagFailsVerification() throws Exception {
+        String payload = "<Gepg><a>x</a><gepgSignature>early</gepgSignature><b>y</b>"
+                + "<gepgSignature>SIGNATURE</gepgSignature></Gepg>";
+
+        assertFalse(readAndVerify(payload, sign("<a>x</a>"), false));
+    }
+
+    private static boolean readAndVerify(String payload, String signature, boolean byteAtATime) throws Exception {
+        Signature verifier = Signature.getInstance("SHA256withRSA");
+        verifier.initVerify(keyPair.getPublic());
+        InputStream bytes = new ByteArrayInputStream(payload.getBytes(StandardCharsets.UTF_8));
+        try (SignedContentInputStream in = new SignedContentInputStream(bytes, verifier)) {
+            if (byteAtATime) {
+                while (in.read() >= 0) {
+                    // read to the end
+                }
+            } else {
+                byte[] buffer = new byte[7];
+                while (in.read(buffer, 0, buffer.length) >= 0) {
+                    // read to the end
+                }
+            }
+            assertTrue(in.isContentComplete());
+            return in.verify(signature);
+        }
+    }
+
+    private static String sign(String content) throws Exception {
+        Signature signer = Signature.getInstance("SHA256withRSA");
+        signer.initSign(keyPair.getPrivate());
+        signer.update(content.getBytes(StandardCharsets.UTF_8));
+        return Base64.getEncoder().encodeToString(signer.sign());
+    }
+}
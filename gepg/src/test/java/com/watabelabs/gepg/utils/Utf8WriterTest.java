@@ -0,0 +1,55 @@
+package com.watabelabs.gepg.utils;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+public class Utf8WriterTest {
+
+    private static final char[] ALPHABET = { 'a', '<', '&', 'é', 'Ñ', '–', '€', '�',
+            '\uD83D', '\uDE00', '\uD800', '\uDFFF' };
+
+    @Test
+    public void testBytesMatchStringGetBytesWhereverWritesAreSplit() {
+        Random random = new Random(42);
+        for (int round = 0; round < 500; round++) {
+            char[] chars = new char[random.nextInt(40)];
+            for (int i = 0; i < chars.length; i++) {
+                chars[i] = ALPHABET[random.nextInt(ALPHABET.length)];
+            }
+            String value = new String(chars);
+            byte[] expected = value.getBytes(StandardCharsets.UTF_8);
+
+            // Surrogate pairs may be split across writes
+            Utf8Writer writer = new Utf8Writer(4);
+            int position = 0;
+            while (position < chars.length) {
+                int length = Math.min(chars.length - position, 1 + random.nextInt(5));
+                if (random.nextBoolean()) {
+                    writer.write(chars, position, length);
+                } else {
+                    writer.write(value, position, length);
+                }
+                position += length;
+            }
+
+            assertArrayEquals(expected, writer.toByteArray());
+            assertEquals(expected.length, Utf8Writer.encodedLength(value));
+        }
+    }
+
+    @Test
+    public void testExactlySizedBufferIsReturnedWithoutCopying() throws Exception {
+        String value = "<PyrName>Ñandú</PyrName>";
+        Utf8Writer writer = new Utf8Writer(Utf8Writer.encodedLength(value));
+        writer.write(value);
+
+        byte[] bytes = writer.toByteArray();
+        assertEquals(bytes, writer.buffer());
+        assertEquals(bytes.length, writer.size());
+    }
+}
@@ -0,0 +1,50 @@
+package com.watabelabs.gepg.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+public class VirtualThreadsTest {
+
+    private static final boolean JDK_21 = Runtime.version().feature() >= 21;
+
+    @Test
+    public void testAvailabilityFollowsTheRuntime() {
+        assertEquals(JDK_21, VirtualThreads.isAvailable());
+    }
+
+    @Test
+    public void testExecutorRunsTasksOnNamedVirtualThreads() throws Exception {
+        if (!JDK_21) {
+            assertThrows(UnsupportedOperationException.class, () -> VirtualThreads.newExecutor("gepg-test-"));
+            return;
+        }
+        ExecutorService executor = VirtualThreads.newExecutor("gepg-test-");
+        try {
+            String name = CompletableFuture.supplyAsync(() -> Thread.currentThread().toString(), executor)
+                    .get(5, TimeUnit.SECONDS);
+
+            // VirtualThread#toString starts with "VirtualThread[#id,name]"
+            assertTrue(name.startsWith("VirtualThread"), name);
+            assertTrue(name.contains("gepg-test-0"), name);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testBlockingExecutorFallsBackToTheCommonPool() {
+        if (!JDK_21) {
+            assertSame(ForkJoinPool.commonPool(), VirtualThreads.blockingExecutor());
+        }
+        assertSame(VirtualThreads.blockingExecutor(), VirtualThreads.blockingExecutor());
+    }
+}